@@ -0,0 +1,166 @@
+package sprax.counters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import sprax.sprout.Sx;
+
+/**
+ * StringCounter that any number of producer threads may add to at once.
+ * Counts are LongAdders in a ConcurrentHashMap, which locks only one bin at a
+ * time and only to insert a new string; adding to an existing count takes no
+ * lock, and the adder spreads contended increments over cells.
+ *
+ * The top N list is refreshed by epochs instead of being maintained on every
+ * add, since keeping a shared heap or sorted set up to date would serialize the
+ * producers.  The total of all counts grows with every add, so it serves as the
+ * epoch: a call to descendingMaximalStringCounts returns the cached list if the
+ * total has not changed since it was made, and otherwise scans all the counts
+ * into a bounded min-heap of the top N and publishes the sorted result.  Readers
+ * never block writers or each other.  While adds are still going on, the list is
+ * a recent but not atomic snapshot; once they stop, it is exact.
+ *
+ * Expected complexity for N adds, U unique strings, maximal count set size M, and
+ * Q queries: O(1) to add, contended or not. O(U lg M) for a query after any adds,
+ * O(1) for a query with no adds since the last one.
+ *
+ * @author Sprax Lines
+ */
+public class ConcurrentStringCounter implements StringCounter
+{
+    final int                                  mMaximalCountSetSize;
+    final ConcurrentHashMap<String, LongAdder> mAllStringCounts;
+    final LongAdder                            mTotalOfAllCounts;
+    final AtomicReference<TopCounts>           mTopCounts;
+
+    /** Immutable top N list together with the epoch (total of all counts) it was made in */
+    static final class TopCounts
+    {
+        final long              mEpoch;
+        final List<StringCount> mDescending;
+
+        TopCounts(long epoch, List<StringCount> descending)
+        {
+            mEpoch = epoch;
+            mDescending = Collections.unmodifiableList(descending);
+        }
+    }
+
+    ConcurrentStringCounter(int topNum)
+    {
+        assert (topNum > 0);
+        mMaximalCountSetSize = topNum;
+        mAllStringCounts = new ConcurrentHashMap<String, LongAdder>();
+        mTotalOfAllCounts = new LongAdder();
+        mTopCounts = new AtomicReference<TopCounts>(new TopCounts(0, paddedDescending(new ArrayList<StringCount>())));
+    }
+
+    @Override
+    public int uniqueStringCount()
+    {
+        return mAllStringCounts.size();
+    }
+
+    @Override
+    public int totalOfAllCounts()
+    {
+        return (int) mTotalOfAllCounts.sum();
+    }
+
+    @Override
+    public int maximalCountSetSize()
+    {
+        return mMaximalCountSetSize;
+    }
+
+    @Override
+    public boolean add(String string)
+    {
+        return add(string, 1);
+    }
+
+    /** Thread-safe; returns true only to the one thread that first added this string */
+    @Override
+    public boolean add(String string, int increment)
+    {
+        assert (increment > 0);
+        boolean isStringNew = false;
+        LongAdder count = mAllStringCounts.get(string);
+        if (count == null)
+        {
+            LongAdder newCount = new LongAdder();
+            count = mAllStringCounts.putIfAbsent(string, newCount);
+            if (count == null)
+            {
+                count = newCount;
+                isStringNew = true;
+            }
+        }
+        count.add(increment);
+        mTotalOfAllCounts.add(increment);
+        return isStringNew;
+    }
+
+    /** Sorts the list in descending order and pads it with empty counts to the maximal set size */
+    private List<StringCount> paddedDescending(List<StringCount> counts)
+    {
+        counts.sort(StringCount.sDescendingStringCountsComp);
+        while (counts.size() < mMaximalCountSetSize)
+            counts.add(new StringCount("", 0));
+        return counts;
+    }
+
+    /** Scans all the counts for the top N, keeping the least of them at the head of a min-heap */
+    private List<StringCount> scanTopCounts()
+    {
+        PriorityQueue<StringCount> minHeap = new PriorityQueue<StringCount>(mMaximalCountSetSize + 1
+                , StringCount.sAscendingStringCountsComp);
+        for (Map.Entry<String, LongAdder> entry : mAllStringCounts.entrySet())
+        {
+            StringCount sc = new StringCount(entry.getKey(), (int) entry.getValue().sum());
+            if (minHeap.size() < mMaximalCountSetSize)
+            {
+                minHeap.add(sc);
+            }
+            else if (sc.compareTo(minHeap.peek()) > 0)
+            {
+                minHeap.poll();
+                minHeap.add(sc);
+            }
+        }
+        return paddedDescending(new ArrayList<StringCount>(minHeap));
+    }
+
+    @Override
+    public final List<StringCount> descendingMaximalStringCounts()
+    {
+        long epoch = mTotalOfAllCounts.sum();
+        TopCounts cached = mTopCounts.get();
+        if (cached.mEpoch == epoch)
+            return cached.mDescending;
+
+        TopCounts fresh = new TopCounts(epoch, scanTopCounts());
+        // Publish unless another reader has already published a later epoch
+        while (cached.mEpoch < epoch && !mTopCounts.compareAndSet(cached, fresh))
+            cached = mTopCounts.get();
+        return fresh.mDescending;
+    }
+
+    public static void unit_test()
+    {
+        Sx.puts(ConcurrentStringCounter.class.getName() + ".unit_test");
+        StringCounter counter = new ConcurrentStringCounter(7);
+        StringCounterTest.test_oneCounter(counter);
+    }
+
+    public static void main(String[] args)
+    {
+        unit_test();
+    }
+}
@@ -0,0 +1,519 @@
+package sprax.counters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import sprax.sprout.Sx;
+
+/**
+ * StringCounter for more unique strings than fit in the heap.  Counts are kept
+ * in a HashMap only until its estimated size reaches a memory budget; then its
+ * strings are sorted and spilled, with their counts, to a run file, and the map
+ * is cleared.  Getting the top counts merges all the runs, k ways at a time,
+ * into one sorted count file, summing the counts of equal strings, and finds the
+ * top N in the same pass with a bounded min-heap.  The sorted count file then
+ * serves as a run for any later adds and merges.  The merge is done the way
+ * Merges.mergeArraysPq does it: a PriorityQueue of run readers by head string,
+ * taking from the least one for as long as its head does not exceed the next.
+ *
+ * Each run is a file of (writeUTF string, writeLong count) records in string
+ * order, so a string may be at most 65535 bytes in modified UTF-8.  Run files are
+ * made in the temp directory and deleted when merged or on close.
+ *
+ * Counts are kept as longs, in memory, in the runs, and in the merge, since a
+ * counter this size may well count more than Integer.MAX_VALUE strings.  The
+ * StringCounter interface has only ints, so totalOfAllCounts and the counts in
+ * the top StringCounts stop at Integer.MAX_VALUE; totalOfAllCountsLong and the
+ * sorted count file have the exact counts.
+ *
+ * Expected complexity for N adds, U unique strings, R spilled runs, and maximal count set size M:
+ * O(1) to add a string, plus O(B lg B) to sort and write the B strings in the map when it spills.
+ * O(U lg R + U lg M) to merge the runs and get the top M once, in about log_F R passes with fan-in F,
+ * but the result is cached until the next add.
+ * Heap memory is about the budget, regardless of U; disk space is O(U) per run.
+ *
+ * add returns true if the string is new to the in-memory map, which it may be even if
+ * it was counted in a spilled run.  uniqueStringCount merges the runs to find out.
+ *
+ * @author Sprax Lines
+ */
+public class ExternalMergeCounter implements StringCounter, AutoCloseable
+{
+    static final int  ENTRY_OVERHEAD_BYTES = 104;  // HashMap node and slot, String, byte array, and long[1] headers
+    static final int  MAX_MERGE_FAN_IN = 64;      // most runs open at once, by default
+    static final int  IO_BUFFER_BYTES = 1 << 16;
+
+    final int                  mMaximalCountSetSize;
+    final long                 mMemoryBudgetBytes;
+    final Path                 mTempDir;
+    final int                  mMaxMergeFanIn;
+    final HashMap<String, long[]> mBufferCounts;
+    final List<Path>           mRuns;
+    long                       mBufferBytes;         // estimated heap size of mBufferCounts
+    long                       mTotalOfAllCounts;
+    int                        mUniqueStringCount;
+    int                        mNumRunsSpilled;
+    int                        mNumMerges;           // merges of runs into one, in all passes
+    Path                       mSortedCountsFile;    // result of the last merge, or null
+    List<StringCount>          mCachedMaxStringCounts;  // null when not up to date
+
+    ExternalMergeCounter(int topNum, long memoryBudgetBytes, Path tempDir, int maxMergeFanIn)
+    {
+        assert (topNum > 0 && memoryBudgetBytes > 0 && maxMergeFanIn > 1);
+        mMaximalCountSetSize = topNum;
+        mMemoryBudgetBytes = memoryBudgetBytes;
+        mTempDir = tempDir;
+        mMaxMergeFanIn = maxMergeFanIn;
+        mBufferCounts = new HashMap<String, long[]>();
+        mRuns = new ArrayList<Path>();
+    }
+
+    ExternalMergeCounter(int topNum, long memoryBudgetBytes, Path tempDir)
+    {
+        this(topNum, memoryBudgetBytes, tempDir, MAX_MERGE_FAN_IN);
+    }
+
+    /** Budgets a quarter of the maximum heap, and spills to the default temp directory */
+    ExternalMergeCounter(int topNum)
+    {
+        this(topNum, Runtime.getRuntime().maxMemory() / 4, Paths.get(System.getProperty("java.io.tmpdir")));
+    }
+
+    @Override
+    public int uniqueStringCount()
+    {
+        descendingMaximalStringCounts();
+        return mUniqueStringCount;
+    }
+
+    /** @return the total of all counts, or Integer.MAX_VALUE if it is more than that */
+    @Override
+    public int totalOfAllCounts()
+    {
+        return saturatedInt(mTotalOfAllCounts);
+    }
+
+    public long totalOfAllCountsLong()
+    {
+        return mTotalOfAllCounts;
+    }
+
+    static int saturatedInt(long count)
+    {
+        return (int) Math.min(count, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int maximalCountSetSize()
+    {
+        return mMaximalCountSetSize;
+    }
+
+    /** @return the number of runs spilled so far because the map reached the memory budget */
+    public int numRunsSpilled()
+    {
+        return mNumRunsSpilled;
+    }
+
+    /**
+     * @return the file of all strings in order with their counts, as records of
+     *         (writeUTF string, writeLong count), as of the last merge
+     */
+    public Path sortedCountsFile()
+    {
+        descendingMaximalStringCounts();
+        return mSortedCountsFile;
+    }
+
+    @Override
+    public boolean add(String string)
+    {
+        return add(string, 1);
+    }
+
+    @Override
+    public boolean add(String string, int increment)
+    {
+        assert (increment > 0);
+        mTotalOfAllCounts += increment;
+        mCachedMaxStringCounts = null;
+        long count[] = mBufferCounts.get(string);
+        if (count != null)
+        {
+            count[0] += increment;
+            return false;
+        }
+        mBufferCounts.put(string, new long[] { increment });
+        mBufferBytes += ENTRY_OVERHEAD_BYTES + 2 * string.length();
+        if (mBufferBytes >= mMemoryBudgetBytes)
+        {
+            spillBuffer();
+            mNumRunsSpilled++;
+        }
+        return true;
+    }
+
+    /** Writes the in-memory counts to a new run file in string order, and clears them */
+    void spillBuffer()
+    {
+        if (mBufferCounts.isEmpty())
+            return;
+        String strings[] = mBufferCounts.keySet().toArray(new String[mBufferCounts.size()]);
+        Arrays.sort(strings);
+        try
+        {
+            Path run = Files.createTempFile(mTempDir, "counts", ".run");
+            try (DataOutputStream out = newRunWriter(run))
+            {
+                for (String string : strings)
+                {
+                    out.writeUTF(string);
+                    out.writeLong(mBufferCounts.get(string)[0]);
+                }
+            }
+            mRuns.add(run);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("ExternalMergeCounter: cannot spill counts to " + mTempDir, e);
+        }
+        mBufferCounts.clear();
+        mBufferBytes = 0;
+    }
+
+    static DataOutputStream newRunWriter(Path run) throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), IO_BUFFER_BYTES));
+    }
+
+    /** Reads the records of one run in order, keeping the current one as its head */
+    static final class RunReader implements Comparable<RunReader>, AutoCloseable
+    {
+        final DataInputStream mIn;
+        String                mString;
+        long                  mCount;
+
+        RunReader(Path run) throws IOException
+        {
+            mIn = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), IO_BUFFER_BYTES));
+        }
+
+        /** Reads the next record into the head; returns false at the end of the run */
+        boolean advance() throws IOException
+        {
+            try
+            {
+                mString = mIn.readUTF();
+            }
+            catch (EOFException e)
+            {
+                mString = null;
+                return false;
+            }
+            mCount = mIn.readLong();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunReader that)
+        {
+            return mString.compareTo(that.mString);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            mIn.close();
+        }
+    }
+
+    /** String and long count, for the min-heap of top counts, ordered like StringCount */
+    static final class LongStringCount implements Comparable<LongStringCount>
+    {
+        final String mString;
+        final long   mCount;
+
+        LongStringCount(String string, long count)
+        {
+            mString = string;
+            mCount = count;
+        }
+
+        static int compare(String stringA, long countA, String stringB, long countB)
+        {
+            int compCounts = Long.compare(countA, countB);
+            return compCounts != 0 ? compCounts : stringA.compareTo(stringB);
+        }
+
+        @Override
+        public int compareTo(LongStringCount that)
+        {
+            return compare(mString, mCount, that.mString, that.mCount);
+        }
+    }
+
+    /** Writes merged counts, and keeps the top counts in a bounded min-heap if asked to */
+    final class MergedCountWriter implements AutoCloseable
+    {
+        final DataOutputStream     mOut;
+        final PriorityQueue<LongStringCount> mMinHeap;
+        int                        mNumStrings;
+
+        MergedCountWriter(Path output, boolean findTops) throws IOException
+        {
+            mOut = newRunWriter(output);
+            mMinHeap = findTops ? new PriorityQueue<LongStringCount>(mMaximalCountSetSize + 1) : null;
+        }
+
+        void write(String string, long count) throws IOException
+        {
+            mOut.writeUTF(string);
+            mOut.writeLong(count);
+            mNumStrings++;
+            if (mMinHeap == null)
+                return;
+            if (mMinHeap.size() < mMaximalCountSetSize)
+                mMinHeap.add(new LongStringCount(string, count));
+            else if (LongStringCount.compare(string, count, mMinHeap.peek().mString, mMinHeap.peek().mCount) > 0)
+            {
+                mMinHeap.poll();
+                mMinHeap.add(new LongStringCount(string, count));
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            mOut.close();
+        }
+    }
+
+    /** Merges the runs into the writer, summing the counts of equal strings */
+    static void mergeRuns(List<Path> runs, MergedCountWriter writer) throws IOException
+    {
+        List<RunReader> opened = new ArrayList<RunReader>(runs.size());
+        try
+        {
+            PriorityQueue<RunReader> readers = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+            for (Path run : runs)
+            {
+                RunReader reader = new RunReader(run);
+                opened.add(reader);
+                if (reader.advance())
+                    readers.add(reader);
+            }
+            String string = null;
+            long count = 0;
+            while (!readers.isEmpty())
+            {
+                RunReader reader = readers.remove();
+                String bound = readers.isEmpty() ? null : readers.peek().mString;
+                do
+                {
+                    if (reader.mString.equals(string))
+                        count += reader.mCount;
+                    else
+                    {
+                        if (string != null)
+                            writer.write(string, count);
+                        string = reader.mString;
+                        count = reader.mCount;
+                    }
+                    if (!reader.advance())
+                        break;
+                    if (bound != null && reader.mString.compareTo(bound) > 0)
+                    {
+                        readers.add(reader);
+                        break;
+                    }
+                } while (true);
+            }
+            if (string != null)
+                writer.write(string, count);
+        }
+        finally
+        {
+            for (RunReader reader : opened)
+                reader.close();
+        }
+    }
+
+    /** Merges the runs into a new run file, and deletes them; if findTops, adds the top counts to tops, greatest first */
+    Path mergeIntoNewRun(List<Path> runs, boolean findTops, List<StringCount> tops) throws IOException
+    {
+        Path merged = Files.createTempFile(mTempDir, "counts", ".run");
+        try (MergedCountWriter writer = new MergedCountWriter(merged, findTops))
+        {
+            mergeRuns(runs, writer);
+            if (findTops)
+            {
+                List<LongStringCount> descending = new ArrayList<LongStringCount>(writer.mMinHeap);
+                descending.sort(Collections.reverseOrder());
+                for (LongStringCount top : descending)
+                    tops.add(new StringCount(top.mString, saturatedInt(top.mCount)));
+                mUniqueStringCount = writer.mNumStrings;
+            }
+        }
+        mNumMerges++;
+        for (Path run : runs)
+            Files.deleteIfExists(run);
+        return merged;
+    }
+
+    /**
+     * Spills the in-memory counts, then merges all the runs, mMaxMergeFanIn at a time,
+     * until one pass can merge the rest into the sorted count file and find the top counts.
+     */
+    void mergeAllRuns()
+    {
+        spillBuffer();
+        List<StringCount> tops = new ArrayList<StringCount>(mMaximalCountSetSize);
+        try
+        {
+            while (mRuns.size() > mMaxMergeFanIn)
+            {
+                List<Path> group = new ArrayList<Path>(mRuns.subList(0, mMaxMergeFanIn));
+                mRuns.subList(0, mMaxMergeFanIn).clear();
+                mRuns.add(mergeIntoNewRun(group, false, null));
+            }
+            mSortedCountsFile = mergeIntoNewRun(mRuns, true, tops);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("ExternalMergeCounter: cannot merge count runs in " + mTempDir, e);
+        }
+        mRuns.clear();
+        mRuns.add(mSortedCountsFile);
+        while (tops.size() < mMaximalCountSetSize)
+            tops.add(new StringCount("", 0));
+        mCachedMaxStringCounts = Collections.unmodifiableList(tops);
+    }
+
+    @Override
+    public final List<StringCount> descendingMaximalStringCounts()
+    {
+        if (mCachedMaxStringCounts == null)
+            mergeAllRuns();
+        return mCachedMaxStringCounts;
+    }
+
+    /** Deletes all the run files, including the sorted count file */
+    @Override
+    public void close()
+    {
+        for (Path run : mRuns)
+        {
+            try
+            {
+                Files.deleteIfExists(run);
+            }
+            catch (IOException e)
+            {
+                Sx.puts("ExternalMergeCounter: cannot delete " + run);
+                e.printStackTrace();
+            }
+        }
+        mRuns.clear();
+        mSortedCountsFile = null;
+        mCachedMaxStringCounts = null;
+    }
+
+    /**
+     * Counts the same skewed strings with a LazySortCounter and with an 8 KB budget,
+     * which spills hundreds of runs, and a merge fan-in of 3, so that runs merged in one
+     * pass are merged again in the next, at least twice over.
+     * @return the number of wrong results
+     */
+    static int test_multiPassMerge()
+    {
+        int numWrong = 0, fanIn = 3;
+        StringCounter exact = new LazySortCounter(10);
+        try (ExternalMergeCounter counter = new ExternalMergeCounter(10, 1 << 13
+                , Paths.get(System.getProperty("java.io.tmpdir")), fanIn))
+        {
+            for (int j = 1; j <= 30000; j++)
+            {
+                String string = "s" + (j % 7 == 0 ? j % 10 : (j * 7919) % 3001);
+                exact.add(string);
+                counter.add(string);
+            }
+            numWrong += StringCounterTest.compareCounters(exact, counter, 0) == 0 ? 0 : 1;
+            // More runs than fanIn squared take at least three passes, and (runs - 1) / (fanIn - 1) merges
+            numWrong += counter.numRunsSpilled() > fanIn * fanIn ? 0 : 1;
+            numWrong += counter.mNumMerges >= (counter.numRunsSpilled() - 1) / (fanIn - 1) ? 0 : 1;
+            Sx.format("ExternalMergeCounter.test_multiPassMerge: %d runs merged %d at a time in %d merges, wrong %d\n"
+                    , counter.numRunsSpilled(), fanIn, counter.mNumMerges, numWrong);
+        }
+        return numWrong;
+    }
+
+    /**
+     * Adds more than Integer.MAX_VALUE to one string's count, across spilled runs.
+     * @return the number of wrong results
+     */
+    static int test_longCounts()
+    {
+        int numWrong = 0;
+        try (ExternalMergeCounter counter = new ExternalMergeCounter(2, 1 << 10
+                , Paths.get(System.getProperty("java.io.tmpdir"))))
+        {
+            counter.add("big", Integer.MAX_VALUE);
+            for (int j = 0; j < 100; j++)
+                counter.add("filler" + j);
+            counter.add("big", Integer.MAX_VALUE);
+            long bigCount = 2L * Integer.MAX_VALUE;
+            numWrong += counter.numRunsSpilled() > 1 ? 0 : 1;
+            numWrong += counter.totalOfAllCountsLong() == bigCount + 100 ? 0 : 1;
+            numWrong += counter.totalOfAllCounts() == Integer.MAX_VALUE ? 0 : 1;
+            StringCount top = counter.descendingMaximalStringCounts().get(0);
+            numWrong += top.mString.equals("big") && top.mCount == Integer.MAX_VALUE ? 0 : 1;
+            long fileCount = -1;
+            try (RunReader reader = new RunReader(counter.sortedCountsFile()))
+            {
+                while (reader.advance())
+                    if (reader.mString.equals("big"))
+                        fileCount = reader.mCount;
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+            numWrong += fileCount == bigCount ? 0 : 1;
+        }
+        Sx.puts("ExternalMergeCounter.test_longCounts: wrong " + numWrong);
+        return numWrong;
+    }
+
+    public static void unit_test()
+    {
+        Sx.puts(ExternalMergeCounter.class.getName() + ".unit_test");
+        // A 256 KB budget spills a run every couple of thousand new words
+        try (ExternalMergeCounter counter = new ExternalMergeCounter(7, 1 << 18
+                , Paths.get(System.getProperty("java.io.tmpdir"))))
+        {
+            StringCounterTest.test_oneCounter(counter);
+            Sx.puts("Runs spilled: " + counter.numRunsSpilled());
+        }
+        test_multiPassMerge();
+        test_longCounts();
+    }
+
+    public static void main(String[] args)
+    {
+        unit_test();
+    }
+}
@@ -0,0 +1,359 @@
+package sprax.counters;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import sprax.files.StringCollectorInterface;
+import sprax.files.TextFileReader;
+import sprax.sprout.Sx;
+
+/**
+ * StringCounter that counts by the int IDs of a SymbolTable, in a plain int array
+ * indexed by ID.  Strings can be counted straight from a range of a char array,
+ * so counting the words read from a file allocates nothing and hashes each word
+ * only once, in the symbol table.  StringCounts are made only for the top counts,
+ * and only when they are asked for.  The symbol table may be shared, so several
+ * counters can count the same vocabulary by the same IDs.
+ *
+ * Expected complexity for N adds, U unique strings, maximal count set size M, and Q queries:
+ * O(1) to add a string (one hash of its chars, one probe on average, one array increment).
+ * O(U lg M) to get the current top M list once, but the result is cached until the next add.
+ *
+ * @author Sprax Lines
+ */
+public class IdStringCounter implements StringCounter
+{
+    final int          mMaximalCountSetSize;
+    final SymbolTable  mSymbols;
+    int                mCounts[];          // count of each symbol ID
+    int                mUniqueStringCount;
+    int                mTotalOfAllCounts;
+    List<StringCount>  mCachedMaxStringCounts;  // null when not up to date
+
+    IdStringCounter(int topNum, SymbolTable symbols)
+    {
+        assert (topNum > 0);
+        mMaximalCountSetSize = topNum;
+        mSymbols = symbols;
+        mCounts = new int[Math.max(SymbolTable.INITIAL_CAPACITY, symbols.size())];
+    }
+
+    IdStringCounter(int topNum)
+    {
+        this(topNum, new SymbolTable());
+    }
+
+    public SymbolTable symbolTable()
+    {
+        return mSymbols;
+    }
+
+    @Override
+    public int uniqueStringCount()
+    {
+        return mUniqueStringCount;
+    }
+
+    @Override
+    public int totalOfAllCounts()
+    {
+        return mTotalOfAllCounts;
+    }
+
+    @Override
+    public int maximalCountSetSize()
+    {
+        return mMaximalCountSetSize;
+    }
+
+    /** @return the count of the symbol with this ID */
+    public int count(int id)
+    {
+        return id < mCounts.length ? mCounts[id] : 0;
+    }
+
+    /** Adds increment to the count of the symbol with this ID; returns true if it was not counted before */
+    public boolean addId(int id, int increment)
+    {
+        assert (increment > 0);
+        if (id >= mCounts.length)
+            mCounts = Arrays.copyOf(mCounts, Math.max(mCounts.length * 2, id + 1));
+        mTotalOfAllCounts += increment;
+        mCachedMaxStringCounts = null;
+        if (mCounts[id] == 0)
+        {
+            mCounts[id] = increment;
+            mUniqueStringCount++;
+            return true;
+        }
+        mCounts[id] += increment;
+        return false;
+    }
+
+    /** Counts the string in chr[beg] to chr[end - 1] once, without making a String of it */
+    public boolean add(char chr[], int beg, int end)
+    {
+        return addId(mSymbols.idOf(chr, beg, end), 1);
+    }
+
+    @Override
+    public boolean add(String string)
+    {
+        return add(string, 1);
+    }
+
+    @Override
+    public boolean add(String string, int increment)
+    {
+        return addId(mSymbols.idOf(string), increment);
+    }
+
+    /** Is the count of idA less than that of idB, or if equal, is the symbol of idA less? */
+    private boolean less(int idA, int idB)
+    {
+        int dif = mCounts[idA] - mCounts[idB];
+        return dif < 0 || (dif == 0 && mSymbols.compare(idA, idB) < 0);
+    }
+
+    private void siftDown(int heap[], int size, int index)
+    {
+        int id = heap[index];
+        for (int child; (child = 2 * index + 1) < size; index = child)
+        {
+            if (child + 1 < size && less(heap[child + 1], heap[child]))
+                child++;
+            if (!less(heap[child], id))
+                break;
+            heap[index] = heap[child];
+        }
+        heap[index] = id;
+    }
+
+    /**
+     * Selects the top IDs with a bounded min-heap of IDs, then sorts them and
+     * makes StringCounts of only those, padded with empty counts.
+     */
+    @Override
+    public final List<StringCount> descendingMaximalStringCounts()
+    {
+        if (mCachedMaxStringCounts == null)
+        {
+            int heap[] = new int[mMaximalCountSetSize];
+            int size = 0;
+            for (int id = 0; id < mCounts.length; id++)
+            {
+                if (mCounts[id] == 0)
+                    continue;
+                if (size < heap.length)
+                {
+                    heap[size] = id;
+                    for (int child = size++, parent; child > 0 && less(heap[child], heap[parent = (child - 1) >>> 1]); child = parent)
+                    {
+                        int swap = heap[child];
+                        heap[child] = heap[parent];
+                        heap[parent] = swap;
+                    }
+                }
+                else if (less(heap[0], id))
+                {
+                    heap[0] = id;
+                    siftDown(heap, size, 0);
+                }
+            }
+            List<StringCount> tops = new ArrayList<StringCount>(mMaximalCountSetSize);
+            for (int j = 0; j < size; j++)
+                tops.add(new StringCount(mSymbols.symbol(heap[j]), mCounts[heap[j]]));
+            tops.sort(StringCount.sDescendingStringCountsComp);
+            while (tops.size() < mMaximalCountSetSize)
+                tops.add(new StringCount("", 0));
+            mCachedMaxStringCounts = Collections.unmodifiableList(tops);
+        }
+        return mCachedMaxStringCounts;
+    }
+
+    /**
+     * Counts the lower-cased words in lines or blocks of text into an IdStringCounter.
+     * Words are runs of ASCII letters, as in TextFilters.collectLowerCaseLetterWords.
+     * Blocks are lower-cased in place, so the caller's char array is changed.
+     */
+    public static class WordCollector implements StringCollectorInterface<IdStringCounter>
+    {
+        final IdStringCounter mCounter;
+        char                  mScratch[] = new char[256];
+
+        public WordCollector(IdStringCounter counter)
+        {
+            mCounter = counter;
+        }
+
+        @Override
+        public IdStringCounter getCollector()
+        {
+            return mCounter;
+        }
+
+        @Override
+        public boolean addString(String line)
+        {
+            int length = line.length();
+            if (mScratch.length < length)
+                mScratch = new char[Math.max(length, mScratch.length * 2)];
+            line.getChars(0, length, mScratch, 0);
+            return addString(mScratch, 0, length);
+        }
+
+        /** @return true if any word was new to the counter */
+        @Override
+        public boolean addString(char[] chr, int beg, int end)
+        {
+            boolean anyWordsAdded = false;
+            int wordBeg = -1;
+            for (int j = beg; j < end; j++)
+            {
+                char chr_j = chr[j];
+                if ('A' <= chr_j && chr_j <= 'Z')
+                    chr[j] = chr_j = (char) (chr_j + ('a' - 'A'));
+                if ('a' <= chr_j && chr_j <= 'z')
+                {
+                    if (wordBeg < 0)
+                        wordBeg = j;
+                }
+                else if (wordBeg >= 0)
+                {
+                    anyWordsAdded |= mCounter.add(chr, wordBeg, j);
+                    wordBeg = -1;
+                }
+            }
+            if (wordBeg >= 0)
+                anyWordsAdded |= mCounter.add(chr, wordBeg, end);
+            return anyWordsAdded;
+        }
+
+        /** Lower-cases the word, which is all ASCII letters, into scratch space and counts it */
+        @Override
+        public boolean addBytes(ByteBuffer bytes, int beg, int end)
+        {
+            int length = end - beg;
+            if (mScratch.length < length)
+                mScratch = new char[Math.max(length, mScratch.length * 2)];
+            for (int j = 0; j < length; j++)
+                mScratch[j] = (char) (bytes.get(beg + j) | 0x20);
+            return mCounter.add(mScratch, 0, length);
+        }
+
+        @Override
+        public boolean contains(final String str)
+        {
+            int id = mCounter.mSymbols.find(str.toCharArray(), 0, str.length());
+            return id >= 0 && mCounter.count(id) > 0;
+        }
+
+        @Override
+        public int size()
+        {
+            return mCounter.uniqueStringCount();
+        }
+    }
+
+    /** Counts all the lower-cased words in the text file, reading it in blocks */
+    public static IdStringCounter countLowerCaseWords(String textFilePath, IdStringCounter counter)
+    {
+        TextFileReader tfr = new TextFileReader(textFilePath);
+        tfr.readIntoCharrayCollector(new WordCollector(counter));
+        return counter;
+    }
+
+    /** Counts all the lower-cased words in the text file, memory-mapping it and reading its bytes */
+    public static IdStringCounter countLowerCaseWordsMapped(String textFilePath, IdStringCounter counter)
+    {
+        TextFileReader tfr = new TextFileReader(textFilePath);
+        tfr.readWordsIntoByteCollector(new WordCollector(counter));
+        return counter;
+    }
+
+    /** @return the count of the string, or 0 if it is not in the symbol table */
+    int count(String string)
+    {
+        int id = mSymbols.find(string.toCharArray(), 0, string.length());
+        return id < 0 ? 0 : count(id);
+    }
+
+    /**
+     * Counts words from files read in blocks by TextFileReader.readIntoCharrayCollector:
+     * one with a word across the end of the first block, followed by more of the line than
+     * the block array has room for, and one that ends, with no newline, right at the end
+     * of its first block.  Each word must be counted whole, once, and not joined to the next.
+     * @return the number of wrong counts
+     */
+    static int test_blockBoundaries()
+    {
+        int blockSize = TextFileReader.sCharBufSize, numWrong = 0;
+        StringBuilder sb = new StringBuilder();
+        int numAbs = (blockSize - 4) / 3;
+        for (int j = 0; j < numAbs; j++)
+            sb.append("ab ");
+        String longWord = new String(new char[300]).replace('\0', 'x');
+        sb.append("Boundary ").append(longWord).append(" end\nnext words\n");
+        assert (sb.indexOf("Boundary") < blockSize && sb.indexOf(" " + longWord) > blockSize);
+        Path file = null;
+        try
+        {
+            file = Files.createTempFile("blocks", ".txt");
+            Files.write(file, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+            IdStringCounter counter = countLowerCaseWords(file.toString(), new IdStringCounter(3));
+            numWrong += counter.count("ab") == numAbs ? 0 : 1;
+            for (String word : new String[] { "boundary", longWord, "end", "next", "words" })
+                numWrong += counter.count(word) == 1 ? 0 : 1;
+            numWrong += counter.totalOfAllCounts() == numAbs + 5 ? 0 : 1;
+
+            sb.setLength(3 * numAbs);
+            while (sb.length() < blockSize - 2)
+                sb.append(' ');
+            sb.append("cd");
+            Files.write(file, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+            counter = countLowerCaseWords(file.toString(), new IdStringCounter(3));
+            numWrong += counter.count("cd") == 1 ? 0 : 1;
+            numWrong += counter.totalOfAllCounts() == numAbs + 1 ? 0 : 1;
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+            numWrong++;
+        }
+        finally
+        {
+            try
+            {
+                if (file != null)
+                    Files.deleteIfExists(file);
+            }
+            catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        Sx.puts(IdStringCounter.class.getSimpleName() + ".test_blockBoundaries: wrong " + numWrong);
+        return numWrong;
+    }
+
+    public static void unit_test()
+    {
+        Sx.puts(IdStringCounter.class.getName() + ".unit_test");
+        SymbolTable.unit_test();
+        StringCounter counter = new IdStringCounter(7);
+        StringCounterTest.test_oneCounter(counter);
+        test_blockBoundaries();
+    }
+
+    public static void main(String[] args)
+    {
+        unit_test();
+    }
+}
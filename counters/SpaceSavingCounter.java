@@ -0,0 +1,236 @@
+package sprax.counters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import sprax.sprout.Sx;
+
+/**
+ * Approximate StringCounter in fixed memory, by the Space-Saving algorithm of
+ * Metwally, Agrawal, and El Abbadi: only mCapacity strings are monitored at
+ * once, each with a count and an error bound.  A string not monitored replaces
+ * the monitored string with the least count, and takes over that count (plus
+ * its increment), with that count as its error.  So no count is ever less than
+ * the true count, and none exceeds it by more than its error, which is at most
+ * totalOfAllCounts / mCapacity.  Any string whose true count exceeds that bound
+ * is sure to be monitored, so with a capacity several times topNum, the top
+ * counts are nearly always the true top counts, as from the exact counters,
+ * whose memory grows with the number of unique strings.
+ *
+ * The monitored strings are kept in a min-heap of entries indexed by a
+ * HashMap of at most mCapacity entries.  Each entry knows its own heap index,
+ * so an increment only sifts that entry down.
+ *
+ * Expected complexity for N adds, capacity C, maximal count set size M, and Q queries:
+ * O(lg C) to add a string, usually less, since an incremented count tends to move only a level or two.
+ * O(C lg C) to get the current top M list once, but the sorted result is cached until the next add.
+ * Memory is O(C) regardless of N.
+ *
+ * uniqueStringCount returns the number of strings monitored, which is the number of unique
+ * strings added only until that exceeds the capacity.
+ *
+ * @author Sprax Lines
+ */
+public class SpaceSavingCounter implements StringCounter
+{
+    static final int DEFAULT_CAPACITY_PER_TOP_NUM = 16;
+
+    final int                 mMaximalCountSetSize;
+    final int                 mCapacity;
+    final HashMap<String, Entry> mMonitored;
+    final Entry               mHeap[];           // min-heap on (count, string)
+    int                       mHeapSize;
+    int                       mTotalOfAllCounts;
+    List<StringCount>         mCachedMaxStringCounts;  // null when not up to date
+
+    static final class Entry
+    {
+        String mString;
+        int    mCount;
+        int    mError;
+        int    mIndex;   // position in mHeap
+
+        Entry(String string, int count, int error, int index)
+        {
+            mString = string;
+            mCount = count;
+            mError = error;
+            mIndex = index;
+        }
+    }
+
+    SpaceSavingCounter(int topNum, int capacity)
+    {
+        assert (topNum > 0 && capacity >= topNum);
+        mMaximalCountSetSize = topNum;
+        mCapacity = capacity;
+        mMonitored = new HashMap<String, Entry>(capacity * 4 / 3 + 1);
+        mHeap = new Entry[capacity];
+    }
+
+    SpaceSavingCounter(int topNum)
+    {
+        this(topNum, topNum * DEFAULT_CAPACITY_PER_TOP_NUM);
+    }
+
+    @Override
+    public int uniqueStringCount()
+    {
+        return mMonitored.size();
+    }
+
+    @Override
+    public int totalOfAllCounts()
+    {
+        return mTotalOfAllCounts;
+    }
+
+    @Override
+    public int maximalCountSetSize()
+    {
+        return mMaximalCountSetSize;
+    }
+
+    public int capacity()
+    {
+        return mCapacity;
+    }
+
+    /** The greatest error any count can have now: the least monitored count, once the counter is full */
+    public int maxError()
+    {
+        return mHeapSize < mCapacity ? 0 : mHeap[0].mCount;
+    }
+
+    /** @return the estimated count of the string, or 0 if it is not monitored (its true count is then at most maxError) */
+    public int estimatedCount(String string)
+    {
+        Entry entry = mMonitored.get(string);
+        return entry == null ? 0 : entry.mCount;
+    }
+
+    /** @return the error bound of the string's estimated count, or maxError if it is not monitored */
+    public int estimatedError(String string)
+    {
+        Entry entry = mMonitored.get(string);
+        return entry == null ? maxError() : entry.mError;
+    }
+
+    @Override
+    public boolean add(String string)
+    {
+        return add(string, 1);
+    }
+
+    /** @return true if the string was not monitored, so is taking a new or reused slot */
+    @Override
+    public boolean add(String string, int increment)
+    {
+        assert (increment > 0);
+        mTotalOfAllCounts += increment;
+        mCachedMaxStringCounts = null;
+        Entry entry = mMonitored.get(string);
+        if (entry != null)
+        {
+            entry.mCount += increment;
+            siftDown(entry.mIndex);
+            return false;
+        }
+        if (mHeapSize < mCapacity)
+        {
+            entry = new Entry(string, increment, 0, mHeapSize);
+            mHeap[mHeapSize++] = entry;
+            mMonitored.put(string, entry);
+            siftUp(entry.mIndex);
+            return true;
+        }
+        // Replace the least counted string, inheriting its count as the error
+        entry = mHeap[0];
+        mMonitored.remove(entry.mString);
+        entry.mString = string;
+        entry.mError = entry.mCount;
+        entry.mCount += increment;
+        mMonitored.put(string, entry);
+        siftDown(0);
+        return true;
+    }
+
+    private static boolean less(Entry entryA, Entry entryB)
+    {
+        return StringCount.compare(entryA.mString, entryA.mCount, entryB.mString, entryB.mCount) < 0;
+    }
+
+    private void place(Entry entry, int index)
+    {
+        mHeap[index] = entry;
+        entry.mIndex = index;
+    }
+
+    private void siftUp(int index)
+    {
+        Entry entry = mHeap[index];
+        while (index > 0)
+        {
+            int parent = (index - 1) >>> 1;
+            if (!less(entry, mHeap[parent]))
+                break;
+            place(mHeap[parent], index);
+            index = parent;
+        }
+        place(entry, index);
+    }
+
+    private void siftDown(int index)
+    {
+        Entry entry = mHeap[index];
+        for (int child; (child = 2 * index + 1) < mHeapSize; index = child)
+        {
+            if (child + 1 < mHeapSize && less(mHeap[child + 1], mHeap[child]))
+                child++;
+            if (!less(mHeap[child], entry))
+                break;
+            place(mHeap[child], index);
+        }
+        place(entry, index);
+    }
+
+    /**
+     * Returns the top counts, each a StringCountWithError, padded with empty counts
+     * up to the maximal count set size.
+     */
+    @Override
+    public final List<StringCount> descendingMaximalStringCounts()
+    {
+        if (mCachedMaxStringCounts == null)
+        {
+            Entry entries[] = Arrays.copyOf(mHeap, mHeapSize);
+            Arrays.sort(entries, (entryA, entryB) -> StringCount.compare(entryB.mString, entryB.mCount
+                    , entryA.mString, entryA.mCount));
+            List<StringCount> tops = new ArrayList<StringCount>(mMaximalCountSetSize);
+            for (int j = 0; j < mMaximalCountSetSize; j++)
+            {
+                if (j < entries.length)
+                    tops.add(new StringCountWithError(entries[j].mString, entries[j].mCount, entries[j].mError));
+                else
+                    tops.add(new StringCountWithError("", 0, 0));
+            }
+            mCachedMaxStringCounts = Collections.unmodifiableList(tops);
+        }
+        return mCachedMaxStringCounts;
+    }
+
+    public static void unit_test()
+    {
+        Sx.puts(SpaceSavingCounter.class.getName() + ".unit_test");
+        StringCounter counter = new SpaceSavingCounter(7);
+        StringCounterTest.test_oneCounter(counter);
+    }
+
+    public static void main(String[] args)
+    {
+        unit_test();
+    }
+}
@@ -47,6 +47,33 @@ class StringCount implements Comparable<StringCount>
 	}
 }
 
+/**
+ * StringCount whose count is an estimate: the true count lies between
+ * mCount - mError and mCount, inclusive.
+ */
+class StringCountWithError extends StringCount
+{
+	protected int	mError;
+
+	StringCountWithError(String q, int c, int e)
+	{
+		super(q, c);
+		mError = e;
+	}
+
+	/** Least possible true count */
+	public int guaranteedCount()
+	{
+		return mCount - mError;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "(" + mString + " : " + mCount + " -" + mError + ")";
+	}
+}
+
 class AscendingStringCountsComp implements Comparator<StringCount>
 {
     @Override
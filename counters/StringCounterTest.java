@@ -1,11 +1,17 @@
 package sprax.counters;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import sprax.files.FileUtil;
 import sprax.files.TextFileReader;
 import sprax.sprout.Sx;
+import sprax.test.Sz;
 
 public class StringCounterTest 
 {
@@ -160,6 +166,121 @@ public class StringCounterTest
 		return 0;
 	}
 
+	/**
+	 * Multi-threaded mode of compareCounters: adds the strings to counterA on this thread,
+	 * and to counterB from numThreads producer threads, each adding every numThreads-th
+	 * string, while this thread keeps asking counterB for its top counts.  Then compares
+	 * the two counters as above, after the producers are done.
+	 * @return the result of compareCounters, or -1 if a producer thread failed
+	 */
+	public static int compareCounters(StringCounter counterA, ConcurrentStringCounter counterB
+			, final List<String> strings, int numThreads, int verbose)
+	{
+		long begTime = System.currentTimeMillis();
+		for (String string : strings)
+		{
+			counterA.add(string);
+		}
+		long seqTime = System.currentTimeMillis() - begTime;
+
+		begTime = System.currentTimeMillis();
+		ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+		List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+		for (int t = 0; t < numThreads; t++)
+		{
+			final int first = t, step = numThreads;
+			futures.add(pool.submit(() -> {
+				for (int j = first; j < strings.size(); j += step)
+					counterB.add(strings.get(j));
+			}));
+		}
+		int numQueries = 0;
+		try
+		{
+			for (Future<?> future : futures)
+			{
+				while (!future.isDone())
+				{
+					counterB.descendingMaximalStringCounts();
+					numQueries++;
+				}
+				future.get();
+			}
+		}
+		catch (InterruptedException | ExecutionException ex)
+		{
+			ex.printStackTrace();
+			return -1;
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		long threadedTime = System.currentTimeMillis() - begTime;
+		if (verbose != 0)
+		{
+			Sx.format("%s: %d strings, sequential %s %d ms, %d threads %d ms with %d concurrent top-%d queries\n"
+					, counterB.getClass().getSimpleName(), strings.size(), counterA.getClass().getSimpleName()
+					, seqTime, numThreads, threadedTime, numQueries, counterB.maximalCountSetSize());
+		}
+		return compareCounters(counterA, counterB, verbose);
+	}
+
+	static long usedHeapBytes()
+	{
+		Runtime rt = Runtime.getRuntime();
+		for (int j = 0; j < 3; j++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/**
+	 * Fills an exact counter and a SpaceSavingCounter by test_StringCounter_Txt, compares
+	 * their times and heap use, and checks that each of the exact top counts lies within
+	 * the approximate counter's error bounds.
+	 * @return number of exact top counts outside the bounds (0 if all is well)
+	 */
+	public static int compareWithExactCounter(StringCounter exact, SpaceSavingCounter approx
+			, ArrayList<String> stringsA, ArrayList<String> stringsB, int verbose)
+	{
+		long heapBeg = usedHeapBytes();
+		long exactTime = test_StringCounter_Txt(exact, stringsA, stringsB, 0);
+		long heapExact = usedHeapBytes();
+		long approxTime = test_StringCounter_Txt(approx, stringsA, stringsB, 0);
+		long heapApprox = usedHeapBytes();
+
+		int numOutOfBounds = 0, numSameTops = 0;
+		List<StringCount> exactTops = exact.descendingMaximalStringCounts();
+		List<StringCount> approxTops = approx.descendingMaximalStringCounts();
+		for (int j = 0; j < exactTops.size(); j++)
+		{
+			StringCount sc = exactTops.get(j);
+			int upper = approx.estimatedCount(sc.mString);
+			if (upper == 0)
+				upper = approx.maxError();
+			if (sc.mCount > upper || sc.mCount < upper - approx.estimatedError(sc.mString))
+			{
+				numOutOfBounds++;
+				if (verbose > 0)
+					Sx.format("compareWithExactCounter: %s count %d not within [%d, %d]\n", sc.mString, sc.mCount
+							, upper - approx.estimatedError(sc.mString), upper);
+			}
+			if (j < approxTops.size() && approxTops.get(j).mString.equals(sc.mString))
+				numSameTops++;
+		}
+		if (verbose != 0)
+		{
+			Sx.format("%s %7d ms %8.1f MB heap  %d unique strings\n", exact.getClass().getSimpleName()
+					, exactTime, (heapExact - heapBeg) * 1.0e-6, exact.uniqueStringCount());
+			Sx.format("%s %7d ms %8.1f MB heap  capacity %d, max error %d of total %d\n"
+					, approx.getClass().getSimpleName(), approxTime, (heapApprox - heapExact) * 1.0e-6
+					, approx.capacity(), approx.maxError(), approx.totalOfAllCounts());
+			Sx.format("Top %d: %d in the same places; %d exact counts outside the error bounds\n"
+					, exactTops.size(), numSameTops, numOutOfBounds);
+		}
+		return numOutOfBounds;
+	}
+
 
 	public static void test_oneCounter(StringCounter counter)
 	{
@@ -189,6 +310,27 @@ public class StringCounterTest
 
 		compareCounters(counterPriority, counterLazySort, verbose);
 
+		StringCounter counterConcurrent = new ConcurrentStringCounter(5);
+		StringCounterTest.test_StringCounter_Toy(counterConcurrent, verbose);
+
+		compareCounters(counterLazySort, counterConcurrent, verbose);
+
+		StringCounter counterSpaceSaving = new SpaceSavingCounter(5);
+		StringCounterTest.test_StringCounter_Toy(counterSpaceSaving, verbose);
+
+		compareCounters(counterLazySort, counterSpaceSaving, verbose);
+
+		StringCounter counterIdSymbols = new IdStringCounter(5);
+		StringCounterTest.test_StringCounter_Toy(counterIdSymbols, verbose);
+
+		compareCounters(counterLazySort, counterIdSymbols, verbose);
+
+		try (ExternalMergeCounter counterExternal = new ExternalMergeCounter(5))
+		{
+			StringCounterTest.test_StringCounter_Toy(counterExternal, verbose);
+			compareCounters(counterLazySort, counterExternal, verbose);
+		}
+
 		if (level < 1)
 			return;
 
@@ -201,11 +343,12 @@ public class StringCounterTest
 			return;
 				
 		//////// words counts from texts ////////
-        String 
-        textFilePath = FileUtil.getTextFilePath("MobyDick.txt");
-        ArrayList<String> textWordsA = TextFileReader.readFileIntoArrayListOfLowerCaseWordsStr(textFilePath);
-        textFilePath = FileUtil.getTextFilePath("Iliad.txt");
-		ArrayList<String> textWordsB = TextFileReader.readFileIntoArrayListOfLowerCaseWordsStr(textFilePath);
+		final String textFilePathA = FileUtil.getTextFilePath("MobyDick.txt");
+		final String textFilePathB = FileUtil.getTextFilePath("Iliad.txt");
+		long begAlloc = Sz.threadAllocatedBytes(), begTime = System.currentTimeMillis();
+		ArrayList<String> textWordsA = TextFileReader.readFileIntoArrayListOfLowerCaseWordsStr(textFilePathA);
+		ArrayList<String> textWordsB = TextFileReader.readFileIntoArrayListOfLowerCaseWordsStr(textFilePathB);
+		long timeReadWords = System.currentTimeMillis() - begTime, allocReadWords = Sz.threadAllocatedBytes() - begAlloc;
 
 		int size = 100;
 		counterInsertSort = new InsertSortedStringCounter(size);
@@ -221,10 +364,61 @@ public class StringCounterTest
 
 		compareCounters(counterPriority, counterLazySort, verbose+1);
 
+		ArrayList<String> textWordsAB = new ArrayList<String>(textWordsA);
+		textWordsAB.addAll(textWordsB);
+		int numThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+		int threadedDif = compareCounters(new LazySortCounter(size), new ConcurrentStringCounter(size)
+				, textWordsAB, numThreads, verbose+1);
+		Sx.puts("Multi-threaded ConcurrentStringCounter vs LazySortCounter: " + (threadedDif == 0 ? "PASS" : "FAIL " + threadedDif));
+
+		compareWithExactCounter(new PriorityQueueCounter(size), new SpaceSavingCounter(size)
+				, textWordsA, textWordsB, verbose+1);
+
+		// Count by symbol IDs straight from the files, with no word Strings
+		begAlloc = Sz.threadAllocatedBytes();
+		begTime = System.currentTimeMillis();
+		IdStringCounter counterIds = new IdStringCounter(size);
+		IdStringCounter.countLowerCaseWords(textFilePathA, counterIds);
+		IdStringCounter.countLowerCaseWords(textFilePathB, counterIds);
+		counterIds.descendingMaximalStringCounts();
+		long timeIds = System.currentTimeMillis() - begTime, allocIds = Sz.threadAllocatedBytes() - begAlloc;
+
+		compareCounters(counterLazySort, counterIds, verbose+1);
+
+		// The same, from memory-mapped bytes, with no decoding into chars
+		begAlloc = Sz.threadAllocatedBytes();
+		begTime = System.currentTimeMillis();
+		IdStringCounter counterMapped = new IdStringCounter(size);
+		IdStringCounter.countLowerCaseWordsMapped(textFilePathA, counterMapped);
+		IdStringCounter.countLowerCaseWordsMapped(textFilePathB, counterMapped);
+		counterMapped.descendingMaximalStringCounts();
+		long timeMapped = System.currentTimeMillis() - begTime, allocMapped = Sz.threadAllocatedBytes() - begAlloc;
+
+		compareCounters(counterIds, counterMapped, verbose+1);
+		if (counterMapped.uniqueStringCount() != counterIds.uniqueStringCount())
+			Sx.format("IdStringCounter: %d unique words read from mapped bytes, but %d from chars\n"
+					, counterMapped.uniqueStringCount(), counterIds.uniqueStringCount());
+
+		// Count in a small memory budget, spilling sorted runs to temp files and merging them
+		long timeExternal, numRunsSpilled;
+		try (ExternalMergeCounter counterExternal = new ExternalMergeCounter(size, 1 << 20
+				, Paths.get(System.getProperty("java.io.tmpdir"))))
+		{
+			timeExternal = StringCounterTest.test_StringCounter_Txt(counterExternal, textWordsA, textWordsB, 0);
+			numRunsSpilled = counterExternal.numRunsSpilled();
+			compareCounters(counterLazySort, counterExternal, verbose+1);
+		}
+
 		Sx.print("Times:");
 		Sx.puts("\t InsertSorted:  " + timeInsert);
 		Sx.puts("\t LazySort:      " + timeLazySort);
 		Sx.puts("\t PriorityQueue: " + timePriority);
+		Sx.puts("\t ExternalMerge: " + timeExternal + " (1 MB budget, " + numRunsSpilled + " runs spilled)");
+		Sx.format("Reading words into Strings %d ms, %.1f MB allocated, then LazySort %d ms;"
+				+ "  IdStringCounter reading and counting %d ms, %.1f MB allocated\n"
+				, timeReadWords, allocReadWords * 1.0e-6, timeLazySort, timeIds, allocIds * 1.0e-6);
+		Sx.format("IdStringCounter reading mapped bytes and counting %d ms, %.1f MB allocated\n"
+				, timeMapped, allocMapped * 1.0e-6);
 	}
 
 	public static void main(String[] args) 
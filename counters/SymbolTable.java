@@ -0,0 +1,220 @@
+package sprax.counters;
+
+import java.util.Arrays;
+
+import sprax.sprout.Sx;
+
+/**
+ * Table of interned symbols (strings) with dense int IDs: 0, 1, 2, ... in the
+ * order the symbols were first added.  The chars of all symbols are packed
+ * end to end in one char array, and an open-addressing table of IDs is probed
+ * by each symbol's hash, which is the same as its String.hashCode.  So a symbol
+ * can be looked up straight from a range of a char array, as read from a file,
+ * without making a String of it; only a symbol's first appearance copies its
+ * chars, and only symbol(id) makes a String, which is then kept.
+ *
+ * One table may be shared by several counters, so that IDs mean the same in
+ * each.  Not thread-safe.
+ *
+ * @author Sprax Lines
+ */
+public class SymbolTable
+{
+    static final int INITIAL_CAPACITY = 1024;
+
+    char     mChars[];      // all symbols' chars, packed
+    int      mStarts[];     // symbol id's chars are mChars[mStarts[id]] to mChars[mStarts[id + 1] - 1]
+    int      mHashes[];     // String.hashCode of each symbol
+    int      mSlots[];      // open-addressing table of id + 1, or 0 for empty
+    String   mStrings[];    // Strings made by symbol(id), or null
+    int      mSize;
+    int      mNumChars;
+
+    public SymbolTable()
+    {
+        mChars = new char[INITIAL_CAPACITY * 8];
+        mStarts = new int[INITIAL_CAPACITY + 1];
+        mHashes = new int[INITIAL_CAPACITY];
+        mStrings = new String[INITIAL_CAPACITY];
+        mSlots = new int[INITIAL_CAPACITY * 2];
+    }
+
+    public int size()
+    {
+        return mSize;
+    }
+
+    static int hash(char chr[], int beg, int end)
+    {
+        int hash = 0;
+        for (int j = beg; j < end; j++)
+            hash = 31 * hash + chr[j];
+        return hash;
+    }
+
+    /** Spreads the high bits of a String hash into the low bits used to index the slots */
+    private static int spread(int hash)
+    {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    private boolean equalsSymbol(int id, int hash, char chr[], int beg, int end)
+    {
+        int start = mStarts[id];
+        if (mHashes[id] != hash || mStarts[id + 1] - start != end - beg)
+            return false;
+        for (int j = beg; j < end; j++)
+            if (mChars[start++] != chr[j])
+                return false;
+        return true;
+    }
+
+    /** @return index of the slot holding the symbol, or of the empty slot where it would go */
+    private int slotOf(int hash, char chr[], int beg, int end)
+    {
+        int mask = mSlots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask)
+        {
+            int idPlus1 = mSlots[slot];
+            if (idPlus1 == 0 || equalsSymbol(idPlus1 - 1, hash, chr, beg, end))
+                return slot;
+        }
+    }
+
+    /** @return the ID of the symbol in chr[beg] to chr[end - 1], or -1 if it has not been added */
+    public int find(char chr[], int beg, int end)
+    {
+        int idPlus1 = mSlots[slotOf(hash(chr, beg, end), chr, beg, end)];
+        return idPlus1 - 1;
+    }
+
+    /** @return the ID of the symbol in chr[beg] to chr[end - 1], adding it if it is new */
+    public int idOf(char chr[], int beg, int end)
+    {
+        int hash = hash(chr, beg, end);
+        int slot = slotOf(hash, chr, beg, end);
+        if (mSlots[slot] != 0)
+            return mSlots[slot] - 1;
+        return add(slot, hash, chr, beg, end);
+    }
+
+    /** @return the ID of the symbol, adding it if it is new (copies its chars only if it is new) */
+    public int idOf(String symbol)
+    {
+        int hash = symbol.hashCode(), length = symbol.length();
+        int mask = mSlots.length - 1;
+        for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask)
+        {
+            int idPlus1 = mSlots[slot];
+            if (idPlus1 == 0)
+            {
+                char chr[] = symbol.toCharArray();
+                return add(slot, hash, chr, 0, length);
+            }
+            int id = idPlus1 - 1;
+            if (mHashes[id] == hash && equalsSymbol(id, symbol))
+                return id;
+        }
+    }
+
+    private boolean equalsSymbol(int id, String symbol)
+    {
+        int start = mStarts[id], length = symbol.length();
+        if (mStarts[id + 1] - start != length)
+            return false;
+        for (int j = 0; j < length; j++)
+            if (mChars[start + j] != symbol.charAt(j))
+                return false;
+        return true;
+    }
+
+    private int add(int slot, int hash, char chr[], int beg, int end)
+    {
+        int id = mSize++;
+        if (id >= mHashes.length)
+        {
+            int capacity = mHashes.length * 2;
+            mStarts = Arrays.copyOf(mStarts, capacity + 1);
+            mHashes = Arrays.copyOf(mHashes, capacity);
+            mStrings = Arrays.copyOf(mStrings, capacity);
+        }
+        int length = end - beg;
+        if (mNumChars + length > mChars.length)
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mNumChars + length));
+        System.arraycopy(chr, beg, mChars, mNumChars, length);
+        mStarts[id] = mNumChars;
+        mNumChars += length;
+        mStarts[id + 1] = mNumChars;
+        mHashes[id] = hash;
+        mSlots[slot] = id + 1;
+        if (mSize * 2 > mSlots.length)     // keep the load factor at most 1/2
+            rehash(mSlots.length * 2);
+        return id;
+    }
+
+    private void rehash(int numSlots)
+    {
+        mSlots = new int[numSlots];
+        int mask = numSlots - 1;
+        for (int id = 0; id < mSize; id++)
+        {
+            int slot = spread(mHashes[id]) & mask;
+            while (mSlots[slot] != 0)
+                slot = (slot + 1) & mask;
+            mSlots[slot] = id + 1;
+        }
+    }
+
+    /** @return the symbol with this ID as a String, made once and then kept */
+    public String symbol(int id)
+    {
+        if (mStrings[id] == null)
+            mStrings[id] = new String(mChars, mStarts[id], mStarts[id + 1] - mStarts[id]);
+        return mStrings[id];
+    }
+
+    /** Compares two symbols as Strings would, without making Strings of them */
+    public int compare(int idA, int idB)
+    {
+        int begA = mStarts[idA], lenA = mStarts[idA + 1] - begA;
+        int begB = mStarts[idB], lenB = mStarts[idB + 1] - begB;
+        for (int j = 0, len = Math.min(lenA, lenB); j < len; j++)
+        {
+            int dif = mChars[begA + j] - mChars[begB + j];
+            if (dif != 0)
+                return dif;
+        }
+        return lenA - lenB;
+    }
+
+    public static int unit_test()
+    {
+        Sx.puts(SymbolTable.class.getName() + ".unit_test");
+        int numWrong = 0;
+        SymbolTable symbols = new SymbolTable();
+        String words[] = { "dog", "cat", "eel", "dog", "", "catalog", "cat" };
+        int ids[] = new int[words.length];
+        for (int j = 0; j < words.length; j++)
+            ids[j] = symbols.idOf(words[j]);
+        numWrong += (ids[0] == 0 && ids[1] == 1 && ids[3] == 0 && ids[6] == 1 && symbols.size() == 5) ? 0 : 1;
+        char line[] = "the catalog of a cat".toCharArray();
+        numWrong += symbols.find(line, 4, 11) == ids[5] ? 0 : 1;    // "catalog"
+        numWrong += symbols.find(line, 17, 20) == ids[1] ? 0 : 1;   // "cat"
+        numWrong += symbols.find(line, 0, 3) == -1 ? 0 : 1;         // "the"
+        numWrong += symbols.compare(ids[1], ids[5]) < 0 && symbols.compare(ids[2], ids[0]) > 0 ? 0 : 1;
+
+        // Many symbols, through several rehashes
+        for (int j = 0; j < 100000; j++)
+            symbols.idOf("w" + j);
+        for (int j = 0; j < 100000; j += 999)
+            numWrong += symbols.symbol(symbols.idOf("w" + j)).equals("w" + j) ? 0 : 1;
+        numWrong += symbols.size() == 100005 && symbols.symbol(ids[5]).equals("catalog") ? 0 : 1;
+        Sx.puts(SymbolTable.class.getSimpleName() + ".unit_test: wrong " + numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args)
+    {
+        unit_test();
+    }
+}
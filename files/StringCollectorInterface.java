@@ -1,5 +1,8 @@
 package sprax.files;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public interface StringCollectorInterface<T>
 {
     public boolean addString(String str); // Return true IFF the collector changes (by keeping str
@@ -8,6 +11,20 @@ public interface StringCollectorInterface<T>
     public boolean addString(char[] chr, int beg, int end); // Return true IFF the collector
                                                             // actually changes
     
+    /**
+     * Adds the word in bytes[beg] to bytes[end - 1], as ASCII or UTF-8, such as a slice of a
+     * memory-mapped file.  Return true IFF the collector actually changes.  By default, the word
+     * is decoded into a new String for addString(String); collectors that can use the bytes as
+     * they are should override this, so that reading words allocates nothing.
+     */
+    public default boolean addBytes(ByteBuffer bytes, int beg, int end)
+    {
+        byte word[] = new byte[end - beg];
+        for (int j = beg; j < end; j++)
+            word[j - beg] = bytes.get(j);
+        return addString(new String(word, StandardCharsets.UTF_8));
+    }
+    
     public boolean contains(final String str); // Return true IFF the collector actually changes
     
     // TODO: include this? No, probably not...
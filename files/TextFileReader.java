@@ -5,7 +5,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,6 +19,8 @@ import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.TreeSet;
 
+import sprax.test.Sz;
+
 /**
  * Read the lines of a text file into one container or StringBuffer.
  * 
@@ -128,7 +136,7 @@ public class TextFileReader
         return lineCount;
     }
     
-    static final int sCharBufSize = 8192; // 2048;
+    public static final int sCharBufSize = 8192; // 2048;
     
     public int readIntoCharrayCollector(StringCollectorInterface<?> stringCollector)
     {
@@ -148,13 +156,15 @@ public class TextFileReader
         int lineCount = 0, charCount = 0, rlen;
         try {
             while ((charCount = reader.read(line, 0, sCharBufSize)) > 0) {
-                if (charCount == sCharBufSize) {
-                    rest = reader.readLine();
+                if (charCount == sCharBufSize && (rest = reader.readLine()) != null) {
+                    // Finish the current line, so that no word is split between blocks,
+                    // and end it, since readLine drops the line terminator.
                     rlen = rest.length();
-                    //char chrs[] = rest.toCharArray();
-                    for (int j = sCharBufSize, k = 0; k < rlen; k++, j++) 
-                        line[j] = rest.charAt(k);
+                    if (sCharBufSize + rlen + 1 > line.length)
+                        line = Arrays.copyOf(line, sCharBufSize + rlen + 1);
+                    rest.getChars(0, rlen, line, sCharBufSize);
                     charCount += rlen;
+                    line[charCount++] = '\n';
                 }
                 if (stringCollector.addString(line, 0, charCount)) {
                     lineCount++;
@@ -172,6 +182,180 @@ public class TextFileReader
         return lineCount;
     }
     
+    static final int sMaxMapBytes = 1 << 30;
+    
+    /** Is the byte an ASCII letter?  No byte of a multi-byte UTF-8 char is. */
+    static boolean isAsciiLetter(byte b)
+    {
+        return (char) ((b | 0x20) - 'a') < 26;      // one unsigned comparison for either case
+    }
+    
+    /**
+     * @return the index after the last non-letter in bytes[beg] to bytes[end - 1], so that no
+     *         word is split there, or end if they are all letters
+     */
+    static int afterLastNonLetter(ByteBuffer bytes, int beg, int end)
+    {
+        for (int j = end; j > beg; j--)
+            if ( ! isAsciiLetter(bytes.get(j - 1)))
+                return j;
+        return end;
+    }
+    
+    /**
+     * Hands each run of ASCII letters in bytes[beg] to bytes[end - 1] to the collector.
+     * @return the number of words for which the collector changed
+     */
+    static int addWords(StringCollectorInterface<?> stringCollector, ByteBuffer bytes, int beg, int end)
+    {
+        int wordCount = 0, wordBeg = -1;
+        for (int j = beg; j < end; j++) {
+            if (isAsciiLetter(bytes.get(j))) {
+                if (wordBeg < 0)
+                    wordBeg = j;
+            } else if (wordBeg >= 0) {
+                if (stringCollector.addBytes(bytes, wordBeg, j))
+                    wordCount++;
+                wordBeg = -1;
+            }
+        }
+        if (wordBeg >= 0 && stringCollector.addBytes(bytes, wordBeg, end))
+            wordCount++;
+        return wordCount;
+    }
+    
+    /**
+     * Memory-maps the file and hands each word -- each run of ASCII letters, as in
+     * TextFilters.collectLowerCaseLetterWords but not lower-cased -- to the collector as a
+     * slice of the mapped bytes, by addBytes, with no decoding into chars and no copying or
+     * allocation per block, line, or word.  The file must be ASCII, UTF-8, or ISO-8859-1; other
+     * chars delimit words.  A file larger than sMaxMapBytes is mapped in windows that end
+     * between words.
+     * 
+     * @return the number of words for which the collector changed
+     */
+    public int readWordsIntoByteCollector(StringCollectorInterface<?> stringCollector)
+    {
+        int wordCount = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(mTextFilePath), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long pos = 0; pos < size; ) {
+                int mapSize = (int) Math.min(size - pos, sMaxMapBytes);
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, pos, mapSize);
+                int end = mapSize;
+                if (pos + mapSize < size)
+                    end = afterLastNonLetter(mapped, 0, mapSize);
+                wordCount += addWords(stringCollector, mapped, 0, end);
+                pos += end;
+            }
+        } catch (IOException e) {
+            System.out.println("Exception mapping " + mTextFilePath);
+            e.printStackTrace();
+        }
+        return wordCount;
+    }
+    
+    /** Counts words -- runs of ASCII letters -- and their letters, from lines, blocks, or byte slices */
+    static class WordCountingCollector implements StringCollectorInterface<long[]>
+    {
+        final long mCounts[] = new long[2];     // words, letters
+        
+        @Override
+        public boolean addString(String str)
+        {
+            int wordBeg = -1, length = str.length();
+            for (int j = 0; j <= length; j++) {
+                char chr = j < length ? str.charAt(j) : ' ';
+                if (('a' <= chr && chr <= 'z') || ('A' <= chr && chr <= 'Z')) {
+                    if (wordBeg < 0)
+                        wordBeg = j;
+                } else if (wordBeg >= 0) {
+                    mCounts[0]++;
+                    mCounts[1] += j - wordBeg;
+                    wordBeg = -1;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean addString(char[] chr, int beg, int end)
+        {
+            int wordBeg = -1;
+            for (int j = beg; j <= end; j++) {
+                char chr_j = j < end ? chr[j] : ' ';
+                if (('a' <= chr_j && chr_j <= 'z') || ('A' <= chr_j && chr_j <= 'Z')) {
+                    if (wordBeg < 0)
+                        wordBeg = j;
+                } else if (wordBeg >= 0) {
+                    mCounts[0]++;
+                    mCounts[1] += j - wordBeg;
+                    wordBeg = -1;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public boolean addBytes(ByteBuffer bytes, int beg, int end)
+        {
+            mCounts[0]++;
+            mCounts[1] += end - beg;
+            return true;
+        }
+        
+        @Override
+        public boolean contains(final String str)
+        {
+            return false;
+        }
+        
+        @Override
+        public int size()
+        {
+            return (int) mCounts[0];
+        }
+        
+        @Override
+        public long[] getCollector()
+        {
+            return mCounts;
+        }
+    }
+    
+    /**
+     * Times reading all the words of the file by lines (one String per line), by char blocks,
+     * and by mapped bytes, with the bytes each path allocates, and checks that all three find the same words.
+     * For a fair comparison, run it on a file much larger than the JIT warm-up, such as 1 GB,
+     * made by concatenating text files.
+     * 
+     * @return 0 if all three paths found the same words and letters, or else 1
+     */
+    public static int test_readThroughput(String textFilePath)
+    {
+        TextFileReader tfr = new TextFileReader(textFilePath);
+        double megabytes = new File(textFilePath).length() * 1.0e-6;
+        String names[] = { "readIntoStringCollector", "readIntoCharrayCollector", "readWordsIntoByteCollector" };
+        long counts[][] = new long[names.length][];
+        for (int path = 0; path < names.length; path++) {
+            WordCountingCollector collector = new WordCountingCollector();
+            long begAlloc = Sz.threadAllocatedBytes(), begTime = System.nanoTime();
+            switch (path) {
+                case 0:  tfr.readIntoStringCollector(collector);    break;
+                case 1:  tfr.readIntoCharrayCollector(collector);   break;
+                default: tfr.readWordsIntoByteCollector(collector); break;
+            }
+            double seconds = (System.nanoTime() - begTime) * 1.0e-9;
+            double allocated = (Sz.threadAllocatedBytes() - begAlloc) * 1.0e-6;
+            counts[path] = collector.getCollector();
+            System.out.format("%-28s %10d words %12d letters %8.2f s %8.1f MB/s %10.1f MB allocated\n"
+                    , names[path], counts[path][0], counts[path][1], seconds, megabytes / seconds, allocated);
+        }
+        boolean same = Arrays.equals(counts[0], counts[1]) && Arrays.equals(counts[0], counts[2]);
+        System.out.println("test_readThroughput " + textFilePath + ": " + (same ? "same words" : "DIFFERENT words"));
+        return same ? 0 : 1;
+    }
+    
     public static int unit_test(final String[] args)
     {
         
@@ -280,7 +464,13 @@ public class TextFileReader
         return 0;
     }
     
-    public static void main(final String[] args) { unit_test(args); }
+    public static void main(final String[] args)
+    {
+        if (args.length > 1 && args[0].equals("-bench"))
+            test_readThroughput(args[1]);
+        else
+            unit_test(args);
+    }
     
     
     // Overly-specified method depends on final, class-scope data of non-generic type HashSet<String>:
@@ -0,0 +1,433 @@
+package sprax.hadoop;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In-process map-reduce over text files, with no Hadoop dependency, for
+ * counting jobs shaped like WordCount: a Mapper writes (key, int) pairs for
+ * each line, and a Reducer folds two int values for the same key into one.
+ *
+ * The files are cut into splits of about splitBytes, and each line belongs to
+ * the split in which it starts, as in Hadoop's TextInputFormat.  Each map task
+ * maps only its own split into memory, with an overlap past its end in which to
+ * finish its last line, so files may be larger than one mapping can hold (2 GB).
+ * One map task per split runs on a work-stealing pool and
+ * writes into its own combiner, an open-addressing table of keys and primitive
+ * int values, so a task allocates nothing per pair for keys it has seen.  When a
+ * task is done, its combiner is cut into one sorted run per reduce partition, by
+ * key hash.  Then one reduce task per partition merges the sorted runs of all
+ * the map tasks with a k-way heap merge, folding the values of equal keys.
+ *
+ * The Reducer serves as the combiner too, as IntSumReducer does in WordCount,
+ * so it must be associative and commutative.  Hadoop's reducer gets all the
+ * values of a key at once; folding them two at a time is the same for sums,
+ * maxima, and the like, and needs no buffering of values.
+ *
+ * @author Sprax Lines
+ */
+public class LocalMapReduce<K>
+{
+    static final int DEFAULT_SPLIT_BYTES = 1 << 22;
+    static final int LINE_OVERLAP_BYTES = 1 << 16;     // mapped past a split to finish its last line, at first
+
+    /** Receives (key, value) pairs, like the Context of a Hadoop Mapper or Reducer */
+    public interface Context<K>
+    {
+        void write(K key, int value);
+    }
+
+    /** Maps one line of text to any number of (key, value) pairs */
+    public interface Mapper<K>
+    {
+        void map(String line, Context<K> context);
+    }
+
+    /** Folds two values for the same key into one; must be associative and commutative */
+    public interface Reducer<K>
+    {
+        int reduce(K key, int valueA, int valueB);
+    }
+
+    final Mapper<K>             mMapper;
+    final Reducer<K>            mReducer;
+    final Comparator<? super K> mKeyComparator;
+    final Charset               mCharset;
+    final int                   mSplitBytes;
+    final int                   mParallelism;
+
+    public LocalMapReduce(Mapper<K> mapper, Reducer<K> reducer, Comparator<? super K> keyComparator
+            , Charset charset, int splitBytes, int parallelism)
+    {
+        assert (splitBytes > 0 && parallelism > 0);
+        mMapper = mapper;
+        mReducer = reducer;
+        mKeyComparator = keyComparator;
+        mCharset = charset;
+        mSplitBytes = splitBytes;
+        mParallelism = parallelism;
+    }
+
+    /** Uses 4 MB splits and all available processors */
+    public LocalMapReduce(Mapper<K> mapper, Reducer<K> reducer, Comparator<? super K> keyComparator, Charset charset)
+    {
+        this(mapper, reducer, keyComparator, charset, DEFAULT_SPLIT_BYTES, Runtime.getRuntime().availableProcessors());
+    }
+
+    /** Byte range of a file; owns the lines that start in it */
+    static final class Split
+    {
+        final Path mFile;
+        final long mFileSize;
+        final long mBeg;
+        final long mEnd;
+
+        Split(Path file, long fileSize, long beg, long end)
+        {
+            mFile = file;
+            mFileSize = fileSize;
+            mBeg = beg;
+            mEnd = end;
+        }
+    }
+
+    /** Sorted keys and their values, as made by a map task for one partition, or by a reduce task */
+    public static final class Run<K>
+    {
+        final K   mKeys[];
+        final int mValues[];
+
+        Run(K keys[], int values[])
+        {
+            mKeys = keys;
+            mValues = values;
+        }
+
+        public int size()
+        {
+            return mKeys.length;
+        }
+
+        public void forEach(Context<? super K> context)
+        {
+            for (int j = 0; j < mKeys.length; j++)
+                context.write(mKeys[j], mValues[j]);
+        }
+    }
+
+    /** Output of a job: one sorted run per reduce partition */
+    public static final class Result<K>
+    {
+        final List<Run<K>> mPartitions;
+
+        Result(List<Run<K>> partitions)
+        {
+            mPartitions = partitions;
+        }
+
+        /** @return the number of distinct keys */
+        public int size()
+        {
+            int size = 0;
+            for (Run<K> run : mPartitions)
+                size += run.size();
+            return size;
+        }
+
+        /** Writes all the (key, value) pairs, sorted within each partition */
+        public void forEach(Context<? super K> context)
+        {
+            for (Run<K> run : mPartitions)
+                run.forEach(context);
+        }
+    }
+
+    /**
+     * Open-addressing table from keys to int values, which folds each value
+     * written for a key already in it with the Reducer.
+     */
+    final class Combiner implements Context<K>
+    {
+        Object mKeys[]   = new Object[1024];
+        int    mValues[] = new int[1024];
+        int    mSize;
+
+        @Override
+        public void write(K key, int value)
+        {
+            int slot = slotOf(mKeys, key);
+            if (mKeys[slot] != null)
+            {
+                @SuppressWarnings("unchecked")
+                K old = (K) mKeys[slot];
+                mValues[slot] = mReducer.reduce(old, mValues[slot], value);
+                return;
+            }
+            mKeys[slot] = key;
+            mValues[slot] = value;
+            if (++mSize * 2 > mKeys.length)     // keep the load factor at most 1/2
+                rehash();
+        }
+
+        private void rehash()
+        {
+            Object oldKeys[] = mKeys;
+            int oldValues[] = mValues;
+            mKeys = new Object[oldKeys.length * 2];
+            mValues = new int[oldKeys.length * 2];
+            for (int j = 0; j < oldKeys.length; j++)
+            {
+                if (oldKeys[j] != null)
+                {
+                    int slot = slotOf(mKeys, oldKeys[j]);
+                    mKeys[slot] = oldKeys[j];
+                    mValues[slot] = oldValues[j];
+                }
+            }
+        }
+
+        /** Cuts the table into one sorted run per partition */
+        @SuppressWarnings("unchecked")
+        List<Run<K>> sortedRuns(int numPartitions)
+        {
+            int sizes[] = new int[numPartitions];
+            for (Object key : mKeys)
+                if (key != null)
+                    sizes[partitionOf(key, numPartitions)]++;
+            K keys[][] = (K[][]) new Object[numPartitions][];
+            for (int p = 0; p < numPartitions; p++)
+                keys[p] = (K[]) new Object[sizes[p]];
+            Arrays.fill(sizes, 0);
+            for (Object key : mKeys)
+            {
+                if (key != null)
+                {
+                    int p = partitionOf(key, numPartitions);
+                    keys[p][sizes[p]++] = (K) key;
+                }
+            }
+            List<Run<K>> runs = new ArrayList<Run<K>>(numPartitions);
+            for (int p = 0; p < numPartitions; p++)
+            {
+                Arrays.sort(keys[p], mKeyComparator);
+                int values[] = new int[keys[p].length];
+                for (int j = 0; j < values.length; j++)
+                    values[j] = mValues[slotOf(mKeys, keys[p][j])];
+                runs.add(new Run<K>(keys[p], values));
+            }
+            return runs;
+        }
+    }
+
+    static int spread(int hash)
+    {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    static int slotOf(Object keys[], Object key)
+    {
+        int mask = keys.length - 1;
+        int slot = spread(key.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    static int partitionOf(Object key, int numPartitions)
+    {
+        return (spread(key.hashCode()) >>> 1) % numPartitions;
+    }
+
+    /** Cuts each file into splits of about mSplitBytes; maps nothing yet */
+    List<Split> splitFiles(List<Path> files) throws IOException
+    {
+        List<Split> splits = new ArrayList<Split>();
+        for (Path file : files)
+        {
+            long size = Files.size(file);
+            for (long beg = 0; beg < size; beg += mSplitBytes)
+                splits.add(new Split(file, size, beg, Math.min(size, beg + mSplitBytes)));
+        }
+        return splits;
+    }
+
+    /**
+     * Runs the mapper on every line that starts in the split, writing into a new combiner.
+     * Maps the split from the byte before it, to tell whether a line starts at its first byte,
+     * through LINE_OVERLAP_BYTES past its end, and maps again with twice the overlap for as
+     * long as the last line runs past that.
+     */
+    Combiner mapSplit(Split split) throws IOException
+    {
+        Combiner combiner = new Combiner();
+        long winBeg = Math.max(0, split.mBeg - 1);
+        try (FileChannel channel = FileChannel.open(split.mFile, StandardOpenOption.READ))
+        {
+            for (long overlap = LINE_OVERLAP_BYTES; ; overlap *= 2)
+            {
+                long winEnd = Math.min(split.mFileSize, split.mEnd + overlap);
+                if (winEnd - winBeg > Integer.MAX_VALUE)
+                    throw new IOException("Line too long to map, in " + split.mFile + " after byte " + split.mEnd);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, winBeg, winEnd - winBeg);
+                int limit = window.limit();
+                // A line starting before the split belongs to the split before this one
+                int beg = (int) (split.mBeg - winBeg), end = (int) (split.mEnd - winBeg);
+                if (beg > 0)
+                {
+                    while (beg < end && window.get(beg - 1) != '\n')
+                        beg++;
+                }
+                if (beg >= end)
+                    return combiner;
+                // The last line starting in the split is read to its end, past the split if need be
+                while (end < limit && window.get(end - 1) != '\n')
+                    end++;
+                if (window.get(end - 1) == '\n' || winEnd == split.mFileSize)
+                {
+                    mapLines(window, beg, end, combiner);
+                    return combiner;
+                }
+            }
+        }
+    }
+
+    /** Runs the mapper on the lines in window[beg] to window[end - 1] */
+    void mapLines(MappedByteBuffer window, int beg, int end, Combiner combiner)
+    {
+        byte bytes[] = new byte[end - beg];
+        window.position(beg);
+        window.get(bytes);
+        String text = new String(bytes, mCharset);
+        for (int lineBeg = 0, lineEnd; lineBeg < text.length(); lineBeg = lineEnd + 1)
+        {
+            lineEnd = text.indexOf('\n', lineBeg);
+            if (lineEnd < 0)
+                lineEnd = text.length();
+            int trimEnd = lineEnd > lineBeg && text.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+            mMapper.map(text.substring(lineBeg, trimEnd), combiner);
+        }
+    }
+
+    /** Cursor on one sorted run in a k-way merge */
+    static final class Cursor<K>
+    {
+        final Run<K> mRun;
+        int          mIndex;
+
+        Cursor(Run<K> run)
+        {
+            mRun = run;
+        }
+
+        K key()
+        {
+            return mRun.mKeys[mIndex];
+        }
+    }
+
+    /** Merges sorted runs into one, folding the values of equal keys */
+    @SuppressWarnings("unchecked")
+    Run<K> mergeRuns(List<Run<K>> runs)
+    {
+        PriorityQueue<Cursor<K>> heap = new PriorityQueue<Cursor<K>>(Math.max(1, runs.size())
+                , (cursorA, cursorB) -> mKeyComparator.compare(cursorA.key(), cursorB.key()));
+        int maxSize = 0;
+        for (Run<K> run : runs)
+        {
+            if (run.size() > 0)
+                heap.add(new Cursor<K>(run));
+            maxSize += run.size();
+        }
+        K keys[] = (K[]) new Object[maxSize];
+        int values[] = new int[maxSize];
+        int size = 0;
+        while (!heap.isEmpty())
+        {
+            Cursor<K> cursor = heap.poll();
+            K key = cursor.key();
+            int value = cursor.mRun.mValues[cursor.mIndex];
+            if (size > 0 && mKeyComparator.compare(keys[size - 1], key) == 0)
+                values[size - 1] = mReducer.reduce(key, values[size - 1], value);
+            else
+            {
+                keys[size] = key;
+                values[size++] = value;
+            }
+            if (++cursor.mIndex < cursor.mRun.size())
+                heap.add(cursor);
+        }
+        return new Run<K>(Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+    }
+
+    /**
+     * Runs the job on the files: all map tasks, then all reduce tasks.
+     * Exceptions thrown by the Mapper or Reducer, or in reading the files, are rethrown here.
+     */
+    public Result<K> run(List<Path> files) throws IOException, InterruptedException
+    {
+        List<Split> splits = splitFiles(files);
+        ExecutorService pool = Executors.newWorkStealingPool(mParallelism);
+        try
+        {
+            List<Callable<List<Run<K>>>> mapTasks = new ArrayList<Callable<List<Run<K>>>>(splits.size());
+            for (Split split : splits)
+                mapTasks.add(() -> mapSplit(split).sortedRuns(mParallelism));
+            List<List<Run<K>>> mapOutputs = new ArrayList<List<Run<K>>>(splits.size());
+            for (Future<List<Run<K>>> future : pool.invokeAll(mapTasks))
+                mapOutputs.add(getResult(future));
+
+            List<Callable<Run<K>>> reduceTasks = new ArrayList<Callable<Run<K>>>(mParallelism);
+            for (int p = 0; p < mParallelism; p++)
+            {
+                List<Run<K>> runs = new ArrayList<Run<K>>(mapOutputs.size());
+                for (List<Run<K>> mapOutput : mapOutputs)
+                    runs.add(mapOutput.get(p));
+                reduceTasks.add(() -> mergeRuns(runs));
+            }
+            List<Run<K>> partitions = new ArrayList<Run<K>>(mParallelism);
+            for (Future<Run<K>> future : pool.invokeAll(reduceTasks))
+                partitions.add(getResult(future));
+            return new Result<K>(partitions);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            // The work-stealing pool wraps an IOException from a map task in RuntimeExceptions
+            for (Throwable inner = cause; inner != null; inner = inner.getCause())
+                if (inner instanceof IOException)
+                    throw (IOException) inner;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package sprax.hadoop;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import sprax.files.FileUtil;
+import sprax.sprout.Sx;
+
+/**
+ * WordCount run by LocalMapReduce on one machine, with no Hadoop cluster:
+ * the same TokenizerMapper and IntSumReducer as in WordCount, written against
+ * the small Mapper and Reducer interfaces of LocalMapReduce.
+ *
+ * Usage: LocalWordCount inputFile...
+ * Prints each word and its count, tab-separated, like the part files of WordCount.
+ *
+ * @author Sprax Lines
+ */
+public class LocalWordCount
+{
+    public static class TokenizerMapper implements LocalMapReduce.Mapper<String>
+    {
+        @Override
+        public void map(String line, LocalMapReduce.Context<String> context)
+        {
+            StringTokenizer itr = new StringTokenizer(line);
+            while (itr.hasMoreTokens())
+                context.write(itr.nextToken(), 1);
+        }
+    }
+
+    public static class IntSumReducer implements LocalMapReduce.Reducer<String>
+    {
+        @Override
+        public int reduce(String key, int valueA, int valueB)
+        {
+            return valueA + valueB;
+        }
+    }
+
+    public static LocalMapReduce<String> newJob(int splitBytes, int parallelism)
+    {
+        return new LocalMapReduce<String>(new TokenizerMapper(), new IntSumReducer(), Comparator.naturalOrder()
+                , StandardCharsets.ISO_8859_1, splitBytes, parallelism);
+    }
+
+    /** Counts the words of the files on one thread, with no splits, for comparison */
+    static Map<String, Integer> countSequentially(List<Path> files) throws IOException
+    {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Path file : files)
+        {
+            for (String line : Files.readAllLines(file, StandardCharsets.ISO_8859_1))
+            {
+                StringTokenizer itr = new StringTokenizer(line);
+                while (itr.hasMoreTokens())
+                    counts.merge(itr.nextToken(), 1, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
+    /** @return the number of keys whose counts differ from the expected counts */
+    static int countDifferences(LocalMapReduce.Result<String> result, Map<String, Integer> expected)
+    {
+        int numWrong[] = { Math.abs(result.size() - expected.size()) };
+        result.forEach((word, count) -> {
+            Integer expectedCount = expected.get(word);
+            if (expectedCount == null || expectedCount != count)
+                numWrong[0]++;
+        });
+        return numWrong[0];
+    }
+
+    /**
+     * Counts a file with a line several times longer than LocalMapReduce.LINE_OVERLAP_BYTES,
+     * across many small splits, so that a map task must map its split again with more overlap.
+     * @return the number of keys whose counts are wrong
+     */
+    static int test_longLines() throws IOException, InterruptedException
+    {
+        StringBuilder sb = new StringBuilder("short line\nanother short line\n");
+        for (int j = 0; sb.length() < 5 * LocalMapReduce.LINE_OVERLAP_BYTES; j++)
+            sb.append("word").append(j % 1000).append(' ');
+        sb.append("\nlast line\r\nno newline at the end");
+        Path file = Files.createTempFile("LocalWordCount", ".txt");
+        try
+        {
+            Files.write(file, sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+            List<Path> files = Collections.singletonList(file);
+            return countDifferences(newJob(4096, 2).run(files), countSequentially(files));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    public static int unit_test()
+    {
+        String testName = LocalWordCount.class.getName() + ".unit_test";
+        Sx.puts(testName + " BEGIN");
+        int numWrong = 0;
+        List<Path> files = new ArrayList<Path>();
+        for (String fileName : new String[] { "Melville_MobyDick.txt", "Melville_Pierre.txt", "Iliad.txt" })
+            files.add(Paths.get(FileUtil.getTextFilePath(fileName)));
+        try
+        {
+            long begTime = System.nanoTime();
+            Map<String, Integer> expected = countSequentially(files);
+            double seqMs = (System.nanoTime() - begTime) * 1.0e-6;
+
+            // Small splits cut lines everywhere, and more partitions than threads are fine
+            numWrong += countDifferences(newJob(4096, 3).run(files), expected);
+            numWrong += test_longLines();
+
+            int numCpus = Runtime.getRuntime().availableProcessors();
+            begTime = System.nanoTime();
+            LocalMapReduce.Result<String> result = newJob(LocalMapReduce.DEFAULT_SPLIT_BYTES, 1).run(files);
+            double oneMs = (System.nanoTime() - begTime) * 1.0e-6;
+            numWrong += countDifferences(result, expected);
+            begTime = System.nanoTime();
+            result = newJob(1 << 20, numCpus).run(files);
+            double allMs = (System.nanoTime() - begTime) * 1.0e-6;
+            numWrong += countDifferences(result, expected);
+            Sx.format("    %d words:  sequential HashMap %.1f ms,  map-reduce on 1 thread %.1f ms,  on %d threads %.1f ms\n"
+                    , result.size(), seqMs, oneMs, numCpus, allMs);
+        }
+        catch (IOException | InterruptedException e)
+        {
+            Sx.puts("Exception counting words in " + files);
+            e.printStackTrace();
+            numWrong++;
+        }
+        Sx.puts(testName + " END, wrong " + numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0)
+        {
+            unit_test();
+            return;
+        }
+        List<Path> files = new ArrayList<Path>();
+        for (String arg : args)
+            files.add(Paths.get(arg));
+        LocalMapReduce.Result<String> result = newJob(LocalMapReduce.DEFAULT_SPLIT_BYTES
+                , Runtime.getRuntime().availableProcessors()).run(files);
+        result.forEach((word, count) -> System.out.println(word + "\t" + count));
+    }
+}
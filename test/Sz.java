@@ -1,5 +1,6 @@
 package sprax.test;
 
+import java.lang.management.ManagementFactory;
 import java.util.List;
 
 import sprax.sprout.Sx;
@@ -10,6 +11,8 @@ import sprax.sprout.Sx;
  */
 public class Sz 
 {
+    private static final com.sun.management.ThreadMXBean sThreadBean = threadBeanWithAllocation();
+
     public static int oneIfFalse(boolean result) { return result ? 0 : 1; }
     public static int oneIfDiff(boolean result, boolean expected) { return result == expected ? 0 : 1; }
     public static int oneIfDiff(int result, int expected) { return result == expected ? 0 : 1; }
@@ -50,6 +53,33 @@ public class Sz
                 , testName, numCases - numWrong, numWrong, Sz.passFail(numWrong));
     }
     
+    /** @return the HotSpot thread bean with allocation counting enabled, or null if there is none */
+    private static com.sun.management.ThreadMXBean threadBeanWithAllocation() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean hotSpotBean = (com.sun.management.ThreadMXBean) bean;
+                if (hotSpotBean.isThreadAllocatedMemorySupported()) {
+                    if ( ! hotSpotBean.isThreadAllocatedMemoryEnabled())
+                        hotSpotBean.setThreadAllocatedMemoryEnabled(true);
+                    return hotSpotBean;
+                }
+            }
+        } catch (UnsupportedOperationException | SecurityException | NoClassDefFoundError e) {
+            // fall through: threadAllocatedBytes returns 0
+        }
+        return null;
+    }
+
+    public static boolean isThreadAllocationSupported() {
+        return sThreadBean != null;
+    }
+
+    /** @return bytes allocated so far by this thread, if the JVM can tell, or else 0 */
+    public static long threadAllocatedBytes() {
+        return sThreadBean == null ? 0 : sThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
     public static <T> int compareListAndArray(List<T> list, T[] array)
     {
         int numWrong, numToCompare;
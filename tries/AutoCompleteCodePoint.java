@@ -0,0 +1,140 @@
+package sprax.tries;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Adapts a CodePointTrie to the AutoCompleteInterface, so that text in any
+ * alphabet can be completed the same way AutoCompleteWord completes words
+ * in a WordTrie.  For words in 'a' to 'z', both give the same results.
+ *
+ * @author sprax
+ */
+public class AutoCompleteCodePoint implements AutoCompleteInterface
+{
+    protected final CodePointTrie mTrie;
+
+    public AutoCompleteCodePoint(CodePointTrie trie)
+    {
+        mTrie = trie;
+    }
+
+    public CodePointTrie getTrie()  { return mTrie; }
+
+    @Override
+    public List<String> getPossible(String prefix) {
+        return mTrie.getWordsPartiallyMatchingPrefix(prefix);
+    }
+
+    @Override
+    public List<String> getPossible(String prefix, int limit)
+    {
+        List<String> words = mTrie.getWordsPartiallyMatchingPrefix(prefix);
+        if (words.size() > limit)
+            return words.subList(0, limit);
+        return words;
+    }
+
+    @Override
+    public List<String> getProbable(String prefix) {
+        return getProbable(prefix, 5);
+    }
+
+    /** Returns the most frequent completions, best first, as does AutoCompleteWord.getProbable */
+    @Override
+    public List<String> getProbable(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        return mTrie.getTopWords(prefix, limit);
+    }
+
+    /**
+     * Returns the words that are prefixes of the query, longest first, as
+     * does FrozenWordTrie.getProbablePrefixes.
+     */
+    @Override
+    public List<String> getProbablePrefixes(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<String> words = new ArrayList<String>(limit);
+        CodePointTrie.Node node = mTrie.getRoot();
+        for (int j = 0; j < prefix.length(); ) {
+            int codePoint = prefix.codePointAt(j);
+            if ((node = node.getBranch(codePoint)) == null)
+                break;
+            j += Character.charCount(codePoint);
+            if (node.isWord())
+                words.add(0, prefix.substring(0, j));
+        }
+        return words.size() > limit ? words.subList(0, limit) : words;
+    }
+
+    /**
+     * Returns the probable completions of the longest proper suffix of the
+     * query that is a stem in the trie, or an empty list if there is none,
+     * as does FrozenWordTrie.getProbableSuffixes.
+     */
+    @Override
+    public List<String> getProbableSuffixes(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        for (int beg = prefix.offsetByCodePoints(0, Math.min(1, prefix.length())); beg < prefix.length(); ) {
+            String suffix = prefix.substring(beg);
+            if (mTrie.getNode(suffix) != null)
+                return getProbable(suffix, limit);
+            beg += Character.charCount(prefix.codePointAt(beg));
+        }
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Returns the most probable completions of prefix, allowing for typos:
+     * up to 1 edit in prefixes of up to 4 code points, and up to 2 in longer ones.
+     * @see AutoCompleteWord.getProbableRepaired(String, int)
+     */
+    @Override
+    public List<String> getProbableRepaired(String prefix, int limit) {
+        return getProbableRepaired(prefix, limit, prefix.codePointCount(0, prefix.length()) <= 4 ? 1 : 2);
+    }
+
+    /**
+     * Returns at most limit words that begin within maxDist edits of prefix,
+     * nearest first, and the most probable first among words at the same distance.
+     * @see AutoCompleteWord.getProbableRepaired(String, int, int)
+     */
+    public List<String> getProbableRepaired(String prefix, int limit, int maxDist)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<String> words = new ArrayList<String>(limit);
+        List<CodePointTrie.StemNode> stems = mTrie.getNodesWithinEditDistance(prefix, maxDist);
+        List<CodePointTrie.StemNode> candidates = new ArrayList<CodePointTrie.StemNode>();
+        Set<CodePointTrie.Node> found = new HashSet<CodePointTrie.Node>();
+        CodePointTrie.Node tops[] = new CodePointTrie.Node[limit];
+        String topWords[] = new String[limit];
+        for (int dist = 0; dist <= maxDist && words.size() < limit; dist++) {
+            candidates.clear();
+            for (CodePointTrie.StemNode stem : stems) {
+                if (stem.mDist == dist) {
+                    int numTops = mTrie.getTopWordNodes(stem.mNode, stem.mStem, tops, topWords);
+                    for (int j = 0; j < numTops; j++)
+                        candidates.add(new CodePointTrie.StemNode(tops[j], topWords[j], dist));
+                }
+            }
+            candidates.sort((stemA, stemB) -> CodePointTrie.compareCounts(stemA.mNode, stemB.mNode));    // stable
+            for (CodePointTrie.StemNode candidate : candidates) {
+                if (found.add(candidate.mNode)) {
+                    words.add(candidate.mStem);
+                    if (words.size() == limit)
+                        break;
+                }
+            }
+        }
+        return words;
+    }
+}
@@ -2,7 +2,11 @@ package sprax.tries;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import sprax.arrays.ArrayIter;
 import sprax.files.FileUtil;
@@ -10,6 +14,7 @@ import sprax.files.TextFileToStringCollection;
 import sprax.files.TextFilters;
 import sprax.heaps.MinHeap;
 import sprax.sprout.Sx;
+import sprax.test.Sz;
 import sprax.tries.WordTrie.WordNode;
 
 public class AutoCompleteWord implements AutoCompleteInterface
@@ -78,10 +83,28 @@ public class AutoCompleteWord implements AutoCompleteInterface
     }
 
     /**
-     * returns list of probable matches (or an empty list if no matches are found)
+     * Returns list of the most probable completions, best first, or an empty 
+     * list if no matches are found.  Uses the trie's cached top words, so the
+     * time is O(|prefix| + limit), independent of the size of the sub-trie.
+     * @see WordTrie.getTopWordNodes
      */
     @Override
     public List<String> getProbable(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<WordNode> nodes = mWordTrie.getTopWordNodes(prefix, limit);
+        List<String> words = new ArrayList<String>(nodes.size());
+        for (WordNode node : nodes)
+            words.add(node.getWord());
+        return words;
+    }
+
+    /**
+     * returns list of probable matches found by greedy continuation
+     * (or an empty list if no matches are found)
+     */
+    public List<String> getProbableGreedy(String prefix, int limit)
     {
         assert(prefix != null);
         assert(limit > 0);
@@ -261,10 +284,334 @@ public class AutoCompleteWord implements AutoCompleteInterface
         return null;
     }
 
+    /**
+     * Returns the most probable completions of prefix, allowing for typos:
+     * up to 1 edit in prefixes of up to 4 letters, and up to 2 in longer ones.
+     * @see getProbableRepaired(String, int, int)
+     */
     @Override
     public List<String> getProbableRepaired(String prefix, int limit) {
-        // TODO Auto-generated method stub
-        return null;
+        return getProbableRepaired(prefix, limit, prefix.length() <= 4 ? 1 : 2);
+    }
+
+    /**
+     * Returns at most limit words that begin within maxDist edits of prefix,
+     * nearest first, and the most probable first among words at the same distance.
+     * An exact prefix (distance 0) gives the same words first as getProbable.
+     */
+    public List<String> getProbableRepaired(String prefix, int limit, int maxDist)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<String> words = new ArrayList<String>(limit);
+        List<WordTrie.NodeCount> stems = mWordTrie.getNodesWithinEditDistance(prefix, maxDist, false);
+        Set<WordNode> found = new HashSet<WordNode>();
+        List<WordNode> candidates = new ArrayList<WordNode>();
+        for (int dist = 0; dist <= maxDist && words.size() < limit; dist++) {
+            candidates.clear();
+            for (WordTrie.NodeCount stem : stems) {
+                if (stem.mCount == dist)
+                    candidates.addAll(mWordTrie.getTopWordNodes(stem.mNode, limit));
+            }
+            Collections.sort(candidates, new Comparator<WordNode>() {
+                @Override
+                public int compare(WordNode nodeA, WordNode nodeB) {
+                    return WordTrie.compareCounts(nodeA, nodeB);
+                }
+            });
+            for (WordNode node : candidates) {
+                if (found.add(node)) {
+                    words.add(node.getWord());
+                    if (words.size() == limit)
+                        break;
+                }
+            }
+        }
+        return words;
+    }
+
+    /** Returns the words of the first (up to) limit nodes in topWords */
+    protected static List<String> getWords(WordNode topWords[], int limit)
+    {
+        int length = Math.min(limit, topWords.length);
+        List<String> words = new ArrayList<String>(length);
+        for (int j = 0; j < length; j++)
+            words.add(topWords[j].getWord());
+        return words;
+    }
+
+    /** Returns the branch of node for chr, or null if there is none or chr is not a letter */
+    protected static WordNode getBranch(WordNode node, char chr)
+    {
+        if (chr < WordTrie.sFirstLetter || chr > WordTrie.sLastLetter)
+            return null;
+        return node.getBranchAtLetter(chr);
+    }
+
+    /**
+     * Keystroke-by-keystroke completion of one query.  Each append moves one
+     * branch down from the previous node instead of re-walking from the root,
+     * and the results for each length of the query so far are kept, so that
+     * backspace costs nothing, and neither does typing past the end of the
+     * known stems, which just keeps the completions of the longest stem found,
+     * as getProbable does.  Results are the same as getProbable(getPrefix(), limit).
+     * If the trie changes, call reset() to drop the kept results.
+     */
+    public class Session
+    {
+        protected final int            mLimit;
+        protected final StringBuilder  mPrefix  = new StringBuilder();
+        /** mNodes.get(j) is the longest stem node for the first j chars of the prefix */
+        protected final List<WordNode>     mNodes   = new ArrayList<WordNode>();
+        protected final List<WordNode[]>   mTopWords = new ArrayList<WordNode[]>();
+        protected final List<List<String>> mResults = new ArrayList<List<String>>();
+        protected int                  mNumMatched;    // length of the longest stem found
+
+        protected Session(int limit)
+        {
+            mLimit = limit;
+            reset();
+        }
+
+        public String  getPrefix()      { return mPrefix.toString(); }
+        public int     getNumMatched()  { return mNumMatched; }
+
+        /** Returns the current completions without changing the prefix */
+        public List<String> getProbable()
+        {
+            return mResults.get(mPrefix.length());
+        }
+
+        /** Clears the prefix and returns the completions of the empty prefix */
+        public List<String> reset()
+        {
+            mPrefix.setLength(0);
+            mNodes.clear();
+            mTopWords.clear();
+            mResults.clear();
+            mNumMatched = 0;
+            WordNode root = mWordTrie.getRoot();
+            WordNode topWords[] = mWordTrie.getTopWordsArray(root, mLimit);
+            mNodes.add(root);
+            mTopWords.add(topWords);
+            mResults.add(getWords(topWords, mLimit));
+            return getProbable();
+        }
+
+        /** Adds one char to the end of the prefix and returns the new completions */
+        public List<String> append(char chr)
+        {
+            int length = mPrefix.length();
+            WordNode node = mNodes.get(length);
+            WordNode next = (mNumMatched == length) ? getBranch(node, chr) : null;
+            mPrefix.append(chr);
+            WordNode topWords[] = mTopWords.get(length);
+            List<String> results = mResults.get(length);
+            if (next != null) {
+                mNumMatched++;
+                node = next;
+                WordNode nextTopWords[] = mWordTrie.getTopWordsArray(next, mLimit);
+                if (nextTopWords != topWords) {
+                    topWords = nextTopWords;
+                    results  = getWords(topWords, mLimit);
+                }
+            }
+            // Off the trie, or on a chain with the same top words, reuse the previous results.
+            mNodes.add(node);
+            mTopWords.add(topWords);
+            mResults.add(results);
+            return getProbable();
+        }
+
+        /** Appends each char of str in turn and returns the final completions */
+        public List<String> append(String str)
+        {
+            for (int j = 0; j < str.length(); j++)
+                append(str.charAt(j));
+            return getProbable();
+        }
+
+        /** Removes the last char of the prefix, if any, and returns the kept completions */
+        public List<String> backspace()
+        {
+            int length = mPrefix.length();
+            if (length > 0) {
+                mPrefix.setLength(--length);
+                mNodes.remove(length + 1);
+                mTopWords.remove(length + 1);
+                mResults.remove(length + 1);
+                if (mNumMatched > length)
+                    mNumMatched = length;
+            }
+            return getProbable();
+        }
+    }
+
+    /** Starts a new keystroke-by-keystroke session returning at most limit completions */
+    public Session newSession(int limit)
+    {
+        assert(limit > 0);
+        return new Session(limit);
+    }
+
+    /**
+     * Answers many prefixes in one pass: each prefix starts from the deepest
+     * node it shares with the one before, and prefixes ending on nodes with
+     * the same top words share one result list.  So the prefixes need not be
+     * sorted, but sorted input, or input in keystroke order (as in "h", "ha",
+     * "hat"), is answered in amortized O(1) steps per prefix.
+     * @return the completions of each prefix, as by getProbable, in the same order as prefixes
+     */
+    public List<List<String>> getProbable(List<String> prefixes, int limit)
+    {
+        assert(limit > 0);
+        List<List<String>> results = new ArrayList<List<String>>(prefixes.size());
+        WordNode path[] = new WordNode[mWordTrie.getMaxWordLen() + 2];
+        path[0] = mWordTrie.getRoot();
+        int numMatched = 0;
+        String prev = "";
+        WordNode prevTopWords[] = null;
+        List<String> prevResult = null;
+        for (String prefix : prefixes) {
+            int common = 0, maxCommon = Math.min(numMatched, prefix.length());
+            while (common < maxCommon && prefix.charAt(common) == prev.charAt(common))
+                common++;
+            numMatched = common;
+            while (numMatched < prefix.length() && numMatched + 1 < path.length) {
+                WordNode next = getBranch(path[numMatched], prefix.charAt(numMatched));
+                if (next == null)
+                    break;
+                path[++numMatched] = next;
+            }
+            WordNode topWords[] = mWordTrie.getTopWordsArray(path[numMatched], limit);
+            if (topWords != prevTopWords) {
+                prevTopWords = topWords;
+                prevResult   = getWords(topWords, limit);
+            }
+            results.add(prevResult);
+            prev = prefix;
+        }
+        return results;
+    }
+
+    /** Returns all word nodes under node, sorted as by WordTrie.getTopWordNodes */
+    protected static List<WordNode> test_sortAllWordNodes(WordTrie trie, WordNode node)
+    {
+        List<WordNode> nodes = new ArrayList<WordNode>();
+        for (String word : node.getWords())
+            nodes.add(trie.getWordNode(word));
+        Collections.sort(nodes, new Comparator<WordNode>() {
+            @Override
+            public int compare(WordNode nodeA, WordNode nodeB) {
+                return WordTrie.compareCounts(nodeA, nodeB);   // stable, so ties stay alphabetical
+            }
+        });
+        return nodes;
+    }
+
+    /**
+     * Times getProbable on every 1- and 2-letter prefix in the trie, and reports
+     * the median and 99th percentile latencies for the cached top words versus
+     * searching the sub-trie with WordTrie.getProbableWordNodes.  Also checks the
+     * cached words against a full sort of each sub-trie.
+     */
+    protected static int test_timeGetProbable(AutoCompleteWord auto, int limit, int numTrials)
+    {
+        int numWrong = 0;
+        WordTrie trie = auto.getTrie();
+        List<String> prefixes = new ArrayList<String>();
+        for (WordNode w1 = trie.getRoot().getFirstBranch(); w1 != null; w1 = w1.getNextBranch()) {
+            prefixes.add(w1.getStem());
+            for (WordNode w2 = w1.getFirstBranch(); w2 != null; w2 = w2.getNextBranch())
+                prefixes.add(w2.getStem());
+        }
+        trie.setAllTopWords(limit);
+        for (String prefix : prefixes) {
+            List<WordNode> sorted = test_sortAllWordNodes(trie, trie.maxStemNode(prefix));
+            List<WordNode> cached = trie.getTopWordNodes(prefix, limit);
+            numWrong += Sz.oneIfFalse(cached.equals(sorted.subList(0, Math.min(limit, sorted.size()))));
+        }
+
+        WordNode maxNodes[] = new WordNode[limit];
+        MinHeap<WordNode> minHeap = new MinHeap<WordNode>(maxNodes, 0, true);
+        for (int len = 1; len <= 2; len++) {
+            long cachedNanos[] = new long[numTrials * prefixes.size()];
+            long searchNanos[] = new long[numTrials * prefixes.size()];
+            int numTimed = 0;
+            for (int j = 0; j < numTrials; j++) {
+                for (String prefix : prefixes) {
+                    if (prefix.length() != len)
+                        continue;
+                    long begTime = System.nanoTime();
+                    auto.getProbable(prefix, limit);
+                    long midTime = System.nanoTime();
+                    trie.getProbableWordNodes(minHeap, limit, trie.maxStemNode(prefix), trie.getMaxWordLen());
+                    long endTime = System.nanoTime();
+                    cachedNanos[numTimed] = midTime - begTime;
+                    searchNanos[numTimed] = endTime - midTime;
+                    numTimed++;
+                }
+            }
+            Arrays.sort(cachedNanos, 0, numTimed);
+            Arrays.sort(searchNanos, 0, numTimed);
+            Sx.format("getProbable %d-letter prefixes, %d queries:  cached p50 %6d p99 %6d ns,  search p50 %8d p99 %8d ns\n"
+                    , len, numTimed, cachedNanos[numTimed / 2], cachedNanos[numTimed * 99 / 100]
+                    , searchNanos[numTimed / 2], searchNanos[numTimed * 99 / 100]);
+        }
+        return numWrong;
+    }
+
+    /**
+     * Checks Session and the batch getProbable against getProbable, and compares
+     * the time to type each of many words one char at a time each way.
+     */
+    protected static int test_sessionAndBatch(AutoCompleteWord auto, int limit, int numWords)
+    {
+        int numWrong = 0;
+        List<String> words = new ArrayList<String>(auto.getTrie().getAllWords());
+        List<String> typed = new ArrayList<String>();
+        for (int j = 0; j < numWords; j++)
+            typed.add(words.get((int) ((j * 7919L) % words.size())) + (j % 5 == 0 ? "zq" : ""));
+
+        Session session = auto.newSession(limit);
+        for (String word : typed) {
+            session.reset();
+            for (int k = 0; k < word.length(); k++) {
+                List<String> found = session.append(word.charAt(k));
+                numWrong += Sz.oneIfFalse(found.equals(auto.getProbable(word.substring(0, k + 1), limit)));
+            }
+            for (int k = word.length(); --k >= 0; )
+                numWrong += Sz.oneIfFalse(session.backspace().equals(auto.getProbable(word.substring(0, k), limit)));
+        }
+        List<String> prefixes = new ArrayList<String>();
+        for (String word : typed)
+            for (int k = 0; k <= word.length(); k++)
+                prefixes.add(word.substring(0, k));
+        List<List<String>> batch = auto.getProbable(prefixes, limit);
+        for (int j = 0; j < prefixes.size(); j++)
+            numWrong += Sz.oneIfFalse(batch.get(j).equals(auto.getProbable(prefixes.get(j), limit)));
+
+        for (int trial = 0; trial < 3; trial++) {
+            long begTime = System.nanoTime();
+            for (String word : typed) {
+                for (int k = 1; k <= word.length(); k++)
+                    auto.getProbable(word.substring(0, k), limit);
+            }
+            long midTime = System.nanoTime();
+            for (String word : typed) {
+                session.reset();
+                for (int k = 0; k < word.length(); k++)
+                    session.append(word.charAt(k));
+            }
+            long sesTime = System.nanoTime();
+            auto.getProbable(prefixes, limit);
+            long endTime = System.nanoTime();
+            Sx.format("%d keystrokes:  getProbable %6.0f ns,  Session %6.0f ns per key;  batch of %d prefixes %6.0f ns each\n"
+                    , prefixes.size() - typed.size(), (midTime - begTime) * 1.0 / (prefixes.size() - typed.size())
+                    , (sesTime - midTime) * 1.0 / (prefixes.size() - typed.size())
+                    , prefixes.size(), (endTime - sesTime) * 1.0 / prefixes.size());
+        }
+        return numWrong;
     }
 
     protected static int test_textFileToWords(int level) 
@@ -310,6 +657,9 @@ public class AutoCompleteWord implements AutoCompleteInterface
             test_getProbableNodeCounts(auto, str, maxNum, maxStemDepth, 2);
         }
 
+        stat += test_timeGetProbable(auto, maxNum, 20);
+        stat += test_sessionAndBatch(auto, maxNum, 2000);
+
         test_ux_AutoCompleteWord(auto.mWordTrie);
 
         // TODO: automate detection of changing result sets.
@@ -82,8 +82,7 @@ public class AutoCompleter implements AutoCompleteInterface
 
     @Override
     public List<String> getProbableRepaired(String prefix, int limit) {
-        // TODO Auto-generated method stub
-        return null;
+        return new AutoCompleteWord(sWordTrie).getProbableRepaired(prefix, limit);
     }
 
     public static int unit_test(int level) 
@@ -0,0 +1,731 @@
+package sprax.tries;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import sprax.files.FileUtil;
+import sprax.files.StringCollectorInterface;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+import sprax.tries.WordTrie.WordNode;
+
+/**
+ * Word trie over arbitrary Unicode code points, for alphabets that WordTrie
+ * cannot hold, such as the accented Spanish words in aligns.LexiconEnEs.
+ *
+ * WordTrie gives every node a dense array of 26 branches for 'a' to 'z'.
+ * Here, each node picks the layout of its branches to fit its fan-out:
+ *  - no branches:  null
+ *  - one branch:   the branch node itself, inline
+ *  - a few:        a sorted array of nodes, searched by binary search
+ *  - many, densely packed code points: a table indexed by (code point - base)
+ * A node moves up to the next layout only when a new branch does not fit,
+ * so the common case (most nodes have one or no branches) costs one reference,
+ * and only the hot nodes near the root pay for a table.  If a new code point
+ * would make a dense table too sparse, the node falls back to a sorted array.
+ *
+ * Word and text counts follow WordTrie: putting a word increments the text
+ * count of every node on its path below the root, and the word count of its
+ * last node, so TC - WC = SUM{branch.TC}.  Words are not stored in the
+ * nodes; they are re-built from the path of code points when needed.
+ * For the AutoCompleteInterface API, use AutoCompleteCodePoint.
+ *
+ * @author sprax
+ */
+public class CodePointTrie implements StringCollectorInterface<CodePointTrie>
+{
+    /** Fewest branches for which a node may switch to a dense table */
+    public static final int sMinDenseBranches     = 8;
+    /** A dense table may have at most this many slots per branch it holds */
+    public static final int sMaxDenseSlotsPerBranch = 2;
+    /** Initial capacity of a sorted branch array */
+    public static final int sInitSortedCapacity   = 4;
+
+    /** Branch layouts, as counted by getLayoutCounts */
+    public static final int sLayoutLeaf   = 0;
+    public static final int sLayoutSingle = 1;
+    public static final int sLayoutSorted = 2;
+    public static final int sLayoutDense  = 3;
+    public static final String sLayoutNames[] = { "leaf", "single", "sorted", "dense" };
+
+    /** Branch table covering the code points [mBase, mBase + mTable.length) */
+    static final class DenseBranches
+    {
+        int    mBase;
+        Node   mTable[];
+
+        DenseBranches(int base, int size) {
+            mBase  = base;
+            mTable = new Node[size];
+        }
+
+        Node get(int codePoint) {
+            int idx = codePoint - mBase;
+            return 0 <= idx && idx < mTable.length ? mTable[idx] : null;
+        }
+    }
+
+    public static final class Node
+    {
+        final int    mCodePoint;
+        int          mWordCount;    // Number of times this word was put: > 0 IFF this is a word node
+        int          mTextCount;    // Number of times any word through this node was put
+        int          mNumBranches;
+        Object       mBranches;     // null, a Node, a sorted Node[], or a DenseBranches
+
+        Node(int codePoint) { mCodePoint = codePoint; }
+
+        public final int     getCodePoint()   { return mCodePoint; }
+        public final int     getWordCount()   { return mWordCount; }
+        public final int     getTextCount()   { return mTextCount; }
+        public final int     getNumBranches() { return mNumBranches; }
+        public final boolean isWord()         { return mWordCount > 0; }
+
+        public final int getLayout()
+        {
+            if (mBranches == null)
+                return sLayoutLeaf;
+            if (mBranches instanceof Node)
+                return sLayoutSingle;
+            if (mBranches instanceof Node[])
+                return sLayoutSorted;
+            return sLayoutDense;
+        }
+
+        /** Returns the branch for the specified code point, or null if there is none */
+        public final Node getBranch(int codePoint)
+        {
+            Object branches = mBranches;
+            if (branches instanceof Node) {
+                Node only = (Node) branches;
+                return only.mCodePoint == codePoint ? only : null;
+            }
+            if (branches instanceof Node[]) {
+                Node sorted[] = (Node[]) branches;
+                int idx = findBranchIndex(sorted, mNumBranches, codePoint);
+                return idx >= 0 ? sorted[idx] : null;
+            }
+            if (branches instanceof DenseBranches)
+                return ((DenseBranches) branches).get(codePoint);
+            return null;
+        }
+
+        /** Returns all the branches of this node in code point order, in a new array */
+        public final Node[] getBranches()
+        {
+            Node branches[] = new Node[mNumBranches];
+            if (mBranches instanceof Node) {
+                branches[0] = (Node) mBranches;
+            } else if (mBranches instanceof Node[]) {
+                System.arraycopy((Node[]) mBranches, 0, branches, 0, mNumBranches);
+            } else if (mBranches instanceof DenseBranches) {
+                int num = 0;
+                for (Node branch : ((DenseBranches) mBranches).mTable)
+                    if (branch != null)
+                        branches[num++] = branch;
+            }
+            return branches;
+        }
+
+        /** Returns the existing branch for codePoint, or else adds and returns a new one */
+        Node getOrPutBranch(int codePoint)
+        {
+            Node branch = getBranch(codePoint);
+            if (branch != null)
+                return branch;
+
+            branch = new Node(codePoint);
+            if (mBranches == null) {
+                mBranches = branch;
+            } else if (mBranches instanceof Node) {
+                Node only = (Node) mBranches;
+                Node sorted[] = new Node[sInitSortedCapacity];
+                sorted[only.mCodePoint < codePoint ? 0 : 1] = only;
+                sorted[only.mCodePoint < codePoint ? 1 : 0] = branch;
+                mBranches = sorted;
+            } else if (mBranches instanceof Node[]) {
+                putSortedBranch((Node[]) mBranches, branch);
+            } else {
+                putDenseBranch((DenseBranches) mBranches, branch);
+            }
+            mNumBranches++;
+            return branch;
+        }
+
+        private void putSortedBranch(Node sorted[], Node branch)
+        {
+            int num = mNumBranches;
+            int lo  = Math.min(sorted[0].mCodePoint, branch.mCodePoint);
+            int hi  = Math.max(sorted[num - 1].mCodePoint, branch.mCodePoint);
+            if (num + 1 >= sMinDenseBranches && isDenseEnough(lo, hi, num + 1)) {
+                DenseBranches dense = new DenseBranches(lo, hi - lo + 1);
+                for (int j = 0; j < num; j++)
+                    dense.mTable[sorted[j].mCodePoint - lo] = sorted[j];
+                dense.mTable[branch.mCodePoint - lo] = branch;
+                mBranches = dense;
+                return;
+            }
+            int idx = -1 - findBranchIndex(sorted, num, branch.mCodePoint);
+            if (num == sorted.length) {
+                Node grown[] = new Node[num * 2];
+                System.arraycopy(sorted, 0, grown, 0, num);
+                mBranches = sorted = grown;
+            }
+            System.arraycopy(sorted, idx, sorted, idx + 1, num - idx);
+            sorted[idx] = branch;
+        }
+
+        private void putDenseBranch(DenseBranches dense, Node branch)
+        {
+            int codePoint = branch.mCodePoint;
+            int idx = codePoint - dense.mBase;
+            if (0 <= idx && idx < dense.mTable.length) {
+                dense.mTable[idx] = branch;
+                return;
+            }
+            int lo = Math.min(dense.mBase, codePoint);
+            int hi = Math.max(dense.mBase + dense.mTable.length - 1, codePoint);
+            if (isDenseEnough(lo, hi, mNumBranches + 1)) {
+                Node table[] = new Node[hi - lo + 1];
+                System.arraycopy(dense.mTable, 0, table, dense.mBase - lo, dense.mTable.length);
+                table[codePoint - lo] = branch;
+                dense.mBase  = lo;
+                dense.mTable = table;
+            } else {
+                // Too sparse for a table: fall back to a sorted array.
+                Node sorted[] = getBranches();
+                Node grown[]  = new Node[sorted.length * 2];
+                System.arraycopy(sorted, 0, grown, 0, sorted.length);
+                mBranches = grown;
+                putSortedBranch(grown, branch);
+            }
+        }
+    }
+
+    /** Binary search: returns the index of codePoint if found, or else (-(insertion point) - 1) */
+    static int findBranchIndex(Node sorted[], int num, int codePoint)
+    {
+        int lo = 0, hi = num - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cp  = sorted[mid].mCodePoint;
+            if (cp < codePoint)
+                lo = mid + 1;
+            else if (cp > codePoint)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    static boolean isDenseEnough(int lo, int hi, int numBranches)
+    {
+        return hi - lo + 1 <= sMaxDenseSlotsPerBranch * numBranches;
+    }
+
+    protected final Node mRoot = new Node(0);
+    protected final int  mReqMinWordLen;   // Required minimum word length, in code points
+    protected final int  mReqMaxWordLen;   // Required maximum word length, in code points
+    protected int        mNumWords;
+    protected int        mNumNodes = 1;    // count the root, as WordTrie does
+    protected int        mMaxDepth;
+    protected long       mNumPutCodePoints;
+
+    public CodePointTrie(int reqMinWordLen, int reqMaxWordLen)
+    {
+        mReqMinWordLen = reqMinWordLen;
+        mReqMaxWordLen = reqMaxWordLen;
+    }
+
+    public CodePointTrie()
+    {
+        this(1, Integer.MAX_VALUE);
+    }
+
+    public final Node getRoot()     { return mRoot; }
+    public final int  getSize()     { return mNumWords; }
+    public final int  getNumNodes() { return mNumNodes; }
+    public final int  getMaxDepth() { return mMaxDepth; }
+
+    protected final boolean badWordLen(int wordLen) {
+        return wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen;
+    }
+
+    public Node putWord(final String word)
+    {
+        return putWord(word, 1);
+    }
+
+    /**
+     * Puts a word into the trie as if putWord(word) were called count times.
+     * @return the word node, or null if the word length is out of bounds
+     */
+    public Node putWord(final String word, int count)
+    {
+        int wordLen = word.codePointCount(0, word.length());
+        if (badWordLen(wordLen))
+            return null;
+
+        mNumPutCodePoints += wordLen * (long) count;
+        Node node = mRoot;
+        for (int j = 0; j < word.length(); ) {
+            int codePoint = word.codePointAt(j);
+            j += Character.charCount(codePoint);
+            int numBranches = node.mNumBranches;
+            Node parent = node;
+            node = node.getOrPutBranch(codePoint);
+            if (parent.mNumBranches != numBranches)
+                mNumNodes++;
+            node.mTextCount += count;
+        }
+        if ( ! node.isWord()) {
+            mNumWords++;
+            if (mMaxDepth < wordLen)
+                mMaxDepth = wordLen;
+        }
+        node.mWordCount += count;
+        return node;
+    }
+
+    /** Returns the node at the end of the path spelled by str, or null if there is none */
+    public Node getNode(final String str)
+    {
+        Node node = mRoot;
+        for (int j = 0; j < str.length() && node != null; ) {
+            int codePoint = str.codePointAt(j);
+            j += Character.charCount(codePoint);
+            node = node.getBranch(codePoint);
+        }
+        return node;
+    }
+
+    /** Returns the node at the end of the longest path that matches a prefix of str */
+    public Node maxStemNode(final String str)
+    {
+        Node node = mRoot;
+        for (int j = 0; j < str.length(); ) {
+            int codePoint = str.codePointAt(j);
+            Node next = node.getBranch(codePoint);
+            if (next == null)
+                break;
+            node = next;
+            j += Character.charCount(codePoint);
+        }
+        return node;
+    }
+
+    /** Returns the longest prefix of str that is also a path in the trie */
+    public String longestPrefix(final String str)
+    {
+        Node node = mRoot;
+        int j = 0;
+        while (j < str.length()) {
+            int codePoint = str.codePointAt(j);
+            if ((node = node.getBranch(codePoint)) == null)
+                break;
+            j += Character.charCount(codePoint);
+        }
+        return str.substring(0, j);
+    }
+
+    public int getWordCount(final String word)
+    {
+        Node node = getNode(word);
+        return node == null ? 0 : node.mWordCount;
+    }
+
+    /** Adds to words all the words under node, in code point order, given the node's stem */
+    public void getWords(Collection<String> words, Node node, String stem)
+    {
+        int path[]  = new int[mMaxDepth + 1];
+        int depth   = stemToPath(stem, path);
+        getWordsRecurse(words, node, path, depth);
+    }
+
+    /** Copies the code points of stem into path and returns their number */
+    protected static int stemToPath(String stem, int path[])
+    {
+        int depth = 0;
+        for (int k = 0; k < stem.length(); depth++) {
+            path[depth] = stem.codePointAt(k);
+            k += Character.charCount(path[depth]);
+        }
+        return depth;
+    }
+
+    protected static void getWordsRecurse(Collection<String> words, Node node, int path[], int depth)
+    {
+        if (node.isWord())
+            words.add(new String(path, 0, depth));
+        for (Node branch : node.getBranches()) {
+            path[depth] = branch.mCodePoint;
+            getWordsRecurse(words, branch, path, depth + 1);
+        }
+    }
+
+    public SortedSet<String> getAllWords()
+    {
+        SortedSet<String> words = new TreeSet<String>();
+        getWords(words, mRoot, "");
+        return words;
+    }
+
+    /**
+     * Returns all words that begin with the longest prefix of the specified
+     * prefix that is a path in this trie, as does WordTrie.getWordsPartiallyMatchingPrefix.
+     */
+    public List<String> getWordsPartiallyMatchingPrefix(String prefix)
+    {
+        List<String> words = new ArrayList<String>();
+        String stem = longestPrefix(prefix);
+        getWords(words, getNode(stem), stem);
+        return words;
+    }
+
+    /**
+     * Returns at most limit words beginning with the longest matching prefix,
+     * ordered as by WordTrie.getTopWordNodes: by descending word count, then
+     * by descending text count, with ties left in code point order.
+     */
+    public List<String> getTopWords(String prefix, int limit)
+    {
+        String stem  = longestPrefix(prefix);
+        Node   tops[]  = new Node[limit];
+        String words[] = new String[limit];
+        int numTops = getTopWordNodes(getNode(stem), stem, tops, words);
+        List<String> list = new ArrayList<String>(numTops);
+        for (int j = 0; j < numTops; j++)
+            list.add(words[j]);
+        return list;
+    }
+
+    /**
+     * Puts the (up to) tops.length most probable word nodes at or under node,
+     * whose stem is given, into tops, best first, and their words into words.
+     * @return the number of nodes now in tops
+     */
+    public int getTopWordNodes(Node node, String stem, Node tops[], String words[])
+    {
+        int path[] = new int[mMaxDepth + 1];
+        int depth  = stemToPath(stem, path);
+        return collectTopWords(node, path, depth, tops, words, 0);
+    }
+
+    /** Stable insertion of each word node into tops, in the order of WordTrie.compareCounts */
+    protected static int collectTopWords(Node node, int path[], int depth, Node tops[], String words[], int numTops)
+    {
+        if (node.isWord()) {
+            int limit = tops.length;
+            if (numTops < limit || compareCounts(node, tops[limit - 1]) < 0) {
+                int j = numTops < limit ? numTops++ : limit - 1;
+                for ( ; j > 0 && compareCounts(node, tops[j-1]) < 0; j--) {
+                    tops[j]  = tops[j-1];
+                    words[j] = words[j-1];
+                }
+                tops[j]  = node;
+                words[j] = new String(path, 0, depth);
+            }
+        }
+        for (Node branch : node.getBranches()) {
+            path[depth] = branch.mCodePoint;
+            numTops = collectTopWords(branch, path, depth + 1, tops, words, numTops);
+        }
+        return numTops;
+    }
+
+    /** Same order as WordTrie.compareCounts: more frequent words first */
+    protected static int compareCounts(Node nodeA, Node nodeB)
+    {
+        if (nodeA.mWordCount != nodeB.mWordCount)
+            return nodeA.mWordCount > nodeB.mWordCount ? -1 : 1;
+        if (nodeA.mTextCount != nodeB.mTextCount)
+            return nodeA.mTextCount > nodeB.mTextCount ? -1 : 1;
+        return 0;
+    }
+
+    /** A node found by getNodesWithinEditDistance, with its stem and its distance from the query */
+    public static final class StemNode
+    {
+        public final Node   mNode;
+        public final String mStem;
+        public final int    mDist;
+
+        StemNode(Node node, String stem, int dist)
+        {
+            mNode = node;
+            mStem = stem;
+            mDist = dist;
+        }
+    }
+
+    /**
+     * Same as WordTrie.getNodesWithinEditDistance(query, maxDist, false), counting
+     * edits in code points: the nodes within maxDist edits of the query that are
+     * nearer to it than any of their returned ancestors, in code point order.
+     */
+    public List<StemNode> getNodesWithinEditDistance(String query, int maxDist)
+    {
+        List<StemNode> results = new ArrayList<StemNode>();
+        query = LevenshteinAutomaton.fitQuery(query, mMaxDepth, maxDist);
+        if (query == null)
+            return results;
+
+        LevenshteinAutomaton lev = new LevenshteinAutomaton(query, maxDist);
+        long states[] = new long[(mMaxDepth + 1) * lev.getStateSize()];
+        int  path[]   = new int[mMaxDepth + 1];
+        lev.start(states, 0);
+        int dist = lev.distance(states, 0);
+        if (dist <= maxDist)
+            results.add(new StemNode(mRoot, "", dist));
+        findNodesWithinEditDistanceRecurse(results, lev, states, path, mRoot, 0, dist);
+        return results;
+    }
+
+    protected static void findNodesWithinEditDistanceRecurse(List<StemNode> results, LevenshteinAutomaton lev
+            , long states[], int path[], Node node, int depth, int minDist)
+    {
+        int size = lev.getStateSize();
+        int from = depth * size, to = from + size;
+        for (Node branch : node.getBranches()) {
+            if ( ! lev.step(states, from, to, branch.mCodePoint))
+                continue;                              // dead: no stem below can match
+            path[depth] = branch.mCodePoint;
+            int dist = lev.distance(states, to), minDistBelow = minDist;
+            if (dist < minDist) {
+                results.add(new StemNode(branch, new String(path, 0, depth + 1), dist));
+                minDistBelow = dist;
+            }
+            if (minDistBelow > 0)                      // nothing below an exact match is nearer
+                findNodesWithinEditDistanceRecurse(results, lev, states, path, branch, depth + 1, minDistBelow);
+        }
+    }
+
+    /** Returns the number of nodes using each branch layout, indexed by sLayoutLeaf etc. */
+    public int[] getLayoutCounts()
+    {
+        int counts[] = new int[sLayoutNames.length];
+        countLayoutsRecurse(mRoot, counts);
+        return counts;
+    }
+
+    protected static void countLayoutsRecurse(Node node, int counts[])
+    {
+        counts[node.getLayout()]++;
+        for (Node branch : node.getBranches())
+            countLayoutsRecurse(branch, counts);
+    }
+
+    @Override
+    public boolean addString(String str)
+    {
+        Node node = putWord(str);
+        return node != null && node.mWordCount == 1;
+    }
+
+    @Override
+    public boolean addString(char[] chr, int beg, int end)
+    {
+        return addString(new String(chr, beg, end - beg));
+    }
+
+    @Override
+    public boolean contains(final String str)
+    {
+        Node node = getNode(str);
+        return node != null && node.isWord();
+    }
+
+    @Override
+    public int size() {
+        return mNumWords;
+    }
+
+    @Override
+    public CodePointTrie getCollector() {
+        return this;
+    }
+
+    /**
+     * Adds every maximal run of letters in str, in lower case, as a word.
+     * Letters are as defined by Character.isLetter, in any script.
+     * @return number of new words added
+     */
+    public int addLowerCaseLetterWords(String str)
+    {
+        int numNewWords = 0;
+        int beg = -1;
+        for (int j = 0; j <= str.length(); ) {
+            int codePoint = j < str.length() ? str.codePointAt(j) : ' ';
+            if (Character.isLetter(codePoint)) {
+                if (beg < 0)
+                    beg = j;
+            } else if (beg >= 0) {
+                if (addString(str.substring(beg, j).toLowerCase()))
+                    numNewWords++;
+                beg = -1;
+            }
+            j += Character.charCount(codePoint);
+        }
+        return numNewWords;
+    }
+
+    /**
+     * Reads a UTF-8 text file and adds all of its words, as by addLowerCaseLetterWords.
+     * @return number of new words added, or 0 on error
+     */
+    public int addAllWordsInTextFile(final String textFilePath, int verbosity)
+    {
+        int numNewWords = 0, numLinesRead = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(textFilePath), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                numLinesRead++;
+                numNewWords += addLowerCaseLetterWords(line);
+            }
+        } catch (IOException ex) {
+            System.out.println("Error reading text file: " + textFilePath);
+            ex.printStackTrace();
+            return 0;
+        }
+        if (verbosity > 0)
+            Sx.puts("Read " + numLinesRead + " lines, added " + numNewWords + " new words from " + textFilePath);
+        return numNewWords;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected static int test_sameAsWordTrie(WordTrie trie, CodePointTrie cpTrie)
+    {
+        int numWrong = 0;
+        numWrong += Sz.oneIfDiff(cpTrie.getSize(), trie.getSize());
+        numWrong += Sz.oneIfDiff(cpTrie.getNumNodes(), trie.mNumNodes);
+        numWrong += Sz.oneIfFalse(cpTrie.getAllWords().equals(trie.getAllWords()));
+
+        AutoCompleteWord      auto   = new AutoCompleteWord(trie);
+        AutoCompleteCodePoint cpAuto = new AutoCompleteCodePoint(cpTrie);
+        String prefixes[] = { "a", "s", "drin", "exquis", "site", "xquis", "bj", "rock", "rockpaper", "sper", "qqq" };
+        for (String prefix : prefixes) {
+            numWrong += Sz.oneIfDiff(cpTrie.contains(prefix), trie.contains(prefix));
+            numWrong += Sz.oneIfDiff(cpTrie.longestPrefix(prefix), trie.longestPrefix(prefix));
+            numWrong += Sz.oneIfFalse(cpAuto.getPossible(prefix, 20).equals(auto.getPossible(prefix, 20)));
+            numWrong += Sz.oneIfFalse(cpAuto.getProbable(prefix, 5).equals(auto.getProbable(prefix, 5)));
+            numWrong += Sz.oneIfFalse(cpAuto.getProbableRepaired(prefix, 5).equals(auto.getProbableRepaired(prefix, 5)));
+        }
+        String typos[] = { "accomod", "exquisit", "teh", "wrod", "helo" };
+        for (String typo : typos)
+            numWrong += Sz.oneIfFalse(cpAuto.getProbableRepaired(typo, 8).equals(auto.getProbableRepaired(typo, 8)));
+
+        FrozenWordTrie frozen = trie.freeze();
+        String queries[] = { "catalogqqq", "qqqdrin", "rockpaperqq", "q", "" };
+        for (String query : queries)
+            numWrong += Sz.oneIfFalse(cpAuto.getProbablePrefixes(query, 3).equals(frozen.getProbablePrefixes(query, 3)));
+        numWrong += Sz.oneIfFalse(cpAuto.getProbableSuffixes("qqqdrin", 5).equals(cpAuto.getProbable("drin", 5)));
+        numWrong += Sz.oneIfFalse(cpAuto.getProbableSuffixes("q", 5).isEmpty());
+        numWrong += Sz.oneIfFalse(cpAuto.getProbableSuffixes("", 5).isEmpty());
+        return numWrong;
+    }
+
+    protected static int test_unicode()
+    {
+        int numWrong = 0;
+        CodePointTrie trie = new CodePointTrie();
+        trie.addLowerCaseLetterWords("El ni\u00F1o comi\u00F3 una canci\u00F3n; el Ni\u00F1o, la ni\u00F1a y el cami\u00F3n.");
+        trie.addLowerCaseLetterWords("A\u00F1o, a\u00F1ejo, cig\u00FCe\u00F1a, coraz\u00F3n, canci\u00F3n, \u00BFqu\u00E9?  Stra\u00DFe, \u0396\u03B5\u03CD\u03C2, \uD835\uDCB3\uD835\uDCB4.");
+
+        String words[] = { "ni\u00F1o", "ni\u00F1a", "canci\u00F3n", "cami\u00F3n", "a\u00F1o", "a\u00F1ejo", "cig\u00FCe\u00F1a", "stra\u00DFe", "\u03B6\u03B5\u03CD\u03C2", "\uD835\uDCB3\uD835\uDCB4" };
+        for (String word : words)
+            numWrong += Sz.oneIfFalse(trie.contains(word));
+        numWrong += Sz.oneIfDiff(trie.getWordCount("ni\u00F1o"), 2);
+        numWrong += Sz.oneIfDiff(trie.getWordCount("canci\u00F3n"), 2);
+        numWrong += Sz.oneIfFalse( ! trie.contains("ni"));
+        numWrong += Sz.oneIfFalse(trie.getNode("ni") != null);
+        numWrong += Sz.oneIfDiff(trie.longestPrefix("ca\u00F1\u00F3n"), "ca");
+        numWrong += Sz.oneIfDiff(trie.getNode("\uD835\uDCB3").getCodePoint(), 0x1D4B3);
+
+        List<String> found = trie.getWordsPartiallyMatchingPrefix("cam");
+        numWrong += Sz.oneIfFalse(found.size() == 1 && found.get(0).equals("cami\u00F3n"));
+        found = trie.getTopWords("c", 3);
+        Sx.puts("Top words for \"c\": " + found);
+        numWrong += Sz.oneIfFalse(found.size() == 3 && found.get(0).equals("canci\u00F3n"));
+        found = new AutoCompleteCodePoint(trie).getProbable("a\u00F1", 3);
+        numWrong += Sz.oneIfFalse(found.size() == 2 && found.contains("a\u00F1ejo"));
+
+        // Typos in code points beyond 'z', and one supplementary code point as a single edit
+        AutoCompleteCodePoint auto = new AutoCompleteCodePoint(trie);
+        found = auto.getProbableRepaired("cancion", 3);
+        numWrong += Sz.oneIfFalse(found.size() > 0 && found.get(0).equals("canci\u00F3n"));
+        found = auto.getProbableRepaired("ci\u00F1\u00FCe", 3);
+        numWrong += Sz.oneIfFalse(found.contains("cig\u00FCe\u00F1a"));
+        found = auto.getProbableRepaired("\uD835\uDCB3x", 3, 1);
+        numWrong += Sz.oneIfFalse(found.size() == 1 && found.get(0).equals("\uD835\uDCB3\uD835\uDCB4"));
+        found = auto.getProbablePrefixes("a\u00F1ejos", 3);
+        numWrong += Sz.oneIfFalse(found.size() > 0 && found.get(0).equals("a\u00F1ejo"));
+        for (String start : found)
+            numWrong += Sz.oneIfFalse("a\u00F1ejos".startsWith(start) && trie.contains(start));
+        numWrong += Sz.oneIfFalse(auto.getProbableSuffixes("xxni\u00F1", 3).equals(auto.getProbable("ni\u00F1", 3)));
+
+        // Fill one node past the dense threshold, then add a far code point to force it back to sorted.
+        CodePointTrie fan = new CodePointTrie();
+        for (int cp = 'a'; cp <= 'z'; cp++)
+            fan.putWord("x" + (char) cp);
+        numWrong += Sz.oneIfDiff(fan.getNode("x").getLayout(), sLayoutDense);
+        fan.putWord("x\u00F1");
+        fan.putWord("x\u03C9");
+        numWrong += Sz.oneIfDiff(fan.getNode("x").getLayout(), sLayoutSorted);
+        numWrong += Sz.oneIfDiff(fan.getNode("x").getNumBranches(), 28);
+        numWrong += Sz.oneIfDiff(fan.getWordsPartiallyMatchingPrefix("x").size(), 28);
+        for (int cp = 'a'; cp <= 'z'; cp++)
+            numWrong += Sz.oneIfFalse(fan.contains("x" + (char) cp));
+        numWrong += Sz.oneIfFalse(fan.contains("x\u03C9"));
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = CodePointTrie.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = test_unicode();
+
+        String dictPath = FileUtil.getTextFilePath("words.txt");
+        long heapBeg = FrozenWordTrie.usedHeapBytes();
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictPath, 3, 16, 1);
+        if (level > 1)
+            trie.addAllWordsInTextFile(3, 16, FileUtil.getTextFilePath("MobyDick.txt"), 1);
+        long heapTrie = FrozenWordTrie.usedHeapBytes();
+
+        CodePointTrie cpTrie = new CodePointTrie(3, 16);
+        for (String word : trie.getAllWords()) {
+            WordNode node = trie.getWordNode(word);
+            cpTrie.putWord(word, node.getWordCount());
+        }
+        long heapCpTrie = FrozenWordTrie.usedHeapBytes();
+        Sx.format("Heap bytes:  WordTrie %d,  CodePointTrie %d,  nodes %d\n"
+                , heapTrie - heapBeg, heapCpTrie - heapTrie, cpTrie.getNumNodes());
+        int layouts[] = cpTrie.getLayoutCounts();
+        for (int j = 0; j < layouts.length; j++)
+            Sx.format("    %-6s nodes: %7d\n", sLayoutNames[j], layouts[j]);
+
+        numWrong += test_sameAsWordTrie(trie, cpTrie);
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
@@ -0,0 +1,383 @@
+package sprax.tries;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import sprax.files.FileUtil;
+import sprax.files.StringCollectorInterface;
+import sprax.files.TextFilters;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+
+/**
+ * Thread-safe word trie for collecting word counts from many text files at once.
+ *
+ * Any number of threads may call putWord or addString concurrently.  New branches
+ * are installed with a compare-and-set on the parent's branch array, so no locks
+ * are taken and two threads racing to create the same node agree on one winner.
+ * Only the word count of the last node of each word is incremented, in a
+ * per-node LongAdder, so threads adding different words touch no shared counters,
+ * and threads adding the same word spread their updates over the adder's cells.
+ * The text counts that WordTrie keeps along the whole path are derived from the
+ * word counts afterwards, using the WordTrie invariant
+ * TC - WC = SUM{branch.TC}.
+ *
+ * When collection is done, addTo(WordTrie) merges the counts into an ordinary
+ * WordTrie, which then holds exactly the same words and word/text counts as if
+ * the same text had been added to it sequentially.
+ *
+ * @author sprax
+ */
+public class ConcurrentWordTrie implements StringCollectorInterface<ConcurrentWordTrie>
+{
+    public static final int sFirstLetter = WordTrie.sFirstLetter;
+    public static final int sNumLetters  = WordTrie.sNumLetters;
+
+    static final class ConcurrentNode
+    {
+        private static final AtomicIntegerFieldUpdater<ConcurrentNode> sIsWordUpdater =
+                AtomicIntegerFieldUpdater.newUpdater(ConcurrentNode.class, "mIsWord");
+
+        /** All possible continuations, indexed by letter, each set at most once by CAS */
+        final AtomicReferenceArray<ConcurrentNode> mBranches = new AtomicReferenceArray<ConcurrentNode>(sNumLetters);
+        /** Number of times this word has been put; zero for non-word nodes */
+        final LongAdder mWordCount = new LongAdder();
+        /** 0 until the first time this node is put as a word, then 1 */
+        private volatile int mIsWord;
+
+        boolean isWord()   { return mIsWord != 0; }
+
+        /** Returns true for only one caller: the first to mark this node as a word */
+        boolean markWord() { return mIsWord == 0 && sIsWordUpdater.compareAndSet(this, 0, 1); }
+    }
+
+    protected final ConcurrentNode mRoot = new ConcurrentNode();
+    protected final int           mReqMinWordLen;   // Required minimum word length; smaller words not kept
+    protected final int           mReqMaxWordLen;   // Required maximum word length
+    protected final AtomicInteger mNumWords    = new AtomicInteger();
+    protected final LongAdder     mNumNodes    = new LongAdder();
+    protected final LongAdder     mNumPutChars = new LongAdder();
+
+    public ConcurrentWordTrie(int reqMinWordLen, int reqMaxWordLen)
+    {
+        mReqMinWordLen = reqMinWordLen;
+        mReqMaxWordLen = reqMaxWordLen;
+        mNumNodes.increment();   // count the root, as WordTrie does
+    }
+
+    /** Makes a trie that keeps the same word lengths as the specified WordTrie */
+    public ConcurrentWordTrie(WordTrie trie)
+    {
+        this(trie.mReqMinWordLen, trie.mReqMaxWordLen);
+    }
+
+    public final int  getSize()     { return mNumWords.get(); }
+    public final long getNumNodes() { return mNumNodes.sum(); }
+
+    /** Returns the existing branch at index, or installs a new one */
+    private ConcurrentNode getOrPutBranch(ConcurrentNode node, int index)
+    {
+        ConcurrentNode next = node.mBranches.get(index);
+        if (next != null)
+            return next;
+        ConcurrentNode made = new ConcurrentNode();
+        if (node.mBranches.compareAndSet(index, null, made)) {
+            mNumNodes.increment();
+            return made;
+        }
+        return node.mBranches.get(index);    // another thread won the race
+    }
+
+    /**
+     * Counts one more occurrence of the word, creating nodes as necessary.
+     * Safe to call from any number of threads.
+     * @return true IFF the word is new to this trie
+     */
+    public boolean putWord(final char[] chrs, int beg, int end)
+    {
+        int wordLen = end - beg;
+        if (wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen)
+            return false;
+        mNumPutChars.add(wordLen);
+
+        ConcurrentNode node = mRoot;
+        for (int j = beg; j < end; j++)
+            node = getOrPutBranch(node, chrs[j] - sFirstLetter);
+        node.mWordCount.increment();
+        if (node.markWord()) {
+            mNumWords.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean putWord(final String word)
+    {
+        int wordLen = word.length();
+        if (wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen)
+            return false;
+        mNumPutChars.add(wordLen);
+
+        ConcurrentNode node = mRoot;
+        for (int j = 0; j < wordLen; j++)
+            node = getOrPutBranch(node, word.charAt(j) - sFirstLetter);
+        node.mWordCount.increment();
+        if (node.markWord()) {
+            mNumWords.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /** Returns the number of times the word was put, or 0 */
+    public long getWordCount(final String word)
+    {
+        ConcurrentNode node = mRoot;
+        for (int end = word.length(), j = 0; j < end && node != null; j++)
+            node = node.mBranches.get(word.charAt(j) - sFirstLetter);
+        return node == null ? 0 : node.mWordCount.sum();
+    }
+
+    /** StringCollectorInterface method */
+    @Override
+    public boolean addString(String str) {
+        return putWord(str);
+    }
+
+    /** StringCollectorInterface method */
+    @Override
+    public boolean addString(char[] chr, int beg, int end) {
+        return putWord(chr, beg, end);
+    }
+
+    @Override
+    public boolean contains(final String key)
+    {
+        ConcurrentNode node = mRoot;
+        for (int end = key.length(), j = 0; j < end; j++) {
+            node = node.mBranches.get(key.charAt(j) - sFirstLetter);
+            if (node == null)
+                return false;
+        }
+        return node.isWord();
+    }
+
+    @Override
+    public int size() {
+        return getSize();
+    }
+
+    @Override
+    public ConcurrentWordTrie getCollector() {
+        return this;
+    }
+
+    /**
+     * Adds every word in a text file, as WordTrie.addAllWordsInTextFile does.
+     * Safe to call from several threads at once, each with its own file.
+     * @return number of words that were new to this trie
+     */
+    public int addAllWordsInTextFile(int minWordLen, final String textFilePath)
+    {
+        int numNewWords = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(textFilePath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int lineLen = line.length();
+                if (lineLen < minWordLen)
+                    continue;
+                numNewWords += TextFilters.collectLowerCaseLetterWords(this, line.toCharArray(), lineLen);
+            }
+        } catch (IOException ex) {
+            System.out.println("Error reading text file: " + textFilePath);
+            ex.printStackTrace();
+        }
+        return numNewWords;
+    }
+
+    /**
+     * Adds the words in all the text files, one file per task, using a pool of numThreads.
+     * If a task fails, or this thread is interrupted while waiting, the remaining tasks
+     * are cancelled and the failure is thrown; an interrupt is thrown as an
+     * IllegalStateException, with this thread's interrupt flag set again.
+     * @return number of words that were new to this trie
+     */
+    public int addAllWordsInTextFiles(final int minWordLen, final List<String> textFilePaths, int numThreads)
+    {
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        List<Future<Integer>> futures = new ArrayList<Future<Integer>>(textFilePaths.size());
+        for (final String path : textFilePaths) {
+            futures.add(pool.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return addAllWordsInTextFile(minWordLen, path);
+                }
+            }));
+        }
+        int numNewWords = 0;
+        try {
+            for (Future<Integer> future : futures)
+                numNewWords += future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while adding words from text files", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException("Failed to add words from text files", cause);
+        } finally {
+            pool.shutdownNow();     // cancels any tasks left after a failure
+        }
+        return numNewWords;
+    }
+
+    /**
+     * Merges all words and counts into the WordTrie, in alphabetical order.
+     * Should not be called while other threads are still adding words.
+     * @return number of words that were new to the WordTrie
+     */
+    public int addTo(WordTrie trie)
+    {
+        int numBefore = trie.getSize();
+        addToRecurse(trie, mRoot, new char[mReqMaxWordLen], 0);
+        return trie.getSize() - numBefore;
+    }
+
+    private void addToRecurse(WordTrie trie, ConcurrentNode node, char buf[], int depth)
+    {
+        if (node.isWord())
+            trie.putWord(new String(buf, 0, depth), (int) Math.min(node.mWordCount.sum(), Integer.MAX_VALUE));
+        for (int j = 0; j < sNumLetters; j++) {
+            ConcurrentNode next = node.mBranches.get(j);
+            if (next != null) {
+                buf[depth] = (char) (sFirstLetter + j);
+                addToRecurse(trie, next, buf, depth + 1);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** Returns the number of nodes whose words or counts differ */
+    protected static int test_sameCounts(WordTrie trieA, WordTrie trieB)
+    {
+        FrozenWordTrie frozenA = trieA.freeze(), frozenB = trieB.freeze();
+        if (frozenA.getNumNodes() != frozenB.getNumNodes() || trieA.getSize() != trieB.getSize()) {
+            Sx.format("Different sizes: %d %d nodes, %d %d words\n", frozenA.getNumNodes(), frozenB.getNumNodes()
+                    , trieA.getSize(), trieB.getSize());
+            return 1;
+        }
+        int numWrong = 0;
+        for (int node = 0; node < frozenA.getNumNodes(); node++) {
+            if (frozenA.getWordCount(node) != frozenB.getWordCount(node)
+                    || frozenA.getTextCount(node) != frozenB.getTextCount(node)
+                    || frozenA.getDictCount(node) != frozenB.getDictCount(node))
+                numWrong++;
+        }
+        return numWrong;
+    }
+
+    protected static WordTrie test_loadDictionary(String dictPath, int minWordLen, int maxWordLen)
+    {
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictPath, minWordLen, maxWordLen, 0);
+        return trie;
+    }
+
+    /**
+     * Checks that a failed task or an interrupt is thrown rather than returning a
+     * partial count, and that word counts too big for WordTrie are saturated.
+     */
+    protected static int test_failures(int minWordLen, String textPath)
+    {
+        int numWrong = 0;
+        ConcurrentWordTrie concurrent = new ConcurrentWordTrie(minWordLen, 16);
+        try {
+            concurrent.addAllWordsInTextFiles(minWordLen, Arrays.asList(textPath, null), 2);
+            numWrong++;
+        } catch (NullPointerException ex) {
+            // expected: the task for the null path failed
+        }
+
+        Thread.currentThread().interrupt();
+        try {
+            concurrent.addAllWordsInTextFiles(minWordLen, Arrays.asList(textPath), 1);
+            numWrong++;
+        } catch (IllegalStateException ex) {
+            numWrong += Sz.oneIfFalse(ex.getCause() instanceof InterruptedException);
+        }
+        numWrong += Sz.oneIfFalse(Thread.interrupted());
+
+        ConcurrentWordTrie huge = new ConcurrentWordTrie(minWordLen, 16);
+        huge.putWord("huge");
+        ConcurrentNode node = huge.mRoot;
+        for (char chr : "huge".toCharArray())
+            node = node.mBranches.get(chr - sFirstLetter);
+        node.mWordCount.add(Integer.MAX_VALUE);
+        WordTrie trie = new WordTrie();
+        huge.addTo(trie);
+        numWrong += Sz.oneIfDiff(trie.getWordNode("huge").getWordCount(), Integer.MAX_VALUE);
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = ConcurrentWordTrie.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = 0;
+        int minWordLen = 3;
+        int maxWordLen = 16;
+        String dictPath = FileUtil.getTextFilePath("words.txt");
+        String textNames[] = { "MobyDick.txt", "Iliad.txt" };
+        List<String> textPaths = new ArrayList<String>();
+        for (int j = 0; j < 4 * level; j++)
+            textPaths.add(FileUtil.getTextFilePath(textNames[j % textNames.length]));
+
+        WordTrie sequential = test_loadDictionary(dictPath, minWordLen, maxWordLen);
+        long begTime = System.nanoTime();
+        for (String path : textPaths)
+            sequential.addAllWordsInTextFile(minWordLen, maxWordLen, path, 0);
+        long endTime = System.nanoTime();
+        Sx.format("WordTrie sequential:            %d files  %8.1f ms\n", textPaths.size(), (endTime - begTime) * 1.0e-6);
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            WordTrie merged = test_loadDictionary(dictPath, minWordLen, maxWordLen);
+            ConcurrentWordTrie concurrent = new ConcurrentWordTrie(merged);
+            begTime = System.nanoTime();
+            concurrent.addAllWordsInTextFiles(minWordLen, textPaths, numThreads);
+            endTime = System.nanoTime();
+            concurrent.addTo(merged);
+            Sx.format("ConcurrentWordTrie %2d threads:  %d files  %8.1f ms\n", numThreads, textPaths.size()
+                    , (endTime - begTime) * 1.0e-6);
+            numWrong += test_sameCounts(sequential, merged);
+        }
+        numWrong += test_failures(minWordLen, FileUtil.getTextFilePath(textNames[0]));
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
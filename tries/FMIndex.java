@@ -0,0 +1,411 @@
+package sprax.tries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import sprax.files.FileUtil;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+
+/**
+ * FM-index over a whole dictionary, for infix (substring) queries such as
+ * "all words containing X".  The words are packed into one byte text,
+ * one byte per letter, as $w0$w1$...$wm-1$, where each $ is a separator
+ * that sorts before all letters and after all earlier separators, and the
+ * index keeps only that text, its Burrows-Wheeler transform, and rank
+ * checkpoints; the suffix array is discarded once the BWT is made.
+ *
+ * Counting the occurrences of X takes |X| backward-search steps, each two
+ * rank queries, independent of the dictionary size.  Each occurrence is then
+ * mapped to its word by stepping back through the BWT to the separator that
+ * starts the word: since the words are sorted and unique, the rows that
+ * start words are in word order, so the word's index is just the rank of
+ * that separator.  That costs at most one step per char of the word, so
+ * getWordsContaining is O(|X| + occ * maxWordLen), plus sorting the matches.
+ *
+ * Memory is about 2.85 bytes per input char, including separators: the text
+ * and BWT at one byte each, plus 27 int counts per 128 chars; plus one int
+ * per word for its start, which comes to about 3.3 bytes per char for a
+ * dictionary of English words.  Compare InfixTrie, which allocates a node with a
+ * 26-slot branch array for every distinct prefix.
+ * @see InfixTrie#getWordsContaining
+ *
+ * @author sprax
+ */
+public class FMIndex
+{
+    public static final int  sFirstLetter = 'a';
+    public static final int  sNumLetters  = 26;
+    public static final int  sNumSymbols  = sNumLetters + 1;   // letters plus the separator, 0
+    protected static final int sSampleShift = 7;               // rank checkpoints every 128 chars
+
+    protected final byte mText[];       // $w0$w1$...$ with $ as 0 and 'a' to 'z' as 1 to 26
+    protected final byte mBwt[];        // mBwt[r] is the char preceding the r-th smallest suffix
+    protected final int  mFirstRow[];   // mFirstRow[c] is the number of chars in the text less than c
+    protected final int  mOccSamples[]; // count of each symbol in mBwt before each checkpoint
+    protected final int  mWordStarts[]; // position in mText of the first char of each word
+    protected final int  mNumChars;
+
+    /**
+     * Builds the index for the distinct lower case words in words;
+     * words containing any char outside 'a' to 'z' are skipped.
+     */
+    public FMIndex(Collection<String> words)
+    {
+        SortedSet<String> sorted = new TreeSet<String>();
+        for (String word : words)
+            if (isLowerCaseWord(word))
+                sorted.add(word);
+
+        int numChars = 1;
+        for (String word : sorted)
+            numChars += word.length() + 1;
+        mNumChars   = numChars;
+        mText       = new byte[numChars];
+        mWordStarts = new int[sorted.size()];
+        int pos = 1, idx = 0;
+        for (String word : sorted) {
+            mWordStarts[idx++] = pos;
+            for (int j = 0; j < word.length(); j++)
+                mText[pos++] = (byte) (word.charAt(j) - sFirstLetter + 1);
+            pos++;                                  // separator is 0 by default
+        }
+
+        int suffixArray[] = new int[numChars];
+        for (int j = 0; j < numChars; j++)
+            suffixArray[j] = j;
+        sortSuffixes(suffixArray, 0, numChars, 0);
+
+        mBwt = new byte[numChars];
+        for (int r = 0; r < numChars; r++)
+            mBwt[r] = mText[suffixArray[r] == 0 ? numChars - 1 : suffixArray[r] - 1];
+
+        mFirstRow = new int[sNumSymbols + 1];
+        for (int j = 0; j < numChars; j++)
+            mFirstRow[mText[j] + 1]++;
+        for (int c = 1; c <= sNumSymbols; c++)
+            mFirstRow[c] += mFirstRow[c - 1];
+
+        int numSamples = (numChars >> sSampleShift) + 1;
+        mOccSamples = new int[numSamples * sNumSymbols];
+        int counts[] = new int[sNumSymbols];
+        for (int r = 0; r <= numChars; r++) {     // a checkpoint at numChars is used by rank(c, numChars)
+            if ((r & ((1 << sSampleShift) - 1)) == 0)
+                System.arraycopy(counts, 0, mOccSamples, (r >> sSampleShift) * sNumSymbols, sNumSymbols);
+            if (r < numChars)
+                counts[mBwt[r]]++;
+        }
+    }
+
+    protected static boolean isLowerCaseWord(String word)
+    {
+        if (word == null || word.isEmpty())
+            return false;
+        for (int j = 0; j < word.length(); j++) {
+            char chr = word.charAt(j);
+            if (chr < 'a' || chr > 'z')
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Multikey quicksort (Bentley and Sedgewick) of the suffixes starting at
+     * sa[lo] to sa[hi-1], all of which are known to agree in their first depth
+     * chars.  Any comparison ends at the first separator: suffixes that reach
+     * separators at the same depth are ordered by position, as if each separator
+     * were a distinct symbol, so no comparison reads past the end of one word.
+     */
+    protected void sortSuffixes(int sa[], int lo, int hi, int depth)
+    {
+        while (hi - lo > 1) {
+            if (hi - lo < 16) {
+                insertionSortSuffixes(sa, lo, hi, depth);
+                return;
+            }
+            int pivot = medianOfThree(mText[sa[lo] + depth]
+                    , mText[sa[(lo + hi) >>> 1] + depth], mText[sa[hi - 1] + depth]);
+            int lt = lo, gt = hi, j = lo;
+            while (j < gt) {
+                int chr = mText[sa[j] + depth];
+                if (chr < pivot)
+                    swap(sa, lt++, j++);
+                else if (chr > pivot)
+                    swap(sa, j, --gt);
+                else
+                    j++;
+            }
+            sortSuffixes(sa, lo, lt, depth);
+            if (pivot == 0)
+                Arrays.sort(sa, lt, gt);            // all end here, so order separators by position
+            else
+                sortSuffixes(sa, lt, gt, depth + 1);
+            lo = gt;                                // loop on the greater part
+        }
+    }
+
+    private void insertionSortSuffixes(int sa[], int lo, int hi, int depth)
+    {
+        for (int j = lo + 1; j < hi; j++) {
+            int suf = sa[j], k = j;
+            while (k > lo && compareSuffixes(sa[k - 1], suf, depth) > 0) {
+                sa[k] = sa[k - 1];
+                k--;
+            }
+            sa[k] = suf;
+        }
+    }
+
+    private int compareSuffixes(int posA, int posB, int depth)
+    {
+        for (int a = posA + depth, b = posB + depth; ; a++, b++) {
+            int chrA = mText[a], chrB = mText[b];
+            if (chrA != chrB)
+                return chrA - chrB;
+            if (chrA == 0)
+                return posA - posB;
+        }
+    }
+
+    private static int medianOfThree(int a, int b, int c)
+    {
+        if (a < b)
+            return b < c ? b : (a < c ? c : a);
+        return a < c ? a : (b < c ? c : b);
+    }
+
+    private static void swap(int sa[], int j, int k)
+    {
+        int tmp = sa[j];  sa[j] = sa[k];  sa[k] = tmp;
+    }
+
+    /** Number of occurrences of symbol in mBwt[0] to mBwt[row-1] */
+    protected final int rank(int symbol, int row)
+    {
+        int sample = row >> sSampleShift;
+        int count  = mOccSamples[sample * sNumSymbols + symbol];
+        for (int r = sample << sSampleShift; r < row; r++)
+            if (mBwt[r] == symbol)
+                count++;
+        return count;
+    }
+
+    /** Row of the suffix one char longer than the suffix at row, that is, LF(row) */
+    protected final int stepBack(int row)
+    {
+        int symbol = mBwt[row];
+        return mFirstRow[symbol] + rank(symbol, row);
+    }
+
+    /**
+     * Backward search: returns the half-open range of rows whose suffixes start
+     * with infix, as {beg, end}, or null if infix is empty or has no match.
+     */
+    protected int[] findRows(String infix)
+    {
+        if (infix == null || infix.isEmpty())
+            return null;
+        int beg = 0, end = mNumChars;
+        for (int j = infix.length(); --j >= 0; ) {
+            int symbol = infix.charAt(j) - sFirstLetter + 1;
+            if (symbol < 1 || symbol > sNumLetters)
+                return null;
+            beg = mFirstRow[symbol] + rank(symbol, beg);
+            end = mFirstRow[symbol] + rank(symbol, end);
+            if (beg >= end)
+                return null;
+        }
+        return new int[] { beg, end };
+    }
+
+    /** Index of the word containing the suffix at row, which must not start with a separator */
+    protected int wordIndexAtRow(int row)
+    {
+        while (mBwt[row] != 0)
+            row = stepBack(row);
+        return rank(0, row) - 1;        // less one for the row of the suffix starting the text
+    }
+
+    public int getSize()                { return mWordStarts.length; }
+    public int getNumChars()            { return mNumChars; }
+
+    /** Approximate size of the index in bytes, not counting object headers */
+    public long getNumBytes()
+    {
+        return mText.length + mBwt.length + 4L * (mFirstRow.length + mOccSamples.length + mWordStarts.length);
+    }
+
+    /** Returns the word at index idx in sorted order */
+    public String getWord(int idx)
+    {
+        int beg = mWordStarts[idx], end = beg;
+        while (mText[end] != 0)
+            end++;
+        char chrs[] = new char[end - beg];
+        for (int j = beg; j < end; j++)
+            chrs[j - beg] = (char) (mText[j] + sFirstLetter - 1);
+        return new String(chrs);
+    }
+
+    /** Number of occurrences of infix in all words, counting repeats within a word */
+    public int countOccurrences(String infix)
+    {
+        int rows[] = findRows(infix);
+        return rows == null ? 0 : rows[1] - rows[0];
+    }
+
+    public boolean containsInfix(String infix)
+    {
+        return findRows(infix) != null;
+    }
+
+    /** Returns the indices of all words containing infix, sorted and without repeats */
+    public int[] getWordIndicesContaining(String infix)
+    {
+        int rows[] = findRows(infix);
+        if (rows == null)
+            return new int[0];
+        int indices[] = new int[rows[1] - rows[0]];
+        for (int r = rows[0]; r < rows[1]; r++)
+            indices[r - rows[0]] = wordIndexAtRow(r);
+        Arrays.sort(indices);
+        int numUnique = 0;
+        for (int j = 0; j < indices.length; j++)
+            if (j == 0 || indices[j] != indices[j - 1])
+                indices[numUnique++] = indices[j];
+        return Arrays.copyOf(indices, numUnique);
+    }
+
+    /** Returns all words containing infix, in alphabetical order */
+    public List<String> getWordsContaining(String infix)
+    {
+        int indices[] = getWordIndicesContaining(infix);
+        List<String> words = new ArrayList<String>(indices.length);
+        for (int idx : indices)
+            words.add(getWord(idx));
+        return words;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected static List<String> test_wordsContainingBruteForce(Collection<String> words, String infix)
+    {
+        List<String> found = new ArrayList<String>();
+        for (String word : words)
+            if (word.contains(infix))
+                found.add(word);
+        return found;
+    }
+
+    protected static int test_sameAsBruteForce(FMIndex index, InfixTrie infixTrie, SortedSet<String> words, String infixes[])
+    {
+        int numWrong = 0;
+        for (String infix : infixes) {
+            List<String> expect = test_wordsContainingBruteForce(words, infix);
+            numWrong += Sz.oneIfFalse(index.getWordsContaining(infix).equals(expect));
+            numWrong += Sz.oneIfFalse(infixTrie.getWordsContaining(infix).equals(expect));
+            int numOcc = 0;
+            for (String word : words)
+                for (int pos = word.indexOf(infix); pos >= 0; pos = word.indexOf(infix, pos + 1))
+                    numOcc++;
+            numWrong += Sz.oneIfDiff(index.countOccurrences(infix), numOcc);
+        }
+        return numWrong;
+    }
+
+    /**
+     * Builds an InfixTrie and an FMIndex from the same words and compares their
+     * heap use and the time to find all words containing each of the infixes.
+     */
+    protected static int test_compareWithInfixTrie(SortedSet<String> words, String infixes[], int numTrials)
+    {
+        long heapBeg = FrozenWordTrie.usedHeapBytes();
+        InfixTrie infixTrie = new InfixTrie();
+        for (String word : words)
+            infixTrie.putWord(word);
+        long heapTrie = FrozenWordTrie.usedHeapBytes();
+        FMIndex index = infixTrie.indexInfixes();
+        // Sized from the index's array lengths: a heap delta this small is mostly GC noise.
+        long numChars = index.getNumChars(), numBytes = index.getNumBytes();
+        Sx.format("%d words, %d chars:  InfixTrie %d nodes, %.1f MB;  FMIndex arrays %.1f MB (%.2f bytes/char)\n"
+                , index.getSize(), numChars, infixTrie.mNumNodes, (heapTrie - heapBeg) * 1.0e-6
+                , numBytes * 1.0e-6, numBytes * 1.0 / numChars);
+
+        int numWrong = 0, numTrieWords = 0, numIndexWords = 0;
+        long begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++)
+            for (String infix : infixes)
+                numTrieWords += infixTrie.getWordsContaining(infix).size();
+        double trieMs = (System.nanoTime() - begTime) * 1.0e-6;
+        begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++)
+            for (String infix : infixes)
+                numIndexWords += index.getWordsContaining(infix).size();
+        double indexMs = (System.nanoTime() - begTime) * 1.0e-6;
+        Sx.format("getWordsContaining x %d:  InfixTrie %8.2f ms,  FMIndex %8.2f ms  (%d words)\n"
+                , numTrials * infixes.length, trieMs, indexMs, numIndexWords);
+        numWrong += Sz.oneIfDiff(numIndexWords, numTrieWords);
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = FMIndex.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = 0;
+        String small[] = { "banana", "ban", "nab", "ana", "bandana", "a", "cabana", "zz" };
+        FMIndex tiny = new FMIndex(Arrays.asList(small));
+        numWrong += Sz.oneIfDiff(tiny.getSize(), small.length);
+        numWrong += Sz.oneIfDiff(tiny.countOccurrences("ana"), 5);
+        numWrong += Sz.oneIfDiff(tiny.countOccurrences("q"), 0);
+        numWrong += Sz.oneIfDiff(tiny.countOccurrences(""), 0);
+        numWrong += Sz.oneIfFalse(tiny.getWordsContaining("ban").toString().equals("[ban, banana, bandana, cabana]"));
+        numWrong += Sz.oneIfFalse(tiny.getWordsContaining("ab").toString().equals("[cabana, nab]"));
+        numWrong += Sz.oneIfFalse(tiny.getWordsContaining("z").toString().equals("[zz]"));
+        numWrong += Sz.oneIfFalse(tiny.getWordsContaining("nan").toString().equals("[banana]"));
+        numWrong += Sz.oneIfFalse(tiny.getWordsContaining("Ban").isEmpty());
+
+        int maxWordLen = 16;
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(FileUtil.getTextFilePath("words.txt"), 3, maxWordLen, 1);
+        InfixTrie infixTrie = new InfixTrie();
+        for (String word : trie.getAllWords())
+            infixTrie.putWord(word);
+        FMIndex index = infixTrie.indexInfixes();
+        String infixes[] = { "a", "ing", "tion", "qu", "zz", "xyz", "abcd", "ee", "ness", "exquisite" };
+        numWrong += test_sameAsBruteForce(index, infixTrie, trie.getAllWords(), infixes);
+
+        // Spot-check random infixes taken from random words
+        List<String> words = new ArrayList<String>(trie.getAllWords());
+        Random rng = new Random(3);
+        String randomInfixes[] = new String[50];
+        for (int j = 0; j < randomInfixes.length; j++) {
+            String word = words.get(rng.nextInt(words.size()));
+            int beg = rng.nextInt(word.length());
+            randomInfixes[j] = word.substring(beg, Math.min(word.length(), beg + 1 + rng.nextInt(4)));
+        }
+        numWrong += test_sameAsBruteForce(index, infixTrie, trie.getAllWords(), randomInfixes);
+
+        if (level > 0)
+            numWrong += test_compareWithInfixTrie(trie.getAllWords(), infixes, 20);
+        if (level > 1) {
+            LevenshteinAutomaton.test_addCompoundWords(trie, 200000 - trie.getSize(), maxWordLen, 11);
+            numWrong += test_compareWithInfixTrie(trie.getAllWords(), infixes, 5);
+        }
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
@@ -0,0 +1,1045 @@
+package sprax.tries;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import sprax.files.FileUtil;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+import sprax.tries.WordTrie.WordNode;
+
+/**
+ * Immutable, array-backed form of a loaded WordTrie.
+ *
+ * The nodes are numbered in level order (breadth first), as in a LOUDS
+ * (level-order unary degree sequence) tree, so the children of every node
+ * are contiguous and sorted by letter, and the children of node i are
+ * exactly the nodes in [mFirstChild[i], mFirstChild[i+1]).  Instead of
+ * encoding the degrees as a bit vector and computing rank/select on it,
+ * we keep the ranks themselves in mFirstChild, which costs 4 bytes per node
+ * but makes every child lookup a binary search over at most 26 chars.
+ *
+ * Each node costs 24 bytes in 7 parallel primitive arrays, versus roughly
+ * 180 bytes for a WordNode and its 26-slot branch array, and words are
+ * not stored as Strings at all; they are re-built from the path on demand.
+ * Get one by calling WordTrie.freeze() after loading the dictionary and
+ * any text files.  Later changes to the WordTrie are not reflected here.
+ *
+ * The arrays are held as java.nio buffers, so that the same trie can also
+ * be written once as a binary snapshot (writeSnapshot) and then opened
+ * with mapSnapshot, which maps the file read-only and serves queries
+ * straight off the mapped pages, with no parsing or copying at start-up.
+ * Processes that map the same snapshot share its page cache.
+ * The snapshot header records the word lengths the dictionary was loaded
+ * with and the dictionary's modification time, so that loadOrBuild can
+ * tell a stale or mismatched snapshot from a good one and rebuild it.
+ *
+ * @author sprax
+ */
+public class FrozenWordTrie implements AutoCompleteInterface
+{
+    public static final int sWildCardChar = WordTrie.sWildCardChar;
+    public static final int sRoot         = 0;  // The root node is always node 0 in level order.
+
+    /**
+     * Snapshot file layout: header of 10 ints and the long dictionary modification time,
+     * then the int arrays, the letters, and the depths.
+     */
+    public static final int       sSnapshotMagic   = 0x57547269;   // "WTri"
+    public static final int       sSnapshotVersion = 3;
+    public static final int       sHeaderBytes     = 10 * 4 + 8;
+    public static final ByteOrder sByteOrder       = ByteOrder.LITTLE_ENDIAN;
+
+    protected final int    mNumNodes;
+    protected final int    mNumWords;
+    protected final int    mMinWordLen;
+    protected final int    mMaxWordLen;
+    protected final int    mMaxDepth;
+    /** Word lengths requested when the source WordTrie was loaded */
+    protected final int    mReqMinWordLen;
+    protected final int    mReqMaxWordLen;
+    /** Modification time of the dictionary file the snapshot was built from, or 0 if unknown */
+    protected final long   mSourceModified;
+
+    /** Letter of each node; the root's letter is '\0'. */
+    protected final CharBuffer mLetters;
+    /** Children of node i are [mFirstChild[i], mFirstChild[i+1]); length is mNumNodes + 1 */
+    protected final IntBuffer  mFirstChild;
+    /** Parent of each node, for re-building words from the bottom up; the root's parent is -1. */
+    protected final IntBuffer  mParents;
+    /** Depth of each node == length of its stem, unsigned, so stems of up to 65535 letters */
+    protected final CharBuffer mDepths;
+    /** Same as WordNode.mWordCount: a node is a word node IFF its word count is > 0 */
+    protected final IntBuffer  mWordCounts;
+    /** Same as WordNode.mTextCount */
+    protected final IntBuffer  mTextCounts;
+    /** Same as WordNode.mDictCount */
+    protected final IntBuffer  mDictCounts;
+
+    /**
+     * Copies the trie's nodes and counts into level-ordered arrays.
+     * Children are visited via the sibling lists, which are alphabetical,
+     * so the children of each node come out sorted by letter.
+     */
+    public FrozenWordTrie(WordTrie trie)
+    {
+        List<WordNode> order = new ArrayList<WordNode>(trie.mNumNodes);
+        order.add(trie.getRoot());
+        for (int j = 0; j < order.size(); j++) {
+            for (WordNode child = order.get(j).getFirstBranch(); child != null; child = child.getNextBranch())
+                order.add(child);
+        }
+        mNumNodes   = order.size();
+        mNumWords   = trie.getSize();
+        mMinWordLen = trie.getMinWordLen();
+        mMaxWordLen = trie.getMaxWordLen();
+        mReqMinWordLen  = trie.mReqMinWordLen;
+        mReqMaxWordLen  = trie.mReqMaxWordLen;
+        mSourceModified = 0;
+        if (mMaxWordLen > Character.MAX_VALUE)
+            throw new IllegalArgumentException("FrozenWordTrie: words longer than " + (int) Character.MAX_VALUE
+                    + " letters: " + mMaxWordLen);
+        char letters[]    = new char[mNumNodes];
+        int  firstChild[] = new int[mNumNodes + 1];
+        int  parents[]    = new int[mNumNodes];
+        char depths[]     = new char[mNumNodes];
+        int  wordCounts[] = new int[mNumNodes];
+        int  textCounts[] = new int[mNumNodes];
+        int  dictCounts[] = new int[mNumNodes];
+
+        parents[sRoot] = -1;
+        int maxDepth = 0, next = 1;       // id of the next child to be assigned, in level order
+        for (int j = 0; j < mNumNodes; j++) {
+            WordNode node = order.get(j);
+            if (j > sRoot)
+                letters[j] = (char) (WordTrie.sFirstLetter + node.getLetterIndex());
+            wordCounts[j] = node.getWordCount();
+            textCounts[j] = node.getTextCount();
+            dictCounts[j] = node.getDictCount();
+            firstChild[j] = next;
+            for (WordNode child = node.getFirstBranch(); child != null; child = child.getNextBranch()) {
+                parents[next] = j;
+                depths[next]  = (char) (depths[j] + 1);
+                if (maxDepth < depths[next])
+                    maxDepth = depths[next];
+                next++;
+            }
+        }
+        firstChild[mNumNodes] = next;
+        mLetters    = CharBuffer.wrap(letters);
+        mFirstChild = IntBuffer.wrap(firstChild);
+        mParents    = IntBuffer.wrap(parents);
+        mDepths     = CharBuffer.wrap(depths);
+        mWordCounts = IntBuffer.wrap(wordCounts);
+        mTextCounts = IntBuffer.wrap(textCounts);
+        mDictCounts = IntBuffer.wrap(dictCounts);
+        mMaxDepth = maxDepth;
+    }
+
+    /**
+     * Wraps a snapshot, as written by writeSnapshot, without copying it.
+     * The buffer is normally a read-only MappedByteBuffer from mapSnapshot.
+     * @throws IllegalArgumentException if the header is not a version
+     *         sSnapshotVersion header, or the buffer is not the size it implies.
+     */
+    protected FrozenWordTrie(ByteBuffer snapshot)
+    {
+        snapshot.order(sByteOrder);
+        if (snapshot.capacity() < sHeaderBytes
+                || snapshot.getInt(0) != sSnapshotMagic || snapshot.getInt(4) != sSnapshotVersion)
+            throw new IllegalArgumentException("FrozenWordTrie: not a version " + sSnapshotVersion + " snapshot");
+        mNumNodes   = snapshot.getInt(8);
+        mNumWords   = snapshot.getInt(12);
+        mMinWordLen = snapshot.getInt(16);
+        mMaxWordLen = snapshot.getInt(20);
+        mMaxDepth   = snapshot.getInt(24);
+        mReqMinWordLen  = snapshot.getInt(28);
+        mReqMaxWordLen  = snapshot.getInt(32);
+        mSourceModified = snapshot.getLong(40);
+        if (mNumNodes < 1 || snapshot.capacity() != getSnapshotBytes())
+            throw new IllegalArgumentException("FrozenWordTrie: snapshot of " + snapshot.capacity()
+                    + " bytes does not match its header of " + mNumNodes + " nodes");
+
+        int pos = sHeaderBytes, intArrayBytes = mNumNodes * 4;
+        mFirstChild = slice(snapshot, pos, intArrayBytes + 4).asIntBuffer();
+        pos += intArrayBytes + 4;
+        mParents    = slice(snapshot, pos, intArrayBytes).asIntBuffer();
+        pos += intArrayBytes;
+        mWordCounts = slice(snapshot, pos, intArrayBytes).asIntBuffer();
+        pos += intArrayBytes;
+        mTextCounts = slice(snapshot, pos, intArrayBytes).asIntBuffer();
+        pos += intArrayBytes;
+        mDictCounts = slice(snapshot, pos, intArrayBytes).asIntBuffer();
+        pos += intArrayBytes;
+        mLetters    = slice(snapshot, pos, mNumNodes * 2).asCharBuffer();
+        pos += mNumNodes * 2;
+        mDepths     = slice(snapshot, pos, mNumNodes * 2).asCharBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int pos, int len)
+    {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(pos + len);
+        dup.position(pos);
+        return dup.slice().order(sByteOrder);
+    }
+
+    /** Size in bytes of the snapshot file for this trie */
+    public long getSnapshotBytes()
+    {
+        return sHeaderBytes + (mNumNodes * 5L + 1) * 4 + mNumNodes * 2L * 2;
+    }
+
+    /**
+     * Writes this trie as a binary snapshot that mapSnapshot can open.
+     * @return true on success, false on any I/O error.
+     */
+    public boolean writeSnapshot(final String snapshotPath)
+    {
+        return writeSnapshot(snapshotPath, mSourceModified);
+    }
+
+    /**
+     * Writes this trie as a binary snapshot, recording sourceModified as
+     * the modification time of the dictionary it was built from.
+     * @return true on success, false on any I/O error.
+     */
+    public boolean writeSnapshot(final String snapshotPath, long sourceModified)
+    {
+        ByteBuffer buf = ByteBuffer.allocate((int) getSnapshotBytes()).order(sByteOrder);
+        buf.putInt(sSnapshotMagic).putInt(sSnapshotVersion).putInt(mNumNodes).putInt(mNumWords);
+        buf.putInt(mMinWordLen).putInt(mMaxWordLen).putInt(mMaxDepth);
+        buf.putInt(mReqMinWordLen).putInt(mReqMaxWordLen).putInt(0).putLong(sourceModified);
+        for (int j = 0; j <= mNumNodes; j++)
+            buf.putInt(mFirstChild.get(j));
+        for (IntBuffer ints : new IntBuffer[] { mParents, mWordCounts, mTextCounts, mDictCounts }) {
+            for (int j = 0; j < mNumNodes; j++)
+                buf.putInt(ints.get(j));
+        }
+        for (int j = 0; j < mNumNodes; j++)
+            buf.putChar(mLetters.get(j));
+        for (int j = 0; j < mNumNodes; j++)
+            buf.putChar(mDepths.get(j));
+        buf.flip();
+
+        // Write a temp file beside the snapshot and rename it over the old one,
+        // so that tries still mapping the old file keep their pages.
+        Path path = Paths.get(snapshotPath).toAbsolutePath();
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining())
+                    channel.write(buf);
+                channel.force(false);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return true;
+        } catch (IOException ex) {
+            System.out.println("Error writing snapshot file: " + snapshotPath);
+            ex.printStackTrace();
+            if (temp != null)
+                new File(temp.toString()).delete();
+            return false;
+        }
+    }
+
+    /**
+     * Opens a snapshot written by writeSnapshot by mapping it read-only.
+     * The mapping stays valid after the channel is closed.
+     * @return the mapped trie, or null on any I/O error or if the file
+     *         is not a complete snapshot of the current version.
+     */
+    public static FrozenWordTrie mapSnapshot(final String snapshotPath)
+    {
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath, "r");
+             FileChannel channel = file.getChannel()) {
+            return new FrozenWordTrie(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            System.out.println("Error mapping snapshot file: " + snapshotPath);
+            ex.printStackTrace();
+            return null;
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Invalid snapshot file: " + snapshotPath + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Maps the snapshot if it is valid, was built with the same word lengths,
+     * and is no older than the dictionary; otherwise loads the dictionary into
+     * a WordTrie, freezes it, and writes the snapshot for next time.
+     */
+    public static FrozenWordTrie loadOrBuild(final String snapshotPath, final String dictionaryPath
+            , int minWordLen, int maxWordLen, int verbosity)
+    {
+        long dictModified = new File(dictionaryPath).lastModified();
+        File snapshotFile = new File(snapshotPath);
+        if (snapshotFile.isFile() && snapshotFile.lastModified() >= dictModified) {
+            FrozenWordTrie mapped = mapSnapshot(snapshotPath);
+            if (mapped != null && mapped.mReqMinWordLen == minWordLen && mapped.mReqMaxWordLen == maxWordLen
+                    && mapped.mSourceModified == dictModified)
+                return mapped;
+            if (verbosity > 0)
+                Sx.puts("Rebuilding stale or mismatched snapshot: " + snapshotPath);
+        }
+
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictionaryPath, minWordLen, maxWordLen, verbosity);
+        FrozenWordTrie frozen = trie.freeze();
+        frozen.writeSnapshot(snapshotPath, dictModified);
+        return frozen;
+    }
+
+    public final int     getSize()              { return mNumWords; }
+    public final int     getNumNodes()          { return mNumNodes; }
+    public final int     getMinWordLen()        { return mMinWordLen; }
+    public final int     getMaxWordLen()        { return mMaxWordLen; }
+    public final boolean isWord(int node)       { return mWordCounts.get(node) > 0; }
+    public final int     getWordCount(int node) { return mWordCounts.get(node); }
+    public final int     getTextCount(int node) { return mTextCounts.get(node); }
+    public final int     getDictCount(int node) { return mDictCounts.get(node); }
+    public final int     getDepth(int node)     { return mDepths.get(node); }
+
+    /** Approximate heap footprint of the arrays, in bytes. */
+    public long getNumBytes()
+    {
+        return (long) mNumNodes * (2 + 4 + 4 + 2 + 4 + 4 + 4) + 4;
+    }
+
+    /**
+     * Returns the child of node with the given letter, or -1 if there is none.
+     * The children are sorted by letter, so this is a binary search.
+     */
+    public final int getBranchAtLetter(int node, int letter)
+    {
+        int lo = mFirstChild.get(node), hi = mFirstChild.get(node + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int chr = mLetters.get(mid);
+            if (chr < letter)
+                lo = mid + 1;
+            else if (chr > letter)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /** Fills buf with the stem of node and returns its length. */
+    protected int getStem(int node, char buf[])
+    {
+        int depth = mDepths.get(node);
+        for (int j = depth; --j >= 0; node = mParents.get(node))
+            buf[j] = mLetters.get(node);
+        return depth;
+    }
+
+    public String getStem(int node)
+    {
+        char buf[] = new char[mDepths.get(node)];
+        return new String(buf, 0, getStem(node, buf));
+    }
+
+    /** Returns the word at this node, or null if node is not a word node */
+    public String getWord(int node)
+    {
+        return isWord(node) ? getStem(node) : null;
+    }
+
+    /**
+     * Returns the node representing this key's longest prefix in the trie.
+     */
+    protected int maxStemNode(String key)
+    {
+        if (key == null)
+            return -1;
+        int prev = sRoot, node = prev;
+        for (int end = key.length(), j = 0; j < end; j++) {
+            node = getBranchAtLetter(prev, key.charAt(j));
+            if (node < 0)
+                return prev;    // Not found - reached end of branch
+            prev = node;
+        }
+        return node;
+    }
+
+    /**
+     * Determines whether the key is a word stored in this trie.
+     * @return true IFF the trie contains key as a word.
+     */
+    public boolean contains(final String key)
+    {
+        int node = sRoot;
+        for (int end = key.length(), j = 0; j < end; j++) {
+            node = getBranchAtLetter(node, key.charAt(j));
+            if (node < 0)
+                return false;     // Not found - reached end of stem
+        }
+        return isWord(node);
+    }
+
+    public boolean containsWord(final char chr[])
+    {
+        int node = sRoot;
+        for (int end = chr.length, j = 0; j < end; j++) {
+            node = getBranchAtLetter(node, chr[j]);
+            if (node < 0)
+                return false;
+        }
+        return isWord(node);
+    }
+
+    public String longestPrefix(String prefix)
+    {
+        int maxNode = maxStemNode(prefix);
+        if (maxNode < 0)
+            return null;
+        if (mDepths.get(maxNode) >= prefix.length())
+            return prefix;
+        return getStem(maxNode);
+    }
+
+    /**
+     * Adds all words under this node to the collection, in alphabetical order.
+     * buf must already hold the stem of node, and have room for the longest word.
+     */
+    protected void getWordsRecurse(int node, char buf[], int depth, Collection<String> words)
+    {
+        if (mWordCounts.get(node) > 0)
+            words.add(new String(buf, 0, depth));
+        for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++) {
+            buf[depth] = mLetters.get(child);
+            getWordsRecurse(child, buf, depth + 1, words);
+        }
+    }
+
+    public void getWordsRecurse(int node, Collection<String> words)
+    {
+        char buf[] = new char[mMaxDepth + 1];
+        getWordsRecurse(node, buf, getStem(node, buf), words);
+    }
+
+    public List<String> getWords(int node)
+    {
+        List<String> words = new ArrayList<String>();
+        getWordsRecurse(node, words);
+        return words;
+    }
+
+    public SortedSet<String> getAllWords()
+    {
+        SortedSet<String> words = new TreeSet<String>();
+        getWordsRecurse(sRoot, words);
+        return words;
+    }
+
+    /**
+     * Returns a list of all words that stem from this string's maximal prefix.
+     * @see WordTrie.getWordsPartiallyMatchingPrefix
+     */
+    public List<String> getWordsPartiallyMatchingPrefix(String prefix)
+    {
+        if (prefix == null)
+            throw new IllegalArgumentException("null prefix");
+        return getWords(maxStemNode(prefix));
+    }
+
+    /**
+     * Returns an ordered set containing all unique words that contain the
+     * pattern anywhere as a substring.
+     * @see WordTrie.getWordsMatchingPattern
+     */
+    public SortedSet<String> getWordsMatchingPattern(String pattern)
+    {
+        if (pattern == null)
+            throw new IllegalArgumentException("null pattern");
+
+        int patternLen = pattern.length();
+        if (patternLen == 0)
+            return getAllWords();
+
+        SortedSet<String> words = new TreeSet<String>();
+        int maxSearchDepth = mMaxWordLen - patternLen + 1;
+        if (maxSearchDepth < 1)
+            return words;
+
+        List<Integer> nodeList = new ArrayList<Integer>();
+        findNodesMatchingPatternRecurse(nodeList, sRoot, pattern, maxSearchDepth);
+        char buf[] = new char[mMaxDepth + 1];
+        for (int node : nodeList)
+            getWordsRecurse(node, buf, getStem(node, buf), words);
+        return words;
+    }
+
+    protected void findNodesMatchingPatternRecurse(Collection<Integer> nodeList
+            , int node, final String pattern, int maxSearchDepth)
+    {
+        if (mDepths.get(node) > maxSearchDepth)
+            return;
+
+        int next = node;
+        for (int k = 0; k < pattern.length() && next >= 0; k++)
+            next = getBranchAtLetter(next, pattern.charAt(k));
+        if (next >= 0)
+            nodeList.add(next);
+
+        for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++)
+            findNodesMatchingPatternRecurse(nodeList, child, pattern, maxSearchDepth);
+    }
+
+    /**
+     * Returns all words beginning with the prefix, in which the wild card
+     * character matches any single letter.
+     * @see WordTrie.getWordsMatchingPrefixWildCardRecurse
+     */
+    public SortedSet<String> getWordsMatchingPrefixWildCard(String prefix)
+    {
+        if (prefix == null)
+            throw new IllegalArgumentException("null prefix");
+        if (prefix.isEmpty())
+            return getAllWords();
+
+        SortedSet<String> words = new TreeSet<String>();
+        if (prefix.length() > mMaxWordLen)
+            return words;
+
+        char buf[] = new char[mMaxDepth + 1];
+        getWordsMatchingPrefixWildCardRecurse(words, sRoot, buf, prefix, 0);
+        return words;
+    }
+
+    protected void getWordsMatchingPrefixWildCardRecurse(Collection<String> words
+            , int node, char buf[], final String pattern, int patPos)
+    {
+        if (patPos == pattern.length()) {
+            getWordsRecurse(node, buf, patPos, words);
+            return;
+        }
+        char patChr = pattern.charAt(patPos);
+        if (patChr == sWildCardChar) {
+            for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++) {
+                buf[patPos] = mLetters.get(child);
+                getWordsMatchingPrefixWildCardRecurse(words, child, buf, pattern, patPos + 1);
+            }
+        } else {
+            int child = getBranchAtLetter(node, patChr);
+            if (child >= 0) {
+                buf[patPos] = patChr;
+                getWordsMatchingPrefixWildCardRecurse(words, child, buf, pattern, patPos + 1);
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Greedy continuations ////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** Returns the first child with the greatest text count, or -1 if node is a leaf */
+    protected int maxTextCountChild(int node)
+    {
+        int maxNode = -1, maxCount = 0;
+        for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++) {
+            if (maxCount < mTextCounts.get(child)) {
+                maxCount = mTextCounts.get(child);
+                maxNode  = child;
+            }
+        }
+        return maxNode;
+    }
+
+    /**
+     * Same as WordTrie.minGreedyContinuation(NodeCount): puts the minimal
+     * most-frequently-stemmed word node at or under nodeCount[0] into nodeCount[0],
+     * and the total text count along the way into nodeCount[1].
+     * @return True if any such word is found, otherwise false.
+     */
+    protected boolean minGreedyContinuation(int nodeCount[])
+    {
+        int greedy = nodeCount[0], total = mTextCounts.get(greedy), child;
+        while ( ! isWord(greedy) && (child = maxTextCountChild(greedy)) >= 0) {
+            total += mTextCounts.get(child);
+            greedy = child;
+        }
+        nodeCount[0] = greedy;
+        nodeCount[1] = total;
+        return isWord(greedy);
+    }
+
+    /**
+     * Same as WordTrie.nextGreedyContinuation(NodeCount): moves nodeCount[0]
+     * to the next word node that properly contains its stem.
+     */
+    protected boolean nextGreedyContinuation(int nodeCount[])
+    {
+        int greedy = nodeCount[0], total = mTextCounts.get(greedy), child;
+        while ((child = maxTextCountChild(greedy)) >= 0) {
+            total += mTextCounts.get(child);
+            greedy = child;
+            if (isWord(greedy)) {
+                nodeCount[0] = greedy;
+                nodeCount[1] = total;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// AutoCompleteInterface ///////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public List<String> getPossible(String prefix) {
+        return getWordsPartiallyMatchingPrefix(prefix);
+    }
+
+    @Override
+    public List<String> getPossible(String prefix, int limit)
+    {
+        List<String> words = getWordsPartiallyMatchingPrefix(prefix);
+        if (words.size() > limit)
+            return words.subList(0, limit);
+        return words;
+    }
+
+    @Override
+    public List<String> getProbable(String prefix) {
+        return getProbable(prefix, 5);
+    }
+
+    /**
+     * Returns the same greedy completions as AutoCompleteWord.getProbableGreedy,
+     * sorted by descending path count (or an empty list if none are found).
+     */
+    @Override
+    public List<String> getProbable(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<String> words = new ArrayList<String>(limit);
+        int nodeCount[] = { maxStemNode(prefix), 0 };
+        if ( ! minGreedyContinuation(nodeCount))
+            return words;
+
+        int nodes[]  = new int[limit];
+        int counts[] = new int[limit];
+        int numProbWords = 0;
+        do {
+            // Stable insertion by descending count, as in Arrays.sort(NodeCount[])
+            int j = numProbWords++;
+            for ( ; j > 0 && counts[j-1] < nodeCount[1]; j--) {
+                nodes[j]  = nodes[j-1];
+                counts[j] = counts[j-1];
+            }
+            nodes[j]  = nodeCount[0];
+            counts[j] = nodeCount[1];
+        } while (numProbWords < limit && nextGreedyContinuation(nodeCount));
+
+        for (int j = 0; j < numProbWords; j++)
+            words.add(getWord(nodes[j]));
+        return words;
+    }
+
+    /**
+     * Returns the words that begin the query, longest first: the usable
+     * starts of a query that has run past the end of every known word.
+     */
+    @Override
+    public List<String> getProbablePrefixes(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<String> words = new ArrayList<String>(limit);
+        int node = sRoot;
+        for (int end = prefix.length(), j = 0; j < end && (node = getBranchAtLetter(node, prefix.charAt(j))) >= 0; j++) {
+            if (isWord(node))
+                words.add(0, prefix.substring(0, j + 1));
+        }
+        return words.size() > limit ? words.subList(0, limit) : words;
+    }
+
+    /**
+     * Returns the probable completions of the longest proper suffix of the
+     * query that is a stem in this trie: the usable end of a query whose
+     * beginning matched nothing.  Returns an empty list if no suffix matches.
+     */
+    @Override
+    public List<String> getProbableSuffixes(String prefix, int limit)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        for (int beg = 1; beg < prefix.length(); beg++) {
+            int node = sRoot;
+            for (int j = beg; j < prefix.length() && node >= 0; j++)
+                node = getBranchAtLetter(node, prefix.charAt(j));
+            if (node >= 0)
+                return getProbable(prefix.substring(beg), limit);
+        }
+        return new ArrayList<String>();
+    }
+
+    /**
+     * Returns the most probable completions of prefix, allowing for typos:
+     * up to 1 edit in prefixes of up to 4 letters, and up to 2 in longer ones.
+     * Same results as AutoCompleteWord.getProbableRepaired on the trie this was frozen from.
+     */
+    @Override
+    public List<String> getProbableRepaired(String prefix, int limit) {
+        return getProbableRepaired(prefix, limit, prefix.length() <= 4 ? 1 : 2);
+    }
+
+    /**
+     * Returns at most limit words that begin within maxDist edits of prefix,
+     * nearest first, and among words at the same distance, those with the
+     * greatest word count, then text count, first.
+     * @see AutoCompleteWord.getProbableRepaired(String, int, int)
+     */
+    public List<String> getProbableRepaired(String prefix, int limit, int maxDist)
+    {
+        assert(prefix != null);
+        assert(limit > 0);
+        List<int[]> stems = getNodesWithinEditDistance(prefix, maxDist);
+        List<String> words = new ArrayList<String>(limit);
+        List<Integer> candidates = new ArrayList<Integer>();
+        boolean found[] = new boolean[mNumNodes];
+        int topNodes[] = new int[limit];
+        for (int dist = 0; dist <= maxDist && words.size() < limit; dist++) {
+            candidates.clear();
+            for (int stem[] : stems) {
+                if (stem[1] == dist) {
+                    int numTop = getTopWordNodes(stem[0], topNodes, 0);
+                    for (int j = 0; j < numTop; j++)
+                        candidates.add(topNodes[j]);
+                }
+            }
+            candidates.sort((nodeA, nodeB) -> compareCounts(nodeA, nodeB));    // stable
+            for (int node : candidates) {
+                if ( ! found[node]) {
+                    found[node] = true;
+                    words.add(getWord(node));
+                    if (words.size() == limit)
+                        break;
+                }
+            }
+        }
+        return words;
+    }
+
+    /** Same order as WordTrie.compareCounts: negative if nodeA has the greater word count, then text count */
+    protected int compareCounts(int nodeA, int nodeB)
+    {
+        if (mWordCounts.get(nodeB) == mWordCounts.get(nodeA))
+            return mTextCounts.get(nodeB) - mTextCounts.get(nodeA);
+        return mWordCounts.get(nodeB) - mWordCounts.get(nodeA);
+    }
+
+    /**
+     * Keeps the (up to) topNodes.length most probable word nodes at or under node
+     * in topNodes, best first, with equally probable words in alphabetical order,
+     * as in WordTrie.getTopWordNodes, but by searching the sub-trie instead of
+     * reading a per-node cache.
+     * @return the number of nodes now in topNodes
+     */
+    protected int getTopWordNodes(int node, int topNodes[], int numTop)
+    {
+        if (isWord(node) && (numTop < topNodes.length || compareCounts(node, topNodes[numTop - 1]) < 0)) {
+            int j = numTop < topNodes.length ? numTop++ : numTop - 1;
+            for ( ; j > 0 && compareCounts(node, topNodes[j - 1]) < 0; j--)
+                topNodes[j] = topNodes[j - 1];
+            topNodes[j] = node;
+        }
+        for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++)
+            numTop = getTopWordNodes(child, topNodes, numTop);
+        return numTop;
+    }
+
+    /**
+     * Same as WordTrie.getNodesWithinEditDistance(query, maxDist, false): the nodes
+     * within maxDist edits of the query that are nearer to it than any of their
+     * returned ancestors, in alphabetical order.
+     * @return list of {node, distance} pairs
+     */
+    public List<int[]> getNodesWithinEditDistance(String query, int maxDist)
+    {
+        List<int[]> results = new ArrayList<int[]>();
+        query = LevenshteinAutomaton.fitQuery(query, mMaxDepth, maxDist);
+        if (query == null)
+            return results;
+
+        LevenshteinAutomaton lev = new LevenshteinAutomaton(query, maxDist);
+        long states[] = new long[(mMaxDepth + 1) * lev.getStateSize()];
+        lev.start(states, 0);
+        int dist = lev.distance(states, 0);
+        if (dist <= maxDist)
+            results.add(new int[] { sRoot, dist });
+        findNodesWithinEditDistanceRecurse(results, lev, states, sRoot, dist);
+        return results;
+    }
+
+    protected void findNodesWithinEditDistanceRecurse(List<int[]> results, LevenshteinAutomaton lev
+            , long states[], int node, int minDist)
+    {
+        int size = lev.getStateSize();
+        int from = mDepths.get(node) * size, to = from + size;
+        for (int child = mFirstChild.get(node), end = mFirstChild.get(node + 1); child < end; child++) {
+            if ( ! lev.step(states, from, to, mLetters.get(child)))
+                continue;                              // dead: no stem below can match
+            int dist = lev.distance(states, to), minDistBelow = minDist;
+            if (dist < minDist) {
+                results.add(new int[] { child, dist });
+                minDistBelow = dist;
+            }
+            if (minDistBelow > 0)                      // nothing below an exact match is nearer
+                findNodesWithinEditDistanceRecurse(results, lev, states, child, minDistBelow);
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected static long usedHeapBytes()
+    {
+        Runtime rt = Runtime.getRuntime();
+        for (int j = 0; j < 3; j++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** Checks that stems deeper than a signed byte can hold keep their depths, here and in a snapshot */
+    protected static int test_longWords(String snapshotPath)
+    {
+        int numWrong = 0;
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 300; j++)
+            sb.append((char) ('a' + j % 26));
+        String longWord = sb.toString();
+        WordTrie trie = new WordTrie();
+        trie.mReqMaxWordLen = longWord.length();
+        for (String word : new String[] { longWord, longWord.substring(0, 130), "cat" })
+            trie.putWord(word);
+        FrozenWordTrie frozen = trie.freeze();
+        numWrong += Sz.oneIfFalse(frozen.getAllWords().equals(trie.getAllWords()));
+        numWrong += Sz.oneIfFalse(frozen.contains(longWord));
+        numWrong += Sz.oneIfFalse(frozen.getProbable(longWord.substring(0, 200), 1).equals(Arrays.asList(longWord)));
+
+        numWrong += Sz.oneIfFalse(frozen.writeSnapshot(snapshotPath, 0));
+        FrozenWordTrie mapped = mapSnapshot(snapshotPath);
+        numWrong += Sz.oneIfFalse(mapped != null && mapped.getAllWords().equals(trie.getAllWords()));
+        new File(snapshotPath).delete();
+        return numWrong;
+    }
+
+    protected static int test_sameResults(WordTrie trie, FrozenWordTrie frozen, AutoCompleteWord auto)
+    {
+        int numWrong = 0;
+        numWrong += Sz.oneIfDiff(frozen.getSize(), trie.getSize());
+        numWrong += Sz.oneIfDiff(frozen.getNumNodes(), trie.mNumNodes);
+        numWrong += Sz.oneIfFalse(frozen.getAllWords().equals(trie.getAllWords()));
+
+        String prefixes[] = { "", "a", "s", "drin", "exquis", "site", "xquis", "bj", "rock", "rockpaper", "sper", "qqq" };
+        for (String prefix : prefixes) {
+            numWrong += Sz.oneIfDiff(frozen.contains(prefix), trie.contains(prefix));
+            numWrong += Sz.oneIfDiff(frozen.longestPrefix(prefix), trie.longestPrefix(prefix));
+            numWrong += Sz.oneIfFalse(frozen.getPossible(prefix, 20).equals(auto.getPossible(prefix, 20)));
+            numWrong += Sz.oneIfFalse(frozen.getProbable(prefix, 5).equals(auto.getProbableGreedy(prefix, 5)));
+            numWrong += Sz.oneIfFalse(frozen.getProbableRepaired(prefix, 5).equals(auto.getProbableRepaired(prefix, 5)));
+        }
+        String typos[] = { "accomod", "exquisit", "teh", "wrod", "helo" };
+        for (String typo : typos)
+            numWrong += Sz.oneIfFalse(frozen.getProbableRepaired(typo, 8).equals(auto.getProbableRepaired(typo, 8)));
+
+        // Starts and ends of queries that run past or begin before every known word
+        List<String> starts = frozen.getProbablePrefixes("catalogqqq", 3);
+        numWrong += Sz.oneIfFalse(starts.size() > 0 && starts.get(0).equals("catalog") && ! starts.contains("catalogq"));
+        for (String start : starts)
+            numWrong += Sz.oneIfFalse("catalogqqq".startsWith(start) && frozen.contains(start));
+        numWrong += Sz.oneIfFalse(frozen.getProbableSuffixes("qqqdrin", 5).equals(frozen.getProbable("drin", 5)));
+        numWrong += Sz.oneIfFalse(frozen.getProbableSuffixes("q", 5).isEmpty());
+        String patterns[] = { "xquis", "site", "ardva", "aa", "qqxx", "etymol" };
+        for (String pattern : patterns) {
+            numWrong += Sz.oneIfFalse(frozen.getWordsMatchingPattern(pattern).equals(trie.getWordsMatchingPattern(pattern)));
+        }
+        String wildCards[] = { "a_a", "a_q", "exq_is", "acq_a_", "wo_f", "w_t_f" };
+        for (String pattern : wildCards) {
+            numWrong += Sz.oneIfFalse(frozen.getWordsMatchingPrefixWildCard(pattern).equals(
+                    trie.getWordsMatchingPrefixWildCardRecurse(pattern)));
+        }
+        return numWrong;
+    }
+
+    /**
+     * Compares heap used and contains() lookups per second for the pointer-based
+     * and the frozen tries.  The frozen trie is built before the WordTrie is
+     * released, so the memory delta counts only the arrays.
+     */
+    protected static int test_timeContains(WordTrie trie, FrozenWordTrie frozen, int numTrials)
+    {
+        List<String> words = new ArrayList<String>(trie.getAllWords());
+        long begTime, endTime;
+        int count = 0;
+
+        begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++) {
+            for (String word : words) {
+                if (trie.contains(word))
+                    count++;
+            }
+        }
+        endTime = System.nanoTime();
+        Sx.format("WordTrie       contains: %d lookups, %8.0f per ms\n", count
+                , count * 1.0e6 / (endTime - begTime));
+
+        count = 0;
+        begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++) {
+            for (String word : words) {
+                if (frozen.contains(word))
+                    count++;
+            }
+        }
+        endTime = System.nanoTime();
+        Sx.format("FrozenWordTrie contains: %d lookups, %8.0f per ms\n", count
+                , count * 1.0e6 / (endTime - begTime));
+        return Sz.oneIfDiff(count, numTrials * words.size());
+    }
+
+    /**
+     * Compares the time to first getProbable when building from the
+     * dictionary text with the time when mapping a snapshot of it.
+     */
+    protected static int test_timeColdStart(FrozenWordTrie frozen, String dictPath, int minWordLen, int maxWordLen)
+    {
+        int numWrong = 0;
+        String prefix = "sper";
+        String snapshotPath = dictPath + ".wtrie";
+        File snapshotFile = new File(snapshotPath);
+        snapshotFile.delete();
+        numWrong += Sz.oneIfFalse(frozen.writeSnapshot(snapshotPath, new File(dictPath).lastModified()));
+
+        long begTime = System.nanoTime();
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictPath, minWordLen, maxWordLen, 0);
+        new AutoCompleteWord(trie).getProbableGreedy(prefix, 5);
+        long endTime = System.nanoTime();
+        Sx.format("Cold start from dictionary text: %7.3f ms\n", (endTime - begTime) * 1.0e-6);
+
+        begTime = System.nanoTime();
+        FrozenWordTrie mapped = FrozenWordTrie.loadOrBuild(snapshotPath, dictPath, minWordLen, maxWordLen, 0);
+        List<String> probable = mapped.getProbable(prefix, 5);
+        endTime = System.nanoTime();
+        Sx.format("Cold start from mapped snapshot: %7.3f ms  (%d bytes)\n"
+                , (endTime - begTime) * 1.0e-6, mapped.getSnapshotBytes());
+
+        numWrong += Sz.oneIfFalse(probable.equals(frozen.getProbable(prefix, 5)));
+        numWrong += Sz.oneIfFalse(mapped.getAllWords().equals(frozen.getAllWords()));
+        for (int node = 0; node < frozen.getNumNodes(); node++) {
+            if (mapped.getTextCount(node) != frozen.getTextCount(node)
+                    || mapped.getDictCount(node) != frozen.getDictCount(node)) {
+                numWrong++;
+                break;
+            }
+        }
+        numWrong += test_staleSnapshots(frozen, snapshotPath, dictPath, minWordLen, maxWordLen);
+        snapshotFile.delete();
+        return numWrong;
+    }
+
+    /**
+     * Checks that loadOrBuild rebuilds, rather than maps, a snapshot that was
+     * built with other word lengths, is older than the dictionary, or is corrupt.
+     */
+    protected static int test_staleSnapshots(FrozenWordTrie frozen, String snapshotPath, String dictPath
+            , int minWordLen, int maxWordLen)
+    {
+        int numWrong = 0;
+        long dictModified = new File(dictPath).lastModified();
+        WordTrie trie = new WordTrie();     // frozen may also hold words from text files
+        trie.initFromSortedDictionaryFile(dictPath, minWordLen, maxWordLen, 0);
+        SortedSet<String> dictWords = trie.getAllWords();
+
+        FrozenWordTrie held = mapSnapshot(snapshotPath);     // still mapped while rebuilt
+        FrozenWordTrie rebuilt = loadOrBuild(snapshotPath, dictPath, minWordLen, maxWordLen - 1, 0);
+        numWrong += Sz.oneIfDiff(rebuilt.mReqMaxWordLen, maxWordLen - 1);
+        numWrong += Sz.oneIfDiff(mapSnapshot(snapshotPath).mReqMaxWordLen, maxWordLen - 1);
+        numWrong += Sz.oneIfDiff(held.mReqMaxWordLen, maxWordLen);
+        numWrong += Sz.oneIfFalse(held.getAllWords().equals(frozen.getAllWords()));
+
+        frozen.writeSnapshot(snapshotPath, dictModified - 1000);
+        rebuilt = loadOrBuild(snapshotPath, dictPath, minWordLen, maxWordLen, 0);
+        numWrong += Sz.oneIfFalse(mapSnapshot(snapshotPath).mSourceModified == dictModified);
+        numWrong += Sz.oneIfFalse(rebuilt.getAllWords().equals(dictWords));
+
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath, "rw")) {
+            file.setLength(file.length() / 2);                  // truncated
+        } catch (IOException ex) {
+            numWrong++;
+        }
+        numWrong += Sz.oneIfFalse(mapSnapshot(snapshotPath) == null);
+        rebuilt = loadOrBuild(snapshotPath, dictPath, minWordLen, maxWordLen, 0);
+        numWrong += Sz.oneIfFalse(rebuilt.getAllWords().equals(dictWords));
+
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath, "rw")) {
+            file.writeInt(0);                                   // bad magic
+        } catch (IOException ex) {
+            numWrong++;
+        }
+        numWrong += Sz.oneIfFalse(mapSnapshot(snapshotPath) == null);
+        numWrong += Sz.oneIfFalse(loadOrBuild(snapshotPath, dictPath, minWordLen, maxWordLen, 0) != null);
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = FrozenWordTrie.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = 0;
+        int minWordLen = 3;
+        int maxWordLen = 16;
+        String dictPath = FileUtil.getTextFilePath("words.txt");
+        long heapBeg = usedHeapBytes();
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictPath, minWordLen, maxWordLen, 1);
+        if (level > 1)
+            trie.addAllWordsInTextFile(minWordLen, maxWordLen, FileUtil.getTextFilePath("MobyDick.txt"), 1);
+        long heapTrie = usedHeapBytes();
+        FrozenWordTrie frozen = trie.freeze();
+        long heapFrozen = usedHeapBytes();
+        Sx.format("Heap bytes:  WordTrie %d,  FrozenWordTrie %d (arrays %d),  nodes %d\n"
+                , heapTrie - heapBeg, heapFrozen - heapTrie, frozen.getNumBytes(), frozen.getNumNodes());
+
+        numWrong += test_sameResults(trie, frozen, new AutoCompleteWord(trie));
+        numWrong += test_longWords(dictPath + ".long.wtrie");
+        if (level > 0)
+            numWrong += test_timeContains(trie, frozen, 10);
+        if (level > 1)
+            numWrong += test_timeColdStart(frozen, dictPath, minWordLen, maxWordLen);
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
@@ -1,8 +1,10 @@
 package sprax.tries;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Design alternatives:
@@ -220,11 +222,10 @@ public class InfixTrie
         if (wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen)
             return true;
         
-        if (mActMinWordLen > wordLen) {
+        if (mActMinWordLen > wordLen)
             mActMinWordLen = wordLen;
-        } else if (mActMaxWordLen < wordLen) {
+        if (mActMaxWordLen < wordLen)
             mActMaxWordLen = wordLen;
-        }
         return false;
     }
     
@@ -286,6 +287,84 @@ public class InfixTrie
         return node;
     }
     
+    /**
+     * Returns a path-compressed copy of this trie, in which chains of
+     * single-branch nodes are collapsed into edge labels.
+     * @see RadixWordTrie
+     */
+    public RadixWordTrie compress()
+    {
+        RadixWordTrie radix = new RadixWordTrie(mReqMinWordLen, mReqMaxWordLen);
+        compressRecurse(radix, mRoot);
+        return radix;
+    }
+    
+    private static void compressRecurse(RadixWordTrie radix, InfixNode node)
+    {
+        if (node.isWord())
+            radix.putWord(node.mStem, node.mWordCount);
+        for (InfixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+            compressRecurse(radix, branch);
+    }
+    
+    /** Returns all words in this trie, in alphabetical order */
+    public List<String> getAllWords()
+    {
+        List<String> words = new ArrayList<String>(mNumWords);
+        getWordsRecurse(words, mRoot);
+        return words;
+    }
+    
+    private static void getWordsRecurse(List<String> words, InfixNode node)
+    {
+        if (node.isWord())
+            words.add(node.mStem);
+        for (InfixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+            getWordsRecurse(words, branch);
+    }
+    
+    /**
+     * Returns all words containing infix, in alphabetical order, by walking the
+     * whole trie and, at each node whose letter starts infix, following the rest
+     * of infix down the branches and collecting every word below where it ends.
+     * This visits every node; for repeated infix queries, use indexInfixes.
+     */
+    public List<String> getWordsContaining(String infix)
+    {
+        TreeSet<String> words = new TreeSet<String>();
+        if (infix != null && ! infix.isEmpty())
+            findWordsContainingRecurse(words, infix, mRoot);
+        return new ArrayList<String>(words);
+    }
+    
+    private static void findWordsContainingRecurse(TreeSet<String> words, String infix, InfixNode node)
+    {
+        if (node.mDepth > 0 && node.mChar == infix.charAt(0)) {
+            InfixNode end = node;
+            for (int j = 1; end != null && j < infix.length(); j++) {
+                int idx = infix.charAt(j) - sFirstLetter;
+                end = (0 <= idx && idx < sNumLetters) ? end.mBranches[idx] : null;
+            }
+            if (end != null) {
+                List<String> below = new ArrayList<String>();
+                getWordsRecurse(below, end);
+                words.addAll(below);
+            }
+        }
+        for (InfixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+            findWordsContainingRecurse(words, infix, branch);
+    }
+    
+    /**
+     * Returns a compact FM-index of all the words in this trie, which answers
+     * the same queries as getWordsContaining without walking the whole trie.
+     * @see FMIndex
+     */
+    public FMIndex indexInfixes()
+    {
+        return new FMIndex(getAllWords());
+    }
+    
     ArrayList<String> getWords(char wordKey[], int wordLen) 
     {
     	ArrayList<String> words = new ArrayList<String>();
@@ -0,0 +1,332 @@
+package sprax.tries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import sprax.aligns.StringDistance;
+import sprax.files.FileUtil;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+import sprax.tries.WordTrie.NodeCount;
+
+/**
+ * Levenshtein automaton for a fixed query string and maximum edit distance k,
+ * simulated bit-parallel as in Wu and Manber's agrep: the state is k+1 bit
+ * masks, where bit i of mask d is set IFF the first i chars of the query
+ * match the text read so far with at most d insertions, deletions, or
+ * substitutions.  Reading one char costs O(k) word operations, independent
+ * of the query length, which must be less than 64 code points.
+ * The query and text are read by code point, so the same automaton serves
+ * CodePointTrie as well as WordTrie and FrozenWordTrie.
+ *
+ * Stepping the automaton along the branches of a trie visits only the nodes
+ * whose stems are still within k edits of some prefix of the query; once the
+ * state dies (the mask for k is 0), the whole sub-trie is skipped, so there
+ * is no per-word distance computation.
+ * @see WordTrie.getNodesWithinEditDistance
+ *
+ * @author sprax
+ */
+public class LevenshteinAutomaton
+{
+    public static final int sMaxQueryLen = 63;
+
+    protected final String mQuery;
+    protected final int    mQueryLen;
+    protected final int    mMaxDist;
+    protected final long   mAcceptBit;          // bit mQueryLen: the whole query is matched
+    protected final long   mAllBits;            // bits 0 to mQueryLen
+    /** Bit i+1 is set in mCharMasks[c - 'a'] IFF code point i of the query is c */
+    protected final long   mCharMasks[] = new long[WordTrie.sNumLetters];
+    /** Same as mCharMasks, for the query's code points outside 'a' to 'z' */
+    protected final HashMap<Integer, Long> mOtherMasks = new HashMap<Integer, Long>();
+
+    public LevenshteinAutomaton(String query, int maxDist)
+    {
+        if (query == null || query.codePointCount(0, query.length()) > sMaxQueryLen || maxDist < 0)
+            throw new IllegalArgumentException("LevenshteinAutomaton: query too long or null, or maxDist < 0");
+        mQuery    = query;
+        mQueryLen = query.codePointCount(0, query.length());
+        mMaxDist  = maxDist;
+        mAcceptBit = 1L << mQueryLen;
+        mAllBits   = (mAcceptBit << 1) - 1;
+        for (int j = 0, k = 0; j < mQueryLen; j++) {
+            int codePoint = query.codePointAt(k);
+            k += Character.charCount(codePoint);
+            int idx = codePoint - WordTrie.sFirstLetter;
+            if (0 <= idx && idx < WordTrie.sNumLetters)
+                mCharMasks[idx] |= 1L << (j + 1);
+            else
+                mOtherMasks.merge(codePoint, 1L << (j + 1), (maskA, maskB) -> maskA | maskB);
+        }
+    }
+
+    /**
+     * Fits a query to the automaton's limit before searching stems no longer than
+     * maxStemLen code points: returns null if the query is too long to be within
+     * maxDist edits of any such stem, or else the query cut to its first sMaxQueryLen
+     * code points, so that longer queries are matched by that prefix alone.
+     */
+    public static String fitQuery(String query, int maxStemLen, int maxDist)
+    {
+        if (query == null || maxDist < 0)
+            throw new IllegalArgumentException("LevenshteinAutomaton.fitQuery: null query or maxDist < 0");
+        int queryLen = query.codePointCount(0, query.length());
+        if (queryLen > maxStemLen + maxDist)
+            return null;
+        if (queryLen > sMaxQueryLen)
+            return query.substring(0, query.offsetByCodePoints(0, sMaxQueryLen));
+        return query;
+    }
+
+    public final int getMaxDist()   { return mMaxDist; }
+    public final int getStateSize() { return mMaxDist + 1; }
+
+    /** Sets the start state (empty text) at states[beg] through states[beg + k] */
+    public void start(long states[], int beg)
+    {
+        for (int d = 0; d <= mMaxDist; d++)
+            states[beg + d] = ((2L << d) - 1) & mAllBits;   // the first d query chars may be deleted
+    }
+
+    /**
+     * Reads one code point, from the state at states[from] into the state at states[to].
+     * @return true IFF the new state is alive, that is, some continuation could still match
+     */
+    public boolean step(long states[], int from, int to, int codePoint)
+    {
+        int  idx  = codePoint - WordTrie.sFirstLetter;
+        long mask;
+        if (0 <= idx && idx < WordTrie.sNumLetters)
+            mask = mCharMasks[idx];
+        else
+            mask = mOtherMasks.isEmpty() ? 0 : mOtherMasks.getOrDefault(codePoint, 0L);
+        long prev = states[from];
+        long next = (prev << 1) & mask;
+        states[to] = next;
+        for (int d = 1; d <= mMaxDist; d++) {
+            long cur = states[from + d];
+            // match | insertion in text | substitution | deletion from query
+            long nextD = ((cur << 1) & mask) | prev | (prev << 1) | (next << 1);
+            next = nextD & mAllBits;
+            states[to + d] = next;
+            prev = cur;
+        }
+        return next != 0;
+    }
+
+    /** Returns the edit distance between the text read and the whole query, or k+1 if it is greater than k */
+    public int distance(long states[], int beg)
+    {
+        for (int d = 0; d <= mMaxDist; d++)
+            if ((states[beg + d] & mAcceptBit) != 0)
+                return d;
+        return mMaxDist + 1;
+    }
+
+    /** Returns the distance from query to text, or k+1 if greater than k, by running the automaton */
+    public int distance(String text)
+    {
+        long states[] = new long[2 * getStateSize()];
+        int size = getStateSize(), cur = 0;
+        start(states, 0);
+        for (int j = 0; j < text.length(); ) {
+            int codePoint = text.codePointAt(j);
+            j += Character.charCount(codePoint);
+            if ( ! step(states, cur, size - cur, codePoint))
+                return mMaxDist + 1;
+            cur = size - cur;
+        }
+        return distance(states, cur);
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** Brute force: min over all prefixes of word of the distance to query */
+    protected static int test_prefixDistance(StringDistance sd, String query, String word)
+    {
+        int minDist = Integer.MAX_VALUE;
+        for (int len = 0; len <= word.length(); len++)
+            minDist = Math.min(minDist, sd.LD(query, word.substring(0, len)));
+        return minDist;
+    }
+
+    /**
+     * Checks the trie search against computing the distance to every word.
+     */
+    protected static int test_sameAsBruteForce(WordTrie trie, String queries[], int maxDist)
+    {
+        int numWrong = 0;
+        StringDistance sd = new StringDistance();
+        TreeSet<String> allWords = new TreeSet<String>(trie.getAllWords());
+        for (String query : queries) {
+            LevenshteinAutomaton lev = new LevenshteinAutomaton(query, maxDist);
+            TreeSet<String> expectWords = new TreeSet<String>(), foundWords = new TreeSet<String>();
+            TreeSet<String> expectStems = new TreeSet<String>(), foundStems = new TreeSet<String>();
+            for (String word : allWords) {
+                int dist = sd.LD(query, word);
+                if (dist <= maxDist)
+                    expectWords.add(word + ":" + dist);
+                numWrong += Sz.oneIfDiff(lev.distance(word), Math.min(dist, maxDist + 1));
+                dist = test_prefixDistance(sd, query, word);
+                if (dist <= maxDist)
+                    expectStems.add(word + ":" + dist);
+            }
+            for (NodeCount nc : trie.getNodesWithinEditDistance(query, maxDist, true))
+                foundWords.add(nc.mNode.getWord() + ":" + nc.mCount);
+            // Each word's prefix distance is that of its nearest matching ancestor node
+            List<NodeCount> stems = trie.getNodesWithinEditDistance(query, maxDist, false);
+            for (String word : allWords) {
+                int minDist = Integer.MAX_VALUE;
+                for (NodeCount nc : stems)
+                    if (nc.mNode == trie.getRoot() || word.startsWith(nc.mNode.getStem()))
+                        minDist = Math.min(minDist, nc.mCount);
+                if (minDist <= maxDist)
+                    foundStems.add(word + ":" + minDist);
+            }
+            numWrong += Sz.oneIfFalse(foundWords.equals(expectWords));
+            numWrong += Sz.oneIfFalse(foundStems.equals(expectStems));
+        }
+        return numWrong;
+    }
+
+    /**
+     * Times AutoCompleteWord.getProbableRepaired over mistyped prefixes made
+     * from random dictionary words, and reports the median and 99th percentile.
+     */
+    protected static int test_timeRepaired(AutoCompleteWord auto, int maxDist, int numQueries, long seed)
+    {
+        List<String> words = new ArrayList<String>(auto.getTrie().getAllWords());
+        Random rng = new Random(seed);
+        long nanos[] = new long[numQueries];
+        long sumNanos = 0;
+        int numFound = 0;
+        auto.getProbableRepaired("warmup", 5, maxDist);
+        for (int j = 0; j < numQueries; j++) {
+            String word = words.get(rng.nextInt(words.size()));
+            char chrs[] = word.substring(0, Math.min(word.length(), 4 + rng.nextInt(4))).toCharArray();
+            chrs[rng.nextInt(chrs.length)] = (char) ('a' + rng.nextInt(26));    // one typo
+            String query = new String(chrs);
+            long begTime = System.nanoTime();
+            List<String> repaired = auto.getProbableRepaired(query, 5, maxDist);
+            nanos[j] = System.nanoTime() - begTime;
+            sumNanos += nanos[j];
+            if ( ! repaired.isEmpty())
+                numFound++;
+        }
+        Arrays.sort(nanos);
+        Sx.format("getProbableRepaired, distance %d, %d words, %d queries:  mean %6.3f  p50 %6.3f  p99 %6.3f ms\n"
+                , maxDist, words.size(), numQueries, sumNanos * 1.0e-6 / numQueries
+                , nanos[numQueries / 2] * 1.0e-6, nanos[numQueries * 99 / 100] * 1.0e-6);
+        return Sz.oneIfDiff(numFound, numQueries);
+    }
+
+    /** Adds count made-up words, each a random dictionary word + the start of another, to trie */
+    protected static void test_addCompoundWords(WordTrie trie, int count, int maxWordLen, long seed)
+    {
+        List<String> words = new ArrayList<String>(trie.getAllWords());
+        Random rng = new Random(seed);
+        for (int added = 0; added < count; ) {
+            String word = words.get(rng.nextInt(words.size())) + words.get(rng.nextInt(words.size()));
+            if (trie.putWord(word.substring(0, Math.min(word.length(), maxWordLen))) != null)
+                added++;
+        }
+    }
+
+    /**
+     * Queries longer than sMaxQueryLen must not throw: those too long to be near
+     * any stem find nothing, and the others are matched by their first sMaxQueryLen
+     * code points.
+     */
+    protected static int test_longQueries()
+    {
+        int numWrong = 0;
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < 70; j++)
+            sb.append((char) ('a' + j % 26));
+        String longWord = sb.toString(), tooLong = longWord + longWord;
+        WordTrie trie = new WordTrie();
+        trie.mReqMaxWordLen = longWord.length();
+        for (String word : new String[] { longWord, "abc", "cat", "dog" })
+            trie.putWord(word);
+        FrozenWordTrie frozen = trie.freeze();
+        CodePointTrie codePoints = new CodePointTrie();
+        for (String word : trie.getAllWords())
+            codePoints.putWord(word);
+
+        numWrong += Sz.oneIfFalse(trie.getNodesWithinEditDistance(tooLong, 2, false).isEmpty());
+        numWrong += Sz.oneIfFalse(frozen.getNodesWithinEditDistance(tooLong, 2).isEmpty());
+        numWrong += Sz.oneIfFalse(codePoints.getNodesWithinEditDistance(tooLong, 2).isEmpty());
+
+        String stem = longWord.substring(0, sMaxQueryLen);
+        numWrong += Sz.oneIfFalse(trie.getNodesWithinEditDistance(longWord, 1, false).stream()
+                .anyMatch(nc -> nc.mCount == 0 && nc.mNode.getStem().equals(stem)));
+        numWrong += Sz.oneIfFalse(frozen.getNodesWithinEditDistance(longWord, 1).stream()
+                .anyMatch(nodeDist -> nodeDist[1] == 0 && frozen.getStem(nodeDist[0]).equals(stem)));
+        numWrong += Sz.oneIfFalse(codePoints.getNodesWithinEditDistance(longWord, 1).stream()
+                .anyMatch(sn -> sn.mDist == 0 && sn.mStem.equals(stem)));
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = LevenshteinAutomaton.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = 0;
+        LevenshteinAutomaton lev = new LevenshteinAutomaton("kitten", 2);
+        numWrong += Sz.oneIfDiff(lev.distance("kitten"),  0);
+        numWrong += Sz.oneIfDiff(lev.distance("sitten"),  1);
+        numWrong += Sz.oneIfDiff(lev.distance("sittin"),  2);
+        numWrong += Sz.oneIfDiff(lev.distance("sitting"), 3);
+        numWrong += Sz.oneIfDiff(lev.distance("kien"),    2);
+        numWrong += Sz.oneIfDiff(lev.distance(""),        3);
+        numWrong += Sz.oneIfDiff(new LevenshteinAutomaton("", 1).distance("a"), 1);
+
+        int maxWordLen = 16;
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(FileUtil.getTextFilePath("words.txt"), 3, maxWordLen, 1);
+        String queries[] = { "helo", "wrod", "exquisit", "acommodate", "teh", "ab", "x", "" };
+        numWrong += test_sameAsBruteForce(trie, queries, 1);
+        numWrong += test_sameAsBruteForce(trie, queries, 2);
+
+        AutoCompleteWord auto = new AutoCompleteWord(trie);
+        List<String> repaired = auto.getProbableRepaired("accomod", 5);
+        Sx.puts("Repaired completions of \"accomod\": " + repaired);
+        numWrong += Sz.oneIfFalse(repaired.equals(auto.getProbableRepaired("accomod", 5, 2)));
+        numWrong += Sz.oneIfFalse(auto.getProbableRepaired("sper", 5, 1).subList(0, 1).equals(auto.getProbable("sper", 1)));
+
+        // The longest word put first must still set the max word length that sizes the states
+        WordTrie small = new WordTrie();
+        for (String word : new String[] { "catalog", "cat", "dog", "cater" })
+            small.putWord(word);
+        numWrong += Sz.oneIfDiff(small.getMaxWordLen(), 7);
+        numWrong += Sz.oneIfDiff(small.getMinWordLen(), 3);
+        repaired = new AutoCompleteWord(small).getProbableRepaired("catalgo", 3);
+        numWrong += Sz.oneIfFalse(repaired.size() > 0 && repaired.get(0).equals("catalog"));
+        numWrong += test_longQueries();
+
+        if (level > 0) {
+            numWrong += test_timeRepaired(auto, 1, 2000, 7);
+            numWrong += test_timeRepaired(auto, 2, 2000, 7);
+        }
+        if (level > 1) {
+            test_addCompoundWords(trie, 200000 - trie.getSize(), maxWordLen, 11);
+            numWrong += test_timeRepaired(auto, 1, 2000, 7);
+            numWrong += test_timeRepaired(auto, 2, 2000, 7);
+        }
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
@@ -0,0 +1,683 @@
+package sprax.tries;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import sprax.files.FileUtil;
+import sprax.sprout.Sx;
+import sprax.test.Sz;
+
+/**
+ * Path-compressed (radix, or PATRICIA) form of WordTrie.
+ *
+ * In WordTrie, and in InfixTrie, every letter of every stem is a node, so a
+ * long unary chain such as the "bilities" in "hatchabilities" costs one full
+ * node, with its own 26-slot branch array, per letter.  Here, each chain of
+ * non-word nodes with only one branch is collapsed into the label on the edge
+ * above the next branching or word node.  The label is not copied: each node
+ * keeps a reference to some word through it (as WordNode.mStem does) and the
+ * label is just the chars [mDepth - mLabelLen, mDepth) of that word.
+ * Branches are kept in an alphabetical sibling list instead of an array.
+ *
+ * Counts are kept as in WordTrie, and the collapsed nodes are implicit: every
+ * letter on an edge has the same text count as the node at the end of the
+ * edge, because a non-word node with one branch passes on all its text.
+ * So the pattern, wild card, and greedy continuation searches give the same
+ * results and counts as the WordTrie methods of the same names, but step
+ * along the chars of each edge instead of visiting a node for each of them.
+ *
+ * Each node also keeps a bit mask of the letters on its edge and on all the
+ * edges below it.  The wild card searches skip any sub-trie whose mask lacks
+ * some letter still to be matched, and find the places on an edge where a
+ * pattern could start with String.indexOf, instead of trying every one.
+ *
+ * Build one with putWord, or from a loaded WordTrie or InfixTrie with compress().
+ *
+ * @author sprax
+ */
+public class RadixWordTrie
+{
+    public static final int sWildCardChar = WordTrie.sWildCardChar;
+
+    public static final class RadixNode
+    {
+        /** Some word through this node; the stem is its first mDepth chars */
+        private String    mStem;
+        /** Length of the stem ending at this node */
+        private int       mDepth;
+        /** Number of chars on the edge from the parent; 0 only for the root */
+        private int       mLabelLen;
+        private int       mWordCount;       // > 0 IFF this node is a word
+        private int       mTextCount;       // Same as WordNode.mTextCount
+        private int       mLetters;         // letterBits of the chars on this edge and all edges below
+        private RadixNode mFirstChild;      // Branches in alphabetical order of first letter
+        private RadixNode mNextSibling;
+
+        RadixNode(String stem, int depth, int labelLen)
+        {
+            mStem     = stem;
+            mDepth    = depth;
+            mLabelLen = labelLen;
+        }
+
+        public final RadixNode getFirstBranch() { return mFirstChild; }
+        public final RadixNode getNextBranch()  { return mNextSibling; }
+        public final boolean   isWord()         { return mWordCount > 0; }
+        public final int       getWordCount()   { return mWordCount; }
+        public final int       getTextCount()   { return mTextCount; }
+        public final int       getDepth()       { return mDepth; }
+        public final int       getLabelLen()    { return mLabelLen; }
+        public final String    getStem()        { return mStem.substring(0, mDepth); }
+        public final String    getWord()        { return isWord() ? getStem() : null; }
+        public final String    getLabel()       { return mStem.substring(mDepth - mLabelLen, mDepth); }
+
+        /** Index in mStem of the first char on the edge into this node */
+        final int     labelBeg()        { return mDepth - mLabelLen; }
+        final char    charAt(int index) { return mStem.charAt(index); }
+
+        public String toString() {
+            return String.format("[%s |%s| %s w:%d t:%d]", getStem(), getLabel(), (isWord() ? "T":"F"), mWordCount, mTextCount);
+        }
+
+        /** Returns the branch whose label starts with letter, or null if there is none */
+        public final RadixNode getBranchAtLetter(int letter)
+        {
+            for (RadixNode branch = mFirstChild; branch != null; branch = branch.mNextSibling) {
+                int first = branch.charAt(branch.labelBeg());
+                if (first >= letter)
+                    return first == letter ? branch : null;
+            }
+            return null;
+        }
+
+        /** Inserts a new branch in alphabetical order */
+        void addBranch(RadixNode branch)
+        {
+            char letter = branch.charAt(branch.labelBeg());
+            if (mFirstChild == null || letter < mFirstChild.charAt(mFirstChild.labelBeg())) {
+                branch.mNextSibling = mFirstChild;
+                mFirstChild = branch;
+                return;
+            }
+            RadixNode prev = mFirstChild;
+            while (prev.mNextSibling != null && prev.mNextSibling.charAt(prev.mNextSibling.labelBeg()) < letter)
+                prev = prev.mNextSibling;
+            branch.mNextSibling = prev.mNextSibling;
+            prev.mNextSibling = branch;
+        }
+
+        /**
+         * Splits the edge into the specified branch after its first labelLen chars,
+         * inserting and returning a new node there, whose only branch is the old one.
+         */
+        RadixNode splitBranch(RadixNode branch, int labelLen)
+        {
+            RadixNode mid = new RadixNode(branch.mStem, branch.labelBeg() + labelLen, labelLen);
+            mid.mTextCount    = branch.mTextCount;
+            mid.mLetters      = branch.mLetters;
+            mid.mFirstChild   = branch;
+            mid.mNextSibling  = branch.mNextSibling;
+            branch.mNextSibling = null;
+            branch.mLabelLen -= labelLen;
+            branch.mLetters = letterBits(branch.mStem, branch.labelBeg(), branch.mDepth);
+            for (RadixNode child = branch.mFirstChild; child != null; child = child.mNextSibling)
+                branch.mLetters |= child.mLetters;
+            if (mFirstChild == branch) {
+                mFirstChild = mid;
+            } else {
+                RadixNode prev = mFirstChild;
+                while (prev.mNextSibling != branch)
+                    prev = prev.mNextSibling;
+                prev.mNextSibling = mid;
+            }
+            return mid;
+        }
+
+        /** Adds all the words under this node to the collection, in alphabetical order */
+        public void getWordsRecurse(Collection<String> words)
+        {
+            if (isWord())
+                words.add(getStem());
+            for (RadixNode node = mFirstChild; node != null; node = node.mNextSibling)
+                node.getWordsRecurse(words);
+        }
+    }
+
+    /** @return one bit for each letter a-z in str[beg:end], and bit 26 for any other char */
+    static int letterBits(final String str, int beg, int end)
+    {
+        int bits = 0;
+        for (int j = beg; j < end; j++)
+            bits |= letterBit(str.charAt(j));
+        return bits;
+    }
+
+    static int letterBit(char chr)
+    {
+        return 'a' <= chr && chr <= 'z' ? 1 << (chr - 'a') : 1 << 26;
+    }
+
+    /** @return the letterBits of pattern[j:] for each j, leaving out wild cards, and 0 at the end */
+    static int[] suffixLetterBits(final String pattern)
+    {
+        int bits[] = new int[pattern.length() + 1];
+        for (int j = pattern.length(); --j >= 0; ) {
+            char chr = pattern.charAt(j);
+            bits[j] = bits[j + 1] | (chr == sWildCardChar ? 0 : letterBit(chr));
+        }
+        return bits;
+    }
+
+    protected final RadixNode mRoot = new RadixNode("", 0, 0);
+    protected int   mNumWords       =  0;
+    protected int   mNumNodes       =  1;   // count the root, as WordTrie does
+    protected int   mActMinWordLen  = 99;
+    protected int   mActMaxWordLen  =  0;
+    protected int   mReqMinWordLen;
+    protected int   mReqMaxWordLen;
+
+    public RadixWordTrie(int reqMinWordLen, int reqMaxWordLen)
+    {
+        mReqMinWordLen = reqMinWordLen;
+        mReqMaxWordLen = reqMaxWordLen;
+    }
+
+    public RadixWordTrie()
+    {
+        this(1, 28);
+    }
+
+    protected RadixNode      getRoot()          { return mRoot; }
+    public    final int      getSize()          { return mNumWords; }
+    public    final int      getNumNodes()      { return mNumNodes; }
+    public    final int      getMinWordLen()    { return mActMinWordLen; }
+    public    final int      getMaxWordLen()    { return mActMaxWordLen; }
+
+    private boolean badWordLen(int wordLen)
+    {
+        if (wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen)
+            return true;
+        if (mActMinWordLen > wordLen)
+            mActMinWordLen = wordLen;
+        if (mActMaxWordLen < wordLen)
+            mActMaxWordLen = wordLen;
+        return false;
+    }
+
+    public RadixNode putWord(final String word)
+    {
+        return putWord(word, 1);
+    }
+
+    /**
+     * Puts a word into the trie as if putWord(word) were called count times,
+     * splitting an edge if the word leaves or ends in the middle of it.
+     * @return the word node, or null if the word length is out of bounds
+     */
+    public RadixNode putWord(final String word, int count)
+    {
+        int wordLen = word.length();
+        if (badWordLen(wordLen))
+            return null;
+
+        RadixNode node = mRoot;
+        mRoot.mLetters |= letterBits(word, 0, wordLen);
+        for (int pos = 0; pos < wordLen; pos = node.mDepth) {
+            RadixNode branch = node.getBranchAtLetter(word.charAt(pos));
+            if (branch == null) {
+                branch = new RadixNode(word, wordLen, wordLen - pos);
+                node.addBranch(branch);
+                mNumNodes++;
+            } else {
+                int beg = branch.labelBeg(), k = 1;
+                while (k < branch.mLabelLen && pos + k < wordLen && branch.charAt(beg + k) == word.charAt(pos + k))
+                    k++;
+                if (k < branch.mLabelLen) {
+                    branch = node.splitBranch(branch, k);
+                    mNumNodes++;
+                }
+            }
+            branch.mTextCount += count;
+            branch.mLetters |= letterBits(word, pos, wordLen);
+            node = branch;
+        }
+        if ( ! node.isWord())
+            mNumWords++;
+        node.mWordCount += count;
+        return node;
+    }
+
+    /**
+     * Returns the node at or below the end of key's longest prefix in the trie,
+     * and sets matched[0] to the length of that prefix.  The prefix ends inside
+     * the returned node's edge IFF matched[0] < node.getDepth().
+     */
+    protected RadixNode maxStemNode(String key, int matched[])
+    {
+        RadixNode node = mRoot;
+        int pos = 0, keyLen = key.length();
+        while (pos < keyLen) {
+            RadixNode branch = node.getBranchAtLetter(key.charAt(pos));
+            if (branch == null)
+                break;
+            node = branch;
+            int end = Math.min(branch.mDepth, keyLen);
+            for (pos++; pos < end && branch.charAt(pos) == key.charAt(pos); pos++)
+                ;
+            if (pos < branch.mDepth)
+                break;
+        }
+        matched[0] = pos;
+        return node;
+    }
+
+    public String longestPrefix(String prefix)
+    {
+        int matched[] = new int[1];
+        maxStemNode(prefix, matched);
+        return prefix.substring(0, matched[0]);
+    }
+
+    public RadixNode getWordNode(String word)
+    {
+        int matched[] = new int[1];
+        RadixNode node = maxStemNode(word, matched);
+        if (matched[0] == word.length() && node.mDepth == matched[0] && node.isWord())
+            return node;
+        return null;
+    }
+
+    public boolean contains(final String key)
+    {
+        return getWordNode(key) != null;
+    }
+
+    public SortedSet<String> getAllWords()
+    {
+        SortedSet<String> words = new TreeSet<String>();
+        mRoot.getWordsRecurse(words);
+        return words;
+    }
+
+    /** Same as WordTrie.getWordsPartiallyMatchingPrefix */
+    public List<String> getWordsPartiallyMatchingPrefix(String prefix)
+    {
+        if (prefix == null)
+            throw new IllegalArgumentException("null prefix");
+        List<String> words = new ArrayList<String>();
+        maxStemNode(prefix, new int[1]).getWordsRecurse(words);
+        return words;
+    }
+
+    /**
+     * Matches pattern[patPos:] starting at index pos of node's stem, where
+     * node.labelBeg() <= pos <= node.getDepth(), and adds the node at or below
+     * the end of each match to results.  A wild card in the pattern matches
+     * any letter, so it branches at nodes, but on an edge it just steps ahead.
+     * patLetters are the suffixLetterBits of the pattern: a branch is tried only
+     * if it has all the letters still to be matched.
+     */
+    protected void findNodesMatchingPrefixWildCardRecurse(Collection<RadixNode> results
+            , RadixNode node, int pos, final String pattern, final int patLetters[], int patPos)
+    {
+        int patLen = pattern.length();
+        // Step along the rest of this node's edge, if any:
+        for ( ; pos < node.mDepth && patPos < patLen; pos++, patPos++) {
+            char chr = pattern.charAt(patPos);
+            if (chr != sWildCardChar && chr != node.charAt(pos))
+                return;
+        }
+        if (patPos == patLen) {
+            results.add(node);
+            return;
+        }
+        int letters = patLetters[patPos];
+        char chr = pattern.charAt(patPos);
+        if (chr == sWildCardChar) {
+            for (RadixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+                if ((branch.mLetters & letters) == letters)
+                    findNodesMatchingPrefixWildCardRecurse(results, branch, branch.labelBeg(), pattern, patLetters, patPos);
+        } else {
+            RadixNode branch = node.getBranchAtLetter(chr);
+            if (branch != null && (branch.mLetters & letters) == letters)
+                findNodesMatchingPrefixWildCardRecurse(results, branch, branch.labelBeg(), pattern, patLetters, patPos);
+        }
+    }
+
+    /**
+     * Tries to match the pattern starting at every stem index on the edges in
+     * this sub-trie, up to maxSearchDepth, as WordTrie.findNodesMatchingPatternWildCardRecurse
+     * does at every node.  Patterns without wild cards work the same way.
+     * Sub-tries without all the letters of the pattern are skipped.
+     */
+    protected void findNodesMatchingPatternWildCardRecurse(Collection<RadixNode> results
+            , RadixNode node, final String pattern, final int patLetters[], int maxSearchDepth)
+    {
+        // Try each letter on the edge into this node that can start a match.
+        char first = pattern.charAt(0);
+        int  end   = Math.min(node.mDepth - 1, maxSearchDepth);
+        for (int pos = node.labelBeg(); pos <= end; pos++) {
+            if (first != sWildCardChar) {
+                pos = node.mStem.indexOf(first, pos);
+                if (pos < 0 || pos > end)
+                    break;
+            }
+            findNodesMatchingPrefixWildCardRecurse(results, node, pos, pattern, patLetters, 0);
+        }
+        for (RadixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling) {
+            if (branch.labelBeg() <= maxSearchDepth && (branch.mLetters & patLetters[0]) == patLetters[0])
+                findNodesMatchingPatternWildCardRecurse(results, branch, pattern, patLetters, maxSearchDepth);
+        }
+    }
+
+    protected SortedSet<String> getWordsUnder(Collection<RadixNode> nodes)
+    {
+        SortedSet<String> words = new TreeSet<String>();
+        for (RadixNode node : nodes)
+            node.getWordsRecurse(words);
+        return words;
+    }
+
+    /** Same as WordTrie.getWordsMatchingPattern: all words containing pattern */
+    public SortedSet<String> getWordsMatchingPattern(String pattern)
+    {
+        return getWordsMatchingPatternWildCardRecurse(pattern);
+    }
+
+    /** Same as WordTrie.getWordsMatchingPrefixWildCardRecurse */
+    public SortedSet<String> getWordsMatchingPrefixWildCardRecurse(String prefix)
+    {
+        if (prefix == null)
+            throw new IllegalArgumentException("null prefix");
+        if (prefix.isEmpty())
+            return getAllWords();
+        if (prefix.length() > mActMaxWordLen)
+            return new TreeSet<String>();
+
+        List<RadixNode> results = new ArrayList<RadixNode>();
+        findNodesMatchingPrefixWildCardRecurse(results, mRoot, 0, prefix, suffixLetterBits(prefix), 0);
+        return getWordsUnder(results);
+    }
+
+    /** Same as WordTrie.getWordsMatchingPatternWildCardRecurse: all words containing a match */
+    public SortedSet<String> getWordsMatchingPatternWildCardRecurse(String pattern)
+    {
+        if (pattern == null)
+            throw new IllegalArgumentException("null pattern");
+        if (pattern.isEmpty())
+            return getAllWords();
+        int maxSearchDepth = mActMaxWordLen - pattern.length();
+        if (maxSearchDepth < 0)
+            return new TreeSet<String>();
+
+        List<RadixNode> results = new ArrayList<RadixNode>();
+        findNodesMatchingPatternWildCardRecurse(results, mRoot, pattern, suffixLetterBits(pattern), maxSearchDepth);
+        return getWordsUnder(results);
+    }
+
+    /**
+     * Follows the most-traversed branch from each node, as WordTrie.minGreedyContinuation
+     * and nextGreedyContinuation do, but adds the count of each letter on a
+     * collapsed edge at once.  Returns the first word node reached strictly
+     * below stem index pos, or null if the path ends without one.
+     */
+    protected static Map.Entry<RadixNode, Integer> greedyContinuation(RadixNode node, int pos, boolean orSelf)
+    {
+        int totalCount = node.mTextCount;
+        if (pos < node.mDepth) {
+            totalCount += (node.mDepth - pos) * node.mTextCount;   // the rest of the edge
+            if (node.isWord())
+                return new AbstractMap.SimpleEntry<RadixNode, Integer>(node, totalCount);
+        } else if (orSelf && node.isWord()) {
+            return new AbstractMap.SimpleEntry<RadixNode, Integer>(node, totalCount);
+        }
+        RadixNode child, greedy = node;
+        while ((child = greedy.mFirstChild) != null) {
+            int maxCount = 0;
+            do {
+                if (maxCount < child.mTextCount) {
+                    maxCount = child.mTextCount;
+                    greedy = child;
+                }
+            } while ((child = child.mNextSibling) != null);
+            totalCount += greedy.mLabelLen * maxCount;
+            if (greedy.isWord())
+                return new AbstractMap.SimpleEntry<RadixNode, Integer>(greedy, totalCount);
+        }
+        return null;
+    }
+
+    /** Same as WordTrie.minGreedyContinuation(String), except it returns null if no word is found */
+    public Map.Entry<RadixNode, Integer> minGreedyContinuation(String str)
+    {
+        int matched[] = new int[1];
+        RadixNode node = maxStemNode(str, matched);
+        return greedyContinuation(node, matched[0], true);
+    }
+
+    /** Same as WordTrie.nextGreedyContinuation(WordNode) */
+    public Map.Entry<RadixNode, Integer> nextGreedyContinuation(RadixNode node)
+    {
+        if (node == null)
+            return null;
+        return greedyContinuation(node, node.mDepth, false);
+    }
+
+    /** Returns the same words as AutoCompleteWord.getProbableGreedy, in the same order */
+    public List<String> getProbableGreedy(String prefix, int limit)
+    {
+        List<String> words = new ArrayList<String>(limit);
+        Map.Entry<RadixNode, Integer> entry = minGreedyContinuation(prefix);
+        if (entry == null)
+            return words;
+
+        RadixNode nodes[] = new RadixNode[limit];
+        int counts[] = new int[limit];
+        int numProbWords = 0;
+        do {
+            // Stable insertion by descending count, as in Arrays.sort(NodeCount[])
+            int j = numProbWords++;
+            for ( ; j > 0 && counts[j-1] < entry.getValue(); j--) {
+                nodes[j]  = nodes[j-1];
+                counts[j] = counts[j-1];
+            }
+            nodes[j]  = entry.getKey();
+            counts[j] = entry.getValue();
+        } while (numProbWords < limit && (entry = nextGreedyContinuation(entry.getKey())) != null);
+
+        for (int j = 0; j < numProbWords; j++)
+            words.add(nodes[j].getWord());
+        return words;
+    }
+
+    ///////////////////////////////////////////////////////////////////////////
+    ///////////////////////// Unit testing ////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    protected static int test_sameResults(WordTrie trie, RadixWordTrie radix)
+    {
+        int numWrong = 0;
+        numWrong += Sz.oneIfDiff(radix.getSize(), trie.getSize());
+        numWrong += Sz.oneIfFalse(radix.getAllWords().equals(trie.getAllWords()));
+
+        AutoCompleteWord auto = new AutoCompleteWord(trie);
+        String prefixes[] = { "", "a", "s", "drin", "exquis", "site", "xquis", "bj", "rock", "rockpaper", "sper", "qqq", "hatchab" };
+        for (String prefix : prefixes) {
+            numWrong += Sz.oneIfDiff(radix.contains(prefix), trie.contains(prefix));
+            numWrong += Sz.oneIfDiff(radix.longestPrefix(prefix), trie.longestPrefix(prefix));
+            numWrong += Sz.oneIfFalse(radix.getWordsPartiallyMatchingPrefix(prefix).equals(
+                    trie.getWordsPartiallyMatchingPrefix(prefix)));
+            numWrong += Sz.oneIfFalse(radix.getProbableGreedy(prefix, 5).equals(auto.getProbableGreedy(prefix, 5)));
+        }
+        String patterns[] = { "xquis", "site", "ardva", "aa", "qqxx", "etymol", "bilit" };
+        for (String pattern : patterns) {
+            numWrong += Sz.oneIfFalse(radix.getWordsMatchingPattern(pattern).equals(trie.getWordsMatchingPattern(pattern)));
+        }
+        String wildCards[] = { "a_a", "a_q", "exq_is", "acq_a_", "wo_f", "w_t_f", "_ing", "s__e", "___" };
+        for (String pattern : wildCards) {
+            numWrong += Sz.oneIfFalse(radix.getWordsMatchingPrefixWildCardRecurse(pattern).equals(
+                    trie.getWordsMatchingPrefixWildCardRecurse(pattern)));
+            numWrong += Sz.oneIfFalse(radix.getWordsMatchingPatternWildCardRecurse(pattern).equals(
+                    trie.getWordsMatchingPatternWildCardRecurse(pattern)));
+        }
+        return numWrong;
+    }
+
+    /**
+     * Estimated heap bytes of the distinct word Strings that the nodes refer to.
+     * compress() shares them with the source trie, so a heap delta leaves them out.
+     */
+    protected long getStemStringBytes()
+    {
+        Set<String> stems = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        addStemsRecurse(stems, mRoot);
+        long bytes = 0;
+        for (String stem : stems)
+            bytes += 24 + ((16 + stem.length() + 7) & ~7);    // String, and its Latin-1 byte array, 8-byte aligned
+        return bytes;
+    }
+
+    private static void addStemsRecurse(Set<String> stems, RadixNode node)
+    {
+        stems.add(node.mStem);
+        for (RadixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+            addStemsRecurse(stems, branch);
+    }
+
+    /**
+     * For testing: the number of calls that getWordsMatchingPatternWildCardRecurse(pattern)
+     * makes to the matchers, counted by walking the same paths, as WordTrie.countPatternWildCardVisits.
+     */
+    protected long countPatternWildCardVisits(String pattern)
+    {
+        int maxSearchDepth = mActMaxWordLen - pattern.length();
+        if (pattern.isEmpty() || maxSearchDepth < 0)
+            return 0;
+        return countPatternVisitsRecurse(mRoot, pattern, suffixLetterBits(pattern), maxSearchDepth);
+    }
+
+    private static long countPatternVisitsRecurse(RadixNode node, final String pattern, final int patLetters[]
+            , int maxSearchDepth)
+    {
+        long visits = 1;
+        char first = pattern.charAt(0);
+        int  end   = Math.min(node.mDepth - 1, maxSearchDepth);
+        for (int pos = node.labelBeg(); pos <= end; pos++) {
+            if (first != sWildCardChar) {
+                pos = node.mStem.indexOf(first, pos);
+                if (pos < 0 || pos > end)
+                    break;
+            }
+            visits += countPrefixVisitsRecurse(node, pos, pattern, patLetters, 0);
+        }
+        for (RadixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling) {
+            if (branch.labelBeg() <= maxSearchDepth && (branch.mLetters & patLetters[0]) == patLetters[0])
+                visits += countPatternVisitsRecurse(branch, pattern, patLetters, maxSearchDepth);
+        }
+        return visits;
+    }
+
+    private static long countPrefixVisitsRecurse(RadixNode node, int pos, final String pattern
+            , final int patLetters[], int patPos)
+    {
+        int patLen = pattern.length();
+        for ( ; pos < node.mDepth && patPos < patLen; pos++, patPos++) {
+            char chr = pattern.charAt(patPos);
+            if (chr != sWildCardChar && chr != node.charAt(pos))
+                return 1;
+        }
+        long visits = 1;
+        if (patPos == patLen)
+            return visits;
+        int letters = patLetters[patPos];
+        char chr = pattern.charAt(patPos);
+        for (RadixNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling) {
+            if ((chr == sWildCardChar || chr == branch.charAt(branch.labelBeg())) && (branch.mLetters & letters) == letters)
+                visits += countPrefixVisitsRecurse(branch, branch.labelBeg(), pattern, patLetters, patPos);
+        }
+        return visits;
+    }
+
+    /**
+     * Times the same wild card pattern searches in both tries, after one
+     * untimed round to warm up the JIT, and counts the nodes each visits.
+     */
+    protected static int test_timeWildCards(WordTrie trie, RadixWordTrie radix, int numTrials)
+    {
+        String wildCards[] = { "a_a", "exq_is", "w_t_f", "_ing", "s__e", "tion", "q_u" };
+        long trieNanos = 0, radixNanos = 0, trieVisits = 0, radixVisits = 0;
+        int numWrong = 0;
+        for (String pattern : wildCards) {
+            SortedSet<String> trieWords = trie.getWordsMatchingPatternWildCardRecurse(pattern);
+            trieVisits += trie.countPatternWildCardVisits(pattern);
+            numWrong += Sz.oneIfFalse(radix.getWordsMatchingPatternWildCardRecurse(pattern).equals(trieWords));
+            radixVisits += radix.countPatternWildCardVisits(pattern);
+        }
+        for (int j = 0; j < numTrials; j++) {
+            long begTime = System.nanoTime();
+            for (String pattern : wildCards)
+                trie.getWordsMatchingPatternWildCardRecurse(pattern);
+            long midTime = System.nanoTime();
+            for (String pattern : wildCards)
+                radix.getWordsMatchingPatternWildCardRecurse(pattern);
+            long endTime = System.nanoTime();
+            trieNanos  += midTime - begTime;
+            radixNanos += endTime - midTime;
+        }
+        Sx.format("Wild card pattern search, %d patterns x %d:  WordTrie %7.2f ms,  RadixWordTrie %7.2f ms\n"
+                , wildCards.length, numTrials, trieNanos * 1.0e-6, radixNanos * 1.0e-6);
+        Sx.format("Nodes visited per search:  WordTrie %d,  RadixWordTrie %d\n"
+                , trieVisits / wildCards.length, radixVisits / wildCards.length);
+        return numWrong;
+    }
+
+    public static int unit_test(int level)
+    {
+        String testName = RadixWordTrie.class.getName() + ".unit_test";
+        Sz.begin(testName);
+
+        int numWrong = 0;
+        int minWordLen = 3;
+        int maxWordLen = 16;
+        String dictPath = FileUtil.getTextFilePath("words.txt");
+        long heapBeg = FrozenWordTrie.usedHeapBytes();
+        WordTrie trie = new WordTrie();
+        trie.initFromSortedDictionaryFile(dictPath, minWordLen, maxWordLen, 1);
+        if (level > 1)
+            trie.addAllWordsInTextFile(minWordLen, maxWordLen, FileUtil.getTextFilePath("MobyDick.txt"), 1);
+        long heapTrie = FrozenWordTrie.usedHeapBytes();
+        RadixWordTrie radix = trie.compress();
+        long heapRadix = FrozenWordTrie.usedHeapBytes();
+        Sx.format("WordTrie:      %7d nodes, %9d heap bytes\n", trie.mNumNodes, heapTrie - heapBeg);
+        long stemBytes = radix.getStemStringBytes();
+        Sx.format("RadixWordTrie: %7d nodes, %9d heap bytes (%d in nodes + about %d in word Strings shared with the WordTrie)\n"
+                , radix.getNumNodes(), heapRadix - heapTrie + stemBytes, heapRadix - heapTrie, stemBytes);
+        numWrong += test_sameResults(trie, radix);
+
+        InfixTrie infix = new InfixTrie();
+        for (String word : trie.getAllWords())
+            infix.putWord(word);
+        RadixWordTrie infixRadix = infix.compress();
+        Sx.format("InfixTrie:     %7d nodes,  compressed: %d nodes\n", infix.mNumNodes, infixRadix.getNumNodes());
+        numWrong += Sz.oneIfDiff(infixRadix.getNumNodes(), radix.getNumNodes());
+        numWrong += Sz.oneIfFalse(infixRadix.getAllWords().equals(radix.getAllWords()));
+
+        if (level > 0)
+            numWrong += test_timeWildCards(trie, radix, 20);
+
+        Sz.end(testName, numWrong);
+        return numWrong;
+    }
+
+    public static void main(String[] args) {
+        unit_test(2);
+    }
+}
@@ -21,6 +21,8 @@ import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import sprax.arrays.ArrayIter;
 import sprax.files.FileUtil;
@@ -102,6 +104,8 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 	protected int mNumPutChars;           // Total number of chars input when adding words
 	protected int mNumNewWords;           // Reset every time we add words from a file
 	protected boolean mTotalTextCountsUpToDate = false;
+	protected int     mTopWordsLimit = 0;    // Length of the cached top-words arrays; 0 means no cache
+	protected boolean mTopWordsUpToDate = false;
 
 	public class WordNode implements Comparable<WordNode>
 	{                                   // TODO: implements Iterator?
@@ -148,6 +152,10 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 
 		/** The next (non-null) continuation when mBranches is used as a linked list */
 		private WordNode mNextSibling;
+
+		/** Cached most probable word nodes under this node, best first; @see WordTrie.setAllTopWords.
+		 *  Nodes with only one child and no word share their child's array. */
+		private WordNode mTopWords[];
 		// private WordNode mFirstWordNode;
 		/** Assumes fixed length; otherwise, the next branch depends on the desired word length */
 		// private WordNode mNextJumpBranch;   // Useful for crossword puzzles, word rectangles, etc.  Not currently in use.
@@ -330,7 +338,7 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 				nodeList.add(next);
 
 			for (WordNode node = getFirstBranch(); node != null; node = node.getNextBranch() ) {
-				node.findNodesMatchingPatternRecurse(nodeList, pattern, maxSearchDepth-1);
+				node.findNodesMatchingPatternRecurse(nodeList, pattern, maxSearchDepth);
 			}
 		}
 
@@ -391,7 +399,7 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 			}
 			oldNodes.clear();
 			for (WordNode node = getFirstBranch(); node != null; node = node.getNextBranch() ) {
-				node.findNodesMatchingPatternWildCardRecIter(results, newNodes, oldNodes, pattern, patLen, maxSearchDepth-1);
+				node.findNodesMatchingPatternWildCardRecIter(results, newNodes, oldNodes, pattern, patLen, maxSearchDepth);
 			}
 		}
 
@@ -451,11 +459,11 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 
 			// If *this* node matches the first char in the pattern, call the
 			// prefix matcher to try matching the rest.
-			if (mChar == pattern.charAt(0) || pattern.charAt(0) == sWildCardChar)
+			if (mDepth > 0 && (mChar == pattern.charAt(0) || pattern.charAt(0) == sWildCardChar))
 				findNodesMatchingPrefixWildCardRecurse(results, pattern, 1);
 
 			for (WordNode node = getFirstBranch(); node != null; node = node.getNextBranch() ) {
-				node.findNodesMatchingPatternWildCardRecurse(results, pattern, patLen, maxSearchDepth-1);
+				node.findNodesMatchingPatternWildCardRecurse(results, pattern, patLen, maxSearchDepth);
 			}
 		}
 
@@ -470,6 +478,10 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 			return mTextCount;
 		}
 
+		public int getDictCount() {
+			return mDictCount;
+		}
+
 		/**
 		 * Sorts nodes first by word count, then by text count 
 		 * if the word counts are the same.  Thus nodeA > nodeB
@@ -697,6 +709,36 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 		return mRoot.getWordSet();  // mRoot non-null by construction 
 	}
 
+	/**
+	 * Returns an immutable, array-backed copy of this trie, for faster
+	 * lookups with much less memory once loading is done.
+	 * @see FrozenWordTrie
+	 */
+	public FrozenWordTrie freeze()
+	{
+		return new FrozenWordTrie(this);
+	}
+
+	/**
+	 * Returns a path-compressed copy of this trie, with the same words and counts
+	 * in far fewer nodes.
+	 * @see RadixWordTrie
+	 */
+	public RadixWordTrie compress()
+	{
+		RadixWordTrie radix = new RadixWordTrie(mReqMinWordLen, mReqMaxWordLen);
+		compressRecurse(radix, mRoot);
+		return radix;
+	}
+
+	private static void compressRecurse(RadixWordTrie radix, WordNode node)
+	{
+		if (node.isWord())
+			radix.putWord(node.mStem, node.mWordCount);
+		for (WordNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling)
+			compressRecurse(radix, branch);
+	}
+
 	/**
 	 * Returns a list of all words that stem from this string's maximal 
 	 * prefix.  That is, returns all words that match the lost initial
@@ -792,6 +834,46 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 		return words;
 	}
 
+	/**
+	 * For testing: the number of calls that getWordsMatchingPatternWildCardRecurse(pattern)
+	 * makes to the WordNode matchers, counted by walking the same paths.  The matchers
+	 * keep no count of their own, since fork/join workers run them on shared nodes.
+	 */
+	protected long countPatternWildCardVisits(String pattern)
+	{
+		int maxSearchDepth = mActMaxWordLen - pattern.length() + 1;
+		if (pattern.isEmpty() || maxSearchDepth < 1)
+			return 0;
+		return countPatternVisitsRecurse(mRoot, pattern, maxSearchDepth);
+	}
+
+	private static long countPatternVisitsRecurse(WordNode node, final String pattern, int maxSearchDepth)
+	{
+		long visits = 1;
+		if (node.mDepth > maxSearchDepth)
+			return visits;
+		if (node.mDepth > 0 && (node.mChar == pattern.charAt(0) || pattern.charAt(0) == sWildCardChar))
+			visits += countPrefixVisitsRecurse(node, pattern, 1);
+		for (WordNode branch = node.getFirstBranch(); branch != null; branch = branch.getNextBranch())
+			visits += countPatternVisitsRecurse(branch, pattern, maxSearchDepth);
+		return visits;
+	}
+
+	private static long countPrefixVisitsRecurse(WordNode node, final String pattern, int patPos)
+	{
+		long visits = 1;
+		if (patPos == pattern.length())
+			return visits;
+		int patChrIdx = pattern.charAt(patPos) - sFirstLetter;
+		if (patChrIdx == sWildCardIdx) {
+			for (WordNode branch = node.getFirstBranch(); branch != null; branch = branch.getNextBranch())
+				visits += countPrefixVisitsRecurse(branch, pattern, patPos + 1);
+		} else if (node.mBranches[patChrIdx] != null) {
+			visits += countPrefixVisitsRecurse(node.mBranches[patChrIdx], pattern, patPos + 1);
+		}
+		return visits;
+	}
+
 	public SortedSet<String> getWordsMatchingPatternWildCardRecIter(String pattern)
 	{
 		if (pattern == null)
@@ -822,6 +904,182 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 
 
 
+	/** Nodes shallower than this fork one fork/join task per branch in the parallel searches */
+	public static final int sDefaultForkDepth = 3;
+
+	/**
+	 * Fork/join task finding all words with a prefix that matches a pattern
+	 * containing wild cards, from patPos on, in the sub-trie under node.
+	 * At each wild card above the fork depth, the branches are searched as
+	 * separate tasks.  The matched nodes are all at the same depth, so their
+	 * sub-tries are disjoint, and joining the branch results in alphabetical
+	 * order gives a sorted list with no duplicates, with no need for a TreeSet.
+	 */
+	protected static class PrefixWildCardTask extends RecursiveTask<List<String>>
+	{
+		private static final long serialVersionUID = 1L;
+		final WordNode mNode;
+		final String   mPattern;
+		final int      mPatPos;
+		final int      mForkDepth;
+
+		PrefixWildCardTask(WordNode node, String pattern, int patPos, int forkDepth) {
+			mNode = node;  mPattern = pattern;  mPatPos = patPos;  mForkDepth = forkDepth;
+		}
+
+		@Override
+		protected List<String> compute()
+		{
+			List<String> words = new ArrayList<String>();
+			if (mNode.mDepth >= mForkDepth) {
+				List<WordNode> nodes = new ArrayList<WordNode>();
+				mNode.findNodesMatchingPrefixWildCardRecurse(nodes, mPattern, mPatPos);
+				for (WordNode node : nodes)
+					node.getWordsRecurse(words);
+				return words;
+			}
+			if (mPatPos == mPattern.length()) {
+				mNode.getWordsRecurse(words);
+				return words;
+			}
+			int patChrIdx = mPattern.charAt(mPatPos) - sFirstLetter;
+			if (patChrIdx == sWildCardIdx) {
+				List<PrefixWildCardTask> tasks = new ArrayList<PrefixWildCardTask>();
+				for (WordNode branch = mNode.mFirstChild; branch != null; branch = branch.mNextSibling)
+					tasks.add(new PrefixWildCardTask(branch, mPattern, mPatPos + 1, mForkDepth));
+				for (PrefixWildCardTask task : invokeAll(tasks))
+					words.addAll(task.join());
+				return words;
+			}
+			WordNode branch = mNode.mBranches[patChrIdx];
+			if (branch == null)
+				return words;
+			return new PrefixWildCardTask(branch, mPattern, mPatPos + 1, mForkDepth).compute();
+		}
+	}
+
+	/**
+	 * Fork/join task finding all words under node that contain a match for a
+	 * pattern with wild cards, as findNodesMatchingPatternWildCardRecurse does.
+	 * Every word found under a node has that node's stem as a prefix, so the 
+	 * results of the branches are sorted and disjoint, and can just be joined 
+	 * in order; only the matches starting at the node itself need to be merged in.
+	 */
+	protected static class PatternWildCardTask extends RecursiveTask<List<String>>
+	{
+		private static final long serialVersionUID = 1L;
+		final WordNode mNode;
+		final String   mPattern;
+		final int      mMaxSearchDepth;
+		final int      mForkDepth;
+
+		PatternWildCardTask(WordNode node, String pattern, int maxSearchDepth, int forkDepth) {
+			mNode = node;  mPattern = pattern;  mMaxSearchDepth = maxSearchDepth;  mForkDepth = forkDepth;
+		}
+
+		@Override
+		protected List<String> compute()
+		{
+			List<String> words = new ArrayList<String>();
+			if (mNode.mDepth > mMaxSearchDepth)
+				return words;
+
+			List<String> branchWords = words;
+			if (mNode.mDepth < mForkDepth) {
+				List<PatternWildCardTask> tasks = new ArrayList<PatternWildCardTask>();
+				for (WordNode branch = mNode.mFirstChild; branch != null; branch = branch.mNextSibling)
+					tasks.add(new PatternWildCardTask(branch, mPattern, mMaxSearchDepth, mForkDepth));
+				for (PatternWildCardTask task : invokeAll(tasks))
+					branchWords = appendOrTake(branchWords, task.join());
+			} else {
+				for (WordNode branch = mNode.mFirstChild; branch != null; branch = branch.mNextSibling)
+					branchWords = appendOrTake(branchWords, 
+							new PatternWildCardTask(branch, mPattern, mMaxSearchDepth, mForkDepth).compute());
+			}
+
+			char first = mPattern.charAt(0);
+			if (mNode.mDepth == 0 || (mNode.mChar != first && first != sWildCardChar))
+				return branchWords;
+			List<WordNode> nodes = new ArrayList<WordNode>();
+			mNode.findNodesMatchingPrefixWildCardRecurse(nodes, mPattern, 1);
+			if (nodes.isEmpty())
+				return branchWords;
+			List<String> ownWords = new ArrayList<String>();
+			for (WordNode node : nodes)
+				node.getWordsRecurse(ownWords);
+			return mergeSortedUnique(ownWords, branchWords);
+		}
+
+		private static List<String> appendOrTake(List<String> words, List<String> more)
+		{
+			if (words.isEmpty())
+				return more;
+			words.addAll(more);
+			return words;
+		}
+	}
+
+	/** Merges two sorted lists of unique strings into one, dropping duplicates */
+	protected static List<String> mergeSortedUnique(List<String> listA, List<String> listB)
+	{
+		if (listB.isEmpty())
+			return listA;
+		List<String> merged = new ArrayList<String>(listA.size() + listB.size());
+		int a = 0, b = 0, sizeA = listA.size(), sizeB = listB.size();
+		while (a < sizeA && b < sizeB) {
+			int cmp = listA.get(a).compareTo(listB.get(b));
+			if (cmp <= 0) {
+				merged.add(listA.get(a++));
+				if (cmp == 0)
+					b++;
+			} else {
+				merged.add(listB.get(b++));
+			}
+		}
+		merged.addAll(listA.subList(a, sizeA));
+		merged.addAll(listB.subList(b, sizeB));
+		return merged;
+	}
+
+	/**
+	 * Same words as getWordsMatchingPrefixWildCardRecurse, in a sorted list, 
+	 * found by fork/join tasks in the specified pool.
+	 */
+	public List<String> getWordsMatchingPrefixWildCardParallel(String prefix, ForkJoinPool pool, int forkDepth)
+	{
+		if (prefix == null)
+			throw new IllegalArgumentException("null prefix");
+		if (prefix.length() > mActMaxWordLen)
+			return new ArrayList<String>();
+		return pool.invoke(new PrefixWildCardTask(mRoot, prefix, 0, forkDepth));
+	}
+
+	public List<String> getWordsMatchingPrefixWildCardParallel(String prefix)
+	{
+		return getWordsMatchingPrefixWildCardParallel(prefix, ForkJoinPool.commonPool(), sDefaultForkDepth);
+	}
+
+	/**
+	 * Same words as getWordsMatchingPatternWildCardRecurse, in a sorted list, 
+	 * found by fork/join tasks in the specified pool.
+	 */
+	public List<String> getWordsMatchingPatternWildCardParallel(String pattern, ForkJoinPool pool, int forkDepth)
+	{
+		if (pattern == null)
+			throw new IllegalArgumentException("null pattern");
+		if (pattern.isEmpty())
+			return new ArrayList<String>(getAllWords());
+		int maxSearchDepth = mActMaxWordLen - pattern.length() + 1; 
+		if (maxSearchDepth < 1)
+			return new ArrayList<String>();
+		return pool.invoke(new PatternWildCardTask(mRoot, pattern, maxSearchDepth, forkDepth));
+	}
+
+	public List<String> getWordsMatchingPatternWildCardParallel(String pattern)
+	{
+		return getWordsMatchingPatternWildCardParallel(pattern, ForkJoinPool.commonPool(), sDefaultForkDepth);
+	}
+
 	protected int getProbableWordNodes(MinHeap<WordNode> minHeap, int maxNumNodes, WordNode node, int maxDepth)
 	{
 		//      if (node == null)
@@ -1096,11 +1354,10 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 		if (wordLen < mReqMinWordLen || wordLen > mReqMaxWordLen)
 			return true;
 
-		if (mActMinWordLen > wordLen) {
+		if (mActMinWordLen > wordLen)
 			mActMinWordLen = wordLen;
-		} else if (mActMaxWordLen < wordLen) {
+		if (mActMaxWordLen < wordLen)
 			mActMaxWordLen = wordLen;
-		}
 		return false;
 	}
 
@@ -1114,12 +1371,26 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 	 * @return
 	 */
 	public WordNode putWord(final String word)
+	{
+		return putWord(word, 1);
+	}
+
+	/**
+	 * Puts a word into the trie as if putWord(word) were called count times,
+	 * so every node traversed has its text count incremented by count. 
+	 * Used for merging counts collected elsewhere, as in ConcurrentWordTrie.
+	 * @param word
+	 * @param count number of occurrences of word, must be > 0
+	 * @return the word node, or null if the word length is out of bounds
+	 */
+	public WordNode putWord(final String word, int count)
 	{
 		int wordLen = word.length();
 		if (badWordLen(wordLen))
 			return null;
 
-		mNumPutChars += wordLen;
+		mNumPutChars += wordLen * count;
+		mTopWordsUpToDate = false;
 
 		// Traverse down the trie until we reach the end of the word, creating nodes as necessary.
 		WordNode node = mRoot;
@@ -1142,14 +1413,14 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 			//                    zoid++;
 			//            }
 
-			node.mTextCount++;
-			node.mTotalCount += node.mDepth;
+			node.mTextCount  += count;
+			node.mTotalCount += node.mDepth * count;
 		}
 		if ( ! node.isWord()) {
 			node.mStem   = word;
 			mNumWords++;                // increment total word count IFF this word is new
 		}
-		node.mWordCount++;            // Always increment word count, so TC - WC = SUM{branch.TC}
+		node.mWordCount += count;     // Always increment word count, so TC - WC = SUM{branch.TC}
 
 		//        if (sDbg > 0) {
 		//            int sum = 0, dif = node.mTextCount - node.getWordCount();
@@ -1176,6 +1447,7 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 			return null;
 
 		mNumPutChars += wordLen;    
+		mTopWordsUpToDate = false;
 
 		// Traverse down the trie until we reach the end of the word, creating nodes as necessary.
 		WordNode node = mRoot;
@@ -1893,6 +2165,163 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 	}
 
 
+	/**
+	 * Caches, at every node, the (up to) limit most probable words under that node,
+	 * so that getTopWordNodes needs only to find the prefix node, with no search
+	 * of the sub-trie.  Words are ranked by word count, then by text count, and
+	 * words with the same counts stay in alphabetical order.  The cache is built
+	 * bottom-up by merging the children's arrays, and is rebuilt lazily by
+	 * getTopWordNodes after any putWord.
+	 * @param limit max number of words cached per node
+	 */
+	public void setAllTopWords(int limit) 
+	{
+		mTopWordsLimit = limit;
+		setTopWords(mRoot);
+		mTopWordsUpToDate = true;
+	}
+
+	private static final WordNode sNoWordNodes[] = new WordNode[0];
+
+	protected WordNode[] setTopWords(WordNode node) 
+	{
+		WordNode topWords[] = node.isWord() ? new WordNode[] { node } : sNoWordNodes;
+		for (WordNode child = node.mFirstChild; child != null; child = child.mNextSibling) {
+			topWords = mergeTopWords(topWords, setTopWords(child), mTopWordsLimit);
+		}
+		node.mTopWords = topWords;
+		return topWords;
+	}
+
+	/** 
+	 * Merges two arrays of word nodes sorted best first into one, keeping at most limit.
+	 * On ties, the nodes in nodesA come first, so merging in alphabetical order keeps
+	 * equally probable words in alphabetical order.  If either array is empty, the 
+	 * other is returned as is.
+	 */
+	protected static WordNode[] mergeTopWords(WordNode nodesA[], WordNode nodesB[], int limit)
+	{
+		if (nodesA.length == 0)
+			return nodesB;
+		if (nodesB.length == 0)
+			return nodesA;
+		int length = Math.min(nodesA.length + nodesB.length, limit);
+		WordNode merged[] = new WordNode[length];
+		for (int a = 0, b = 0, k = 0; k < length; k++) {
+			if (b == nodesB.length || (a < nodesA.length && compareCounts(nodesA[a], nodesB[b]) <= 0))
+				merged[k] = nodesA[a++];
+			else
+				merged[k] = nodesB[b++];
+		}
+		return merged;
+	}
+
+	/** Same order as WordNode.CompareCounts: negative if nodeA has the greater word count, then text count */
+	protected static int compareCounts(WordNode nodeA, WordNode nodeB)
+	{
+		if (nodeB.mWordCount == nodeA.mWordCount)
+			return nodeB.mTextCount - nodeA.mTextCount;
+		return nodeB.mWordCount - nodeA.mWordCount;
+	}
+
+	/**
+	 * Returns the (up to) limit most probable words that continue the longest 
+	 * stem of prefix in this trie, best first, in O(|prefix| + limit) time once 
+	 * the cache is up to date.  Rebuilds the cache first if needed.
+	 * @see setAllTopWords
+	 */
+	public List<WordNode> getTopWordNodes(String prefix, int limit)
+	{
+		if (prefix == null || limit < 1)
+			throw new IllegalArgumentException("getTopWordNodes null or limit < 1");
+		if ( ! mTopWordsUpToDate || mTopWordsLimit < limit)
+			setAllTopWords(Math.max(limit, mTopWordsLimit));
+
+		return getTopWordNodes(maxStemNode(prefix), limit);
+	}
+
+	/**
+	 * Returns the cached array of the most probable words under node, best first.
+	 * The array is shared by every node on a chain that has only one source of
+	 * words, so callers can compare arrays by identity to reuse earlier results.
+	 * Do not modify it.
+	 */
+	protected WordNode[] getTopWordsArray(WordNode node, int limit)
+	{
+		if ( ! mTopWordsUpToDate || mTopWordsLimit < limit)
+			setAllTopWords(Math.max(limit, mTopWordsLimit));
+		return node.mTopWords;
+	}
+
+	/** Returns the (up to) limit most probable words under node, best first. */
+	public List<WordNode> getTopWordNodes(WordNode node, int limit)
+	{
+		if (node == null || limit < 1)
+			throw new IllegalArgumentException("getTopWordNodes null or limit < 1");
+		if ( ! mTopWordsUpToDate || mTopWordsLimit < limit)
+			setAllTopWords(Math.max(limit, mTopWordsLimit));
+
+		WordNode topWords[] = node.mTopWords;
+		int length = Math.min(limit, topWords.length);
+		List<WordNode> nodes = new ArrayList<WordNode>(length);
+		for (int j = 0; j < length; j++)
+			nodes.add(topWords[j]);
+		return nodes;
+	}
+
+	/**
+	 * Finds the nodes whose stems are within maxDist edits of the query, by stepping
+	 * a Levenshtein automaton down the trie and skipping every sub-trie in which it dies.
+	 * If wholeWords, returns only the word nodes within maxDist of the whole query.
+	 * Otherwise, returns the nodes that begin the completions of the query as a 
+	 * mistyped prefix: each node within maxDist that is nearer to the query than any
+	 * of its returned ancestors, so that the distance of the nearest returned 
+	 * ancestor of any word is the least distance from the query to a prefix of the word. 
+	 * @return list of nodes, in alphabetical order, each with its distance as its count
+	 */
+	public List<NodeCount> getNodesWithinEditDistance(String query, int maxDist, boolean wholeWords)
+	{
+		if (query == null || maxDist < 0)
+			throw new IllegalArgumentException("getNodesWithinEditDistance null or maxDist < 0");
+
+		// One state per depth; no stem is deeper than the longest word allowed or put.
+		int maxDepth = Math.max(mReqMaxWordLen, mActMaxWordLen);
+		List<NodeCount> results = new ArrayList<NodeCount>();
+		query = LevenshteinAutomaton.fitQuery(query, maxDepth, maxDist);
+		if (query == null)
+			return results;
+
+		LevenshteinAutomaton lev = new LevenshteinAutomaton(query, maxDist);
+		long states[] = new long[(maxDepth + 1) * lev.getStateSize()];
+		lev.start(states, 0);
+		int dist = lev.distance(states, 0);
+		if ( ! wholeWords && dist <= maxDist)
+			results.add(new NodeCount(mRoot, dist));
+		findNodesWithinEditDistanceRecurse(results, lev, states, mRoot, dist, wholeWords);
+		return results;
+	}
+
+	protected void findNodesWithinEditDistanceRecurse(List<NodeCount> results, LevenshteinAutomaton lev
+			, long states[], WordNode node, int minDist, boolean wholeWords)
+	{
+		int size = lev.getStateSize();
+		int from = node.mDepth * size, to = from + size;
+		for (WordNode branch = node.mFirstChild; branch != null; branch = branch.mNextSibling) {
+			if ( ! lev.step(states, from, to, branch.mChar))
+				continue;                              // dead: no stem below can match
+			int dist = lev.distance(states, to), minDistBelow = minDist;
+			if (wholeWords) {
+				if (branch.isWord() && dist <= lev.getMaxDist())
+					results.add(new NodeCount(branch, dist));
+			} else if (dist < minDist) {
+				results.add(new NodeCount(branch, dist));
+				minDistBelow = dist;
+			}
+			if (wholeWords || minDistBelow > 0)        // nothing below an exact match is nearer
+				findNodesWithinEditDistanceRecurse(results, lev, states, branch, minDistBelow, wholeWords);
+		}
+	}
+
 	protected void setAllTotalTextCounts() 
 	{
 		setTotalTextCounts(mRoot, 0);
@@ -2739,6 +3168,51 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 	  * 4) From stem, get maxStem and also a word + prefix from splitting, 
 	  *    and get maxExhaust(maxStem) and maxExhaus(word) + maxExhuast(prefix)...
 	  */
+	 /**
+	  * Checks the fork/join wild card searches against the serial ones, and times
+	  * crossword-style patterns with pools of 1 up to max(8, #cpus) threads.
+	  */
+	 static int test_parallelWildCards(WordTrie trie, int numTrials)
+	 {
+		 int numWrong = 0;
+		 String prefixes[] = { "____e__", "_a_a_", "s___e", "__q__", "c_o__w_", "___" };
+		 String patterns[] = { "__e_", "a_a", "x_q", "_ing", "q_u", "_____e___" };
+		 ForkJoinPool pool = new ForkJoinPool(2);
+		 for (String prefix : prefixes)
+			 numWrong += Sz.oneIfFalse(trie.getWordsMatchingPrefixWildCardParallel(prefix, pool, 2).equals(
+					 new ArrayList<String>(trie.getWordsMatchingPrefixWildCardRecurse(prefix))));
+		 for (String pattern : patterns)
+			 numWrong += Sz.oneIfFalse(trie.getWordsMatchingPatternWildCardParallel(pattern, pool, 2).equals(
+					 new ArrayList<String>(trie.getWordsMatchingPatternWildCardRecurse(pattern))));
+		 pool.shutdown();
+
+		 long begTime = System.nanoTime();
+		 for (int j = 0; j < numTrials; j++) {
+			 for (String prefix : prefixes)
+				 trie.getWordsMatchingPrefixWildCardRecurse(prefix);
+			 for (String pattern : patterns)
+				 trie.getWordsMatchingPatternWildCardRecurse(pattern);
+		 }
+		 double serialMs = (System.nanoTime() - begTime) * 1.0e-6;
+		 Sx.format("Wild card searches, serial:            %8.2f ms\n", serialMs);
+		 int numCpus = Runtime.getRuntime().availableProcessors();
+		 for (int numThreads = 1; numThreads <= Math.max(8, numCpus); numThreads *= 2) {
+			 pool = new ForkJoinPool(numThreads);
+			 begTime = System.nanoTime();
+			 for (int j = 0; j < numTrials; j++) {
+				 for (String prefix : prefixes)
+					 trie.getWordsMatchingPrefixWildCardParallel(prefix, pool, sDefaultForkDepth);
+				 for (String pattern : patterns)
+					 trie.getWordsMatchingPatternWildCardParallel(pattern, pool, sDefaultForkDepth);
+			 }
+			 double parallelMs = (System.nanoTime() - begTime) * 1.0e-6;
+			 Sx.format("Wild card searches, fork/join %2d threads: %8.2f ms,  speedup %5.2f  (%d cpus)\n"
+					 , numThreads, parallelMs, serialMs / parallelMs, numCpus);
+			 pool.shutdown();
+		 }
+		 return numWrong;
+	 }
+
 	 public static int unit_test(int level)
 	 {
 	     String testName = WordTrie.class.getName() + ".unit_test";
@@ -2754,6 +3228,8 @@ public class WordTrie implements StringCollectorInterface<WordTrie>
 
 
 		 numWrong += test_patternMatching(trie);
+		 if (level > 0)
+			 numWrong += test_parallelWildCards(trie, 10);
 
 		 if (level > 1) {
 
@@ -1,6 +1,14 @@
 
 package sprax.wordcounts;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 import com.google.common.hash.BloomFilter;
 import com.google.common.hash.Funnel;
 import com.google.common.hash.PrimitiveSink;
@@ -54,9 +62,16 @@ public class BloomFilterProfile extends WordTupleProfile {
         addCorpus(corpusFileSpec, expectedInsertions);
     }
     
-    // FIXME: temporary hack
+    /** First pass over the corpus: HyperLogLog estimates of the numbers of unique words, pairs, and triads */
     int[] estimateUniqueWordTuples(String fileSpec) {
-    	return new int[] { 30000, 50000, 70000 };
+        try {
+            long uniques[] = CountMinSketchProfile.estimateUniqueWordTuples(SentenceStream.sentencesFromFile(fileSpec));
+            return new int[] { (int) uniques[0], (int) uniques[1], (int) uniques[2] };
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.format("WARNING: Failed to estimate unique word tuples in corpus file: %s\n", fileSpec);
+            return new int[] { 30000, 50000, 70000 };
+        }
     }
     
     /** Get word-tuple counts from which to reckon expected numbers of insertions,
@@ -80,7 +95,7 @@ public class BloomFilterProfile extends WordTupleProfile {
     	super.addCorpus(corpusFileSpec);
     }
 
-    private class StringFunnel implements Funnel<String>
+    private static class StringFunnel implements Funnel<String>
     {
 		private static final long serialVersionUID = 2809783535980039343L;
 		@Override
@@ -89,6 +104,38 @@ public class BloomFilterProfile extends WordTupleProfile {
         }
     }
 
+    /**
+     * Writes the input counts, unique-key counts, and filters in binary, to be read back
+     * by readFrom instead of re-reading the corpus.  Guava's filter format is a stream, not mappable.
+     */
+    public void writeTo(OutputStream outStream) throws IOException {
+        DataOutputStream out = new DataOutputStream(outStream);
+        out.writeInt(getNumSentencesInput());
+        out.writeInt(getNumWordsInput());
+        out.writeInt(minUniqueWords);
+        out.writeInt(minUniquePairs);
+        out.writeInt(minUniqueTriads);
+        wordFilter.writeTo(out);
+        pairFilter.writeTo(out);
+        trebFilter.writeTo(out);
+        out.flush();
+    }
+
+    /** Reads back a profile written by writeTo */
+    public static BloomFilterProfile readFrom(InputStream inStream) throws IOException {
+        DataInputStream in = new DataInputStream(inStream);
+        BloomFilterProfile profile = new BloomFilterProfile();
+        int numSentences = in.readInt();
+        profile.setInputCounts(numSentences, in.readInt());
+        profile.minUniqueWords = in.readInt();
+        profile.minUniquePairs = in.readInt();
+        profile.minUniqueTriads = in.readInt();
+        profile.wordFilter = BloomFilter.readFrom(in, new StringFunnel());
+        profile.pairFilter = BloomFilter.readFrom(in, new StringFunnel());
+        profile.trebFilter = BloomFilter.readFrom(in, new StringFunnel());
+        return profile;
+    }
+
     @Override
     protected void templateAddWord(String word) {
         if (wordFilter.put(word)) {
@@ -221,7 +268,27 @@ public class BloomFilterProfile extends WordTupleProfile {
         BloomFilterProfile bloomProfile = new BloomFilterProfile(textFilePath, expectedInsertions);
         bloomProfile.showCounts(bloomProfile.getClass().getSimpleName() + " counts:");
 
-        System.out.println(testName + " END");
+        int numWrong = 0;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            bloomProfile.writeTo(bytes);
+            BloomFilterProfile readBack = readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+            numWrong += readBack.getNumSentencesInput() == bloomProfile.getNumSentencesInput() ? 0 : 1;
+            numWrong += readBack.getNumWordsInput() == bloomProfile.getNumWordsInput() ? 0 : 1;
+            numWrong += readBack.minUniqueWords == bloomProfile.minUniqueWords
+                    && readBack.minUniquePairs == bloomProfile.minUniquePairs
+                    && readBack.minUniqueTriads == bloomProfile.minUniqueTriads ? 0 : 1;
+            String sentences[] = { "Call me Ishmael.", "It is not down on any map; true places never are.", "Qqq zzz xxy." };
+            for (String sentence : sentences)
+                numWrong += readBack.distanceFromWordsPairsAndTriads(sentence)
+                        == bloomProfile.distanceFromWordsPairsAndTriads(sentence) ? 0 : 1;
+            numWrong += readBack.getPairPresence("call", "me") == bloomProfile.getPairPresence("call", "me") ? 0 : 1;
+            System.out.format("    written and read back in %d bytes\n", bytes.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            numWrong++;
+        }
+        System.out.println(testName + " END, wrong " + numWrong);
     }
 
     public static void main(String[] args) {
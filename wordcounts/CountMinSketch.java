@@ -0,0 +1,136 @@
+package sprax.wordcounts;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min sketch (Cormode and Muthukrishnan) of the frequencies of 64-bit keys:
+ * depth rows of width int counters, each row indexed by a different hash of
+ * the key.  An estimated count is never less than the true count, and exceeds
+ * it by more than 2 * totalCount / width with probability at most 2^-depth.
+ *
+ * The width is a power of 2 and each row index is just the low bits of a row
+ * hash, so a sketch can be folded in half by adding its right half to its left,
+ * giving exactly the sketch that a width / 2 sketch would have counted.
+ * Sketches of different widths can thus be compared after folding the wider.
+ */
+public class CountMinSketch {
+
+    public static final int DEFAULT_DEPTH = 4;
+
+    private final int depth;
+    private final int width;
+    private final int counts[];     // row-major: row r is counts[r * width] to counts[r * width + width - 1]
+    private long totalCount;
+
+    /** @param width must be a power of 2 */
+    public CountMinSketch(int depth, int width) {
+        if (depth < 1 || width < 1 || Integer.bitCount(width) != 1)
+            throw new IllegalArgumentException("CountMinSketch needs depth > 0 and width a power of 2");
+        this.depth = depth;
+        this.width = width;
+        this.counts = new int[depth * width];
+    }
+
+    /** Returns the largest power-of-2 width such that a sketch of depth rows fits in numBytes */
+    public static int widthForBytes(long numBytes, int depth) {
+        long maxWidth = Math.max(1, numBytes / (4L * depth));
+        return (int) Long.highestOneBit(Math.min(maxWidth, 1 << 30));
+    }
+
+    /** Murmur3's 64-bit finalizer: spreads all bits of key over all bits of the result */
+    public static long mix64(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    public int  getDepth()          { return depth; }
+    public int  getWidth()          { return width; }
+    public long getTotalCount()     { return totalCount; }
+    public long getNumBytes()       { return 4L * counts.length; }
+
+    /** Row r's hash is hashLo + r * hashHi, as in Kirsch and Mitzenmacher */
+    private int index(int row, long mixed) {
+        int hashLo = (int) mixed, hashHi = (int) (mixed >>> 32) | 1;
+        return row * width + ((hashLo + row * hashHi) & (width - 1));
+    }
+
+    public void add(long key, int count) {
+        long mixed = mix64(key);
+        for (int row = 0; row < depth; row++)
+            counts[index(row, mixed)] += count;
+        totalCount += count;
+    }
+
+    public void add(long key) {
+        add(key, 1);
+    }
+
+    /** @return an upper bound on the number of times key was added, and probably the exact count */
+    public int estimate(long key) {
+        long mixed = mix64(key);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++)
+            min = Math.min(min, counts[index(row, mixed)]);
+        return min;
+    }
+
+    /** @return a sketch of the same counts with the given smaller (power of 2) width */
+    public CountMinSketch foldTo(int newWidth) {
+        if (newWidth > width || Integer.bitCount(newWidth) != 1)
+            throw new IllegalArgumentException("Cannot fold width " + width + " to " + newWidth);
+        CountMinSketch folded = new CountMinSketch(depth, newWidth);
+        for (int row = 0; row < depth; row++)
+            for (int j = 0; j < width; j++)
+                folded.counts[row * newWidth + (j & (newWidth - 1))] += counts[row * width + j];
+        folded.totalCount = totalCount;
+        return folded;
+    }
+
+    /** Adds other's counts to this sketch's; other must have the same depth and width */
+    public void merge(final CountMinSketch other) {
+        if (other.depth != depth || other.width != width)
+            throw new IllegalArgumentException("CountMinSketch dimensions differ");
+        for (int j = 0; j < counts.length; j++)
+            counts[j] += other.counts[j];
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Estimates the Euclidean distance between the relative frequency vectors
+     * (count / totalCount) of two sketches of the same depth, folding the wider
+     * one first.  Each row's sum of squared counter differences is not a bound
+     * either way: the differences of keys colliding in a counter can add up or
+     * cancel out.  But since all the differences sum to 0, a row's expected sum
+     * is the squared distance times (1 - 1/width), so this takes the median over
+     * rows, which is robust to the odd row with a big collision.  The minimum
+     * would favor rows where the differences cancelled, and so would be biased low.
+     */
+    public static double frequencyDistance(CountMinSketch sketchA, CountMinSketch sketchB) {
+        if (sketchA.depth != sketchB.depth)
+            throw new IllegalArgumentException("CountMinSketch depths differ");
+        if (sketchA.width > sketchB.width)
+            sketchA = sketchA.foldTo(sketchB.width);
+        else if (sketchB.width > sketchA.width)
+            sketchB = sketchB.foldTo(sketchA.width);
+        double normA = sketchA.totalCount > 0 ? 1.0 / sketchA.totalCount : 0;
+        double normB = sketchB.totalCount > 0 ? 1.0 / sketchB.totalCount : 0;
+        int width = sketchA.width;
+        double sums[] = new double[sketchA.depth];
+        for (int row = 0; row < sketchA.depth; row++) {
+            double sum = 0;
+            for (int j = row * width, end = j + width; j < end; j++) {
+                double diff = sketchA.counts[j] * normA - sketchB.counts[j] * normB;
+                sum += diff * diff;
+            }
+            sums[row] = sum;
+        }
+        Arrays.sort(sums);
+        int mid = sums.length / 2;
+        double median = (sums.length & 1) == 1 ? sums[mid] : 0.5 * (sums[mid - 1] + sums[mid]);
+        return Math.sqrt(median);
+    }
+}
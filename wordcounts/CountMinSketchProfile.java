@@ -0,0 +1,317 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.util.stream.Stream;
+
+/**
+ * Profile for a speaker or writer as collected from their sentences.
+ * Keeps approximate frequencies of words, pairs, and triads in Count-Min
+ * sketches whose total size is bounded by a fixed memory budget, however
+ * large the corpus.  When profiling a corpus file, a first pass estimates
+ * the numbers of distinct words, pairs, and triads with HyperLogLog, and
+ * the budget is divided among the three sketches in proportion to those
+ * estimates; a second pass counts.  Unlike a BloomFilterProfile, this keeps
+ * frequencies, not just presence, and it needs no guess at the numbers of
+ * expected insertions.
+ *
+ * Tuples are keyed by the same 64-bit hashes as in HashCounterProfile.
+ * Profiles with different budgets can still be compared: see
+ * CountMinSketch.frequencyDistance and ProfileMetrics.sketchProfileToProfileDistance.
+ */
+public class CountMinSketchProfile extends WordTupleProfile {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 4L << 20;     // bytes for all 3 sketches
+    static final int MIN_WIDTH = 64;
+
+    private final double wordMissWeight = 7.0;
+    private final double pairMissWeight = 3.0;
+    private final double trebMissWeight = 1.0;
+    private final double missWeightTotal = wordMissWeight + pairMissWeight + trebMissWeight;
+
+    private final long memoryBudget;
+    private final int depth;
+    private CountMinSketch wordSketch;
+    private CountMinSketch pairSketch;
+    private CountMinSketch trebSketch;
+    private final HyperLogLog wordUniques = new HyperLogLog();
+    private final HyperLogLog pairUniques = new HyperLogLog();
+    private final HyperLogLog trebUniques = new HyperLogLog();
+    private final WordHashTokenizer.TupleHashConsumer wordAndPairCounter = this::countWordAndPair;
+    private final WordHashTokenizer.TupleHashConsumer tupleCounter = this::countTuples;
+
+    /** Non-public default constructor (can be used by a class factory) */
+    CountMinSketchProfile() {
+        this(DEFAULT_MEMORY_BUDGET, CountMinSketch.DEFAULT_DEPTH);
+    }
+
+    /**
+     * Profile to be filled by addCorpus, which sizes the sketches to fit memoryBudget bytes.
+     * If sentences or words are added first, the budget is split equally among the sketches.
+     */
+    public CountMinSketchProfile(long memoryBudget, int depth) {
+        this.memoryBudget = memoryBudget;
+        this.depth = depth;
+    }
+
+    /** Initializing constructor (1 of 2): from text file, in two passes. */
+    public CountMinSketchProfile(final String corpusFileSpec, long memoryBudget) {
+        this(memoryBudget, CountMinSketch.DEFAULT_DEPTH);
+        addCorpus(corpusFileSpec);
+    }
+
+    /**
+     * Initializing constructor (2 of 2): from a sentence stream, which can be read only once,
+     * so the budget is divided according to the given estimates of the numbers of distinct
+     * words, pairs, and triads.
+     */
+    public CountMinSketchProfile(Stream<String> sentences, long memoryBudget, long expectedUniques[]) {
+        this(memoryBudget, CountMinSketch.DEFAULT_DEPTH);
+        allocateSketches(expectedUniques);
+        addSentences(sentences);
+    }
+
+    public long getMemoryBudget()       { return memoryBudget; }
+    public CountMinSketch getWordSketch()   { ensureSketches(); return wordSketch; }
+    public CountMinSketch getPairSketch()   { ensureSketches(); return pairSketch; }
+    public CountMinSketch getTrebSketch()   { ensureSketches(); return trebSketch; }
+
+    /** @return HyperLogLog estimates of the numbers of distinct words, pairs, and triads added */
+    public long[] getEstimatedUniques() {
+        return new long[] { wordUniques.estimate(), pairUniques.estimate(), trebUniques.estimate() };
+    }
+
+    /**
+     * Divides the memory budget among the 3 sketches in proportion to the expected
+     * numbers of distinct keys, rounding each width down to a power of 2.
+     * No sketch is made wider than needed for about 4 counters per distinct key.
+     */
+    protected void allocateSketches(long expectedUniques[]) {
+        assert(expectedUniques.length > 2);
+        long total = Math.max(1, expectedUniques[0] + expectedUniques[1] + expectedUniques[2]);
+        CountMinSketch sketches[] = new CountMinSketch[3];
+        for (int j = 0; j < 3; j++) {
+            int width = CountMinSketch.widthForBytes(memoryBudget * expectedUniques[j] / total, depth);
+            int maxWidth = (int) Math.min(1 << 30, Long.highestOneBit(Math.max(1, expectedUniques[j])) * 8);
+            sketches[j] = new CountMinSketch(depth, Math.max(MIN_WIDTH, Math.min(width, maxWidth)));
+        }
+        wordSketch = sketches[0];
+        pairSketch = sketches[1];
+        trebSketch = sketches[2];
+    }
+
+    /**
+     * Allocates the sketches if neither addCorpus nor the stream constructor has,
+     * with no estimates of the numbers of distinct keys: the budget is divided
+     * equally, and the widths are not capped.
+     */
+    private void ensureSketches() {
+        if (wordSketch == null)
+            allocateSketches(new long[] { memoryBudget, memoryBudget, memoryBudget });
+    }
+
+    /**
+     * First pass: estimate the numbers of distinct words, pairs, and triads with
+     * HyperLogLog, without counting anything.
+     */
+    static long[] estimateUniqueWordTuples(Stream<String> sentences) {
+        HyperLogLog uniques[] = { new HyperLogLog(), new HyperLogLog(), new HyperLogLog() };
+        sentences.forEach(sentence -> WordHashTokenizer.forEachWordHash(sentence, (wordIndex, wordHash, pairHash, trebHash) -> {
+            uniques[0].add(CountMinSketch.mix64(wordHash));
+            if (wordIndex > 0)
+                uniques[1].add(CountMinSketch.mix64(pairHash));
+            if (wordIndex > 1)
+                uniques[2].add(CountMinSketch.mix64(trebHash));
+        }));
+        return new long[] { uniques[0].estimate(), uniques[1].estimate(), uniques[2].estimate() };
+    }
+
+    /** Two passes: sizes the sketches from a HyperLogLog pass if not already sized, then counts */
+    @Override
+    public void addCorpus(final String corpusFileSpec) {
+        if (wordSketch == null) {
+            try {
+                allocateSketches(estimateUniqueWordTuples(SentenceStream.sentencesFromFile(corpusFileSpec)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.format("WARNING: Failed to estimate sizes for %s from corpus file: %s\n",
+                        this.getClass().getSimpleName(), corpusFileSpec);
+                return;
+            }
+        }
+        super.addCorpus(corpusFileSpec);
+    }
+
+    @Override
+    public int getWordPresence(String word) {
+        ensureSketches();
+        return wordSketch.estimate(word.hashCode());
+    }
+
+    @Override
+    public int getPairPresence(String wordA, String wordB) {
+        ensureSketches();
+        return pairSketch.estimate(HashCounterProfile.combineHashes(wordA.hashCode(), wordB.hashCode()));
+    }
+
+    @Override
+    public int getTriadPresence(String wordA, String wordB, String wordC) {
+        ensureSketches();
+        long hashAB = HashCounterProfile.combineHashes(wordA.hashCode(), wordB.hashCode());
+        return trebSketch.estimate(HashCounterProfile.combineHashes(hashAB, wordC.hashCode()));
+    }
+
+    @Override
+    protected void templateAddWord(final String word) {
+        ensureSketches();
+        addHash(wordSketch, wordUniques, word.hashCode());
+    }
+
+    private void addHash(CountMinSketch sketch, HyperLogLog uniques, long hash) {
+        sketch.add(hash);
+        uniques.add(CountMinSketch.mix64(hash));
+    }
+
+    private void countWordAndPair(int wordIndex, int wordHash, long pairHash, long trebHash) {
+        addHash(wordSketch, wordUniques, wordHash);
+        if (wordIndex > 0)
+            addHash(pairSketch, pairUniques, pairHash);
+    }
+
+    private void countTuples(int wordIndex, int wordHash, long pairHash, long trebHash) {
+        countWordAndPair(wordIndex, wordHash, pairHash, trebHash);
+        if (wordIndex > 1)
+            addHash(trebSketch, trebUniques, trebHash);
+    }
+
+    @Override
+    protected void templateAddWordsAndPairs(final String sentence)
+    {
+        ensureSketches();
+        addNumWordsInput(WordHashTokenizer.forEachWordHash(sentence, wordAndPairCounter));
+    }
+
+    @Override
+    protected void templateAddWordsPairsAndTriads(final String sentence)
+    {
+        ensureSketches();
+        addNumWordsInput(WordHashTokenizer.forEachWordHash(sentence, tupleCounter));
+    }
+
+    /** Weighted fraction of the sentence's words, pairs, and triads that are absent from this profile */
+    public double distanceFromWordsPairsAndTriads(final String sentence)
+    {
+        ensureSketches();
+        String words[] = ProfileUtil.parseStringToWords(sentence);
+        int wordCount = words.length;
+        int pairCount = wordCount - 1;
+        int trebCount = pairCount - 1;
+
+        int wordMisses = 0, pairMisses = 0, trebMisses = 0;
+        int hashB = 0;
+        long hashAB = 0;
+        for (int j = 0; j < wordCount; j++) {
+            int hashC = words[j].hashCode();
+            if (wordSketch.estimate(hashC) == 0)
+                wordMisses++;
+            if (j > 1 && trebSketch.estimate(HashCounterProfile.combineHashes(hashAB, hashC)) == 0)
+                trebMisses++;
+            if (j > 0 && pairSketch.estimate(hashAB = HashCounterProfile.combineHashes(hashB, hashC)) == 0)
+                pairMisses++;
+            hashB = hashC;
+        }
+
+        double distance = 0;
+        if (wordCount > 0) {
+            distance += (double) wordMisses * wordMissWeight / wordCount;
+            if (pairCount > 0) {
+                distance += (double) pairMisses * pairMissWeight / pairCount;
+                if (trebCount > 0) {
+                    distance += (double) trebMisses * trebMissWeight / trebCount;
+                }
+            }
+        }
+        return distance / missWeightTotal;
+    }
+
+    @Override
+    protected void templateShowCounts() {
+        ensureSketches();
+        long uniques[] = getEstimatedUniques();
+        System.out.format("    estimated unique words: %d,  pairs: %d,  triads: %d\n", uniques[0], uniques[1], uniques[2]);
+        System.out.format("    sketch widths x %d:  words %d,  pairs %d,  triads %d,  total %d KB of %d KB budget\n"
+                , depth, wordSketch.getWidth(), pairSketch.getWidth(), trebSketch.getWidth()
+                , (wordSketch.getNumBytes() + pairSketch.getNumBytes() + trebSketch.getNumBytes()) >> 10
+                , memoryBudget >> 10);
+    }
+
+
+    //////// Unit testing ////////
+
+    /** Mean relative error of the sketch estimates over all the keys in the exact counter */
+    static double test_meanRelativeError(LongTupleCounter exact, CountMinSketch sketch, int minCount) {
+        double sumErr = 0;
+        int numKeys = 0, numUnder = 0;
+        for (long key : exact.getKeys()) {
+            int count = exact.getCount(key);
+            if (count >= minCount) {
+                int estimate = sketch.estimate(key);
+                if (estimate < count)
+                    numUnder++;
+                sumErr += (double) (estimate - count) / count;
+                numKeys++;
+            }
+        }
+        if (numUnder > 0)
+            System.out.println("    ERROR: Count-Min estimates below true counts: " + numUnder);
+        return numKeys == 0 ? 0 : sumErr / numKeys;
+    }
+
+    public static void unit_test()
+    {
+        String  testName = CountMinSketchProfile.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        HashCounterProfile exact = new HashCounterProfile(textFilePath);
+        exact.showCounts(exact.getClass().getSimpleName());
+
+        for (long budget : new long[] { 1L << 20, DEFAULT_MEMORY_BUDGET, 16L << 20 }) {
+            CountMinSketchProfile sketched = new CountMinSketchProfile(textFilePath, budget);
+            sketched.showCounts(sketched.getClass().getSimpleName() + " with budget " + (budget >> 10) + " KB");
+            System.out.format("    mean relative error of counts >= 10:  words %.4f,  pairs %.4f,  triads %.4f\n"
+                    , test_meanRelativeError(exact.getWordCounts(), sketched.wordSketch, 10)
+                    , test_meanRelativeError(exact.getPairCounts(), sketched.pairSketch, 10)
+                    , test_meanRelativeError(exact.getTrebCounts(), sketched.trebSketch, 10));
+            System.out.format("    distance from itself: %f\n", ProfileMetrics.sketchProfileToProfileDistance(sketched, sketched));
+        }
+
+        // Profiles not made from a corpus allocate their sketches on first use
+        CountMinSketchProfile empty = new CountMinSketchProfile();
+        CountMinSketchProfile direct = new CountMinSketchProfile(64L << 10, CountMinSketch.DEFAULT_DEPTH);
+        direct.addSentence("Call me Ishmael, call me.");
+        direct.addSentences(Stream.of("Some years ago, never mind how long precisely."));
+        if (empty.getWordPresence("call") != 0 || direct.getWordPresence("call") < 2
+                || direct.getPairPresence("call", "me") < 2 || direct.getTriadPresence("call", "me", "ishmael") < 1)
+            System.out.println("    ERROR: wrong presence counts in profiles made without a corpus");
+        direct.showCounts(direct.getClass().getSimpleName() + " from 2 sentences");
+
+        final String chapterPath = ProfileUtil.getTextFilePath("mobydickChapter1.txt");
+        CountMinSketchProfile chapter = new CountMinSketchProfile(chapterPath, 64L << 10);
+        CountMinSketchProfile whole = new CountMinSketchProfile(textFilePath, DEFAULT_MEMORY_BUDGET);
+        System.out.format("Sketch distance between Moby Dick chapter 1 (64 KB) and the whole (4 MB): %f\n"
+                , ProfileMetrics.sketchProfileToProfileDistance(chapter, whole));
+        try {
+            double partial = ProfileMetrics.sentencesToProfileDistance(SentenceStream.sentencesFromFile(chapterPath), whole);
+            System.out.format("Partial distance from chapter 1 sentences to the whole, should be 0: %f\n", partial);
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", chapterPath);
+            e.printStackTrace();
+        }
+
+        System.out.println(testName + " END");
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
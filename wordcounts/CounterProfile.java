@@ -1,7 +1,12 @@
 
 package sprax.wordcounts;
 
+import java.io.IOException;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
 
 /**
  * Base profile for a speaker or writer based on word-tuples collected from their sentences.
@@ -21,6 +26,35 @@ public abstract class CounterProfile<K> extends WordTupleProfile {
     public abstract TupleCounter<K> getPairCounts();
     public abstract TupleCounter<K> getTrebCounts();
     
+    /**
+     * Adds all the counts from another profile of the same kind to this one, 
+     * as if all of its sentences had been added here.  Tuples never span 
+     * sentences, so merging shard profiles built from disjoint sets of sentences
+     * gives exactly the counts of adding all the sentences to one profile, 
+     * in any order and any grouping.
+     * @return this profile, for chaining and for use as a combiner
+     */
+    public CounterProfile<K> merge(final CounterProfile<K> other) {
+        getWordCounts().addCounts(other.getWordCounts());
+        getPairCounts().addCounts(other.getPairCounts());
+        getTrebCounts().addCounts(other.getTrebCounts());
+        addInputCounts(other);
+        return this;
+    }
+
+    /**
+     * Collector for building a profile from a (parallel) stream of sentences:
+     * each thread adds its sentences to its own shard profile from the supplier,
+     * and the shards are merged as the stream joins them.
+     * Example: profile = sentences.parallel().collect(toProfile(HashCounterProfile::new))
+     */
+    public static <K, P extends CounterProfile<K>> Collector<String, P, P> toProfile(Supplier<P> supplier) {
+        return Collector.of(supplier, P::addSentence, (shardA, shardB) -> {
+            shardA.merge(shardB);
+            return shardA;
+        }, Collector.Characteristics.IDENTITY_FINISH, Collector.Characteristics.UNORDERED);
+    }
+
     @Override
     protected void templateShowCounts() {
         int inputWords = getNumWordsInput();
@@ -33,6 +67,43 @@ public abstract class CounterProfile<K> extends WordTupleProfile {
                 inputWords - getNumTrebsCounted() - inputSentences * 2);
     }
 
+    static <K> int test_countsDiffer(TupleCounter<K> countsA, TupleCounter<K> countsB) {
+        if (countsA.getSize() != countsB.getSize())
+            return 1;
+        for (K key : countsA.getKeys())
+            if (countsA.getCount(key) != countsB.getCount(key))
+                return 1;
+        return 0;
+    }
+
+    /**
+     * Builds profiles from the same sentences sequentially and with a parallel
+     * stream collected into merged shards, checks that all their counts are equal,
+     * and prints both build times.
+     * @return the number of counters that differ
+     */
+    static <K, P extends CounterProfile<K>> int test_parallelShards(List<String> sentences, Supplier<P> supplier) {
+        long begTime = System.nanoTime();
+        P sequential = supplier.get();
+        sentences.forEach(sequential::addSentence);
+        long seqNanos = System.nanoTime() - begTime;
+
+        begTime = System.nanoTime();
+        P parallel = sentences.parallelStream().collect(toProfile(supplier));
+        long parNanos = System.nanoTime() - begTime;
+
+        int numWrong = test_countsDiffer(sequential.getWordCounts(), parallel.getWordCounts())
+                     + test_countsDiffer(sequential.getPairCounts(), parallel.getPairCounts())
+                     + test_countsDiffer(sequential.getTrebCounts(), parallel.getTrebCounts());
+        if (sequential.getNumWordsInput() != parallel.getNumWordsInput() 
+                || sequential.getNumSentencesInput() != parallel.getNumSentencesInput())
+            numWrong++;
+        System.out.format("    %-20s sequential %7.1f ms,  parallel %7.1f ms on %d cpus,  %s\n"
+                , sequential.getClass().getSimpleName(), seqNanos * 1.0e-6, parNanos * 1.0e-6
+                , Runtime.getRuntime().availableProcessors(), numWrong == 0 ? "same counts" : "COUNTS DIFFER");
+        return numWrong;
+    }
+
     public static void unit_test() 
     {
         String  testName = CounterProfile.class.getName() + ".unit_test";
@@ -43,6 +114,17 @@ public abstract class CounterProfile<K> extends WordTupleProfile {
         CounterProfile<String> sp = new StringCounterProfile(textFilePath);
         sp.showCounts(sp.getClass().getSimpleName());
 
+        try {
+            List<String> sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+            int numWrong = test_parallelShards(sentences, StringCounterProfile::new);
+            numWrong += test_parallelShards(sentences, HashCounterProfile::new);
+            numWrong += test_parallelShards(sentences, HashRegisterProfile::new);
+            System.out.println("    Parallel shard counts that differ from sequential: " + numWrong);
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+        }
+
         System.out.println(testName + " END");
     }
 
@@ -0,0 +1,259 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only, compiled form of a counter profile for fast profile-to-profile
+ * distances: for each of words, pairs, and triads, a sorted array of 64-bit
+ * keys with parallel arrays of counts and normalized frequencies.  Distances
+ * become merge-joins over primitive arrays, with no hashing or boxing, and
+ * one query profile can be scored against many stored profiles in parallel.
+ *
+ * Keys are the 64-bit hashes used by HashCounterProfile; the tuples of a
+ * StringCounterProfile are hashed the same way when frozen, so frozen profiles
+ * made from either kind can be compared with each other.  Frequencies are
+ * normalized as in ProfileMetrics: count / number of unique keys.
+ * @see ProfileMetrics#counterProfileToProfileDistance(FrozenProfile, FrozenProfile)
+ */
+public class FrozenProfile {
+
+    /** Sorted keys with their counts and frequencies */
+    static final class FrozenCounts {
+        final long keys[];
+        final int counts[];
+        final double freqs[];
+
+        FrozenCounts(LongTupleCounter counter) {
+            keys = counter.getKeyArray();
+            Arrays.sort(keys);
+            counts = new int[keys.length];
+            for (int j = 0; j < keys.length; j++)
+                counts[j] = counter.getCount(keys[j]);
+            freqs = frequencies(counts);
+        }
+
+        /** Wraps keys already sorted, with their counts, as read back from a ProfileStore */
+        FrozenCounts(long keys[], int counts[]) {
+            this.keys = keys;
+            this.counts = counts;
+            this.freqs = frequencies(counts);
+        }
+
+        private static double[] frequencies(int counts[]) {
+            double freqs[] = new double[counts.length];
+            for (int j = 0; j < counts.length; j++)
+                freqs[j] = (double) counts[j] / counts.length;
+            return freqs;
+        }
+
+        int getSize()   { return keys.length; }
+
+        /** 
+         * Same as ProfileMetrics.partialDistance: the sum of A's counts for keys missing from B, over A's size.
+         * When A is much smaller than B, as for a short query text, each of A's keys is looked up by
+         * binary search in the rest of B instead of stepping through all of B.
+         */
+        static double partialDistance(FrozenCounts countsA, FrozenCounts countsB) {
+            long keysA[] = countsA.keys, keysB[] = countsB.keys;
+            long diff = 0;
+            if (keysA.length * 16L < keysB.length) {
+                for (int a = 0, lo = 0; a < keysA.length; a++) {
+                    int found = Arrays.binarySearch(keysB, lo, keysB.length, keysA[a]);
+                    if (found < 0) {
+                        diff += countsA.counts[a];
+                        lo = -found - 1;
+                    } else {
+                        lo = found + 1;
+                    }
+                }
+                return (double) diff / keysA.length;
+            }
+            int a = 0, b = 0;
+            while (a < keysA.length && b < keysB.length) {
+                long keyA = keysA[a], keyB = keysB[b];
+                if (keyA < keyB)
+                    diff += countsA.counts[a++];
+                else if (keyA > keyB)
+                    b++;
+                else {
+                    a++;
+                    b++;
+                }
+            }
+            while (a < keysA.length)
+                diff += countsA.counts[a++];
+            return (double) diff / keysA.length;
+        }
+
+        /**
+         * Same as ProfileMetrics.counterToCounterDistance, in one merge-join:
+         * the partial frequency differences of A from B and of B from A sum
+         * to 2 * (0.5 * (freqA - freqB))^2 for each shared key, plus
+         * freq^2 for each key found in only one of them.
+         */
+        static double frequencyDistance(FrozenCounts countsA, FrozenCounts countsB) {
+            long keysA[] = countsA.keys, keysB[] = countsB.keys;
+            double freqsA[] = countsA.freqs, freqsB[] = countsB.freqs;
+            double sum = 0;
+            int a = 0, b = 0;
+            while (a < keysA.length && b < keysB.length) {
+                long keyA = keysA[a], keyB = keysB[b];
+                if (keyA < keyB) {
+                    sum += freqsA[a] * freqsA[a];
+                    a++;
+                } else if (keyA > keyB) {
+                    sum += freqsB[b] * freqsB[b];
+                    b++;
+                } else {
+                    double half = 0.5 * (freqsA[a++] - freqsB[b++]);
+                    sum += 2 * half * half;
+                }
+            }
+            for (; a < keysA.length; a++)
+                sum += freqsA[a] * freqsA[a];
+            for (; b < keysB.length; b++)
+                sum += freqsB[b] * freqsB[b];
+            return Math.sqrt(sum);
+        }
+    }
+
+    final FrozenCounts words;
+    final FrozenCounts pairs;
+    final FrozenCounts trebs;
+
+    private FrozenProfile(LongTupleCounter wordCounts, LongTupleCounter pairCounts, LongTupleCounter trebCounts) {
+        words = new FrozenCounts(wordCounts);
+        pairs = new FrozenCounts(pairCounts);
+        trebs = new FrozenCounts(trebCounts);
+    }
+
+    /** Wraps counts already frozen, as read back from a ProfileStore */
+    FrozenProfile(FrozenCounts words, FrozenCounts pairs, FrozenCounts trebs) {
+        this.words = words;
+        this.pairs = pairs;
+        this.trebs = trebs;
+    }
+
+    public static FrozenProfile freeze(HashCounterProfile profile) {
+        return new FrozenProfile(profile.getWordCounts(), profile.getPairCounts(), profile.getTrebCounts());
+    }
+
+    /** Hashes each tuple as HashCounterProfile would; any colliding tuples have their counts summed */
+    public static FrozenProfile freeze(StringCounterProfile profile) {
+        return new FrozenProfile(hashTuples(profile.getWordCounts()),
+                hashTuples(profile.getPairCounts()), hashTuples(profile.getTrebCounts()));
+    }
+
+    private static LongTupleCounter hashTuples(TupleCounter<String> tupleCounts) {
+        LongTupleCounter hashCounts = new LongTupleCounter(tupleCounts.getSize());
+        for (String tuple : tupleCounts.getKeys())
+            hashCounts.addCount(tupleHash(tuple), tupleCounts.getCount(tuple));
+        return hashCounts;
+    }
+
+    /** The 64-bit hash of a word or of space-separated words, as in HashCounterProfile */
+    static long tupleHash(final String tuple) {
+        int end = tuple.indexOf(WordTupleProfile.WORD_DELIMITER);
+        if (end < 0)
+            return tuple.hashCode();
+        long hash = tuple.substring(0, end).hashCode();
+        for (int beg = end + 1; beg > 0; beg = end + 1) {
+            end = tuple.indexOf(WordTupleProfile.WORD_DELIMITER, beg);
+            String word = end < 0 ? tuple.substring(beg) : tuple.substring(beg, end);
+            hash = HashCounterProfile.combineHashes(hash, word.hashCode());
+        }
+        return hash;
+    }
+
+    public int getNumWordsCounted()   { return words.getSize(); }
+    public int getNumPairsCounted()   { return pairs.getSize(); }
+    public int getNumTrebsCounted()   { return trebs.getSize(); }
+
+
+    //////// Unit testing ////////
+
+    /** Splits the sentences into consecutive chunks, each made into a frozen profile */
+    static List<FrozenProfile> test_freezeChunks(List<String> sentences, int sentencesPerChunk) {
+        List<FrozenProfile> profiles = new ArrayList<>();
+        for (int beg = 0; beg < sentences.size(); beg += sentencesPerChunk) {
+            List<String> chunk = sentences.subList(beg, Math.min(sentences.size(), beg + sentencesPerChunk));
+            profiles.add(freeze(new HashCounterProfile(chunk.stream())));
+        }
+        return profiles;
+    }
+
+    static boolean test_nearlyEqual(double expect, double actual) {
+        return Math.abs(expect - actual) <= 1.0e-9 * Math.max(1.0, Math.abs(expect));
+    }
+
+    public static void unit_test()
+    {
+        String  testName = FrozenProfile.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        final String chapterPath = ProfileUtil.getTextFilePath("mobydickChapter1.txt");
+        List<String> sentences;
+        try {
+            sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+            return;
+        }
+        int numWrong = 0;
+        HashCounterProfile whole = new HashCounterProfile(sentences.stream());
+        HashCounterProfile half = new HashCounterProfile(sentences.subList(0, sentences.size() / 2).stream());
+        HashCounterProfile chapter = new HashCounterProfile(chapterPath);
+        StringCounterProfile stringChapter = new StringCounterProfile(chapterPath);
+        FrozenProfile frozenWhole = freeze(whole), frozenHalf = freeze(half), frozenChapter = freeze(chapter);
+
+        // Frozen distances must equal the boxed ones, from hashes or strings
+        numWrong += test_nearlyEqual(ProfileMetrics.counterProfileToProfileDistance(whole, half)
+                , ProfileMetrics.counterProfileToProfileDistance(frozenWhole, frozenHalf)) ? 0 : 1;
+        numWrong += test_nearlyEqual(ProfileMetrics.partialProfileDistance(half, chapter)
+                , ProfileMetrics.partialProfileDistance(frozenHalf, frozenChapter)) ? 0 : 1;
+        numWrong += test_nearlyEqual(ProfileMetrics.counterProfileToProfileDistance(chapter, whole)
+                , ProfileMetrics.counterProfileToProfileDistance(freeze(stringChapter), frozenWhole)) ? 0 : 1;
+        numWrong += test_nearlyEqual(ProfileMetrics.partialProfileDistance(chapter, half)
+                , ProfileMetrics.partialProfileDistance(frozenChapter, frozenHalf)) ? 0 : 1;
+        numWrong += ProfileMetrics.counterProfileToProfileDistance(frozenHalf, frozenHalf) == 0.0 ? 0 : 1;
+
+        int numTrials = 20;
+        long begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++)
+            ProfileMetrics.counterProfileToProfileDistance(whole, half);
+        double boxedMs = (System.nanoTime() - begTime) * 1.0e-6 / numTrials;
+        begTime = System.nanoTime();
+        for (int j = 0; j < numTrials; j++)
+            ProfileMetrics.counterProfileToProfileDistance(frozenWhole, frozenHalf);
+        double frozenMs = (System.nanoTime() - begTime) * 1.0e-6 / numTrials;
+        System.out.format("    whole to half distance:  boxed %.2f ms,  frozen %.2f ms\n", boxedMs, frozenMs);
+
+        // Batch: score the chapter against a few thousand stored profiles
+        List<FrozenProfile> stored = test_freezeChunks(sentences, 25);
+        begTime = System.nanoTime();
+        double sequential[] = new double[stored.size()];
+        for (int j = 0; j < sequential.length; j++)
+            sequential[j] = ProfileMetrics.partialProfileDistance(frozenChapter, stored.get(j));
+        double seqMs = (System.nanoTime() - begTime) * 1.0e-6;
+        begTime = System.nanoTime();
+        double batch[] = ProfileMetrics.partialProfileDistances(frozenChapter, stored);
+        double batchMs = (System.nanoTime() - begTime) * 1.0e-6;
+        numWrong += Arrays.equals(sequential, batch) ? 0 : 1;
+        int nearest = IntStream.range(0, batch.length).reduce((j, k) -> batch[j] <= batch[k] ? j : k).getAsInt();
+        System.out.format("    chapter vs %d stored profiles:  sequential %.1f ms,  parallel batch %.1f ms on %d cpus;  nearest %d\n"
+                , stored.size(), seqMs, batchMs, Runtime.getRuntime().availableProcessors(), nearest);
+
+        System.out.println(testName + " END, wrong " + numWrong);
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
@@ -1,17 +1,27 @@
 
 package sprax.wordcounts;
 
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Profile for a speaker or writer as collected from their sentences.
  * Represents word-tuples as hashes, which saves space but loses a little accuracy.
+ * Pair and triad hashes are 64-bit, so nearly all of that loss is in collisions 
+ * between the 32-bit hashes of single words.
  */
-public class HashCounterProfile extends CounterProfile<Integer> {
+public class HashCounterProfile extends CounterProfile<Long> {
 
-    private MapTupleCounter<Integer> hashWordCounts = new MapTupleCounter<>();
-    private MapTupleCounter<Integer> hashPairCounts = new MapTupleCounter<>();
-    private MapTupleCounter<Integer> hashTrebCounts = new MapTupleCounter<>();
+    /** Odd 64-bit multiplier (2^64 / golden ratio) for combining hashes */
+    static final long LONG_HASH_COMBO_FACTOR = 0x9E3779B97F4A7C15L;
+
+    private LongTupleCounter hashWordCounts = new LongTupleCounter();
+    private LongTupleCounter hashPairCounts = new LongTupleCounter();
+    private LongTupleCounter hashTrebCounts = new LongTupleCounter();
+    private final WordHashTokenizer.TupleHashConsumer wordAndPairCounter = this::countWordAndPair;
+    private final WordHashTokenizer.TupleHashConsumer tupleCounter = this::countTuples;
 
     /** Non-public default constructor to be used by a class factory */
     HashCounterProfile() {}
@@ -28,7 +38,7 @@ public class HashCounterProfile extends CounterProfile<Integer> {
 
     @Override
     public int getWordPresence(String word) {
-        int wordHash = word.hashCode();
+        long wordHash = word.hashCode();
         return hashWordCounts.getCount(wordHash);
     }
 
@@ -36,7 +46,7 @@ public class HashCounterProfile extends CounterProfile<Integer> {
     public int getPairPresence(String wordA, String wordB) {
         int hashA = wordA.hashCode();
         int hashB = wordB.hashCode();
-        int hashAB = combineHashes(hashA, hashB);
+        long hashAB = combineHashes(hashA, hashB);
         return hashPairCounts.getCount(hashAB);
     }
 
@@ -45,83 +55,148 @@ public class HashCounterProfile extends CounterProfile<Integer> {
         int hashA = wordA.hashCode();
         int hashB = wordB.hashCode();
         int hashC = wordC.hashCode();
-        int hashAB = combineHashes(hashA, hashB);
-        int hashABC = combineHashes(hashAB, hashC);
+        long hashAB = combineHashes(hashA, hashB);
+        long hashABC = combineHashes(hashAB, hashC);
         return hashTrebCounts.getCount(hashABC);
     }
 
     @Override
-    public MapTupleCounter<Integer> getWordCounts() {
+    public LongTupleCounter getWordCounts() {
         return hashWordCounts;
     }
 
     @Override
-    public MapTupleCounter<Integer> getPairCounts() {
+    public LongTupleCounter getPairCounts() {
         return hashPairCounts;
     }
 
     @Override
-    public MapTupleCounter<Integer> getTrebCounts() {
+    public LongTupleCounter getTrebCounts() {
         return hashTrebCounts;
     }
 
+    /** Counts each word and pair from hashes computed while scanning the sentence */
     @Override
     protected void templateAddWordsAndPairs(final String sentence) 
     {
-        String words[] = ProfileUtil.parseStringToWords(sentence);
-        String wordOld = null;
-        int hashOld = 0, hashNew = 0;
-        for (String wordNew : words) {
-            addWord(wordNew);
-            hashNew = wordNew.hashCode();
-            if (wordOld != null) {
-                addHashPair(hashPairCounts, hashOld, hashNew);
-            }
-            wordOld = wordNew;
-            hashOld = hashNew;
-        }
+        addNumWordsInput(WordHashTokenizer.forEachWordHash(sentence, wordAndPairCounter));
     }
 
+    /** Counts each word, pair, and triad from hashes computed while scanning the sentence */
     @Override
     protected void templateAddWordsPairsAndTriads(final String sentence) 
     {
-        String words[] = ProfileUtil.parseStringToWords(sentence);
-        String wordA = null, wordB = null;
-        int hashB = 0, hashAB = 0;
-        for (String wordC : words) {
-            addWord(wordC);
-            int hashC = wordC.hashCode();
-            if (wordA != null) {
-                addHashPair(hashTrebCounts, hashAB, hashC);
-                hashAB = addHashPair(hashPairCounts, hashB, hashC);
-            } else if (wordB != null) {
-                hashAB = addHashPair(hashPairCounts, hashB, hashC);
-            }
-            wordA = wordB;
-            wordB = wordC;
-            hashB = hashC;
-        }
+        addNumWordsInput(WordHashTokenizer.forEachWordHash(sentence, tupleCounter));
     }
 
+    private void countWordAndPair(int wordIndex, int wordHash, long pairHash, long trebHash) {
+        hashWordCounts.addCount(wordHash);
+        if (wordIndex > 0)
+            hashPairCounts.addCount(pairHash);
+    }
+
+    private void countTuples(int wordIndex, int wordHash, long pairHash, long trebHash) {
+        hashWordCounts.addCount(wordHash);
+        if (wordIndex > 0) {
+            hashPairCounts.addCount(pairHash);
+            if (wordIndex > 1)
+                hashTrebCounts.addCount(trebHash);
+        }
+    }
 
     @Override
     protected void templateAddWord(final String word) {
         hashWordCounts.addCount(word.hashCode());
     }
 
-    static int addHashPair(MapTupleCounter<Integer> hashCounts, int firstHash, int secondHash) {
-        int combinedHash = combineHashes(firstHash, secondHash);
-        hashCounts.addCount(combinedHash);
-        return combinedHash;
+    /**
+     * Combines the hash of a word or tuple with the hash of the next word.
+     * With a 64-bit odd multiplier, two pairs of distinct 32-bit word hashes 
+     * collide only if (hashA1 - hashA2) * factor == hashB2 - hashB1 (mod 2^64),
+     * which is vanishingly rare.
+     * @param hashA  hash of the first word, or the combined hash of the first words
+     * @param hashB  hash of the next word
+     * @return 64-bit combined hash
+     */
+    static long combineHashes(long hashA, int hashB) {
+        return hashA * LONG_HASH_COMBO_FACTOR + hashB;
+    }
+
+    //////// Unit testing ////////
+
+    static long usedHeapBytes() {
+        Runtime rt = Runtime.getRuntime();
+        for (int j = 0; j < 3; j++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /** The counting done before LongTupleCounter: boxed 32-bit hashes in HashMaps */
+    static MapTupleCounter<?>[] test_mapCounterBuild(List<String> sentences) {
+        MapTupleCounter<Integer> words = new MapTupleCounter<>();
+        MapTupleCounter<Integer> pairs = new MapTupleCounter<>();
+        MapTupleCounter<Integer> trebs = new MapTupleCounter<>();
+        for (String sentence : sentences) {
+            int hashA = 0, hashB = 0, numWords = 0;
+            for (String word : ProfileUtil.parseStringToWords(sentence)) {
+                int hashC = word.hashCode();
+                words.addCount(hashC);
+                if (numWords > 1)
+                    trebs.addCount((hashA * HASH_COMBO_FACTOR + hashB) * HASH_COMBO_FACTOR + hashC);
+                if (numWords > 0)
+                    pairs.addCount(hashB * HASH_COMBO_FACTOR + hashC);
+                hashA = hashB;
+                hashB = hashC;
+                numWords++;
+            }
+        }
+        return new MapTupleCounter<?>[] { words, pairs, trebs };
     }
 
     /**
-     * @param hashA
-     * @param hashB
-     * @return
+     * Compares build time and heap use of HashCounterProfile with the same 
+     * counting done by MapTupleCounters of boxed Integer hashes, and checks 
+     * that the 64-bit keys have no more collisions than the 32-bit ones.
      */
-    static int combineHashes(int hashA, int hashB) {
-        return hashA * HASH_COMBO_FACTOR + hashB;
+    public static void test_compareWithMapCounters(final String textFilePath, int numTrials) {
+        List<String> sentences;
+        try {
+            sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+            return;
+        }
+        MapTupleCounter<?> mapCounts[] = null;
+        HashCounterProfile profile = null;
+        long mapNanos = Long.MAX_VALUE, longNanos = Long.MAX_VALUE;
+        for (int trial = 0; trial < numTrials; trial++) {
+            mapCounts = null;
+            long begTime = System.nanoTime();
+            mapCounts = test_mapCounterBuild(sentences);
+            mapNanos = Math.min(mapNanos, System.nanoTime() - begTime);
+
+            profile = null;
+            begTime = System.nanoTime();
+            profile = new HashCounterProfile(sentences.stream());
+            longNanos = Math.min(longNanos, System.nanoTime() - begTime);
+        }
+        profile = null;
+        mapCounts = null;
+        long heapBeg = usedHeapBytes();
+        mapCounts = test_mapCounterBuild(sentences);
+        long heapMap = usedHeapBytes();
+        profile = new HashCounterProfile(sentences.stream());
+        long heapLong = usedHeapBytes();
+
+        System.out.format("    MapTupleCounter<Integer>:  %7.1f ms,  %6.1f MB,  keys %d, %d, %d\n"
+                , mapNanos * 1.0e-6, (heapMap - heapBeg) * 1.0e-6
+                , mapCounts[0].getSize(), mapCounts[1].getSize(), mapCounts[2].getSize());
+        System.out.format("    LongTupleCounter:          %7.1f ms,  %6.1f MB,  keys %d, %d, %d\n"
+                , longNanos * 1.0e-6, (heapLong - heapMap) * 1.0e-6
+                , profile.getNumWordsCounted(), profile.getNumPairsCounted(), profile.getNumTrebsCounted());
+        if (profile.getNumPairsCounted() < mapCounts[1].getSize() || profile.getNumTrebsCounted() < mapCounts[2].getSize())
+            System.out.println("    ERROR: more collisions among 64-bit keys than among 32-bit keys");
     }
 
     public static void unit_test() 
@@ -134,6 +209,8 @@ public class HashCounterProfile extends CounterProfile<Integer> {
         HashCounterProfile sp = new HashCounterProfile(textFilePath);
         sp.showCounts(sp.getClass().getSimpleName());
 
+        test_compareWithMapCounters(textFilePath, 5);
+
         System.out.println(testName + " END");
     }
 
@@ -0,0 +1,395 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.Timespan;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import sprax.test.Sz;
+
+/**
+ * Opt-in counters of where the time goes when profiling a corpus, stage by stage:
+ *     LOAD:   reading and decoding the corpus file;
+ *     SPLIT:  breaking the text into sentences (SentenceStream);
+ *     COUNT:  tokenizing each sentence and updating the profile's counters, which
+ *             are one fused pass for the hashing profiles (see WordHashTokenizer).
+ * For each stage it keeps the nanoseconds spent, the items (files or sentences)
+ * processed, the chars read, and an estimate of the bytes allocated, taken from
+ * the HotSpot ThreadMXBean's per-thread allocation counter where that is supported.
+ * The counters are LongAdders, so one metrics object can be shared by profiles
+ * filled on several threads, as by CounterProfile.toProfile.
+ *
+ * Each reading of the clock or the allocation counter costs about 50 ns, which
+ * is not small next to the few microseconds it takes to count a sentence, so only
+ * one sentence in SAMPLE_INTERVAL is timed, in both SPLIT and COUNT.  The time of
+ * a stage is estimated as its sampled time scaled by all chars / sampled chars.
+ * Items and chars are counted exactly.  So is the allocation in COUNT, which comes
+ * mostly in rare large lumps as the counter tables grow, and so cannot be sampled;
+ * the allocation in SPLIT is steady, and is sampled along with its time.
+ *
+ * Attach with WordTupleProfile.setMetrics; a profile without metrics pays only a
+ * null check per sentence.  Read the counters with snapshot().  Each batch of
+ * sentences added also commits one JFR StageEvent per stage, which costs nothing
+ * unless a flight recording has that event enabled.
+ */
+public final class IngestionMetrics {
+
+    public enum Stage { LOAD, SPLIT, COUNT }
+
+    static final int NUM_STAGES = Stage.values().length;
+
+    /** One sentence in this many is timed; the others are only counted */
+    public static final int SAMPLE_INTERVAL = 16;
+
+    private final LongAdder nanos[] = newAdders();
+    private final LongAdder timedChars[] = newAdders();     // chars in the intervals of nanos
+    private final LongAdder allocated[] = newAdders();
+    private final LongAdder allocChars[] = newAdders();     // chars in the intervals of allocated
+    private final LongAdder items[] = newAdders();
+    private final LongAdder chars[] = newAdders();
+
+    private static LongAdder[] newAdders() {
+        LongAdder adders[] = new LongAdder[NUM_STAGES];
+        for (int j = 0; j < NUM_STAGES; j++)
+            adders[j] = new LongAdder();
+        return adders;
+    }
+
+    public static boolean isAllocationSupported() {
+        return Sz.isThreadAllocationSupported();
+    }
+
+    /** @return bytes allocated so far by the current thread, or 0 if that is not available */
+    static long threadAllocatedBytes() {
+        return Sz.threadAllocatedBytes();
+    }
+
+    /** @return true if the index-th item (counting from 1) of a stage should be timed */
+    static boolean isSampled(long index) {
+        return index % SAMPLE_INTERVAL == 0;
+    }
+
+    /** Adds one timed interval to a stage, ending now; begNanos and begAllocated are from when it began */
+    void record(Stage stage, long begNanos, long begAllocated, long numItems, long numChars) {
+        int j = stage.ordinal();
+        nanos[j].add(System.nanoTime() - begNanos);
+        timedChars[j].add(numChars);
+        recordAllocation(stage, begAllocated, numItems, numChars);
+    }
+
+    /** Adds the allocation, but not the time, of an interval ending now; begAllocated is from when it began */
+    void recordAllocation(Stage stage, long begAllocated, long numItems, long numChars) {
+        int j = stage.ordinal();
+        allocated[j].add(threadAllocatedBytes() - begAllocated);
+        allocChars[j].add(numChars);
+        count(stage, numItems, numChars);
+    }
+
+    /** Counts the items and chars of an interval that was not measured */
+    void count(Stage stage, long numItems, long numChars) {
+        int j = stage.ordinal();
+        items[j].add(numItems);
+        chars[j].add(numChars);
+    }
+
+    public void reset() {
+        for (int j = 0; j < NUM_STAGES; j++) {
+            nanos[j].reset();
+            timedChars[j].reset();
+            allocated[j].reset();
+            allocChars[j].reset();
+            items[j].reset();
+            chars[j].reset();
+        }
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /** Counters of all stages as of one moment (exact when no profile is being filled) */
+    public static final class Snapshot {
+        private final long nanos[] = new long[NUM_STAGES];
+        private final long timedChars[] = new long[NUM_STAGES];
+        private final long allocated[] = new long[NUM_STAGES];
+        private final long allocChars[] = new long[NUM_STAGES];
+        private final long items[] = new long[NUM_STAGES];
+        private final long chars[] = new long[NUM_STAGES];
+
+        private Snapshot(IngestionMetrics metrics) {
+            for (int j = 0; j < NUM_STAGES; j++) {
+                nanos[j] = metrics.nanos[j].sum();
+                timedChars[j] = metrics.timedChars[j].sum();
+                allocated[j] = metrics.allocated[j].sum();
+                allocChars[j] = metrics.allocChars[j].sum();
+                items[j] = metrics.items[j].sum();
+                chars[j] = metrics.chars[j].sum();
+            }
+        }
+
+        /** Scales a total over the measured intervals of a stage up to all its chars */
+        private long estimate(long measured, long measuredChars, long allChars) {
+            if (measuredChars == 0 || measuredChars == allChars)
+                return measured;
+            return Math.round(measured * ((double) allChars / measuredChars));
+        }
+
+        /** Estimated time spent in the stage, from the timed intervals */
+        public long getNanos(Stage stage) {
+            int j = stage.ordinal();
+            return estimate(nanos[j], timedChars[j], chars[j]);
+        }
+
+        /** Estimated bytes allocated in the stage, from the intervals whose allocation was measured */
+        public long getAllocatedBytes(Stage stage) {
+            int j = stage.ordinal();
+            return estimate(allocated[j], allocChars[j], chars[j]);
+        }
+
+        public long getItems(Stage stage)           { return items[stage.ordinal()]; }
+        public long getChars(Stage stage)           { return chars[stage.ordinal()]; }
+        public long getTimedChars(Stage stage)      { return timedChars[stage.ordinal()]; }
+
+        /** Throughput in millions of chars per second of time spent in the stage */
+        public double getMegaCharsPerSecond(Stage stage) {
+            long stageNanos = getNanos(stage);
+            return stageNanos > 0 ? getChars(stage) * 1.0e3 / stageNanos : 0.0;
+        }
+
+        /** @return the counters accrued since the earlier snapshot */
+        public Snapshot minus(final Snapshot earlier) {
+            Snapshot diff = new Snapshot(this);
+            for (int j = 0; j < NUM_STAGES; j++) {
+                diff.nanos[j] -= earlier.nanos[j];
+                diff.timedChars[j] -= earlier.timedChars[j];
+                diff.allocated[j] -= earlier.allocated[j];
+                diff.allocChars[j] -= earlier.allocChars[j];
+                diff.items[j] -= earlier.items[j];
+                diff.chars[j] -= earlier.chars[j];
+            }
+            return diff;
+        }
+
+        private Snapshot(final Snapshot other) {
+            for (int j = 0; j < NUM_STAGES; j++) {
+                nanos[j] = other.nanos[j];
+                timedChars[j] = other.timedChars[j];
+                allocated[j] = other.allocated[j];
+                allocChars[j] = other.allocChars[j];
+                items[j] = other.items[j];
+                chars[j] = other.chars[j];
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Stage stage : Stage.values()) {
+                sb.append(String.format("    %-5s  %9.1f ms  %8d items  %10d chars  %7.1f MB/s  %9.1f MB allocated\n"
+                        , stage, getNanos(stage) * 1.0e-6, getItems(stage), getChars(stage)
+                        , getMegaCharsPerSecond(stage), getAllocatedBytes(stage) * 1.0e-6));
+            }
+            return sb.toString();
+        }
+    }
+
+    /** JFR event for the work done in one stage while adding one batch of sentences or one corpus */
+    @Name("sprax.wordcounts.IngestionStage")
+    @Label("Profile Ingestion Stage")
+    @Category("Word Counts")
+    static final class StageEvent extends jdk.jfr.Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Profile Class")
+        String profileClass;
+
+        @Label("Stage Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long stageNanos;
+
+        @Label("Items")
+        long items;
+
+        @Label("Chars")
+        long chars;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocatedBytes;
+    }
+
+    /** Commits one StageEvent per stage with the counters accrued since the batch began, if JFR wants them */
+    void commitEvents(final String profileClass, final Snapshot begSnapshot) {
+        StageEvent probe = new StageEvent();
+        if ( ! probe.isEnabled())
+            return;
+        Snapshot batch = snapshot().minus(begSnapshot);
+        for (Stage stage : Stage.values()) {
+            if (batch.getItems(stage) == 0)
+                continue;
+            StageEvent event = new StageEvent();
+            event.stage = stage.name();
+            event.profileClass = profileClass;
+            event.stageNanos = batch.getNanos(stage);
+            event.items = batch.getItems(stage);
+            event.chars = batch.getChars(stage);
+            event.allocatedBytes = batch.getAllocatedBytes(stage);
+            event.commit();
+        }
+    }
+
+    /**
+     * Wraps a stream of sentences so that the time and allocation spent producing
+     * each sampled sentence, but not consuming it, is recorded in the SPLIT stage.
+     */
+    Stream<String> timeSplitting(Stream<String> sentences) {
+        return StreamSupport.stream(new SplitTimer(sentences.spliterator()), sentences.isParallel())
+                .onClose(sentences::close);
+    }
+
+    /** Times the source's tryAdvance up to the moment it hands over a sentence */
+    private final class SplitTimer implements Spliterator<String>, Consumer<String> {
+        private final Spliterator<String> source;
+        private Consumer<? super String> action;
+        private long numAdvanced;
+        private boolean sampling;
+        private long begNanos, begAllocated;
+
+        SplitTimer(Spliterator<String> source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super String> action) {
+            this.action = action;
+            sampling = isSampled(++numAdvanced);
+            if (sampling) {
+                begAllocated = threadAllocatedBytes();
+                begNanos = System.nanoTime();
+            }
+            return source.tryAdvance(this);
+        }
+
+        @Override
+        public void accept(String sentence) {
+            if (sampling)
+                record(Stage.SPLIT, begNanos, begAllocated, 1, sentence.length());
+            else
+                count(Stage.SPLIT, 1, sentence.length());
+            action.accept(sentence);
+        }
+
+        @Override
+        public Spliterator<String> trySplit() {
+            long begAlloc = threadAllocatedBytes(), begTime = System.nanoTime();
+            Spliterator<String> prefix = source.trySplit();
+            record(Stage.SPLIT, begTime, begAlloc, 0, 0);
+            return prefix == null ? null : new SplitTimer(prefix);
+        }
+
+        @Override
+        public long estimateSize()      { return source.estimateSize(); }
+
+        @Override
+        public int characteristics()    { return source.characteristics(); }
+    }
+
+
+    //////// Unit testing ////////
+
+    /** Builds a profile of the corpus with metrics, under a JFR recording, and shows both */
+    public static void unit_test()
+    {
+        String  testName = IngestionMetrics.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        int numWrong = 0;
+
+        // Overhead: the same sentences with and without metrics, best of several trials
+        List<String> sentences;
+        try {
+            sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+            return;
+        }
+        IngestionMetrics metrics = new IngestionMetrics();
+        long plainNanos = Long.MAX_VALUE, meteredNanos = Long.MAX_VALUE;
+        for (int trial = 0; trial < 5; trial++) {
+            long begTime = System.nanoTime();
+            new HashCounterProfile(sentences.stream());
+            plainNanos = Math.min(plainNanos, System.nanoTime() - begTime);
+            HashCounterProfile metered = new HashCounterProfile();
+            metered.setMetrics(metrics);
+            begTime = System.nanoTime();
+            metered.addSentences(sentences.stream());
+            meteredNanos = Math.min(meteredNanos, System.nanoTime() - begTime);
+        }
+        System.out.format("    HashCounterProfile from %d sentences:  %.1f ms without metrics,  %.1f ms with (%+.1f%%)\n"
+                , sentences.size(), plainNanos * 1.0e-6, meteredNanos * 1.0e-6
+                , (meteredNanos - plainNanos) * 100.0 / plainNanos);
+        numWrong += metrics.snapshot().getItems(Stage.COUNT) == 5L * sentences.size() ? 0 : 1;
+
+        // Whole pipeline from the file, recorded by JFR
+        metrics.reset();
+        Path jfrFile = null;
+        try (Recording recording = new Recording()) {
+            recording.enable(StageEvent.class);
+            recording.start();
+            HashCounterProfile profile = new HashCounterProfile();
+            profile.setMetrics(metrics);
+            profile.addCorpus(textFilePath);
+            recording.stop();
+            Snapshot snapshot = metrics.snapshot();
+            System.out.format("    %s stages (allocation %s):\n%s", textFilePath
+                    , isAllocationSupported() ? "from ThreadMXBean" : "not available", snapshot);
+            numWrong += snapshot.getItems(Stage.SPLIT) == profile.getNumSentencesInput() ? 0 : 1;
+            numWrong += snapshot.getItems(Stage.COUNT) == profile.getNumSentencesInput() ? 0 : 1;
+            numWrong += snapshot.getItems(Stage.LOAD) == 1 ? 0 : 1;
+
+            jfrFile = Files.createTempFile("IngestionMetrics", ".jfr");
+            recording.dump(jfrFile);
+            int numEvents = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(jfrFile)) {
+                if (event.getEventType().getName().equals("sprax.wordcounts.IngestionStage")) {
+                    System.out.format("    JFR event: %s %d items in %.1f ms\n", event.getString("stage")
+                            , event.getLong("items"), event.getLong("stageNanos") * 1.0e-6);
+                    numEvents++;
+                }
+            }
+            numWrong += numEvents == NUM_STAGES ? 0 : 1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            numWrong++;
+        } finally {
+            try {
+                if (jfrFile != null)
+                    Files.deleteIfExists(jfrFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(testName + " END, wrong " + numWrong);
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
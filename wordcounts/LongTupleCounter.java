@@ -0,0 +1,213 @@
+package sprax.wordcounts;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Accumulates 64-bit keys and their integral counts in an open-addressing
+ * hash table of primitive longs and ints, with linear probing.  Adding a key
+ * takes one probe sequence and allocates nothing unless the table grows,
+ * unlike MapTupleCounter, which boxes both the key and the count.
+ * The key 0 marks empty slots, so its count is kept in a separate field.
+ */
+public class LongTupleCounter implements TupleCounter<Long>
+{
+    private static final int  MIN_CAPACITY = 16;
+    private static final long EMPTY_KEY    = 0L;
+
+    private long keys[];
+    private int  counts[];
+    private int  mask;          // capacity - 1, where capacity is a power of 2
+    private int  maxSize;       // grow the table when size exceeds this (3/4 of capacity)
+    private int  size;          // number of keys, including 0 if it has been added
+    private int  zeroKeyCount;
+
+    public LongTupleCounter()   { this(MIN_CAPACITY); }
+
+    /** @param expectedSize number of unique keys to allocate room for before any growth */
+    public LongTupleCounter(int expectedSize)
+    {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity)
+    {
+        keys    = new long[capacity];
+        counts  = new int[capacity];
+        mask    = capacity - 1;
+        maxSize = capacity / 4 * 3;
+    }
+
+    /** Mixes all the key's bits, so that keys differing only in high bits spread over the table */
+    protected static int slot(long key, int mask)
+    {
+        return (int) CountMinSketch.mix64(key) & mask;
+    }
+
+    @Override
+    public int getSize()                { return size; }
+
+    /** Number of slots in the table, for estimating storage */
+    public int getCapacity()            { return keys.length; }
+
+    public int getCount(long key)
+    {
+        if (key == EMPTY_KEY)
+            return zeroKeyCount;
+        for (int idx = slot(key, mask); ; idx = (idx + 1) & mask) {
+            long slotKey = keys[idx];
+            if (slotKey == key)
+                return counts[idx];
+            if (slotKey == EMPTY_KEY)
+                return 0;
+        }
+    }
+
+    /**
+     * Add 1 to the count for the given key
+     * @return True if the key was not previously added; otherwise, false.
+     */
+    public boolean addCount(long key)
+    {
+        return addCount(key, 1);
+    }
+
+    /** Add count to the count for key, returning true IFF key is new */
+    public boolean addCount(long key, int count)
+    {
+        if (key == EMPTY_KEY) {
+            boolean isNew = zeroKeyCount == 0;
+            zeroKeyCount += count;
+            if (isNew)
+                size++;
+            return isNew;
+        }
+        int idx = slot(key, mask);
+        for (long slotKey; (slotKey = keys[idx]) != EMPTY_KEY; idx = (idx + 1) & mask) {
+            if (slotKey == key) {
+                counts[idx] += count;
+                return false;
+            }
+        }
+        keys[idx]   = key;
+        counts[idx] = count;
+        if (++size > maxSize)
+            grow();
+        return true;
+    }
+
+    private void grow()
+    {
+        long oldKeys[]   = keys;
+        int  oldCounts[] = counts;
+        allocate(keys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != EMPTY_KEY) {
+                int idx = slot(key, mask);
+                while (keys[idx] != EMPTY_KEY)
+                    idx = (idx + 1) & mask;
+                keys[idx]   = key;
+                counts[idx] = oldCounts[j];
+            }
+        }
+    }
+
+    @Override
+    public int getCount(Long key)       { return getCount(key.longValue()); }
+
+    @Override
+    public boolean addCount(Long key)   { return addCount(key.longValue(), 1); }
+
+    @Override
+    public boolean addCount(Long key, int count) { return addCount(key.longValue(), count); }
+
+    /** Adds other's counts to this counter's, without boxing if other is also a LongTupleCounter */
+    @Override
+    public void addCounts(TupleCounter<Long> other)
+    {
+        if ( ! (other instanceof LongTupleCounter)) {
+            TupleCounter.super.addCounts(other);
+            return;
+        }
+        LongTupleCounter longCounts = (LongTupleCounter) other;
+        if (longCounts.zeroKeyCount > 0)
+            addCount(EMPTY_KEY, longCounts.zeroKeyCount);
+        for (int j = 0; j < longCounts.keys.length; j++)
+            if (longCounts.keys[j] != EMPTY_KEY)
+                addCount(longCounts.keys[j], longCounts.counts[j]);
+    }
+
+    /** @return a new array of all the keys, in table order */
+    public long[] getKeyArray()
+    {
+        long keyArray[] = new long[size];
+        int num = 0;
+        if (zeroKeyCount > 0)
+            keyArray[num++] = EMPTY_KEY;
+        for (long key : keys)
+            if (key != EMPTY_KEY)
+                keyArray[num++] = key;
+        return keyArray;
+    }
+
+    /** @return a read-only view of the keys, boxed one at a time as they are iterated */
+    @Override
+    public Set<Long> getKeys()
+    {
+        return new AbstractSet<Long>() {
+            @Override
+            public int size()                   { return size; }
+
+            @Override
+            public boolean contains(Object obj) { return obj instanceof Long && getCount((Long) obj) > 0; }
+
+            @Override
+            public Iterator<Long> iterator()    { return new KeyIterator(); }
+        };
+    }
+
+    private class KeyIterator implements Iterator<Long>
+    {
+        private int  nextIdx = -1;      // -1 means the zero key, if counted
+        private long nextKey;
+        private boolean hasNextKey;
+
+        KeyIterator()   { advance(); }
+
+        private void advance()
+        {
+            if (nextIdx < 0) {
+                nextIdx = 0;
+                if (zeroKeyCount > 0) {
+                    nextKey = EMPTY_KEY;
+                    hasNextKey = true;
+                    return;
+                }
+            }
+            while (nextIdx < keys.length && keys[nextIdx] == EMPTY_KEY)
+                nextIdx++;
+            hasNextKey = nextIdx < keys.length;
+            if (hasNextKey)
+                nextKey = keys[nextIdx++];
+        }
+
+        @Override
+        public boolean hasNext()    { return hasNextKey; }
+
+        @Override
+        public Long next()
+        {
+            if ( ! hasNextKey)
+                throw new NoSuchElementException();
+            long key = nextKey;
+            advance();
+            return key;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.BreakIterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splittable spliterator of the sentences in a memory-mapped text file, so that
+ * a parallel stream of sentences really is split among threads.  Unlike
+ * SentenceStream, whose size is unknown and which can only be consumed in
+ * order, this owns a range of byte offsets in the file and splits it in half
+ * at the first sentence boundary after the middle.  Candidate boundaries are
+ * found by scanning bytes for a sentence terminator followed by white space,
+ * and each is confirmed by running the same English sentence BreakIterator
+ * over a few hundred chars around it, so the sentences are the same as from
+ * one BreakIterator over the whole text.
+ *
+ * Bytes are decoded lazily, one block of about BLOCK_BYTES at a time, each
+ * block also ending on a confirmed boundary, so only the blocks being read
+ * are ever held as chars.  The file must be UTF-8 (the default) or in a
+ * single-byte charset such as ISO-8859-1, so that a split at any byte can be
+ * moved to the start of a char, and under 2 GB, so that it fits in one mapping.
+ *
+ * The number of sentences is not known until they have all been found, so the
+ * spliterator is not SIZED: a SIZED estimate would be trusted as exact by
+ * Stream.toArray and others.  estimateSize instead gives the bytes remaining
+ * over the mean bytes per sentence seen so far, which is all the splitting
+ * heuristics of parallel streams use.
+ */
+public class MappedSentenceSpliterator implements Spliterator<String> {
+
+    static final int BLOCK_BYTES = 1 << 20;
+    static final int MIN_SPLIT_BYTES = 1 << 16;
+    static final int CONTEXT_BYTES = 256;           // bytes on each side of a boundary to confirm it
+    static final int INITIAL_BYTES_PER_SENTENCE = 128;
+
+    private final MappedByteBuffer mapped;
+    private final Charset charset;
+    private final int blockBytes;
+    private int pos;                // start of the bytes not yet decoded
+    private final int end;          // end of this spliterator's bytes: always a boundary or end of file
+    private String block;           // decoded block being iterated, or null
+    private BreakIterator iterator;
+    private int blockStart;         // char offset in block of the next sentence
+    private long bytesSeen, sentencesSeen;
+
+    private MappedSentenceSpliterator(MappedByteBuffer mapped, Charset charset, int blockBytes, int beg, int end) {
+        this.mapped = mapped;
+        this.charset = charset;
+        this.blockBytes = blockBytes;
+        this.pos = beg;
+        this.end = end;
+    }
+
+    /** Maps the whole file; the mapping stays valid after the channel is closed */
+    public static MappedSentenceSpliterator ofFile(Path file, Charset charset, int blockBytes) throws IOException {
+        if ( ! charset.equals(StandardCharsets.UTF_8) && charset.newEncoder().maxBytesPerChar() > 1)
+            throw new IllegalArgumentException("MappedSentenceSpliterator needs UTF-8 or a single-byte charset, not " + charset);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File too large to map at once: " + file + " (" + size + " bytes)");
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedSentenceSpliterator(mapped, charset, Math.max(blockBytes, CONTEXT_BYTES), 0, (int) size);
+        }
+    }
+
+    /** Stream of the sentences in the file, decoded as UTF-8, which may be made parallel */
+    public static Stream<String> sentences(Path file, boolean parallel) throws IOException {
+        return StreamSupport.stream(ofFile(file, StandardCharsets.UTF_8, BLOCK_BYTES), parallel);
+    }
+
+    private boolean isCharStart(int offset) {
+        return offset <= 0 || offset >= mapped.limit() || ! charset.equals(StandardCharsets.UTF_8)
+                || (mapped.get(offset) & 0xC0) != 0x80;   // not a UTF-8 continuation byte
+    }
+
+    private int toCharStart(int offset, int limit) {
+        while (offset < limit && ! isCharStart(offset))
+            offset++;
+        return offset;
+    }
+
+    private String decode(int beg, int lim) {
+        ByteBuffer bytes = mapped.duplicate();
+        bytes.position(beg).limit(lim);
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+        try {
+            return decoder.decode(bytes).toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(e);     // cannot happen when replacing bad input
+        }
+    }
+
+    private static boolean isSpaceByte(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    /**
+     * @return the first sentence boundary at or after from and before limit,
+     *         or limit if there is none: the start of a sentence following a
+     *         terminator, any closing quotes or brackets, and white space
+     */
+    int findBoundary(int from, int limit) {
+        for (int j = from; j < limit; j++) {
+            byte b = mapped.get(j);
+            if (b != '.' && b != '?' && b != '!')
+                continue;
+            int k = j + 1;
+            while (k < limit && ((b = mapped.get(k)) == '"' || b == '\'' || b == ')' || b == ']'))
+                k++;
+            int spaceBeg = k;
+            while (k < limit && isSpaceByte(mapped.get(k)))
+                k++;
+            if (k == spaceBeg || k >= limit)
+                continue;
+            if (isConfirmedBoundary(k))
+                return k;
+            j = k - 1;
+        }
+        return limit;
+    }
+
+    /** Does a BreakIterator over the text around offset, which follows an ASCII space, break there? */
+    private boolean isConfirmedBoundary(int offset) {
+        int contextBeg = toCharStart(Math.max(0, offset - CONTEXT_BYTES), offset);
+        int contextEnd = toCharStart(Math.min(mapped.limit(), offset + CONTEXT_BYTES), mapped.limit());
+        String before = decode(contextBeg, offset);
+        BreakIterator checker = BreakIterator.getSentenceInstance(Locale.ENGLISH);
+        checker.setText(before + decode(offset, contextEnd));
+        return checker.isBoundary(before.length());
+    }
+
+    /** Decodes the next block of sentences; returns false if there are no more bytes */
+    private boolean nextBlock() {
+        if (pos >= end)
+            return false;
+        int blockEnd = end - pos <= blockBytes ? end : findBoundary(pos + blockBytes, end);
+        block = decode(pos, blockEnd);
+        bytesSeen += blockEnd - pos;
+        pos = blockEnd;
+        if (iterator == null)
+            iterator = BreakIterator.getSentenceInstance(Locale.ENGLISH);
+        iterator.setText(block);
+        blockStart = iterator.first();
+        return true;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        for (;;) {
+            if (block != null) {
+                int next = iterator.next();
+                if (next != BreakIterator.DONE) {
+                    String sentence = block.substring(blockStart, next);
+                    blockStart = next;
+                    sentencesSeen++;
+                    action.accept(sentence);
+                    return true;
+                }
+                block = null;
+            }
+            if ( ! nextBlock())
+                return false;
+        }
+    }
+
+    /** Splits off the first half of the bytes not yet decoded, unless a block is being read */
+    @Override
+    public Spliterator<String> trySplit() {
+        if (block != null || end - pos < 2 * MIN_SPLIT_BYTES)
+            return null;
+        int mid = toCharStart(pos + (end - pos) / 2, end);
+        int boundary = findBoundary(mid, end);
+        if (boundary >= end)
+            return null;
+        MappedSentenceSpliterator prefix = new MappedSentenceSpliterator(mapped, charset, blockBytes, pos, boundary);
+        pos = boundary;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        long bytesPerSentence = sentencesSeen > 0 ? Math.max(1, bytesSeen / sentencesSeen) : INITIAL_BYTES_PER_SENTENCE;
+        return (end - pos) / bytesPerSentence + (block != null ? 1 : 0);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+
+    //////// Unit testing ////////
+
+    public static void unit_test()
+    {
+        String  testName = MappedSentenceSpliterator.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        final Path path = Paths.get(textFilePath);
+        int numWrong = 0;
+        try {
+            // Same sentences as SentenceStream, which decodes as ISO-8859-1, whatever the block size
+            long begTime = System.nanoTime();
+            List<String> expect = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+            double streamMs = (System.nanoTime() - begTime) * 1.0e-6;
+            for (int blockBytes : new int[] { BLOCK_BYTES, 4096 }) {
+                List<String> mappedSentences = StreamSupport.stream(
+                        ofFile(path, StandardCharsets.ISO_8859_1, blockBytes), false).collect(Collectors.toList());
+                numWrong += expect.equals(mappedSentences) ? 0 : 1;
+            }
+
+            // Parallel with many splits must give the same sentences in the same order
+            begTime = System.nanoTime();
+            List<String> sequential = sentences(path, false).collect(Collectors.toList());
+            double mappedMs = (System.nanoTime() - begTime) * 1.0e-6;
+            begTime = System.nanoTime();
+            List<String> parallel = sentences(path, true).collect(Collectors.toList());
+            double parallelMs = (System.nanoTime() - begTime) * 1.0e-6;
+            numWrong += sequential.equals(parallel) ? 0 : 1;
+
+            // Count the ranges a parallel stream would get, by splitting all the way down
+            int numRanges = test_countRanges(ofFile(path, StandardCharsets.UTF_8, BLOCK_BYTES));
+            System.out.format("    %d sentences:  SentenceStream %.1f ms,  mapped %.1f ms,  mapped parallel %.1f ms"
+                    + " on %d cpus;  splits into %d ranges\n", sequential.size(), streamMs, mappedMs, parallelMs
+                    , Runtime.getRuntime().availableProcessors(), numRanges);
+
+            // Parallel profile from the mapped file equals the sequential one
+            HashCounterProfile seqProfile = new HashCounterProfile(SentenceStream.sentencesFromFile(textFilePath));
+            HashCounterProfile parProfile = StreamSupport.stream(ofFile(path, StandardCharsets.ISO_8859_1, BLOCK_BYTES), true)
+                    .collect(CounterProfile.toProfile(HashCounterProfile::new));
+            numWrong += CounterProfile.test_countsDiffer(seqProfile.getTrebCounts(), parProfile.getTrebCounts());
+            numWrong += seqProfile.getNumWordsInput() == parProfile.getNumWordsInput() ? 0 : 1;
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+            numWrong++;
+        }
+        System.out.println(testName + " END, wrong " + numWrong);
+    }
+
+    static int test_countRanges(Spliterator<String> spliterator) {
+        Spliterator<String> prefix = spliterator.trySplit();
+        return prefix == null ? 1 : test_countRanges(prefix) + test_countRanges(spliterator);
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
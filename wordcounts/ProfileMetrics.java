@@ -2,6 +2,9 @@
 package sprax.wordcounts;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 
@@ -30,7 +33,7 @@ public class ProfileMetrics
     /** distance from a "new" sentence stream to an existing profile, specialized for a hash counter */
     public static double sentencesToProfileDistance(Stream<String> sentences, HashCounterProfile profile)
     {
-        CounterProfile<Integer> tempProfile = new HashCounterProfile(sentences);
+        CounterProfile<Long> tempProfile = new HashCounterProfile(sentences);
         return partialProfileDistance(tempProfile, profile);
     }
 
@@ -41,6 +44,17 @@ public class ProfileMetrics
         return partialProfileDistance(tempProfile, profile);
     }
 
+    /** 
+     * Lazily maps each sentence of a possibly unbounded stream to the distance of the last
+     * windowSize sentences from the profile, without building a temporary profile.
+     * @see StreamingProfileScorer
+     */
+    public static DoubleStream windowedDistances(Stream<String> sentences, WordTupleProfile profile, int windowSize)
+    {
+        StreamingProfileScorer scorer = new StreamingProfileScorer(profile, windowSize, 1.0);
+        return sentences.sequential().mapToDouble(scorer::score);
+    }
+
     /** distance from a "new" sentence stream to an existing profile, specialized for a string counter */
     public static <K> double partialProfileDistance(CounterProfile<K> tempProfile, CounterProfile<K> profile)
     {
@@ -55,6 +69,55 @@ public class ProfileMetrics
         return sentences.mapToDouble(profile::distanceFromWordsPairsAndTriads).average().getAsDouble();
     }
 
+    /** distance from a "new" sentence stream to an existing profile, specialized for Count-Min sketches */
+    public static double sentencesToProfileDistance(Stream<String> sentences, CountMinSketchProfile profile) {
+        return sentences.mapToDouble(profile::distanceFromWordsPairsAndTriads).average().getAsDouble();
+    }
+
+    /** 
+     * Weighted sum of the estimated frequency distances between the words, pairs, and triads of
+     * two sketch profiles, which may have different memory budgets but must have the same depth.
+     */
+    public static double sketchProfileToProfileDistance(CountMinSketchProfile profA, CountMinSketchProfile profB)
+    {
+        double wordsDistance = CountMinSketch.frequencyDistance(profA.getWordSketch(), profB.getWordSketch());
+        double pairsDistance = CountMinSketch.frequencyDistance(profA.getPairSketch(), profB.getPairSketch());
+        double trebsDistance = CountMinSketch.frequencyDistance(profA.getTrebSketch(), profB.getTrebSketch());
+        return weightedDistanceSum(wordsDistance, pairsDistance, trebsDistance);
+    }
+
+    /** Same as partialProfileDistance for counter profiles, computed by merge-joins of the frozen arrays */
+    public static double partialProfileDistance(FrozenProfile tempProfile, FrozenProfile profile)
+    {
+        double wordsDistance = FrozenProfile.FrozenCounts.partialDistance(tempProfile.words, profile.words);
+        double pairsDistance = FrozenProfile.FrozenCounts.partialDistance(tempProfile.pairs, profile.pairs);
+        double trebsDistance = FrozenProfile.FrozenCounts.partialDistance(tempProfile.trebs, profile.trebs);
+        return weightedDistanceSum(wordsDistance, pairsDistance, trebsDistance);
+    }
+
+    /** Same as counterProfileToProfileDistance for counter profiles, computed by merge-joins of the frozen arrays */
+    public static double counterProfileToProfileDistance(FrozenProfile profA, FrozenProfile profB)
+    {
+        double wordsDistance = FrozenProfile.FrozenCounts.frequencyDistance(profA.words, profB.words);
+        double pairsDistance = FrozenProfile.FrozenCounts.frequencyDistance(profA.pairs, profB.pairs);
+        double trebsDistance = FrozenProfile.FrozenCounts.frequencyDistance(profA.trebs, profB.trebs);
+        return weightedDistanceSum(wordsDistance, pairsDistance, trebsDistance);
+    }
+
+    /** Batch form of partialProfileDistance: scores one query against all the profiles, in parallel */
+    public static double[] partialProfileDistances(FrozenProfile query, List<FrozenProfile> profiles)
+    {
+        return IntStream.range(0, profiles.size()).parallel()
+                .mapToDouble(j -> partialProfileDistance(query, profiles.get(j))).toArray();
+    }
+
+    /** Batch form of counterProfileToProfileDistance: scores one query against all the profiles, in parallel */
+    public static double[] counterProfileToProfileDistances(FrozenProfile query, List<FrozenProfile> profiles)
+    {
+        return IntStream.range(0, profiles.size()).parallel()
+                .mapToDouble(j -> counterProfileToProfileDistance(query, profiles.get(j))).toArray();
+    }
+
     public static <K> double counterProfileToProfileDistance(CounterProfile<K> profA, CounterProfile<K> profB)
     {
         double wordsDistance = wordFrequencyDistance(profA, profB);
@@ -0,0 +1,317 @@
+package sprax.wordcounts;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * File of named frozen profiles, written once and memory-mapped back, so that
+ * profiles need not be rebuilt from their corpora on every run, and one text
+ * can be matched against many stored profiles (say, thousands of authors)
+ * without first reading them all into the heap.  Only the profiles being
+ * compared at any moment, one per worker thread, are copied into heap arrays;
+ * the rest stay in the page cache.
+ *
+ * Format, big-endian, with every record and array starting at a multiple of 8:
+ *     int magic, int version, int number of profiles, int 0,
+ *     one long file offset per profile record, then the records, each:
+ *         int name length, name in UTF-8, padding,
+ *         then for each of words, pairs, and triads:
+ *             int size, int 0, size longs of sorted keys, size ints of counts, padding.
+ * Each record is mapped separately, so the file may exceed 2 GB.
+ */
+public class ProfileStore implements Closeable {
+
+    static final int MAGIC = 0x53505246;    // "SPRF"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer records[];
+    private final String names[];
+
+    /** Opens and maps a store written by write */
+    public ProfileStore(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES)
+                throw new IOException("Not a version " + VERSION + " profile store: " + file);
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Not a version " + VERSION + " profile store: " + file);
+            int numProfiles = header.getInt();
+            if (numProfiles < 0 || HEADER_BYTES + 8L * numProfiles > fileSize)
+                throw new IOException("Truncated profile store: " + file);
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 8L * numProfiles);
+            long offsets[] = new long[numProfiles + 1];
+            for (int j = 0; j < numProfiles; j++)
+                offsets[j] = directory.getLong();
+            offsets[numProfiles] = fileSize;
+            records = new MappedByteBuffer[numProfiles];
+            names = new String[numProfiles];
+            for (int j = 0; j < numProfiles; j++) {
+                if (offsets[j] < HEADER_BYTES || offsets[j + 1] < offsets[j])
+                    throw new IOException("Bad record offset in profile store: " + file);
+                records[j] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[j], offsets[j + 1] - offsets[j]);
+                byte nameBytes[] = new byte[records[j].getInt(0)];
+                ByteBuffer record = records[j].duplicate();
+                record.position(4);
+                record.get(nameBytes);
+                names[j] = new String(nameBytes, StandardCharsets.UTF_8);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int align8(int numBytes) {
+        return (numBytes + 7) & ~7;
+    }
+
+    private static long countsBytes(FrozenProfile.FrozenCounts counts) {
+        return 8 + 8L * counts.keys.length + align8(4 * counts.keys.length);
+    }
+
+    /**
+     * Writes the named profiles to a new store file, replacing any existing file.
+     * The store is written to a temp file in the same directory and then renamed
+     * over the old one, so stores that still map the old file keep reading it.
+     */
+    public static void write(Path file, List<String> names, List<FrozenProfile> profiles) throws IOException {
+        if (names.size() != profiles.size())
+            throw new IllegalArgumentException("ProfileStore.write: numbers of names and profiles differ");
+        Path absFile = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absFile.getParent(), absFile.getFileName().toString(), ".tmp");
+        try {
+            writeStore(temp, names, profiles);
+            Files.move(temp, absFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeStore(Path file, List<String> names, List<FrozenProfile> profiles) throws IOException {
+        int numProfiles = profiles.size();
+        List<byte[]> nameBytes = names.stream().map(name -> name.getBytes(StandardCharsets.UTF_8)).collect(Collectors.toList());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numProfiles);
+            out.writeInt(0);
+            long offset = HEADER_BYTES + 8L * numProfiles;
+            for (int j = 0; j < numProfiles; j++) {
+                out.writeLong(offset);
+                FrozenProfile profile = profiles.get(j);
+                offset += align8(4 + nameBytes.get(j).length)
+                        + countsBytes(profile.words) + countsBytes(profile.pairs) + countsBytes(profile.trebs);
+            }
+            for (int j = 0; j < numProfiles; j++) {
+                byte name[] = nameBytes.get(j);
+                out.writeInt(name.length);
+                out.write(name);
+                writePadding(out, align8(4 + name.length) - 4 - name.length);
+                FrozenProfile profile = profiles.get(j);
+                writeCounts(out, profile.words);
+                writeCounts(out, profile.pairs);
+                writeCounts(out, profile.trebs);
+            }
+        }
+    }
+
+    private static void writeCounts(DataOutputStream out, FrozenProfile.FrozenCounts counts) throws IOException {
+        out.writeInt(counts.keys.length);
+        out.writeInt(0);
+        for (long key : counts.keys)
+            out.writeLong(key);
+        for (int count : counts.counts)
+            out.writeInt(count);
+        writePadding(out, align8(4 * counts.keys.length) - 4 * counts.keys.length);
+    }
+
+    private static void writePadding(DataOutputStream out, int numBytes) throws IOException {
+        for (int j = 0; j < numBytes; j++)
+            out.writeByte(0);
+    }
+
+    public int getSize()                { return records.length; }
+    public String getName(int index)    { return names[index]; }
+    public List<String> getNames()      { return Collections.unmodifiableList(Arrays.asList(names)); }
+
+    /** Copies one stored profile from the mapped file into heap arrays */
+    public FrozenProfile getProfile(int index) {
+        ByteBuffer record = records[index].duplicate();
+        record.position(align8(4 + record.getInt(0)));
+        FrozenProfile.FrozenCounts words = readCounts(record);
+        FrozenProfile.FrozenCounts pairs = readCounts(record);
+        FrozenProfile.FrozenCounts trebs = readCounts(record);
+        return new FrozenProfile(words, pairs, trebs);
+    }
+
+    private static FrozenProfile.FrozenCounts readCounts(ByteBuffer record) {
+        int size = record.getInt();
+        record.getInt();
+        long keys[] = new long[size];
+        int counts[] = new int[size];
+        record.asLongBuffer().get(keys);
+        record.position(record.position() + 8 * size);
+        record.asIntBuffer().get(counts);
+        record.position(record.position() + align8(4 * size));
+        return new FrozenProfile.FrozenCounts(keys, counts);
+    }
+
+    /** Partial distances from the query to each stored profile, as in ProfileMetrics.partialProfileDistance */
+    public double[] partialProfileDistances(FrozenProfile query) {
+        return IntStream.range(0, records.length).parallel()
+                .mapToDouble(j -> ProfileMetrics.partialProfileDistance(query, getProfile(j))).toArray();
+    }
+
+    /** @return the indices of the numNearest stored profiles nearest to the query, nearest first */
+    public List<Integer> nearest(FrozenProfile query, int numNearest) {
+        double distances[] = partialProfileDistances(query);
+        List<Integer> indices = new ArrayList<>(distances.length);
+        for (int j = 0; j < distances.length; j++)
+            indices.add(j);
+        indices.sort(Comparator.comparingDouble(j -> distances[j]));
+        return indices.subList(0, Math.min(numNearest, indices.size()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the frozen profile of a corpus, reading it from the store file if
+     * that holds a profile named for the corpus and is no older than it, or else
+     * building it from the corpus and writing the store.
+     * @return the profile, or null if neither the store nor the corpus can be read
+     */
+    public static FrozenProfile loadOrFreeze(Path storeFile, final String corpusFileSpec) {
+        if (Files.exists(storeFile)) {
+            try (ProfileStore store = new ProfileStore(storeFile)) {
+                long corpusModified = Files.getLastModifiedTime(Paths.get(corpusFileSpec)).toMillis();
+                if (store.getSize() > 0 && store.getName(0).equals(corpusFileSpec)
+                        && Files.getLastModifiedTime(storeFile).toMillis() >= corpusModified)
+                    return store.getProfile(0);
+                System.out.format("WARNING: Profile store %s is not of %s or is older than it; rebuilding it\n"
+                        , storeFile, corpusFileSpec);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+                System.out.format("WARNING: Failed to read profile store %s; rebuilding it\n", storeFile);
+            }
+        }
+        try {
+            HashCounterProfile profile = new HashCounterProfile(SentenceStream.sentencesFromFile(corpusFileSpec));
+            FrozenProfile frozen = FrozenProfile.freeze(profile);
+            write(storeFile, Collections.singletonList(corpusFileSpec), Collections.singletonList(frozen));
+            return frozen;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.format("WARNING: Failed to profile corpus %s into store %s\n", corpusFileSpec, storeFile);
+            return null;
+        }
+    }
+
+
+    //////// Unit testing ////////
+
+    public static void unit_test()
+    {
+        String  testName = ProfileStore.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        final String chapterPath = ProfileUtil.getTextFilePath("mobydickChapter1.txt");
+        int numWrong = 0;
+        Path bookStore = null, chunkStore = null;
+        try {
+            bookStore = Files.createTempFile("MobyDick", ".profile");
+            Files.delete(bookStore);
+            long begTime = System.nanoTime();
+            FrozenProfile built = loadOrFreeze(bookStore, textFilePath);
+            double buildMs = (System.nanoTime() - begTime) * 1.0e-6;
+            begTime = System.nanoTime();
+            FrozenProfile loaded = loadOrFreeze(bookStore, textFilePath);
+            double loadMs = (System.nanoTime() - begTime) * 1.0e-6;
+            System.out.format("    Moby Dick profile:  built and stored in %.1f ms,  loaded in %.1f ms,  %d KB file\n"
+                    , buildMs, loadMs, Files.size(bookStore) >> 10);
+            numWrong += Arrays.equals(built.trebs.keys, loaded.trebs.keys) && Arrays.equals(built.trebs.counts, loaded.trebs.counts) ? 0 : 1;
+            numWrong += ProfileMetrics.counterProfileToProfileDistance(built, loaded) == 0.0 ? 0 : 1;
+
+            // A store of another corpus, a store older than its corpus, or a corrupt store is rebuilt,
+            // while stores still open on the old file keep reading it
+            ProfileStore held = new ProfileStore(bookStore);
+            FrozenProfile chapter = loadOrFreeze(bookStore, chapterPath);
+            numWrong += ProfileMetrics.counterProfileToProfileDistance(chapter, built) > 0.0 ? 0 : 1;
+            numWrong += held.getName(0).equals(textFilePath)
+                    && ProfileMetrics.counterProfileToProfileDistance(held.getProfile(0), built) == 0.0 ? 0 : 1;
+            held.close();
+            try (ProfileStore store = new ProfileStore(bookStore)) {
+                numWrong += store.getName(0).equals(chapterPath) ? 0 : 1;
+            }
+            long chapterModified = Files.getLastModifiedTime(Paths.get(chapterPath)).toMillis();
+            Files.setLastModifiedTime(bookStore, FileTime.fromMillis(chapterModified - 1000));
+            loadOrFreeze(bookStore, chapterPath);
+            numWrong += Files.getLastModifiedTime(bookStore).toMillis() >= chapterModified ? 0 : 1;
+            Files.write(bookStore, new byte[] { 1, 2, 3 });
+            FrozenProfile rebuilt = loadOrFreeze(bookStore, chapterPath);
+            numWrong += rebuilt != null && ProfileMetrics.counterProfileToProfileDistance(rebuilt, chapter) == 0.0 ? 0 : 1;
+
+            // Many small "authors": one profile per chunk of 25 sentences
+            List<String> sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+            List<FrozenProfile> chunks = FrozenProfile.test_freezeChunks(sentences, 25);
+            List<String> names = IntStream.range(0, chunks.size()).mapToObj(j -> "chunk" + j).collect(Collectors.toList());
+            chunkStore = Files.createTempFile("MobyDickChunks", ".profiles");
+            write(chunkStore, names, chunks);
+            FrozenProfile query = FrozenProfile.freeze(new HashCounterProfile(chapterPath));
+            try (ProfileStore store = new ProfileStore(chunkStore)) {
+                numWrong += store.getSize() == chunks.size() && store.getName(7).equals("chunk7") ? 0 : 1;
+                begTime = System.nanoTime();
+                List<Integer> nearest = store.nearest(query, 3);
+                double nearestMs = (System.nanoTime() - begTime) * 1.0e-6;
+                double inHeap[] = ProfileMetrics.partialProfileDistances(query, chunks);
+                numWrong += Arrays.equals(inHeap, store.partialProfileDistances(query)) ? 0 : 1;
+                System.out.format("    nearest of %d stored profiles (%d KB file) to chapter 1:  %s in %.1f ms\n"
+                        , store.getSize(), Files.size(chunkStore) >> 10
+                        , nearest.stream().map(store::getName).collect(Collectors.toList()), nearestMs);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            numWrong++;
+        } finally {
+            try {
+                if (bookStore != null)
+                    Files.deleteIfExists(bookStore);
+                if (chunkStore != null)
+                    Files.deleteIfExists(chunkStore);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println(testName + " END, wrong " + numWrong);
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
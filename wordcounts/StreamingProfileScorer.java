@@ -0,0 +1,183 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Scores an unbounded stream of sentences against a fixed profile one sentence
+ * at a time, without building a temporary profile.  For each sentence, it looks
+ * up each word, pair, and triad in the profile and counts those that are absent
+ * (misses); the distance is then the weighted sum, as in ProfileMetrics, of the
+ * miss rates for words, pairs, and triads.  Three running distances are kept:
+ *     cumulative: over all sentences so far;
+ *     windowed:   over only the last windowSize sentences, kept in a ring buffer;
+ *     decayed:    over all sentences, with each older sentence's counts multiplied
+ *                 by the decay factor once for every newer sentence.
+ * Memory is O(windowSize) and the cost per sentence is O(words in the sentence).
+ * A windowed distance well above the cumulative one suggests a change of author.
+ *
+ * Unlike ProfileMetrics.partialProfileDistance, which counts each distinct tuple
+ * once, this counts repeated tuples each time, since keeping the distinct tuples
+ * of an unbounded stream would need unbounded memory.  Works with any kind of
+ * profile, since it uses only the get*Presence methods.
+ */
+public class StreamingProfileScorer implements Consumer<String> {
+
+    static final int WORDS = 0, PAIRS = 1, TREBS = 2, NUM_KINDS = 3;
+
+    private final WordTupleProfile profile;
+    private final int windowSize;
+    private final double decay;
+
+    private final int ringMisses[][];       // [kind][sentence mod windowSize]
+    private final int ringTotals[][];
+    private final long windowMisses[] = new long[NUM_KINDS];
+    private final long windowTotals[] = new long[NUM_KINDS];
+    private final long sumMisses[] = new long[NUM_KINDS];
+    private final long sumTotals[] = new long[NUM_KINDS];
+    private final double decayedMisses[] = new double[NUM_KINDS];
+    private final double decayedTotals[] = new double[NUM_KINDS];
+    private final int sentenceMisses[] = new int[NUM_KINDS];
+    private final int sentenceTotals[] = new int[NUM_KINDS];
+    private long numSentences;
+
+    /**
+     * @param profile       the profile to score sentences against
+     * @param windowSize    number of most recent sentences for the windowed distance
+     * @param decay         factor in (0, 1] by which each earlier sentence counts less
+     */
+    public StreamingProfileScorer(WordTupleProfile profile, int windowSize, double decay) {
+        if (windowSize < 1 || decay <= 0 || decay > 1)
+            throw new IllegalArgumentException("StreamingProfileScorer: need windowSize > 0 and 0 < decay <= 1");
+        this.profile = profile;
+        this.windowSize = windowSize;
+        this.decay = decay;
+        this.ringMisses = new int[NUM_KINDS][windowSize];
+        this.ringTotals = new int[NUM_KINDS][windowSize];
+    }
+
+    public long getNumSentences()   { return numSentences; }
+
+    /** Adds the sentence to the running distances */
+    @Override
+    public void accept(final String sentence) {
+        countMisses(sentence);
+        int slot = (int) (numSentences % windowSize);
+        for (int kind = 0; kind < NUM_KINDS; kind++) {
+            int misses = sentenceMisses[kind], totals = sentenceTotals[kind];
+            windowMisses[kind] += misses - ringMisses[kind][slot];
+            windowTotals[kind] += totals - ringTotals[kind][slot];
+            ringMisses[kind][slot] = misses;
+            ringTotals[kind][slot] = totals;
+            sumMisses[kind] += misses;
+            sumTotals[kind] += totals;
+            decayedMisses[kind] = decayedMisses[kind] * decay + misses;
+            decayedTotals[kind] = decayedTotals[kind] * decay + totals;
+        }
+        numSentences++;
+    }
+
+    /** Adds the sentence and returns the windowed distance, for use as in sentences.mapToDouble(scorer::score) */
+    public double score(final String sentence) {
+        accept(sentence);
+        return getWindowedDistance();
+    }
+
+    private void countMisses(final String sentence) {
+        String words[] = ProfileUtil.parseStringToWords(sentence);
+        int numWords = words.length;
+        sentenceTotals[WORDS] = numWords;
+        sentenceTotals[PAIRS] = Math.max(0, numWords - 1);
+        sentenceTotals[TREBS] = Math.max(0, numWords - 2);
+        int wordMisses = 0, pairMisses = 0, trebMisses = 0;
+        for (int j = 0; j < numWords; j++) {
+            if (profile.getWordPresence(words[j]) == 0)
+                wordMisses++;
+            if (j > 0 && profile.getPairPresence(words[j - 1], words[j]) == 0)
+                pairMisses++;
+            if (j > 1 && profile.getTriadPresence(words[j - 2], words[j - 1], words[j]) == 0)
+                trebMisses++;
+        }
+        sentenceMisses[WORDS] = wordMisses;
+        sentenceMisses[PAIRS] = pairMisses;
+        sentenceMisses[TREBS] = trebMisses;
+    }
+
+    private static double missRate(double misses, double totals) {
+        return totals > 0 ? misses / totals : 0.0;
+    }
+
+    /** Weighted miss rate over all the sentences added */
+    public double getCumulativeDistance() {
+        return ProfileMetrics.weightedDistanceSum(missRate(sumMisses[WORDS], sumTotals[WORDS])
+                , missRate(sumMisses[PAIRS], sumTotals[PAIRS]), missRate(sumMisses[TREBS], sumTotals[TREBS]));
+    }
+
+    /** Weighted miss rate over the last windowSize sentences */
+    public double getWindowedDistance() {
+        return ProfileMetrics.weightedDistanceSum(missRate(windowMisses[WORDS], windowTotals[WORDS])
+                , missRate(windowMisses[PAIRS], windowTotals[PAIRS]), missRate(windowMisses[TREBS], windowTotals[TREBS]));
+    }
+
+    /** Weighted miss rate with each sentence's counts decayed by its age */
+    public double getDecayedDistance() {
+        return ProfileMetrics.weightedDistanceSum(missRate(decayedMisses[WORDS], decayedTotals[WORDS])
+                , missRate(decayedMisses[PAIRS], decayedTotals[PAIRS]), missRate(decayedMisses[TREBS], decayedTotals[TREBS]));
+    }
+
+
+    //////// Unit testing ////////
+
+    /**
+     * Profiles most of one book, then streams the rest of it followed by another
+     * book, and reports where the windowed distance first jumps above the running
+     * average by more than the given margin.
+     */
+    public static void unit_test()
+    {
+        String  testName = StreamingProfileScorer.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        final String mobyPath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        final String iliadPath = ProfileUtil.getTextFilePath("Iliad.txt");
+        List<String> moby, iliad;
+        try {
+            moby = SentenceStream.sentencesFromFile(mobyPath).collect(Collectors.toList());
+            iliad = SentenceStream.sentencesFromFile(iliadPath).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.format("Exception loading %s or %s\n", mobyPath, iliadPath);
+            e.printStackTrace();
+            return;
+        }
+        int numProfiled = moby.size() * 4 / 5, numStreamed = 2000, margin = 2;
+        HashCounterProfile profile = new HashCounterProfile(moby.subList(0, numProfiled).stream());
+        StreamingProfileScorer scorer = new StreamingProfileScorer(profile, 50, 0.95);
+
+        long begTime = System.nanoTime();
+        List<String> stream = moby.subList(numProfiled, Math.min(moby.size(), numProfiled + numStreamed));
+        int switchAt = stream.size(), flaggedAt = -1;
+        stream.forEach(scorer);
+        double mobyWindowed = scorer.getWindowedDistance(), mobyCumulative = scorer.getCumulativeDistance();
+        for (int j = 0; j < Math.min(iliad.size(), numStreamed); j++) {
+            double windowed = scorer.score(iliad.get(j));
+            if (flaggedAt < 0 && windowed > margin * mobyCumulative)
+                flaggedAt = j;
+        }
+        double nanosPerSentence = (System.nanoTime() - begTime) / (double) scorer.getNumSentences();
+
+        System.out.format("    Moby Dick held-out sentences:  windowed %.4f,  cumulative %.4f\n", mobyWindowed, mobyCumulative);
+        System.out.format("    after %d sentences of %s:  windowed %.4f,  decayed %.4f,  cumulative %.4f\n"
+                , Math.min(iliad.size(), numStreamed), iliadPath, scorer.getWindowedDistance()
+                , scorer.getDecayedDistance(), scorer.getCumulativeDistance());
+        System.out.format("    author change at sentence %d flagged %d sentences later;  %.1f microseconds per sentence\n"
+                , switchAt, flaggedAt, nanosPerSentence * 1.0e-3);
+
+        System.out.println(testName + " END");
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
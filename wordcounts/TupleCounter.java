@@ -15,6 +15,20 @@ public interface TupleCounter<K> extends TupleRegister<K>
      * @return the set of keys, if they are in fact stored, or an empty set if they are not
      */
     Set<K> getKeys();
+
+    /** Add count to the count for the given key
+     * @return True if the key was not previously added; otherwise, false.
+     */
+    boolean addCount(K key, int count);
+
+    /** 
+     * Add all the keys and counts of another counter to this one, so that the
+     * result is the same as if all of other's keys had been added here.
+     */
+    default void addCounts(TupleCounter<K> other) {
+        for (K key : other.getKeys())
+            addCount(key, other.getCount(key));
+    }
 }
 
 
@@ -33,7 +47,10 @@ class MapTupleCounter<K> implements TupleCounter<K>
     public int getCount(K key) 		{ return tupleCounts.getOrDefault(key, 0); }
 
     @Override
-    public boolean addCount(K key) 	{ return null == tupleCounts.put(key, getCount(key) + 1); }
+    public boolean addCount(K key) 	{ return 1 == tupleCounts.merge(key, 1, Integer::sum); }
+
+    @Override
+    public boolean addCount(K key, int count) { return count == tupleCounts.merge(key, count, Integer::sum); }
 }
 
 /** Accumulates counts that can only be 0 or 1 */
@@ -52,4 +69,7 @@ class SetTupleCounter<K> implements TupleCounter<K>
 
     @Override
     public boolean addCount(K key) 	{ return tupleSet.add(key); }
+
+    @Override
+    public boolean addCount(K key, int count) { return tupleSet.add(key); }
 }
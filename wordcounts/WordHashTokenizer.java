@@ -0,0 +1,225 @@
+package sprax.wordcounts;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Splits text into words and hashes them in one pass over a CharSequence,
+ * without creating any Strings: no word array, no lower-cased copy, and no
+ * joined pair or triad strings.  Words are found by the same rules as
+ * TextFilters.toWordArray: ASCII letters are lower-cased, hyphens, apostrophes,
+ * underscores, and digits are dropped, and any other character ends a word.
+ *
+ * Each word's hash is computed as its letters are scanned, lower-cased on the
+ * fly, and equals the String.hashCode of the word that toWordArray would give.
+ * Pair and triad hashes are rolled forward with HashCounterProfile.combineHashes,
+ * so the hashes passed on are exactly those HashCounterProfile would compute
+ * from the parsed words.
+ */
+public final class WordHashTokenizer {
+
+    /** Receives the hashes of each word, and of the pair and triad ending with it */
+    @FunctionalInterface
+    public interface TupleHashConsumer {
+        /**
+         * @param wordIndex  index of the word in the text: 0 for the first word
+         * @param wordHash   String.hashCode of the lower-cased word
+         * @param pairHash   hash of the previous word and this one; valid only if wordIndex > 0
+         * @param trebHash   hash of the previous two words and this one; valid only if wordIndex > 1
+         */
+        void acceptHashes(int wordIndex, int wordHash, long pairHash, long trebHash);
+    }
+
+    private WordHashTokenizer() {}
+
+    /**
+     * Scans the text once, passing the hashes of each word and of its pair and
+     * triad to the consumer.
+     * @return number of words found
+     */
+    public static int forEachWordHash(final CharSequence text, final TupleHashConsumer consumer)
+    {
+        int numWords = 0, hash = 0, hashB = 0;
+        long hashAB = 0;
+        boolean inWord = false;
+        for (int j = 0, length = text.length(); j <= length; j++) {
+            char chr = j < length ? text.charAt(j) : ' ';
+            if ('a' <= chr && chr <= 'z') {
+                hash = 31 * hash + chr;
+                inWord = true;
+            }
+            else if ('A' <= chr && chr <= 'Z') {
+                hash = 31 * hash + chr + TextFilters.sLowerCaseOffset;
+                inWord = true;
+            }
+            else if (chr == '-' || chr == '\'' || chr == '_' || Character.isDigit(chr)) {
+                continue;       // dropped from inside or outside a word, as in TextFilters
+            }
+            else if (inWord) {  // found a word-terminator
+                long pairHash = HashCounterProfile.combineHashes(hashB, hash);
+                consumer.acceptHashes(numWords++, hash, pairHash, HashCounterProfile.combineHashes(hashAB, hash));
+                hashAB = pairHash;
+                hashB = hash;
+                hash = 0;
+                inWord = false;
+            }
+        }
+        return numWords;
+    }
+
+
+    //////// Unit testing ////////
+
+    /** Hashes as HashCounterProfile did before this tokenizer: parse to words, then hash each word String */
+    static long test_parsedHashSum(final String sentence) {
+        long sum = 0, hashAB = 0;
+        int hashB = 0, numWords = 0;
+        for (String word : ProfileUtil.parseStringToWords(sentence)) {
+            int hashC = word.hashCode();
+            sum += hashC;
+            if (numWords > 1)
+                sum += HashCounterProfile.combineHashes(hashAB, hashC);
+            if (numWords > 0)
+                sum += hashAB = HashCounterProfile.combineHashes(hashB, hashC);
+            hashB = hashC;
+            numWords++;
+        }
+        return sum;
+    }
+
+    /** The same sum of all word, pair, and triad hashes, from forEachWordHash */
+    static long test_scannedHashSum(final String sentence) {
+        long sum[] = { 0 };
+        forEachWordHash(sentence, (wordIndex, wordHash, pairHash, trebHash) -> {
+            sum[0] += wordHash;
+            if (wordIndex > 1)
+                sum[0] += trebHash;
+            if (wordIndex > 0)
+                sum[0] += pairHash;
+        });
+        return sum[0];
+    }
+
+    /** Checks word-by-word agreement with TextFilters.toWordArray; returns 1 if any hash differs */
+    static int test_sameHashes(final String text) {
+        String words[] = TextFilters.toWordArray(text);
+        int numWrong[] = { 0 };
+        int numWords = forEachWordHash(text, (wordIndex, wordHash, pairHash, trebHash) -> {
+            if (wordIndex >= words.length || wordHash != words[wordIndex].hashCode())
+                numWrong[0]++;
+            else if (wordIndex > 1 && trebHash != FrozenProfile.tupleHash(String.join(WordTupleProfile.WORD_DELIMITER
+                    , words[wordIndex - 2], words[wordIndex - 1], words[wordIndex])))
+                numWrong[0]++;
+        });
+        return numWrong[0] == 0 && numWords == words.length ? 0 : 1;
+    }
+
+    static boolean test_sameCounts(LongTupleCounter countsA, LongTupleCounter countsB) {
+        if (countsA.getSize() != countsB.getSize())
+            return false;
+        for (long key : countsA.getKeyArray())
+            if (countsA.getCount(key) != countsB.getCount(key))
+                return false;
+        return true;
+    }
+
+    public static void unit_test()
+    {
+        String  testName = WordHashTokenizer.class.getName() + ".unit_test";
+        System.out.println(testName + " BEGIN");
+
+        int numWrong = 0;
+        char allChars[] = new char[256];
+        for (char c = '\0'; c < 256; c++)
+            allChars[c] = c;
+        String texts[] = { "  What in \"dog's\" name is all this--? --well, it's @#^&$* tom=foolery!  "
+                , " Spaces trimmed BEFORE,  MIDDLE,    and   AFTER?    "
+                , "Digits: [0123456789] drop out of forty-2 words like 3rd and co-op"
+                , " AAA`~!@#$%^&*()_-=+{}[]\\|;:\"',./<>?zzz ", "x", " [ ] ", new String(allChars)
+        };
+        for (String text : texts)
+            numWrong += test_sameHashes(text);
+
+        final String textFilePath = ProfileUtil.getTextFilePath("Melville_MobyDick.txt");
+        List<String> sentences;
+        try {
+            sentences = SentenceStream.sentencesFromFile(textFilePath).collect(Collectors.toList());
+        } catch (IOException e) {
+            System.out.format("Exception loading %s\n", textFilePath);
+            e.printStackTrace();
+            return;
+        }
+        long numChars = 0;
+        for (String sentence : sentences) {
+            numChars += sentence.length();
+            if (test_parsedHashSum(sentence) != test_scannedHashSum(sentence))
+                numWrong++;
+        }
+
+        // Throughput of tokenizing and hashing alone, best of several trials
+        int numTrials = 5;
+        long parsedNanos = Long.MAX_VALUE, scannedNanos = Long.MAX_VALUE, parsedSum = 0, scannedSum = 0;
+        for (int trial = 0; trial < numTrials; trial++) {
+            long begTime = System.nanoTime();
+            parsedSum = 0;
+            for (String sentence : sentences)
+                parsedSum += test_parsedHashSum(sentence);
+            parsedNanos = Math.min(parsedNanos, System.nanoTime() - begTime);
+            begTime = System.nanoTime();
+            scannedSum = 0;
+            for (String sentence : sentences)
+                scannedSum += test_scannedHashSum(sentence);
+            scannedNanos = Math.min(scannedNanos, System.nanoTime() - begTime);
+        }
+        numWrong += parsedSum == scannedSum ? 0 : 1;
+        double megaChars = numChars * 1.0e-6;
+        System.out.format("    tokenize and hash %.1f M chars:  parsed to Strings %.0f MB/s,  scanned %.0f MB/s  (chars, 1 thread)\n"
+                , megaChars, megaChars * 1.0e9 / parsedNanos, megaChars * 1.0e9 / scannedNanos);
+
+        // Whole-profile ingestion, which now scans, against counting from parsed words
+        long profileNanos = Long.MAX_VALUE;
+        HashCounterProfile profile = null;
+        for (int trial = 0; trial < numTrials; trial++) {
+            long begTime = System.nanoTime();
+            profile = new HashCounterProfile(sentences.stream());
+            profileNanos = Math.min(profileNanos, System.nanoTime() - begTime);
+        }
+        LongTupleCounter words = null, pairs = null, trebs = null;
+        long parsedProfileNanos = Long.MAX_VALUE;
+        int numWords = 0;
+        for (int trial = 0; trial < numTrials; trial++) {
+            long begTime = System.nanoTime();
+            words = new LongTupleCounter();
+            pairs = new LongTupleCounter();
+            trebs = new LongTupleCounter();
+            numWords = 0;
+            for (String sentence : sentences) {
+                String parsed[] = ProfileUtil.parseStringToWords(sentence);
+                numWords += parsed.length;
+                for (int j = 0; j < parsed.length; j++) {
+                    int hashC = parsed[j].hashCode();
+                    words.addCount(hashC);
+                    if (j > 0)
+                        pairs.addCount(HashCounterProfile.combineHashes(parsed[j - 1].hashCode(), hashC));
+                    if (j > 1)
+                        trebs.addCount(HashCounterProfile.combineHashes(HashCounterProfile.combineHashes(
+                                parsed[j - 2].hashCode(), parsed[j - 1].hashCode()), hashC));
+                }
+            }
+            parsedProfileNanos = Math.min(parsedProfileNanos, System.nanoTime() - begTime);
+        }
+        numWrong += numWords == profile.getNumWordsInput() ? 0 : 1;
+        numWrong += test_sameCounts(words, profile.getWordCounts()) ? 0 : 1;
+        numWrong += test_sameCounts(pairs, profile.getPairCounts()) ? 0 : 1;
+        numWrong += test_sameCounts(trebs, profile.getTrebCounts()) ? 0 : 1;
+        System.out.format("    HashCounterProfile ingestion:  from parsed words %.0f MB/s,  scanned %.0f MB/s\n"
+                , megaChars * 1.0e9 / parsedProfileNanos, megaChars * 1.0e9 / profileNanos);
+
+        System.out.println(testName + " END, wrong " + numWrong);
+    }
+
+    public static void main(String[] args) {
+        unit_test();
+    }
+}
@@ -15,6 +15,7 @@ public abstract class WordTupleProfile {
 
     private int numSentencesInput = 0;
     private int numWordsInput = 0;
+    private IngestionMetrics metrics = null;    // opt-in; null means not measured
 
     /**
      * Is this word present in the profile?  (Was it or some hash or other correlate of it ever added?)
@@ -51,13 +52,43 @@ public abstract class WordTupleProfile {
 
     public int getNumWordsInput()        { return numWordsInput; }
     public int getNumSentencesInput()    { return numSentencesInput; }
+    public IngestionMetrics getMetrics() { return metrics; }
+
+    /** Records per-stage time, items, chars, and allocation in metrics from now on; null turns it off */
+    public void setMetrics(final IngestionMetrics metrics) {
+        this.metrics = metrics;
+    }
 
     /**
      * Public API to augment profile by one sentence. 
      */
     public void addSentence(final String sentence) {
         ++numSentencesInput;
+        if (metrics == null) {
+            templateAddWordsPairsAndTriads(sentence);
+            return;
+        }
+        long begAllocated = IngestionMetrics.threadAllocatedBytes();
+        if ( ! IngestionMetrics.isSampled(numSentencesInput)) {
+            templateAddWordsPairsAndTriads(sentence);
+            metrics.recordAllocation(IngestionMetrics.Stage.COUNT, begAllocated, 1, sentence.length());
+            return;
+        }
+        long begNanos = System.nanoTime();
         templateAddWordsPairsAndTriads(sentence);
+        metrics.record(IngestionMetrics.Stage.COUNT, begNanos, begAllocated, 1, sentence.length());
+    }
+
+    /** Adds the numbers of sentences and words input to other to those input to this profile */
+    protected void addInputCounts(final WordTupleProfile other) {
+        numSentencesInput += other.numSentencesInput;
+        numWordsInput += other.numWordsInput;
+    }
+
+    /** Restores the numbers of sentences and words input, as when reading a stored profile */
+    protected void setInputCounts(int numSentences, int numWords) {
+        numSentencesInput = numSentences;
+        numWordsInput = numWords;
     }
 
     /** Always call this to add the current word, even if it is a duplicate  */
@@ -67,10 +98,24 @@ public abstract class WordTupleProfile {
         templateAddWord(word);
     }
 
+    /** For sub-classes that count words by their hashes without calling addWord */
+    protected void addNumWordsInput(int numWords) {
+        numWordsInput += numWords;
+    }
+
     /** Initialize or augment profile from a text file representing a corpus */
     public void addCorpus(final String corpusFileSpec) {
         try {
-            Stream<String> sentences = SentenceStream.sentencesFromFile(corpusFileSpec);
+            if (metrics == null) {
+                addSentences(SentenceStream.sentencesFromFile(corpusFileSpec));
+                return;
+            }
+            IngestionMetrics.Snapshot begSnapshot = metrics.snapshot();
+            long begAllocated = IngestionMetrics.threadAllocatedBytes(), begNanos = System.nanoTime();
+            CharSequence text = FileToCharSequence.loadFile(corpusFileSpec);
+            metrics.record(IngestionMetrics.Stage.LOAD, begNanos, begAllocated, 1, text.length());
+            Stream<String> sentences = SentenceStream.sentences(Stream.of(text));
+            metrics.commitEvents(getClass().getSimpleName(), begSnapshot);
             addSentences(sentences);
         } catch (IOException e) {
             e.printStackTrace();
@@ -81,7 +126,13 @@ public abstract class WordTupleProfile {
     
     // Initialize or augment profile from a stream of sentences
     public void addSentences(Stream<String> sentences) {
-        sentences.forEach(this::addSentence);
+        if (metrics == null) {
+            sentences.forEach(this::addSentence);
+            return;
+        }
+        IngestionMetrics.Snapshot begSnapshot = metrics.snapshot();
+        metrics.timeSplitting(sentences).forEach(this::addSentence);
+        metrics.commitEvents(getClass().getSimpleName(), begSnapshot);
     }
 
     public void showCounts(String label) {